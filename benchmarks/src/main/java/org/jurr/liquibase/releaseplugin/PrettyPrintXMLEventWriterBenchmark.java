@@ -0,0 +1,108 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import org.jurr.liquibase.releaseplugin.benchmarks.GeneratedProjectBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the {@link PrettyPrintXMLEventWriter}, writing all events of a master file to a stream that throws everything away. The
+ * {@link LegacyPrettyPrintXMLEventWriter} is measured as well, for comparison. Run with <code>-prof gc</code> to see the difference in allocations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PrettyPrintXMLEventWriterBenchmark extends GeneratedProjectBenchmark
+{
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY;
+	static
+	{
+		XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+		XML_OUTPUT_FACTORY.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+	}
+
+	private final List<XMLEvent> xmlEvents = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void readEvents() throws IOException, XMLStreamException
+	{
+		final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+
+		final Path masterFile = generatedMasterFiles.get(0);
+		try (Reader reader = Files.newBufferedReader(masterFile, Charset.defaultCharset()))
+		{
+			final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(reader);
+			while (xmlEventReader.hasNext())
+			{
+				xmlEvents.add(xmlEventReader.nextEvent());
+			}
+		}
+	}
+
+	@Benchmark
+	public long prettyPrint() throws XMLStreamException
+	{
+		final CountingOutputStream outputStream = new CountingOutputStream();
+		return write(new PrettyPrintXMLEventWriter(XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream), "\t"), outputStream);
+	}
+
+	@Benchmark
+	public long prettyPrintLegacy() throws XMLStreamException
+	{
+		final CountingOutputStream outputStream = new CountingOutputStream();
+		return write(new LegacyPrettyPrintXMLEventWriter(XML_OUTPUT_FACTORY.createXMLEventWriter(outputStream), "\t"), outputStream);
+	}
+
+	private long write(final XMLEventWriter xmlEventWriter, final CountingOutputStream outputStream) throws XMLStreamException
+	{
+		for (final XMLEvent xmlEvent : xmlEvents)
+		{
+			xmlEventWriter.add(xmlEvent);
+		}
+		xmlEventWriter.flush();
+		return outputStream.count;
+	}
+
+	private static final class CountingOutputStream extends OutputStream
+	{
+		private long count;
+
+		@Override
+		public void write(final int b)
+		{
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+		{
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.jurr.liquibase.releaseplugin.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base class for benchmarks that run against a project made by the {@link SyntheticProjectGenerator}. The shape of the project can be changed from the command line,
+ * for example <code>-p includesPerMaster=1000 -p historicalTags=300</code>.
+ */
+@State(Scope.Benchmark)
+public abstract class GeneratedProjectBenchmark
+{
+	protected static final String NEW_VERSION = "2.0.0";
+
+	@Param("1")
+	protected int masterFiles;
+
+	@Param("100")
+	protected int includesPerMaster;
+
+	@Param("10")
+	protected int changeSetsPerInclude;
+
+	@Param("10")
+	protected int historicalTags;
+
+	@Param("256")
+	protected int changeSetBodySize;
+
+	protected Path projectRoot;
+	protected List<Path> generatedMasterFiles;
+
+	@Setup(Level.Trial)
+	public void generateProject() throws IOException
+	{
+		final SyntheticProjectGenerator generator = new SyntheticProjectGenerator();
+		generator.setMasterFiles(masterFiles);
+		generator.setIncludesPerMaster(includesPerMaster);
+		generator.setChangeSetsPerInclude(changeSetsPerInclude);
+		generator.setHistoricalTags(historicalTags);
+		generator.setChangeSetBodySize(changeSetBodySize);
+
+		projectRoot = Files.createTempDirectory("liquibase-db-release-benchmark");
+		generatedMasterFiles = generator.generate(projectRoot.resolve("project"));
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteProject() throws IOException
+	{
+		SyntheticProjectGenerator.delete(projectRoot);
+	}
+}
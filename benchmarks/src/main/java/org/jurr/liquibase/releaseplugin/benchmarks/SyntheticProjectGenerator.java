@@ -0,0 +1,276 @@
+package org.jurr.liquibase.releaseplugin.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Generates a Liquibase project of a configurable shape, as it would look after a number of releases have been tagged with this plugin.
+ * <p>
+ * For every master file <code>master_M.xml</code>, there are include files <code>master_M/component_I/latest.xml</code>. Every historical version <code>V</code>
+ * has its own copy <code>master_M/component_I/V.xml</code>, followed by a tagDatabase changeSet in the master file.
+ */
+public class SyntheticProjectGenerator
+{
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.1.xsd\">\n";
+	private static final String FOOTER = "</databaseChangeLog>\n";
+
+	private int masterFiles = 1;
+	private int includesPerMaster = 10;
+	private int changeSetsPerInclude = 10;
+	private int historicalTags = 10;
+	private int changeSetBodySize = 256;
+
+	public int getMasterFiles()
+	{
+		return masterFiles;
+	}
+
+	public void setMasterFiles(final int masterFiles)
+	{
+		this.masterFiles = masterFiles;
+	}
+
+	public int getIncludesPerMaster()
+	{
+		return includesPerMaster;
+	}
+
+	public void setIncludesPerMaster(final int includesPerMaster)
+	{
+		this.includesPerMaster = includesPerMaster;
+	}
+
+	public int getChangeSetsPerInclude()
+	{
+		return changeSetsPerInclude;
+	}
+
+	public void setChangeSetsPerInclude(final int changeSetsPerInclude)
+	{
+		this.changeSetsPerInclude = changeSetsPerInclude;
+	}
+
+	public int getHistoricalTags()
+	{
+		return historicalTags;
+	}
+
+	public void setHistoricalTags(final int historicalTags)
+	{
+		this.historicalTags = historicalTags;
+	}
+
+	public int getChangeSetBodySize()
+	{
+		return changeSetBodySize;
+	}
+
+	/**
+	 * @param changeSetBodySize the approximate number of characters of SQL in the body of each changeSet.
+	 */
+	public void setChangeSetBodySize(final int changeSetBodySize)
+	{
+		this.changeSetBodySize = changeSetBodySize;
+	}
+
+	@Nonnull
+	public static String historicalVersion(final int tag)
+	{
+		return "1." + tag + ".0";
+	}
+
+	/**
+	 * Generate the project in the given directory.
+	 *
+	 * @return the master files of the generated project
+	 * @throws IOException whenever there is an exception while writing the files
+	 */
+	@Nonnull
+	public List<Path> generate(@Nonnull final Path root) throws IOException
+	{
+		final List<Path> result = new ArrayList<>(masterFiles);
+		for (int master = 0; master < masterFiles; master++)
+		{
+			result.add(generateMasterFile(root, master));
+		}
+		return result;
+	}
+
+	@Nonnull
+	private Path generateMasterFile(@Nonnull final Path root, final int master) throws IOException
+	{
+		final String masterName = "master_" + master;
+		final Path masterFile = root.resolve(masterName + ".xml");
+		Files.createDirectories(root);
+
+		try (Writer writer = newWriter(masterFile))
+		{
+			writer.write(HEADER);
+			for (int tag = 0; tag < historicalTags; tag++)
+			{
+				final String version = historicalVersion(tag);
+				writer.write("\n\t<!-- Version " + version + " -->\n");
+				for (int include = 0; include < includesPerMaster; include++)
+				{
+					final String includeFile = masterName + "/component_" + include + "/" + version + ".xml";
+					writer.write("\t<include file=\"" + includeFile + "\" relativeToChangelogFile=\"true\"></include>\n");
+					generateIncludeFile(root.resolve(includeFile), include + "-" + version);
+				}
+				writer.write("\t<changeSet id=\"Tag " + version + "\" author=\"liquibase-db-release\">\n");
+				writer.write("\t\t<tagDatabase tag=\"" + version + "\"></tagDatabase>\n");
+				writer.write("\t</changeSet>\n");
+			}
+
+			writer.write("\n");
+			for (int include = 0; include < includesPerMaster; include++)
+			{
+				final String includeFile = masterName + "/component_" + include + "/latest.xml";
+				writer.write("\t<include file=\"" + includeFile + "\" relativeToChangelogFile=\"true\"></include>\n");
+				generateIncludeFile(root.resolve(includeFile), include + "-latest");
+			}
+			writer.write(FOOTER);
+		}
+
+		return masterFile;
+	}
+
+	private void generateIncludeFile(@Nonnull final Path includeFile, @Nonnull final String idPrefix) throws IOException
+	{
+		Files.createDirectories(includeFile.getParent());
+		try (Writer writer = newWriter(includeFile))
+		{
+			writer.write(HEADER);
+			writer.write("\t<!-- Generated include file " + idPrefix + " -->\n");
+			for (int changeSet = 0; changeSet < changeSetsPerInclude; changeSet++)
+			{
+				writer.write("\t<changeSet id=\"" + idPrefix + "-" + changeSet + "\" author=\"generator\">\n");
+				writer.write("\t\t<sql><![CDATA[");
+				writeBody(writer, changeSet);
+				writer.write("]]></sql>\n");
+				writer.write("\t</changeSet>\n");
+			}
+			writer.write(FOOTER);
+		}
+	}
+
+	private void writeBody(@Nonnull final Writer writer, final int changeSet) throws IOException
+	{
+		int written = 0;
+		int row = 0;
+		while (written < changeSetBodySize)
+		{
+			final String statement = "\ninsert into synthetic_table (id, change_set, payload) values (" + row++ + ", " + changeSet + ", 'abcdefghijklmnopqrstuvwxyz');";
+			writer.write(statement);
+			written += statement.length();
+		}
+		writer.write("\n");
+	}
+
+	@Nonnull
+	private static Writer newWriter(@Nonnull final Path file) throws IOException
+	{
+		return new BufferedWriter(Files.newBufferedWriter(file, Charset.defaultCharset()), 64 * 1024);
+	}
+
+	/**
+	 * Copy a generated project, so a benchmark that tags it can start from a pristine tree every time.
+	 */
+	public static void copy(@Nonnull final Path source, @Nonnull final Path target) throws IOException
+	{
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException
+			{
+				Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException
+			{
+				Files.copy(file, target.resolve(source.relativize(file).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public static void delete(@Nonnull final Path root) throws IOException
+	{
+		if (Files.notExists(root))
+		{
+			return;
+		}
+
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException
+			{
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Generate a project on disk, for profiling outside of JMH.
+	 * <p>
+	 * Usage: <code>SyntheticProjectGenerator &lt;directory&gt; [masterFiles] [includesPerMaster] [changeSetsPerInclude] [historicalTags] [changeSetBodySize]</code>
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: SyntheticProjectGenerator <directory> [masterFiles] [includesPerMaster] [changeSetsPerInclude] [historicalTags] [changeSetBodySize]");
+			System.exit(1);
+		}
+
+		final SyntheticProjectGenerator generator = new SyntheticProjectGenerator();
+		if (args.length > 1)
+		{
+			generator.setMasterFiles(Integer.parseInt(args[1]));
+		}
+		if (args.length > 2)
+		{
+			generator.setIncludesPerMaster(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3)
+		{
+			generator.setChangeSetsPerInclude(Integer.parseInt(args[3]));
+		}
+		if (args.length > 4)
+		{
+			generator.setHistoricalTags(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5)
+		{
+			generator.setChangeSetBodySize(Integer.parseInt(args[5]));
+		}
+
+		for (final Path masterFile : generator.generate(Paths.get(args[0])))
+		{
+			System.out.println(masterFile);
+		}
+	}
+}
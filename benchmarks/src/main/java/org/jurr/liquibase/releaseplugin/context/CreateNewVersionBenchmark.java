@@ -0,0 +1,54 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jurr.liquibase.releaseplugin.benchmarks.GeneratedProjectBenchmark;
+import org.jurr.liquibase.releaseplugin.benchmarks.SyntheticProjectGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end run of {@link LiquibaseProject#createNewVersion()}. Every invocation tags a fresh copy of the generated project.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CreateNewVersionBenchmark extends GeneratedProjectBenchmark
+{
+	@Param({ "1", "4" })
+	private int threads;
+
+	private Path workingCopy;
+
+	@Setup(Level.Invocation)
+	public void copyProject() throws IOException
+	{
+		workingCopy = projectRoot.resolve("working-copy");
+		SyntheticProjectGenerator.delete(workingCopy);
+		SyntheticProjectGenerator.copy(projectRoot.resolve("project"), workingCopy);
+	}
+
+	@Benchmark
+	public void createNewVersion() throws IOException
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(NEW_VERSION, null, workingCopy);
+		liquibaseProject.setThreads(threads);
+		for (final Path generatedMasterFile : generatedMasterFiles)
+		{
+			liquibaseProject.addMasterFile(new MasterFile(workingCopy.resolve(generatedMasterFile.getFileName())));
+		}
+		liquibaseProject.createNewVersion();
+	}
+}
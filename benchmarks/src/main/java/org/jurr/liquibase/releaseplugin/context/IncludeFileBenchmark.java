@@ -0,0 +1,61 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.events.Attribute;
+
+import org.jurr.liquibase.releaseplugin.benchmarks.GeneratedProjectBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracting the header of an include file (that is, creating the emptied 'latest' file), and probing an include file for changeSets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IncludeFileBenchmark extends GeneratedProjectBenchmark
+{
+	private static final Path INCLUDE_FILE = Paths.get("master_0", "component_0", "latest.xml");
+
+	private MasterFile masterFile;
+
+	@Setup(Level.Trial)
+	public void createMasterFile()
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(NEW_VERSION, null, projectRoot);
+		masterFile = new MasterFile(generatedMasterFiles.get(0));
+		liquibaseProject.addMasterFile(masterFile);
+	}
+
+	@Benchmark
+	public void readIncludeFile()
+	{
+		final IncludeFile includeFile = newIncludeFile();
+		includeFile.readFile();
+		includeFile.discardNewLatestFile();
+	}
+
+	@Benchmark
+	public boolean probeIncludeFile()
+	{
+		return newIncludeFile().willBeTagged();
+	}
+
+	private IncludeFile newIncludeFile()
+	{
+		return new IncludeFile(INCLUDE_FILE, masterFile, true, projectRoot, Collections.<Attribute> emptyIterator());
+	}
+}
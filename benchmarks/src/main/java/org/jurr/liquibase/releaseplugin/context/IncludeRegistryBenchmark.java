@@ -0,0 +1,90 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.events.Attribute;
+
+import org.jurr.liquibase.releaseplugin.benchmarks.SyntheticProjectGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding include files to a {@link LiquibaseProject}. Every include file is added twice: once by its own path, and once through a path with <code>..</code> in it, like
+ * an include file that is shared by master files in different directories. The time per include file should stay about the same when the number of include files
+ * grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IncludeRegistryBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	private int includes;
+
+	private Path projectRoot;
+	private Path masterFilePath;
+
+	@Setup(Level.Trial)
+	public void generateProject() throws IOException
+	{
+		final SyntheticProjectGenerator generator = new SyntheticProjectGenerator();
+		generator.setIncludesPerMaster(includes);
+		generator.setChangeSetsPerInclude(1);
+		generator.setHistoricalTags(0);
+		generator.setChangeSetBodySize(0);
+
+		projectRoot = Files.createTempDirectory("liquibase-db-release-benchmark");
+		masterFilePath = generator.generate(projectRoot).get(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteProject() throws IOException
+	{
+		SyntheticProjectGenerator.delete(projectRoot);
+	}
+
+	@Benchmark
+	public IncludeFile addIncludeFiles()
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("2.0.0", null, projectRoot);
+		final MasterFile masterFile = new MasterFile(masterFilePath);
+		liquibaseProject.addMasterFile(masterFile);
+
+		IncludeFile registeredIncludeFile = null;
+		for (int include = 0; include < includes; include++)
+		{
+			final Path includeFile = Paths.get("master_0", "component_" + include, "latest.xml");
+			final Path sharedIncludeFile = Paths.get("master_0", "component_" + include, "..", "component_" + include, "latest.xml");
+			registeredIncludeFile = liquibaseProject.addIncludeFile(newIncludeFile(masterFile, includeFile));
+			if (liquibaseProject.addIncludeFile(newIncludeFile(masterFile, sharedIncludeFile)) != registeredIncludeFile)
+			{
+				throw new IllegalStateException(sharedIncludeFile + " was not recognized as " + includeFile);
+			}
+		}
+		return registeredIncludeFile;
+	}
+
+	private IncludeFile newIncludeFile(final MasterFile masterFile, final Path path)
+	{
+		return new IncludeFile(path, masterFile, true, projectRoot, Collections.<Attribute> emptyIterator());
+	}
+}
@@ -0,0 +1,37 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.jurr.liquibase.releaseplugin.benchmarks.GeneratedProjectBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and rewriting of master files, without writing the result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MasterFileBenchmark extends GeneratedProjectBenchmark
+{
+	@Benchmark
+	public void readMasterFiles()
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(NEW_VERSION, null, projectRoot);
+		for (final Path generatedMasterFile : generatedMasterFiles)
+		{
+			final MasterFile masterFile = new MasterFile(generatedMasterFile);
+			liquibaseProject.addMasterFile(masterFile);
+			masterFile.readFile();
+			masterFile.discardNewLatestFile();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.components.interactivity.Prompter;
+import org.codehaus.plexus.components.interactivity.PrompterException;
+import org.codehaus.plexus.util.StringUtils;
+import org.jurr.liquibase.releaseplugin.context.LiquibaseProject;
+import org.jurr.liquibase.releaseplugin.context.MasterFile;
+
+/**
+ * The parameters that describe the Liquibase project and the new version; shared by all goals.
+ */
+public abstract class AbstractLiquibaseProjectMojo extends AbstractMojo
+{
+	private static final int SLOWEST_FILES_IN_LOG = 5;
+	private static final int SLOWEST_FILES_IN_PERFORMANCE_REPORT = 50;
+
+	/**
+	 * These files are considered 'master files'; tags are placed in these files and files included from these files are copied to a new version variant. The master
+	 * files are handled in the order of their path, no matter in which order they are configured.
+	 */
+	@Parameter
+	private Set<File> masterFiles;
+
+	/**
+	 * These files are not tagged with the new version, even if they are included.
+	 */
+	@Parameter
+	private Set<File> skippedIncludeFiles;
+
+	/**
+	 * The version that this plugin should create.
+	 */
+	@Parameter(property = "newVersion")
+	private String newVersion;
+
+	/**
+	 * The context to set on the tagDatabase changeSet. Default is to not generate a context attribute.
+	 */
+	@Parameter(property = "context", required = false)
+	private String context;
+
+	/**
+	 * The number of threads used to read master files and include files. With more than one thread, master files are read in parallel, and include files are read in
+	 * the background while the master files are still being read.
+	 */
+	@Parameter(property = "threads", defaultValue = "1")
+	private int threads;
+
+	/**
+	 * New files up to this size (in bytes) are kept in memory until they are written. Larger files are written to a temporary file next to the original file first.
+	 * The same goes for the part of a master file that is buffered while reading it.
+	 */
+	@Parameter(property = "maxInMemoryFileSize", defaultValue = "65536")
+	private int maxInMemoryFileSize;
+
+	/**
+	 * Whether to create the new 'latest' XML include files by copying everything but the changeSets byte for byte, instead of writing them anew. This keeps the
+	 * formatting, comments and encoding declaration of the files exactly as they were, and is cheaper than writing the files anew.
+	 */
+	@Parameter(property = "preserveFormatting", defaultValue = "false")
+	private boolean preserveFormatting;
+
+	/**
+	 * Whether to remember what was learned from parsing include files between runs. Include files that did not change since the previous run are then not parsed again.
+	 */
+	@Parameter(property = "useCache", defaultValue = "false")
+	private boolean useCache;
+
+	/**
+	 * The directory to keep the cache in, when <code>useCache</code> is enabled.
+	 */
+	@Parameter(property = "cacheDirectory", defaultValue = "${project.build.directory}/liquibase-db-release-cache")
+	private File cacheDirectory;
+
+	/**
+	 * Whether to keep track of the time spent on every file. A summary is written to the log, and the details to <code>performanceReportFile</code>. The same
+	 * measurements are always available as Flight Recorder events, when a recording is running.
+	 */
+	@Parameter(property = "performanceReport", defaultValue = "false")
+	private boolean performanceReport;
+
+	/**
+	 * The file to write the performance report to, as JSON, when <code>performanceReport</code> is enabled.
+	 */
+	@Parameter(property = "performanceReportFile", defaultValue = "${project.build.directory}/liquibase-db-release-performance.json")
+	private File performanceReportFile;
+
+	@Component
+	private Prompter prompter;
+
+	@Parameter(property = "settings", readonly = true, required = true)
+	private Settings settings;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * @return the project as configured, with the new version asked for when it was not given.
+	 */
+	@Nonnull
+	LiquibaseProject createLiquibaseProject() throws MojoExecutionException
+	{
+		retrieveNewVersion();
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(newVersion, context, classpathRoot.toPath());
+		liquibaseProject.setThreads(threads);
+		liquibaseProject.setMaxInMemoryFileSize(maxInMemoryFileSize);
+		liquibaseProject.setPreserveFormatting(preserveFormatting);
+		if (useCache)
+		{
+			liquibaseProject.setCacheDirectory(cacheDirectory.toPath());
+		}
+		if (performanceReport)
+		{
+			liquibaseProject.setPerformanceReport(new PerformanceReport());
+		}
+
+		addMasterFiles(liquibaseProject);
+		if (liquibaseProject.getMasterFiles().isEmpty())
+		{
+			throw new MojoExecutionException("You must specify the master files, using the masterFiles parameter");
+		}
+
+		return liquibaseProject;
+	}
+
+	/**
+	 * Add the configured master files and include files to skip to the given project.
+	 */
+	void addMasterFiles(@Nonnull final LiquibaseProject liquibaseProject) throws MojoExecutionException
+	{
+		if (masterFiles != null)
+		{
+			for (final File masterFile : masterFiles)
+			{
+				liquibaseProject.addMasterFile(new MasterFile(masterFile.toPath()));
+			}
+		}
+
+		if (skippedIncludeFiles != null)
+		{
+			for (final File skippedIncludeFile : skippedIncludeFiles)
+			{
+				liquibaseProject.addIncludeFileToSkipTagging(skippedIncludeFile.toPath());
+			}
+		}
+	}
+
+	/**
+	 * Log the summary of the performance report of the given project, and write the report to <code>performanceReportFile</code>. Nothing happens when the project
+	 * does not keep a performance report.
+	 */
+	void writePerformanceReport(@Nonnull final LiquibaseProject liquibaseProject) throws IOException
+	{
+		final PerformanceReport report = liquibaseProject.getPerformanceReport();
+		if (report == null)
+		{
+			return;
+		}
+
+		report.finish();
+		for (final String line : report.summarize(SLOWEST_FILES_IN_LOG))
+		{
+			getLog().info(line);
+		}
+		try (Writer writer = newWriter(performanceReportFile.toPath()))
+		{
+			report.writeJson(writer, SLOWEST_FILES_IN_PERFORMANCE_REPORT);
+		}
+		getLog().info("The performance report is written to " + performanceReportFile);
+	}
+
+	/**
+	 * @return a writer for the given file, in UTF-8. The directory of the file is created if needed.
+	 */
+	@Nonnull
+	static Writer newWriter(@Nonnull final Path file) throws IOException
+	{
+		final Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+		{
+			Files.createDirectories(directory);
+		}
+		return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+	}
+
+	private void retrieveNewVersion() throws MojoExecutionException
+	{
+		if (StringUtils.isEmpty(newVersion))
+		{
+			if (settings.isInteractiveMode())
+			{
+				try
+				{
+					newVersion = prompter.prompt("Enter the new version to set");
+				}
+				catch (PrompterException e)
+				{
+					throw new MojoExecutionException(e.getMessage(), e);
+				}
+			}
+		}
+
+		if (StringUtils.isEmpty(newVersion))
+		{
+			throw new MojoExecutionException("You must specify the new version, either by using the newVersion property (that is -DnewVersion=... on the command line) or run in interactive mode");
+		}
+	}
+}
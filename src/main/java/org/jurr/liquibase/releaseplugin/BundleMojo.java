@@ -0,0 +1,65 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogBundle;
+
+/**
+ * Flatten every master file and all the files it includes into one changelog. Packaging the bundle instead of the tree of changelogs lets Liquibase read one file
+ * at startup, instead of looking up and parsing every include. The changeSets keep their file path, so databases that already ran them see no difference.
+ */
+@Mojo(name = "bundle", defaultPhase = LifecyclePhase.PROCESS_RESOURCES)
+public class BundleMojo extends AbstractMojo
+{
+	/**
+	 * The master files to bundle.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * The directory to write the bundles to. Each bundle gets the path of its master file relative to the classpath root.
+	 */
+	@Parameter(property = "bundleDirectory", required = true, defaultValue = "${project.build.outputDirectory}")
+	private File bundleDirectory;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		try
+		{
+			for (final File masterFile : new TreeSet<>(masterFiles))
+			{
+				final Path bundleFile = getBundleFile(masterFile.toPath());
+				final ChangeLogBundle changeLogBundle = new ChangeLogBundle(masterFile.toPath(), classpathRoot.toPath());
+				changeLogBundle.write(bundleFile);
+				getLog().info("Bundled " + changeLogBundle.getChangeSets() + " changeSets from " + changeLogBundle.getFiles() + " files of " + masterFile + " into " + bundleFile);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new MojoFailureException("IO exception while bundling the master files", e);
+		}
+	}
+
+	private Path getBundleFile(final Path masterFile)
+	{
+		final Path absoluteMasterFile = masterFile.toAbsolutePath().normalize();
+		final Path absoluteClasspathRoot = classpathRoot.toPath().toAbsolutePath().normalize();
+		final Path relativePath = absoluteMasterFile.startsWith(absoluteClasspathRoot) ? absoluteClasspathRoot.relativize(absoluteMasterFile) : absoluteMasterFile.getFileName();
+		return bundleDirectory.toPath().resolve(relativePath.toString());
+	}
+}
@@ -0,0 +1,348 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Reads the changelogs in an archive written by the <code>pack</code> goal: a ZIP file in which every entry is stored without compression. The central directory
+ * of the archive is read once into an index, so an entry is found with one lookup and read straight from its offset in the archive.
+ * <p>
+ * An archive that is a file is memory-mapped, unless it is too large for that; an archive that is read from a stream, for example from a jar, is kept in memory.
+ */
+public final class ChangeLogArchive implements Closeable
+{
+	/**
+	 * Separates the path of the archive from the name of an entry in it, as in <code>db/master-versions-1.2.xml.zip!/db/myApp/1.2.xml</code>.
+	 */
+	public static final String ENTRY_SEPARATOR = "!/";
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD = 0x0001;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int STORED = 0;
+
+	private final String name;
+	private final FileChannel channel;
+	private final ByteBuffer content;
+	private final Map<String, Entry> entries;
+
+	private ChangeLogArchive(@Nonnull final String name, @CheckForNull final FileChannel channel, @CheckForNull final ByteBuffer content) throws IOException
+	{
+		this.name = name;
+		this.channel = channel;
+		this.content = content;
+		this.entries = readIndex();
+	}
+
+	/**
+	 * Open an archive file, memory-mapping it when it fits in a {@link java.nio.MappedByteBuffer}.
+	 *
+	 * @throws IOException whenever there is an exception while reading the archive
+	 * @throws IllegalArgumentException whenever the file is not an archive with stored entries
+	 */
+	@Nonnull
+	public static ChangeLogArchive open(@Nonnull final Path archiveFile) throws IOException
+	{
+		final FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.READ);
+		try
+		{
+			final long size = channel.size();
+			if (size <= Integer.MAX_VALUE)
+			{
+				final ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				channel.close();
+				return new ChangeLogArchive(archiveFile.toString(), null, content);
+			}
+			return new ChangeLogArchive(archiveFile.toString(), channel, null);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read an archive from a stream into memory. The stream is not closed.
+	 *
+	 * @param name the name of the archive, to use in messages
+	 * @throws IOException whenever there is an exception while reading the archive
+	 * @throws IllegalArgumentException whenever the stream does not contain an archive with stored entries
+	 */
+	@Nonnull
+	public static ChangeLogArchive read(@Nonnull final InputStream inputStream, @Nonnull final String name) throws IOException
+	{
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) >= 0)
+		{
+			outputStream.write(buffer, 0, read);
+		}
+		return new ChangeLogArchive(name, null, ByteBuffer.wrap(outputStream.toByteArray()));
+	}
+
+	/**
+	 * @return the names of the entries in the archive.
+	 */
+	@Nonnull
+	public Set<String> getEntryNames()
+	{
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * @return the content of the given entry, or <code>null</code> if the archive does not contain it.
+	 * @throws IOException whenever there is an exception while reading the archive
+	 */
+	@CheckForNull
+	public ByteBuffer getEntry(@Nonnull final String entryName) throws IOException
+	{
+		final Entry entry = entries.get(entryName);
+		if (entry == null)
+		{
+			return null;
+		}
+		if (entry.dataOffset < 0)
+		{
+			final ByteBuffer header = read(entry.headerOffset, LOCAL_HEADER_SIZE);
+			if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			{
+				throw new IllegalArgumentException("Entry " + entryName + " of archive " + name + " does not start with a local header");
+			}
+			entry.dataOffset = entry.headerOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+		}
+		return read(entry.dataOffset, (int) entry.size).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a stream with the content of the given entry, or <code>null</code> if the archive does not contain it.
+	 * @throws IOException whenever there is an exception while reading the archive
+	 */
+	@CheckForNull
+	public InputStream openEntry(@Nonnull final String entryName) throws IOException
+	{
+		final ByteBuffer entry = getEntry(entryName);
+		return entry == null ? null : new ByteBufferInputStream(entry);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+		}
+	}
+
+	@Nonnull
+	private Map<String, Entry> readIndex() throws IOException
+	{
+		final long size = channel != null ? channel.size() : content.limit();
+		final int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + ZIP64_LOCATOR_SIZE + MAX_COMMENT_SIZE);
+		final long tailOffset = size - tailSize;
+		final ByteBuffer tail = read(tailOffset, tailSize);
+
+		int end = -1;
+		for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0 && end < 0; i--)
+		{
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+			{
+				end = i;
+			}
+		}
+		if (end < 0)
+		{
+			throw new IllegalArgumentException(name + " is not an archive");
+		}
+
+		long entryCount = tail.getShort(end + 10) & 0xffff;
+		long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+		long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+		if (end >= ZIP64_LOCATOR_SIZE && tail.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE)
+		{
+			final ByteBuffer zip64End = read(tail.getLong(end - ZIP64_LOCATOR_SIZE + 8), 56);
+			if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+			{
+				throw new IllegalArgumentException(name + " has a broken ZIP64 end of central directory record");
+			}
+			entryCount = zip64End.getLong(32);
+			directorySize = zip64End.getLong(40);
+			directoryOffset = zip64End.getLong(48);
+		}
+		if (directorySize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("The central directory of " + name + " is too large");
+		}
+
+		final ByteBuffer directory = read(directoryOffset, (int) directorySize);
+		final Map<String, Entry> result = new HashMap<>((int) Math.min(entryCount * 2, Integer.MAX_VALUE));
+		int position = 0;
+		for (long i = 0; i < entryCount; i++)
+		{
+			if (directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE)
+			{
+				throw new IllegalArgumentException(name + " has a broken central directory");
+			}
+			final int method = directory.getShort(position + 10) & 0xffff;
+			long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+			long uncompressedSize = directory.getInt(position + 24) & 0xffffffffL;
+			final int nameLength = directory.getShort(position + 28) & 0xffff;
+			final int extraLength = directory.getShort(position + 30) & 0xffff;
+			final int commentLength = directory.getShort(position + 32) & 0xffff;
+			long headerOffset = directory.getInt(position + 42) & 0xffffffffL;
+
+			final byte[] nameBytes = new byte[nameLength];
+			final ByteBuffer nameBuffer = directory.duplicate();
+			((Buffer) nameBuffer).position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+			nameBuffer.get(nameBytes);
+			final String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+			// Sizes and offsets that do not fit in 32 bits are in the ZIP64 extra field, in this order
+			int extra = position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength;
+			final int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd)
+			{
+				final int id = directory.getShort(extra) & 0xffff;
+				final int length = directory.getShort(extra + 2) & 0xffff;
+				if (id == ZIP64_EXTRA_FIELD)
+				{
+					int field = extra + 4;
+					if (uncompressedSize == 0xffffffffL)
+					{
+						uncompressedSize = directory.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == 0xffffffffL)
+					{
+						compressedSize = directory.getLong(field);
+						field += 8;
+					}
+					if (headerOffset == 0xffffffffL)
+					{
+						headerOffset = directory.getLong(field);
+					}
+				}
+				extra += 4 + length;
+			}
+
+			if (!entryName.endsWith("/"))
+			{
+				if (method != STORED || compressedSize != uncompressedSize)
+				{
+					throw new IllegalArgumentException("Entry " + entryName + " of archive " + name + " is compressed; only stored entries can be read");
+				}
+				if (uncompressedSize > Integer.MAX_VALUE)
+				{
+					throw new IllegalArgumentException("Entry " + entryName + " of archive " + name + " is too large");
+				}
+				result.put(entryName, new Entry(headerOffset, uncompressedSize));
+			}
+			position = extraEnd + commentLength;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the given bytes of the archive, in little-endian order: a slice of the archive if it is in memory, or else a copy.
+	 */
+	@Nonnull
+	private ByteBuffer read(final long offset, final int length) throws IOException
+	{
+		final ByteBuffer result;
+		if (content != null)
+		{
+			final ByteBuffer duplicate = content.duplicate();
+			((Buffer) duplicate).limit((int) (offset + length)).position((int) offset);
+			result = duplicate.slice();
+		}
+		else
+		{
+			result = ByteBuffer.allocate(length);
+			while (result.hasRemaining())
+			{
+				if (channel.read(result, offset + result.position()) < 0)
+				{
+					throw new IllegalArgumentException(name + " is truncated");
+				}
+			}
+			((Buffer) result).flip();
+		}
+		return result.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static final class Entry
+	{
+		private final long headerOffset;
+		private final long size;
+		private volatile long dataOffset = -1;
+
+		Entry(final long headerOffset, final long size)
+		{
+			this.headerOffset = headerOffset;
+			this.size = size;
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(@Nonnull final ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(@Nonnull final byte[] b, final int off, final int len)
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			final int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+}
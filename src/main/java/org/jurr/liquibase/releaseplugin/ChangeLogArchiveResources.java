@@ -0,0 +1,101 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Opens changelogs from the classpath, including the changelogs in archives written by the <code>pack</code> goal. A path like
+ * <code>db/master-versions-1.2.zip!/db/myApp/1.2.xml</code> is the entry <code>db/myApp/1.2.xml</code> of the archive <code>db/master-versions-1.2.zip</code>;
+ * any other path is an ordinary resource.
+ * <p>
+ * Every archive is opened once and then kept open, so the entries of an archive are found with a lookup in its index. Delegate to {@link #openStream(String)}
+ * from the resource accessor that is passed to Liquibase.
+ */
+public final class ChangeLogArchiveResources implements Closeable
+{
+	private final ClassLoader classLoader;
+	private final Map<String, ChangeLogArchive> archives = new HashMap<>();
+
+	public ChangeLogArchiveResources(@Nonnull final ClassLoader classLoader)
+	{
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * @return the content of the given changelog, or <code>null</code> if there is no such changelog.
+	 * @throws IOException whenever there is an exception while reading the changelog or its archive
+	 */
+	@CheckForNull
+	public InputStream openStream(@Nonnull final String path) throws IOException
+	{
+		final String normalizedPath = path.startsWith("/") ? path.substring(1) : path;
+		final int separator = normalizedPath.indexOf(ChangeLogArchive.ENTRY_SEPARATOR);
+		if (separator < 0)
+		{
+			return classLoader.getResourceAsStream(normalizedPath);
+		}
+
+		final ChangeLogArchive archive = getArchive(normalizedPath.substring(0, separator));
+		return archive == null ? null : archive.openEntry(normalizedPath.substring(separator + ChangeLogArchive.ENTRY_SEPARATOR.length()));
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		for (final ChangeLogArchive archive : archives.values())
+		{
+			if (archive != null)
+			{
+				archive.close();
+			}
+		}
+		archives.clear();
+	}
+
+	/**
+	 * @return the archive at the given path on the classpath, or <code>null</code> if there is no such archive. Archives that are not found are remembered as well.
+	 */
+	@CheckForNull
+	private synchronized ChangeLogArchive getArchive(@Nonnull final String archivePath) throws IOException
+	{
+		if (!archives.containsKey(archivePath))
+		{
+			archives.put(archivePath, openArchive(archivePath));
+		}
+		return archives.get(archivePath);
+	}
+
+	@CheckForNull
+	private ChangeLogArchive openArchive(@Nonnull final String archivePath) throws IOException
+	{
+		final URL url = classLoader.getResource(archivePath);
+		if (url == null)
+		{
+			return null;
+		}
+		if ("file".equals(url.getProtocol()))
+		{
+			try
+			{
+				return ChangeLogArchive.open(Paths.get(url.toURI()));
+			}
+			catch (URISyntaxException e)
+			{
+				// Not a path after all; read it like any other resource
+			}
+		}
+		try (InputStream inputStream = url.openStream())
+		{
+			return ChangeLogArchive.read(inputStream, archivePath);
+		}
+	}
+}
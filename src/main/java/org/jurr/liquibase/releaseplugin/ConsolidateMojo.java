@@ -0,0 +1,81 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.BaselineChangeLog;
+
+/**
+ * Squash the versions before a given version into one baseline changelog per master file. The master files include the baseline instead of the files of these
+ * versions. The changeSets keep their id, author and file path, so databases that already ran them see no difference.
+ */
+@Mojo(name = "consolidate", defaultPhase = LifecyclePhase.NONE)
+public class ConsolidateMojo extends AbstractMojo
+{
+	/**
+	 * The master files to consolidate. The master files are handled in the order of their path.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	/**
+	 * The version to consolidate everything before. This version and the versions after it are left as they are.
+	 */
+	@Parameter(property = "consolidateBefore", required = true)
+	private String consolidateBefore;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * The file to keep track of the files that are being moved in place. If the build is killed halfway through, the next run uses it to undo what was done.
+	 */
+	@Parameter(property = "journalFile", defaultValue = "${project.build.directory}/liquibase-db-release.journal")
+	private File journalFile;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		final FileTransaction fileTransaction = new FileTransaction(journalFile.toPath());
+		try
+		{
+			if (FileTransaction.recover(journalFile.toPath()))
+			{
+				getLog().warn("An earlier run was interrupted while moving files in place; the files were brought back in a consistent state using " + journalFile);
+			}
+
+			for (final File masterFile : new TreeSet<>(masterFiles))
+			{
+				final BaselineChangeLog baselineChangeLog = new BaselineChangeLog(masterFile.toPath(), classpathRoot.toPath(), consolidateBefore);
+				baselineChangeLog.stage(fileTransaction);
+				getLog().info("Consolidated " + baselineChangeLog.getConsolidatedVersions() + " versions of " + masterFile + " into " + baselineChangeLog.getPath());
+			}
+			fileTransaction.commit();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			try
+			{
+				fileTransaction.rollBack();
+			}
+			catch (IOException | RuntimeException rollBackException)
+			{
+				e.addSuppressed(rollBackException);
+			}
+
+			if (e instanceof IOException)
+			{
+				throw new MojoFailureException("IO exception while consolidating the master files", e);
+			}
+			throw (RuntimeException) e;
+		}
+	}
+}
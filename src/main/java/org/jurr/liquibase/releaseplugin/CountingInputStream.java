@@ -0,0 +1,70 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Counts the bytes that are read from the wrapped stream.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+	private long count = 0;
+	private long mark = 0;
+
+	public CountingInputStream(@Nonnull final InputStream in)
+	{
+		super(in);
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		final int result = in.read();
+		if (result >= 0)
+		{
+			count++;
+		}
+		return result;
+	}
+
+	@Override
+	public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException
+	{
+		final int result = in.read(b, off, len);
+		if (result > 0)
+		{
+			count += result;
+		}
+		return result;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException
+	{
+		final long result = in.skip(n);
+		count += result;
+		return result;
+	}
+
+	@Override
+	public synchronized void mark(final int readlimit)
+	{
+		in.mark(readlimit);
+		mark = count;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		in.reset();
+		count = mark;
+	}
+}
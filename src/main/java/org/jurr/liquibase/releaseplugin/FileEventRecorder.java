@@ -0,0 +1,28 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+
+/**
+ * Creates the Flight Recorder events of {@link FileOperation}s. The implementation is compiled separately from <code>src/main/java11</code>, as the Flight Recorder
+ * API is not part of Java 8; see {@link FileOperation#EVENT_RECORDER}.
+ */
+interface FileEventRecorder
+{
+	/**
+	 * @return a new event that has begun
+	 */
+	@Nonnull
+	Recording begin();
+
+	/**
+	 * An event that has begun, and is committed when it is finished (if a recording is running).
+	 */
+	interface Recording
+	{
+		void finish(@Nonnull Path path, @Nonnull Phase phase, long bytesRead, long bytesWritten, long xmlEvents);
+	}
+}
@@ -0,0 +1,94 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.nio.file.Path;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+
+/**
+ * The measurement of one {@link Phase} of one file: how long it took, and how much was read and written. When it ends, it is added to the {@link PerformanceReport}
+ * (if there is one), and committed as a Flight Recorder event (if a recording is running).
+ * <p>
+ * An operation is used by one thread only.
+ */
+public final class FileOperation
+{
+	/** The recorder of Flight Recorder events, or <code>null</code> if it can not be loaded on this JVM (like on Java 8). */
+	static final FileEventRecorder EVENT_RECORDER = loadEventRecorder();
+
+	private final PerformanceReport performanceReport;
+	private final Phase phase;
+	private final Path path;
+	private final long startNanos;
+	private final FileEventRecorder.Recording recording;
+	private long bytesRead;
+	private long bytesWritten;
+	private long xmlEvents;
+
+	private FileOperation(@CheckForNull final PerformanceReport performanceReport, @Nonnull final Phase phase, @Nonnull final Path path)
+	{
+		this.performanceReport = performanceReport;
+		this.phase = phase;
+		this.path = path;
+		recording = EVENT_RECORDER != null ? EVENT_RECORDER.begin() : null;
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * The recorder is compiled for Java 11, so it can only be loaded when the JVM is recent enough and has the Flight Recorder API.
+	 */
+	@CheckForNull
+	private static FileEventRecorder loadEventRecorder()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			return (FileEventRecorder) Class.forName("org.jurr.liquibase.releaseplugin.JfrFileEventRecorder").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Start measuring. Make sure {@link #end()} is called, also when the operation fails.
+	 *
+	 * @param performanceReport the report to add the measurement to, or <code>null</code> to only create a Flight Recorder event
+	 */
+	@Nonnull
+	public static FileOperation start(@CheckForNull final PerformanceReport performanceReport, @Nonnull final Phase phase, @Nonnull final Path path)
+	{
+		return new FileOperation(performanceReport, phase, path);
+	}
+
+	public void addBytesRead(final long bytes)
+	{
+		bytesRead += bytes;
+	}
+
+	public void addBytesWritten(final long bytes)
+	{
+		bytesWritten += bytes;
+	}
+
+	public void addXmlEvents(final long events)
+	{
+		xmlEvents += events;
+	}
+
+	public void end()
+	{
+		final long nanos = System.nanoTime() - startNanos;
+		if (recording != null)
+		{
+			recording.finish(path, phase, bytesRead, bytesWritten, xmlEvents);
+		}
+		if (performanceReport != null)
+		{
+			performanceReport.record(new PerformanceReport.Measurement(path.toString(), phase, nanos, bytesRead, bytesWritten, xmlEvents));
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+
+/**
+ * A set of file changes that is applied all at once. First, all new content is staged in temporary files next to the files they are meant for. Then, on
+ * {@link #commit()}, everything is moved in place by renaming files. If anything goes wrong, the renames that were done are undone.
+ * <p>
+ * When a journal file is given, the renames are written to it before they are done. If the process dies halfway through a commit, {@link #recover(Path)} undoes what
+ * was done, or finishes the cleanup when the commit was already complete.
+ * <p>
+ * Content is made durable in batches: all staged files are synced before the first rename, and every directory is synced once after the last one.
+ */
+public class FileTransaction
+{
+	private static final int DIRECTORY = 1;
+	private static final int STAGED_FILE = 2;
+	private static final int RENAME = 3;
+	private static final int BACKUP = 4;
+	private static final int COMMITTED = 5;
+
+	private final Path journalFile;
+	private PerformanceReport performanceReport;
+
+	private final Set<Path> createdDirectories = new LinkedHashSet<>();
+	private final List<Path> stagedFiles = new ArrayList<>();
+	private final List<Rename> renames = new ArrayList<>();
+	private final Set<Path> movedAwayFiles = new LinkedHashSet<>();
+	private final List<Path> backupFiles = new ArrayList<>();
+	private int renamesDone = 0;
+	private boolean committed = false;
+
+	/**
+	 * @param journalFile the file to write the journal to, or <code>null</code> to only keep it in memory. Without a journal file, a commit can only be rolled back
+	 *            when it fails with an exception; not when the process dies.
+	 */
+	public FileTransaction(@CheckForNull final Path journalFile)
+	{
+		this.journalFile = journalFile;
+	}
+
+	/**
+	 * @param performanceReport the report to add the syncs and moves of {@link #commit()} to, or <code>null</code> to not report them
+	 */
+	public void setPerformanceReport(@CheckForNull final PerformanceReport performanceReport)
+	{
+		this.performanceReport = performanceReport;
+	}
+
+	/**
+	 * Let this transaction take care of a staged file. The file is removed when the transaction is rolled back, unless it was moved in place already.
+	 */
+	public void addStagedFile(@Nonnull final Path stagedFile)
+	{
+		stagedFiles.add(stagedFile);
+	}
+
+	/**
+	 * Move <code>source</code> to <code>target</code> on commit. The target must not exist, unless it is moved away earlier in this transaction. Missing parent
+	 * directories of the target are created.
+	 *
+	 * @throws IOException whenever there is an exception while creating the parent directories of <code>target</code>, or when <code>target</code> exists
+	 */
+	public void move(@Nonnull final Path source, @Nonnull final Path target) throws IOException
+	{
+		if (Files.exists(target) && !movedAwayFiles.contains(target))
+		{
+			throw new FileAlreadyExistsException(target.toString(), source.toString(), "Can not move the file; the target already exists");
+		}
+		createParentDirectories(target);
+		renames.add(new Rename(source, target, false));
+		movedAwayFiles.add(source);
+	}
+
+	/**
+	 * Replace <code>target</code> with the staged file on commit. If <code>target</code> exists, it is kept until the commit is complete, so it can be restored.
+	 *
+	 * @throws IOException whenever there is an exception while copying the permissions of <code>target</code> to the staged file
+	 */
+	public void replace(@Nonnull final Path stagedFile, @Nonnull final Path target) throws IOException
+	{
+		addStagedFile(stagedFile);
+		if (Files.exists(target))
+		{
+			Utils.copyPermissions(target, stagedFile);
+			moveToBackup(target);
+		}
+		renames.add(new Rename(stagedFile, target, false));
+	}
+
+	/**
+	 * Delete <code>file</code> on commit. It is kept until the commit is complete, so it can be restored.
+	 */
+	public void delete(@Nonnull final Path file)
+	{
+		moveToBackup(file);
+		movedAwayFiles.add(file);
+	}
+
+	private void moveToBackup(@Nonnull final Path file)
+	{
+		// The name of the backup file is only reserved on commit, when the journal can record it
+		renames.add(new Rename(file, null, true));
+	}
+
+	private void createParentDirectories(@Nonnull final Path file) throws IOException
+	{
+		final List<Path> missingDirectories = new ArrayList<>();
+		for (Path directory = file.toAbsolutePath().getParent(); directory != null && Files.notExists(directory); directory = directory.getParent())
+		{
+			missingDirectories.add(0, directory);
+		}
+		for (final Path directory : missingDirectories)
+		{
+			Files.createDirectory(directory);
+			createdDirectories.add(directory);
+		}
+	}
+
+	/**
+	 * Do all renames. When this returns, all changes are in place and durable. When this throws, all changes are undone.
+	 *
+	 * @throws IOException whenever there is an exception while syncing or renaming files
+	 */
+	public void commit() throws IOException
+	{
+		try
+		{
+			for (final Path stagedFile : stagedFiles)
+			{
+				final FileOperation operation = FileOperation.start(performanceReport, Phase.SYNC, stagedFile);
+				try
+				{
+					sync(stagedFile, false);
+				}
+				finally
+				{
+					operation.end();
+				}
+			}
+			writeJournal();
+
+			for (final Rename rename : renames)
+			{
+				final FileOperation operation = FileOperation.start(performanceReport, Phase.MOVE, rename.target);
+				try
+				{
+					rename.redo();
+				}
+				finally
+				{
+					operation.end();
+				}
+				renamesDone++;
+			}
+
+			final Set<Path> changedDirectories = new LinkedHashSet<>();
+			for (final Rename rename : renames)
+			{
+				changedDirectories.add(rename.source.toAbsolutePath().getParent());
+				changedDirectories.add(rename.target.toAbsolutePath().getParent());
+			}
+			for (final Path directory : changedDirectories)
+			{
+				final FileOperation operation = FileOperation.start(performanceReport, Phase.SYNC, directory);
+				try
+				{
+					sync(directory, true);
+				}
+				finally
+				{
+					operation.end();
+				}
+			}
+
+			markJournalCommitted();
+			committed = true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			try
+			{
+				rollBack();
+			}
+			catch (IOException | RuntimeException rollBackException)
+			{
+				e.addSuppressed(rollBackException);
+			}
+			throw e;
+		}
+
+		for (final Path backupFile : backupFiles)
+		{
+			Files.deleteIfExists(backupFile);
+		}
+		deleteJournal();
+	}
+
+	/**
+	 * Undo whatever this transaction did: renames are reversed, and staged files and created directories are removed. Nothing happens after a successful commit.
+	 *
+	 * @throws IOException whenever there is an exception while undoing a change
+	 */
+	public void rollBack() throws IOException
+	{
+		if (committed)
+		{
+			return;
+		}
+
+		for (; renamesDone > 0; renamesDone--)
+		{
+			renames.get(renamesDone - 1).undo();
+		}
+		cleanUp(stagedFiles, backupFiles, createdDirectories);
+		stagedFiles.clear();
+		backupFiles.clear();
+		createdDirectories.clear();
+		deleteJournal();
+	}
+
+	/**
+	 * Bring the files back in a consistent state after a commit that was interrupted. If the commit was complete, only the leftovers are removed; otherwise all
+	 * renames that were done are undone.
+	 *
+	 * @return <code>false</code> if there was no journal file, <code>true</code> if an interrupted commit was found and taken care of
+	 * @throws IOException whenever there is an exception while reading the journal or undoing a change
+	 */
+	public static boolean recover(@Nonnull final Path journalFile) throws IOException
+	{
+		if (Files.notExists(journalFile))
+		{
+			return false;
+		}
+
+		final Set<Path> createdDirectories = new LinkedHashSet<>();
+		final List<Path> stagedFiles = new ArrayList<>();
+		final List<Rename> renames = new ArrayList<>();
+		final List<Path> backupFiles = new ArrayList<>();
+		boolean committed = false;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile))))
+		{
+			int type;
+			while ((type = input.read()) != -1)
+			{
+				switch (type)
+				{
+				case DIRECTORY:
+					createdDirectories.add(Paths.get(input.readUTF()));
+					break;
+				case STAGED_FILE:
+					stagedFiles.add(Paths.get(input.readUTF()));
+					break;
+				case RENAME:
+					renames.add(new Rename(Paths.get(input.readUTF()), Paths.get(input.readUTF()), false));
+					break;
+				case BACKUP:
+					backupFiles.add(Paths.get(input.readUTF()));
+					break;
+				case COMMITTED:
+					committed = true;
+					break;
+				default:
+					throw new IOException("Corrupt journal " + journalFile + ": unknown entry type " + type);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			// The journal was not written completely, so no rename was done yet
+			renames.clear();
+		}
+
+		if (committed)
+		{
+			for (final Path backupFile : backupFiles)
+			{
+				Files.deleteIfExists(backupFile);
+			}
+		}
+		else
+		{
+			for (int i = renames.size() - 1; i >= 0; i--)
+			{
+				final Rename rename = renames.get(i);
+				if (Files.notExists(rename.source) && Files.exists(rename.target))
+				{
+					rename.undo();
+				}
+			}
+			cleanUp(stagedFiles, backupFiles, createdDirectories);
+		}
+
+		Files.delete(journalFile);
+		return true;
+	}
+
+	private static void cleanUp(@Nonnull final List<Path> stagedFiles, @Nonnull final List<Path> backupFiles, @Nonnull final Set<Path> createdDirectories) throws IOException
+	{
+		for (final Path stagedFile : stagedFiles)
+		{
+			Files.deleteIfExists(stagedFile);
+		}
+		for (final Path backupFile : backupFiles)
+		{
+			Files.deleteIfExists(backupFile);
+		}
+
+		final List<Path> directories = new ArrayList<>(createdDirectories);
+		for (int i = directories.size() - 1; i >= 0; i--)
+		{
+			try
+			{
+				Files.deleteIfExists(directories.get(i));
+			}
+			catch (DirectoryNotEmptyException e)
+			{
+				// Someone else put something in there; leave it
+			}
+		}
+	}
+
+	/**
+	 * Write everything that is needed to undo this transaction to the journal file, and reserve the names of the backup files. This is the first thing
+	 * {@link #commit()} does after syncing the staged files.
+	 */
+	void writeJournal() throws IOException
+	{
+		if (journalFile == null)
+		{
+			reserveBackupFiles(null);
+			return;
+		}
+
+		Files.createDirectories(journalFile.toAbsolutePath().getParent());
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile, StandardOpenOption.CREATE_NEW))))
+		{
+			for (final Path directory : createdDirectories)
+			{
+				writeJournalEntry(output, DIRECTORY, directory);
+			}
+			for (final Path stagedFile : stagedFiles)
+			{
+				writeJournalEntry(output, STAGED_FILE, stagedFile);
+			}
+			reserveBackupFiles(output);
+			for (final Rename rename : renames)
+			{
+				writeJournalEntry(output, RENAME, rename.source);
+				output.writeUTF(rename.target.toAbsolutePath().toString());
+			}
+		}
+		sync(journalFile, false);
+	}
+
+	/**
+	 * Create the backup files empty, to reserve their names; the renames replace them. Each one is written to the journal right away, so it is removed again
+	 * whatever happens to the process.
+	 */
+	private void reserveBackupFiles(@CheckForNull final DataOutputStream journal) throws IOException
+	{
+		for (final Rename rename : renames)
+		{
+			if (rename.replaceTarget && rename.target == null)
+			{
+				rename.target = Utils.createSiblingFile(rename.source);
+				backupFiles.add(rename.target);
+				if (journal != null)
+				{
+					writeJournalEntry(journal, BACKUP, rename.target);
+					journal.flush();
+				}
+			}
+		}
+	}
+
+	private static void writeJournalEntry(@Nonnull final DataOutputStream output, final int type, @Nonnull final Path path) throws IOException
+	{
+		output.write(type);
+		output.writeUTF(path.toAbsolutePath().toString());
+	}
+
+	private void markJournalCommitted() throws IOException
+	{
+		if (journalFile == null)
+		{
+			return;
+		}
+
+		Files.write(journalFile, new byte[] { COMMITTED }, StandardOpenOption.APPEND);
+		sync(journalFile, false);
+	}
+
+	private void deleteJournal() throws IOException
+	{
+		if (journalFile != null)
+		{
+			Files.deleteIfExists(journalFile);
+		}
+	}
+
+	/**
+	 * Make the content of a file, or the entries of a directory, durable. Not every platform can sync a directory; there, this is skipped.
+	 */
+	private static void sync(@Nonnull final Path path, final boolean isDirectory) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, isDirectory ? StandardOpenOption.READ : StandardOpenOption.WRITE))
+		{
+			channel.force(true);
+		}
+		catch (IOException e)
+		{
+			if (!isDirectory)
+			{
+				throw e;
+			}
+		}
+	}
+
+	private static final class Rename
+	{
+		private final Path source;
+		private Path target;
+		private final boolean replaceTarget;
+
+		/**
+		 * @param target the file to rename to, or <code>null</code> for a backup file whose name is not reserved yet
+		 */
+		Rename(@Nonnull final Path source, @CheckForNull final Path target, final boolean replaceTarget)
+		{
+			this.source = source;
+			this.target = target;
+			this.replaceTarget = replaceTarget;
+		}
+
+		void redo() throws IOException
+		{
+			if (replaceTarget)
+			{
+				Utils.moveAtomically(source, target);
+			}
+			else
+			{
+				Files.move(source, target);
+			}
+		}
+
+		void undo() throws IOException
+		{
+			Files.move(target, source);
+		}
+	}
+}
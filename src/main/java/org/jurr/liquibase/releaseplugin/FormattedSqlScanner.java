@@ -0,0 +1,210 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Scans Liquibase formatted SQL changelogs, line by line, directly on the bytes of the file. Lines are not decoded; only the start of each line is looked at, to
+ * find the first <code>--changeset</code> line.
+ * <p>
+ * Like Liquibase, the first line must be <code>--liquibase formatted sql</code>, and keywords are matched case insensitive. This only works for character sets in
+ * which these keywords are encoded as single ASCII bytes, like UTF-8 and ISO-8859-1.
+ */
+public final class FormattedSqlScanner
+{
+	private static final String FILE_EXTENSION = ".sql";
+	private static final byte[] FIRST_LINE_KEYWORD = "liquibase formatted".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CHANGE_SET_KEYWORD = "changeset".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] BYTE_ORDER_MARK = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	// The states of the current line; only the start of a line decides whether it is a keyword line
+	private static final int LINE_START = 0;
+	private static final int FIRST_DASH = 1;
+	private static final int DASHES = 2;
+	private static final int KEYWORD = 3;
+	private static final int AFTER_KEYWORD = 4;
+	private static final int OTHER_LINE = 5;
+	private static final int KEYWORD_LINE = 6;
+
+	private FormattedSqlScanner()
+	{
+	}
+
+	/**
+	 * @return whether the given file is treated as a formatted SQL changelog. Just like Liquibase does, this is decided by the extension of the file.
+	 */
+	public static boolean isFormattedSql(@Nonnull final Path path)
+	{
+		final Path fileName = path.getFileName();
+		return fileName != null && fileName.toString().toLowerCase(Locale.ROOT).endsWith(FILE_EXTENSION);
+	}
+
+	/**
+	 * Copy the header of a formatted SQL changelog: everything before the first <code>--changeset</code> line. Reading stops at that line; the changeSets
+	 * themselves are not read.
+	 *
+	 * @param output where to copy the header to, or <code>null</code> to only find out whether there is a changeSet
+	 * @return whether the changelog contains a changeSet
+	 * @throws IOException whenever there is an exception while reading or writing
+	 * @throws IllegalArgumentException when the first line is not <code>--liquibase formatted sql</code>
+	 */
+	public static boolean copyHeader(@Nonnull final InputStream input, @CheckForNull final OutputStream output) throws IOException
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int limit = readFully(input, buffer, 0);
+
+		int position = 0;
+		if (limit >= BYTE_ORDER_MARK.length && Arrays.equals(Arrays.copyOf(buffer, BYTE_ORDER_MARK.length), BYTE_ORDER_MARK))
+		{
+			position = BYTE_ORDER_MARK.length;
+		}
+
+		// Bytes before written are written; bytes from lineStart on are held back until it is clear the line is not a changeset line
+		int written = 0;
+		int lineStart = position;
+		boolean firstLine = true;
+		byte[] keyword = FIRST_LINE_KEYWORD;
+		int keywordPosition = 0;
+		int state = LINE_START;
+
+		while (true)
+		{
+			for (; position < limit; position++)
+			{
+				final byte b = buffer[position];
+				if (b == '\n')
+				{
+					if (firstLine && state != KEYWORD_LINE && state != AFTER_KEYWORD)
+					{
+						throw new IllegalArgumentException("The first line is not '--liquibase formatted sql'");
+					}
+					firstLine = false;
+					keyword = CHANGE_SET_KEYWORD;
+					state = LINE_START;
+					lineStart = position + 1;
+					continue;
+				}
+
+				if (state == DASHES && !isWhitespace(b))
+				{
+					// The keyword starts at the first byte after the dashes and any whitespace
+					keywordPosition = 0;
+					state = KEYWORD;
+				}
+
+				switch (state)
+				{
+				case LINE_START:
+					state = b == '-' ? FIRST_DASH : OTHER_LINE;
+					break;
+				case FIRST_DASH:
+					state = b == '-' ? DASHES : OTHER_LINE;
+					break;
+				case KEYWORD:
+					if (matchKeyword(keyword, keywordPosition, b))
+					{
+						keywordPosition++;
+						state = keywordPosition == keyword.length ? AFTER_KEYWORD : KEYWORD;
+					}
+					else
+					{
+						state = OTHER_LINE;
+					}
+					break;
+				case AFTER_KEYWORD:
+					// The first line may go on with anything; a changeset keyword must be followed by whitespace on the same line
+					state = firstLine || isWhitespace(b) && b != '\r' ? KEYWORD_LINE : OTHER_LINE;
+					break;
+				default:
+					break;
+				}
+
+				if (state == KEYWORD_LINE && !firstLine)
+				{
+					write(output, buffer, written, lineStart);
+					return true;
+				}
+			}
+
+			if (state == OTHER_LINE || state == KEYWORD_LINE)
+			{
+				// Nothing to hold back
+				write(output, buffer, written, limit);
+				written = limit;
+			}
+			else
+			{
+				write(output, buffer, written, lineStart);
+				written = lineStart;
+			}
+
+			// Make room for more bytes, keeping what is held back
+			final int heldBack = limit - written;
+			if (heldBack == buffer.length)
+			{
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			System.arraycopy(buffer, written, buffer, 0, heldBack);
+			lineStart -= written;
+			written = 0;
+			position = heldBack;
+			limit = readFully(input, buffer, heldBack);
+			if (limit == heldBack)
+			{
+				// End of file
+				if (firstLine && state != KEYWORD_LINE && state != AFTER_KEYWORD)
+				{
+					throw new IllegalArgumentException("The first line is not '--liquibase formatted sql'");
+				}
+				write(output, buffer, 0, limit);
+				return false;
+			}
+		}
+	}
+
+	private static boolean matchKeyword(@Nonnull final byte[] keyword, final int keywordPosition, final byte b)
+	{
+		final int lowerCase = b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+		return keyword[keywordPosition] == lowerCase;
+	}
+
+	private static boolean isWhitespace(final byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	private static void write(@CheckForNull final OutputStream output, @Nonnull final byte[] buffer, final int from, final int to) throws IOException
+	{
+		if (output != null && to > from)
+		{
+			output.write(buffer, from, to - from);
+		}
+	}
+
+	/**
+	 * @return the new limit of the buffer; this is <code>offset</code> only at the end of the input.
+	 */
+	private static int readFully(@Nonnull final InputStream input, @Nonnull final byte[] buffer, final int offset) throws IOException
+	{
+		int limit = offset;
+		while (limit < buffer.length)
+		{
+			final int read = input.read(buffer, limit, buffer.length - limit);
+			if (read < 0)
+			{
+				break;
+			}
+			limit += read;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,193 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Writes JSON as it goes, indented with tabs. Only what is needed to write a plan; there is no reading counterpart.
+ */
+public class JsonWriter
+{
+	private final Writer writer;
+
+	/**
+	 * For every object or array that is open: whether it has no members yet.
+	 */
+	private final Deque<Boolean> emptyScopes = new ArrayDeque<>();
+	private boolean afterName = false;
+
+	public JsonWriter(@Nonnull final Writer writer)
+	{
+		this.writer = writer;
+	}
+
+	@Nonnull
+	public JsonWriter beginObject() throws IOException
+	{
+		beforeValue();
+		writer.write('{');
+		emptyScopes.push(Boolean.TRUE);
+		return this;
+	}
+
+	@Nonnull
+	public JsonWriter endObject() throws IOException
+	{
+		return endScope('}');
+	}
+
+	@Nonnull
+	public JsonWriter beginArray() throws IOException
+	{
+		beforeValue();
+		writer.write('[');
+		emptyScopes.push(Boolean.TRUE);
+		return this;
+	}
+
+	@Nonnull
+	public JsonWriter endArray() throws IOException
+	{
+		return endScope(']');
+	}
+
+	@Nonnull
+	public JsonWriter name(@Nonnull final String name) throws IOException
+	{
+		beforeValue();
+		writeString(name);
+		writer.write(": ");
+		afterName = true;
+		return this;
+	}
+
+	@Nonnull
+	public JsonWriter value(@CheckForNull final String value) throws IOException
+	{
+		beforeValue();
+		if (value == null)
+		{
+			writer.write("null");
+		}
+		else
+		{
+			writeString(value);
+		}
+		return this;
+	}
+
+	@Nonnull
+	public JsonWriter value(final boolean value) throws IOException
+	{
+		beforeValue();
+		writer.write(Boolean.toString(value));
+		return this;
+	}
+
+	@Nonnull
+	public JsonWriter value(final long value) throws IOException
+	{
+		beforeValue();
+		writer.write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Write the end of the line after the outermost value, and flush.
+	 */
+	public void flush() throws IOException
+	{
+		if (!emptyScopes.isEmpty())
+		{
+			throw new IllegalStateException("Not all objects and arrays are closed");
+		}
+		writer.write('\n');
+		writer.flush();
+	}
+
+	private void beforeValue() throws IOException
+	{
+		if (afterName)
+		{
+			afterName = false;
+			return;
+		}
+		if (!emptyScopes.isEmpty())
+		{
+			if (!emptyScopes.pop())
+			{
+				writer.write(',');
+			}
+			emptyScopes.push(Boolean.FALSE);
+			newLine();
+		}
+	}
+
+	@Nonnull
+	private JsonWriter endScope(final char end) throws IOException
+	{
+		if (emptyScopes.isEmpty() || afterName)
+		{
+			throw new IllegalStateException("Nothing to close");
+		}
+		final boolean empty = emptyScopes.pop();
+		if (!empty)
+		{
+			newLine();
+		}
+		writer.write(end);
+		return this;
+	}
+
+	private void newLine() throws IOException
+	{
+		writer.write('\n');
+		for (int i = 0; i < emptyScopes.size(); i++)
+		{
+			writer.write('\t');
+		}
+	}
+
+	private void writeString(@Nonnull final String value) throws IOException
+	{
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			final char c = value.charAt(i);
+			switch (c)
+			{
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20)
+				{
+					writer.write(String.format("\\u%04x", (int) c));
+				}
+				else
+				{
+					writer.write(c);
+				}
+				break;
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,130 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.VersionArchive;
+
+/**
+ * Pack the files of the tagged versions of every master file into one archive per master file, with the entries stored uncompressed. The master files include the
+ * files from the archive instead; read them with {@link ChangeLogArchiveResources}. The changeSets keep their file path, so databases that already ran them see no
+ * difference.
+ */
+@Mojo(name = "pack", defaultPhase = LifecyclePhase.NONE)
+public class PackMojo extends AbstractMojo
+{
+	/**
+	 * The master files to pack the versions of. The master files are handled in the order of their path.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	/**
+	 * The version to pack everything before. This version and the versions after it are left as they are. When not given, every tagged version is packed.
+	 */
+	@Parameter(property = "packBefore")
+	private String packBefore;
+
+	/**
+	 * Whether to remove the packed files. Files that a master file still includes after packing, or that another of the master files includes, are left in place.
+	 */
+	@Parameter(property = "removePackedFiles", defaultValue = "true")
+	private boolean removePackedFiles;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * The file to keep track of the files that are being moved in place. If the build is killed halfway through, the next run uses it to undo what was done.
+	 */
+	@Parameter(property = "journalFile", defaultValue = "${project.build.directory}/liquibase-db-release.journal")
+	private File journalFile;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		final FileTransaction fileTransaction = new FileTransaction(journalFile.toPath());
+		try
+		{
+			if (FileTransaction.recover(journalFile.toPath()))
+			{
+				getLog().warn("An earlier run was interrupted while moving files in place; the files were brought back in a consistent state using " + journalFile);
+			}
+
+			final Map<File, Set<Path>> includedFiles = new HashMap<>();
+			if (removePackedFiles)
+			{
+				for (final File masterFile : masterFiles)
+				{
+					includedFiles.put(masterFile, VersionArchive.findIncludedFiles(masterFile.toPath(), classpathRoot.toPath()));
+				}
+			}
+
+			for (final File masterFile : new TreeSet<>(masterFiles))
+			{
+				final VersionArchive versionArchive = new VersionArchive(masterFile.toPath(), classpathRoot.toPath(), packBefore);
+				if (removePackedFiles)
+				{
+					versionArchive.setRemovingPackedFiles(true);
+					versionArchive.setFilesIncludedElsewhere(getFilesIncludedElsewhere(includedFiles, masterFile));
+				}
+				versionArchive.stage(fileTransaction);
+				if (versionArchive.getPath() == null)
+				{
+					getLog().info("Nothing to pack in " + masterFile);
+				}
+				else
+				{
+					getLog().info("Packed " + versionArchive.getPackedFiles() + " files of " + versionArchive.getPackedVersions() + " versions of " + masterFile + " into "
+							+ versionArchive.getPath() + (removePackedFiles ? "; removed " + versionArchive.getRemovedFiles() + " of them" : ""));
+				}
+			}
+			fileTransaction.commit();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			try
+			{
+				fileTransaction.rollBack();
+			}
+			catch (IOException | RuntimeException rollBackException)
+			{
+				e.addSuppressed(rollBackException);
+			}
+
+			if (e instanceof IOException)
+			{
+				throw new MojoFailureException("IO exception while packing the versions of the master files", e);
+			}
+			throw (RuntimeException) e;
+		}
+	}
+
+	@Nonnull
+	private static Set<Path> getFilesIncludedElsewhere(@Nonnull final Map<File, Set<Path>> includedFiles, @Nonnull final File masterFile)
+	{
+		final Set<Path> result = new HashSet<>();
+		for (final Map.Entry<File, Set<Path>> entry : includedFiles.entrySet())
+		{
+			if (!entry.getKey().equals(masterFile))
+			{
+				result.addAll(entry.getValue());
+			}
+		}
+		return result;
+	}
+}
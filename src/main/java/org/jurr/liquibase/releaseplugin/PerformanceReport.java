@@ -0,0 +1,298 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Collects the {@link FileOperation}s of a run, to tell where the time went. Operations may be recorded by several threads at the same time.
+ */
+public class PerformanceReport
+{
+	/**
+	 * The things that are done to a file.
+	 */
+	public enum Phase
+	{
+		/** Look up an include file in the cache; this is mostly getting the size and modification time of the file. */
+		CACHE_LOOKUP,
+		/** Read an include file up to its first changeSet, to find out whether it will be tagged. */
+		PROBE,
+		/** Read a file and write its new content, pretty-printed, to memory or to a temporary file. */
+		PARSE,
+		/** Compute the checksums of a file that is frozen in the new version, for the checksum manifest. */
+		CHECKSUM,
+		/** Write the new content of a file to a temporary file next to it. */
+		STAGE,
+		/** Make a temporary file durable, before anything is moved in place. */
+		SYNC,
+		/** Move a file in place, or out of the way. */
+		MOVE
+	}
+
+	private final long startNanos = System.nanoTime();
+	private long finishNanos = -1;
+	private final Queue<Measurement> measurements = new ConcurrentLinkedQueue<>();
+
+	void record(@Nonnull final Measurement measurement)
+	{
+		measurements.add(measurement);
+	}
+
+	/**
+	 * Mark the end of the run. The wall clock time of the run is the time between creating this report and calling this.
+	 */
+	public void finish()
+	{
+		finishNanos = System.nanoTime();
+	}
+
+	public long getWallClockNanos()
+	{
+		return (finishNanos < 0 ? System.nanoTime() : finishNanos) - startNanos;
+	}
+
+	/**
+	 * @return the totals per phase, for the phases that occurred.
+	 */
+	@Nonnull
+	public Map<Phase, Totals> getTotalsPerPhase()
+	{
+		final Map<Phase, Totals> result = new EnumMap<>(Phase.class);
+		for (final Measurement measurement : measurements)
+		{
+			result.computeIfAbsent(measurement.phase, phase -> new Totals()).add(measurement);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the totals of all phases together.
+	 */
+	@Nonnull
+	public Totals getTotals()
+	{
+		final Totals result = new Totals();
+		for (final Measurement measurement : measurements)
+		{
+			result.add(measurement);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the files that took the most time over all phases, slowest first.
+	 */
+	@Nonnull
+	public List<FileTotals> getSlowestFiles(final int count)
+	{
+		final Map<String, FileTotals> files = new LinkedHashMap<>();
+		for (final Measurement measurement : measurements)
+		{
+			files.computeIfAbsent(measurement.path, FileTotals::new).add(measurement);
+		}
+
+		final List<FileTotals> result = new ArrayList<>(files.values());
+		result.sort((a, b) -> a.totals.nanos != b.totals.nanos ? Long.compare(b.totals.nanos, a.totals.nanos) : a.path.compareTo(b.path));
+		return result.size() > count ? new ArrayList<>(result.subList(0, count)) : result;
+	}
+
+	/**
+	 * @return the number of bytes read per second of wall clock time.
+	 */
+	public long getBytesReadPerSecond()
+	{
+		final long wallClockNanos = getWallClockNanos();
+		return wallClockNanos <= 0 ? 0 : getTotals().bytesRead * TimeUnit.SECONDS.toNanos(1) / wallClockNanos;
+	}
+
+	/**
+	 * @return a few lines that summarize this report: the totals per phase, and the slowest files.
+	 */
+	@Nonnull
+	public List<String> summarize(final int slowestFiles)
+	{
+		final List<String> result = new ArrayList<>();
+		final Totals totals = getTotals();
+		result.add("Handled " + totals.operations + " file operations in " + toMillis(getWallClockNanos()) + " ms; read " + totals.bytesRead + " bytes (" + getBytesReadPerSecond() + " bytes/s), wrote " + totals.bytesWritten + " bytes");
+		for (final Map.Entry<Phase, Totals> phaseTotals : getTotalsPerPhase().entrySet())
+		{
+			final Totals value = phaseTotals.getValue();
+			result.add("  " + phaseTotals.getKey() + ": " + value.operations + " operations, " + toMillis(value.nanos) + " ms, read " + value.bytesRead + " bytes, wrote " + value.bytesWritten + " bytes, " + value.xmlEvents + " XML events");
+		}
+		for (final FileTotals file : getSlowestFiles(slowestFiles))
+		{
+			result.add("  " + toMillis(file.totals.nanos) + " ms: " + file.path);
+		}
+		return result;
+	}
+
+	/**
+	 * Write this report as JSON.
+	 *
+	 * @param slowestFiles the number of slowest files to list
+	 */
+	public void writeJson(@Nonnull final Writer writer, final int slowestFiles) throws IOException
+	{
+		final JsonWriter json = new JsonWriter(writer);
+		json.beginObject();
+		json.name("wallClockMillis").value(toMillis(getWallClockNanos()));
+		json.name("bytesReadPerSecond").value(getBytesReadPerSecond());
+		json.name("totals");
+		writeTotals(json, getTotals());
+
+		json.name("phases").beginObject();
+		for (final Map.Entry<Phase, Totals> phaseTotals : getTotalsPerPhase().entrySet())
+		{
+			json.name(phaseTotals.getKey().name());
+			writeTotals(json, phaseTotals.getValue());
+		}
+		json.endObject();
+
+		json.name("slowestFiles").beginArray();
+		for (final FileTotals file : getSlowestFiles(slowestFiles))
+		{
+			json.beginObject();
+			json.name("path").value(file.path);
+			json.name("millis").value(toMillis(file.totals.nanos));
+			json.name("bytesRead").value(file.totals.bytesRead);
+			json.name("bytesWritten").value(file.totals.bytesWritten);
+			json.name("phases").beginObject();
+			for (final Map.Entry<Phase, Totals> phaseTotals : file.phases.entrySet())
+			{
+				json.name(phaseTotals.getKey().name()).value(toMillis(phaseTotals.getValue().nanos));
+			}
+			json.endObject();
+			json.endObject();
+		}
+		json.endArray();
+
+		json.endObject();
+		json.flush();
+	}
+
+	private static void writeTotals(@Nonnull final JsonWriter json, @Nonnull final Totals totals) throws IOException
+	{
+		json.beginObject();
+		json.name("operations").value(totals.operations);
+		json.name("millis").value(toMillis(totals.nanos));
+		json.name("bytesRead").value(totals.bytesRead);
+		json.name("bytesWritten").value(totals.bytesWritten);
+		json.name("xmlEvents").value(totals.xmlEvents);
+		json.endObject();
+	}
+
+	private static long toMillis(final long nanos)
+	{
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	static final class Measurement
+	{
+		private final String path;
+		private final Phase phase;
+		private final long nanos;
+		private final long bytesRead;
+		private final long bytesWritten;
+		private final long xmlEvents;
+
+		Measurement(@Nonnull final String path, @Nonnull final Phase phase, final long nanos, final long bytesRead, final long bytesWritten, final long xmlEvents)
+		{
+			this.path = path;
+			this.phase = phase;
+			this.nanos = nanos;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.xmlEvents = xmlEvents;
+		}
+	}
+
+	public static class Totals
+	{
+		private long operations;
+		private long nanos;
+		private long bytesRead;
+		private long bytesWritten;
+		private long xmlEvents;
+
+		void add(@Nonnull final Measurement measurement)
+		{
+			operations++;
+			nanos += measurement.nanos;
+			bytesRead += measurement.bytesRead;
+			bytesWritten += measurement.bytesWritten;
+			xmlEvents += measurement.xmlEvents;
+		}
+
+		public long getOperations()
+		{
+			return operations;
+		}
+
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		public long getBytesRead()
+		{
+			return bytesRead;
+		}
+
+		public long getBytesWritten()
+		{
+			return bytesWritten;
+		}
+
+		public long getXmlEvents()
+		{
+			return xmlEvents;
+		}
+	}
+
+	public static class FileTotals
+	{
+		private final String path;
+		private final Totals totals = new Totals();
+		private final Map<Phase, Totals> phases = new EnumMap<>(Phase.class);
+
+		FileTotals(@Nonnull final String path)
+		{
+			this.path = path;
+		}
+
+		void add(@Nonnull final Measurement measurement)
+		{
+			totals.add(measurement);
+			phases.computeIfAbsent(measurement.phase, phase -> new Totals()).add(measurement);
+		}
+
+		@Nonnull
+		public String getPath()
+		{
+			return path;
+		}
+
+		@Nonnull
+		public Totals getTotals()
+		{
+			return totals;
+		}
+
+		@Nonnull
+		public Collection<Phase> getPhases()
+		{
+			return phases.keySet();
+		}
+	}
+}
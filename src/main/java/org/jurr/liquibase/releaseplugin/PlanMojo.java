@@ -0,0 +1,71 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.LiquibaseProject;
+import org.jurr.liquibase.releaseplugin.context.ReleasePlan;
+
+/**
+ * Find out what the <code>tag</code> goal would do, without changing any file. The plan is written as JSON; the changes to the master files can also be written as
+ * a unified diff.
+ */
+@Mojo(name = "plan", defaultPhase = LifecyclePhase.NONE)
+public class PlanMojo extends AbstractLiquibaseProjectMojo
+{
+	/**
+	 * The file to write the plan to, as JSON.
+	 */
+	@Parameter(property = "planFile", defaultValue = "${project.build.directory}/liquibase-db-release-plan.json")
+	private File planFile;
+
+	/**
+	 * The file to write the changes to the master files to, as a unified diff. Default is to not write a diff.
+	 */
+	@Parameter(property = "diffFile")
+	private File diffFile;
+
+	/**
+	 * Paths in the plan and the diff are written relative to this directory.
+	 */
+	@Parameter(defaultValue = "${project.basedir}", readonly = true)
+	private File baseDirectory;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		final LiquibaseProject liquibaseProject = createLiquibaseProject();
+
+		try
+		{
+			final ReleasePlan releasePlan = liquibaseProject.createPlan(diffFile != null);
+
+			try (Writer writer = newWriter(planFile.toPath()))
+			{
+				releasePlan.writeJson(writer, baseDirectory.toPath());
+			}
+			if (diffFile != null)
+			{
+				try (Writer writer = newWriter(diffFile.toPath()))
+				{
+					releasePlan.writeDiff(writer, baseDirectory.toPath());
+				}
+			}
+
+			getLog().info("Version " + releasePlan.getNewVersion() + " would tag " + releasePlan.getIncludeFilesToTag() + " of " + releasePlan.getIncludeFiles().size() + " include files in "
+					+ releasePlan.getMasterFiles().size() + " master files; the plan is written to " + planFile);
+			getLog().debug("Parsed " + liquibaseProject.getParsedIncludeFiles() + " include files");
+			writePerformanceReport(liquibaseProject);
+		}
+		catch (IOException e)
+		{
+			throw new MojoFailureException("IO exception while creating the plan for the new version", e);
+		}
+	}
+}
@@ -1,30 +1,46 @@
 package org.jurr.liquibase.releaseplugin;
 
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.stream.XMLEventFactory;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 /**
  * Simple XMLEventWriter that does indenting and removes duplicate whitelines.
- * It wraps another XMLEventWriter
+ * It writes to an XMLStreamWriter, without creating any events of its own.
  */
 public class PrettyPrintXMLEventWriter implements XMLEventWriter
 {
-	private static final XMLEventFactory XML_EVENT_FACTORY = XMLEventFactory.newInstance();
+	private static final String NEWLINE = "\n";
 
-	private final XMLEventWriter wrappedWriter;
+	private final XMLStreamWriter wrappedWriter;
 	private final String indentPrefix;
 
+	private String[] indents = new String[8];
 	private int indent = 0;
 	private boolean lastEventWasNewline = false;
 	private boolean forLastEventWasNewline = false;
+	private long eventCount = 0;
 
-	public PrettyPrintXMLEventWriter(@Nonnull final XMLEventWriter wrappedWriter, @Nonnull final String indentPrefix)
+	public PrettyPrintXMLEventWriter(@Nonnull final XMLStreamWriter wrappedWriter, @Nonnull final String indentPrefix)
 	{
 		this.wrappedWriter = wrappedWriter;
 		this.indentPrefix = indentPrefix;
@@ -51,6 +67,8 @@ public class PrettyPrintXMLEventWriter implements XMLEventWriter
 	@Override
 	public void add(final XMLEvent event) throws XMLStreamException
 	{
+		eventCount++;
+
 		if (event.isEndElement())
 		{
 			indent--;
@@ -59,37 +77,20 @@ public class PrettyPrintXMLEventWriter implements XMLEventWriter
 		if (event.isCharacters())
 		{
 			// Only add one empty line (== 2 sequential newline characters), don't add other characters
-			final Characters characters = (Characters) event;
-			for (int i = 0; i < characters.getData().length(); i++)
+			final String data = ((Characters) event).getData();
+			for (int i = data.indexOf('\n'); i >= 0 && !(lastEventWasNewline && forLastEventWasNewline); i = data.indexOf('\n', i + 1))
 			{
-				char c = characters.getData().charAt(i);
-				if (c == '\n')
-				{
-					if (!lastEventWasNewline)
-					{
-						wrappedWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
-						lastEventWasNewline = true;
-						forLastEventWasNewline = false;
-					}
-					else if (!forLastEventWasNewline)
-					{
-						wrappedWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
-						forLastEventWasNewline = true;
-					}
-				}
+				addNewline();
 			}
 		}
 		else
 		{
-			if (lastEventWasNewline)
+			if (lastEventWasNewline && indent > 0)
 			{
-				for (int i = 0; i < indent; i++)
-				{
-					wrappedWriter.add(XML_EVENT_FACTORY.createCharacters(indentPrefix));
-				}
+				wrappedWriter.writeCharacters(getIndent(indent));
 			}
 
-			wrappedWriter.add(event);
+			write(event);
 			lastEventWasNewline = false;
 		}
 
@@ -100,36 +101,181 @@ public class PrettyPrintXMLEventWriter implements XMLEventWriter
 
 		if (event.isStartDocument())
 		{
-			add(XML_EVENT_FACTORY.createCharacters("\n"));
+			addNewline();
+		}
+	}
+
+	/**
+	 * @return the number of events that were added to this writer.
+	 */
+	public long getEventCount()
+	{
+		return eventCount;
+	}
+
+	/**
+	 * Write the XML declaration, just like adding a StartDocument event with the given encoding and version would.
+	 *
+	 * @param encoding the encoding to put in the declaration, or <code>null</code> to leave it out
+	 * @param version the XML version, or <code>null</code> for the default version
+	 */
+	public void writeStartDocument(@CheckForNull final String encoding, @CheckForNull final String version) throws XMLStreamException
+	{
+		writeStartDocumentDeclaration(encoding, version);
+		lastEventWasNewline = false;
+		addNewline();
+	}
+
+	private void writeStartDocumentDeclaration(@CheckForNull final String encoding, @CheckForNull final String version) throws XMLStreamException
+	{
+		try
+		{
+			wrappedWriter.writeStartDocument(encoding, version);
+		}
+		catch (XMLStreamException e)
+		{
+			wrappedWriter.writeStartDocument(version);
+		}
+	}
+
+	private void addNewline() throws XMLStreamException
+	{
+		if (!lastEventWasNewline)
+		{
+			wrappedWriter.writeCharacters(NEWLINE);
+			lastEventWasNewline = true;
+			forLastEventWasNewline = false;
+		}
+		else if (!forLastEventWasNewline)
+		{
+			wrappedWriter.writeCharacters(NEWLINE);
+			forLastEventWasNewline = true;
+		}
+	}
+
+	@Nonnull
+	private String getIndent(final int depth)
+	{
+		if (depth >= indents.length)
+		{
+			indents = Arrays.copyOf(indents, Math.max(depth + 1, indents.length * 2));
+		}
+		if (indents[depth] == null)
+		{
+			final StringBuilder result = new StringBuilder(indentPrefix.length() * depth);
+			for (int i = 0; i < depth; i++)
+			{
+				result.append(indentPrefix);
+			}
+			indents[depth] = result.toString();
 		}
+		return indents[depth];
+	}
+
+	/**
+	 * Write a single event, just like the XMLEventWriter of the JDK does.
+	 */
+	private void write(@Nonnull final XMLEvent event) throws XMLStreamException
+	{
+		switch (event.getEventType())
+		{
+		case XMLStreamConstants.DTD:
+			wrappedWriter.writeDTD(((DTD) event).getDocumentTypeDeclaration());
+			break;
+		case XMLStreamConstants.START_DOCUMENT:
+			final StartDocument startDocument = (StartDocument) event;
+			writeStartDocumentDeclaration(startDocument.getCharacterEncodingScheme(), startDocument.getVersion());
+			break;
+		case XMLStreamConstants.START_ELEMENT:
+			final StartElement startElement = event.asStartElement();
+			final QName name = startElement.getName();
+			wrappedWriter.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+			for (final Iterator<?> namespaces = startElement.getNamespaces(); namespaces.hasNext();)
+			{
+				final Namespace namespace = (Namespace) namespaces.next();
+				wrappedWriter.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+			}
+			for (final Iterator<?> attributes = startElement.getAttributes(); attributes.hasNext();)
+			{
+				writeAttribute((Attribute) attributes.next());
+			}
+			break;
+		case XMLStreamConstants.NAMESPACE:
+			final Namespace namespace = (Namespace) event;
+			wrappedWriter.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+			break;
+		case XMLStreamConstants.ATTRIBUTE:
+			writeAttribute((Attribute) event);
+			break;
+		case XMLStreamConstants.COMMENT:
+			wrappedWriter.writeComment(((Comment) event).getText());
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			final ProcessingInstruction processingInstruction = (ProcessingInstruction) event;
+			wrappedWriter.writeProcessingInstruction(processingInstruction.getTarget(), processingInstruction.getData());
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+			final Characters characters = event.asCharacters();
+			if (characters.isCData())
+			{
+				wrappedWriter.writeCData(characters.getData());
+			}
+			else if (event.getEventType() != XMLStreamConstants.CDATA)
+			{
+				wrappedWriter.writeCharacters(characters.getData());
+			}
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			wrappedWriter.writeEntityRef(((EntityReference) event).getName());
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			wrappedWriter.writeEndElement();
+			break;
+		case XMLStreamConstants.END_DOCUMENT:
+			wrappedWriter.writeEndDocument();
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void writeAttribute(@Nonnull final Attribute attribute) throws XMLStreamException
+	{
+		final QName name = attribute.getName();
+		wrappedWriter.writeAttribute(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(), attribute.getValue());
 	}
 
 	@Override
-	public void add(XMLEventReader reader) throws XMLStreamException
+	public void add(final XMLEventReader reader) throws XMLStreamException
 	{
-		wrappedWriter.add(reader);
+		while (reader.hasNext())
+		{
+			add(reader.nextEvent());
+		}
 	}
 
 	@Override
-	public String getPrefix(String uri) throws XMLStreamException
+	public String getPrefix(final String uri) throws XMLStreamException
 	{
 		return wrappedWriter.getPrefix(uri);
 	}
 
 	@Override
-	public void setPrefix(String prefix, String uri) throws XMLStreamException
+	public void setPrefix(final String prefix, final String uri) throws XMLStreamException
 	{
 		wrappedWriter.setPrefix(prefix, uri);
 	}
 
 	@Override
-	public void setDefaultNamespace(String uri) throws XMLStreamException
+	public void setDefaultNamespace(final String uri) throws XMLStreamException
 	{
 		wrappedWriter.setDefaultNamespace(uri);
 	}
 
 	@Override
-	public void setNamespaceContext(NamespaceContext context) throws XMLStreamException
+	public void setNamespaceContext(final NamespaceContext context) throws XMLStreamException
 	{
 		wrappedWriter.setNamespaceContext(context);
 	}
@@ -139,4 +285,4 @@ public class PrettyPrintXMLEventWriter implements XMLEventWriter
 	{
 		return wrappedWriter.getNamespaceContext();
 	}
-}
\ No newline at end of file
+}
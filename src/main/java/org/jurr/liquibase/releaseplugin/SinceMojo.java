@@ -0,0 +1,81 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.SinceVersionMasterFile;
+
+/**
+ * Write a trimmed copy of every master file for databases that are at a given version already, next to the master file. The copy leaves out the changeSets and
+ * includes up to and including the tagDatabase changeSet of that version, so Liquibase does not read them at all.
+ */
+@Mojo(name = "since", defaultPhase = LifecyclePhase.NONE)
+public class SinceMojo extends AbstractMojo
+{
+	/**
+	 * The master files to write a trimmed copy of. The master files are handled in the order of their path.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	/**
+	 * The version the databases are at. The trimmed copies contain what comes after the tagDatabase changeSet of this version.
+	 */
+	@Parameter(property = "sinceVersion", required = true)
+	private String sinceVersion;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * The file to keep track of the files that are being moved in place. If the build is killed halfway through, the next run uses it to undo what was done.
+	 */
+	@Parameter(property = "journalFile", defaultValue = "${project.build.directory}/liquibase-db-release.journal")
+	private File journalFile;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		final FileTransaction fileTransaction = new FileTransaction(journalFile.toPath());
+		try
+		{
+			if (FileTransaction.recover(journalFile.toPath()))
+			{
+				getLog().warn("An earlier run was interrupted while moving files in place; the files were brought back in a consistent state using " + journalFile);
+			}
+
+			for (final File masterFile : new TreeSet<>(masterFiles))
+			{
+				final SinceVersionMasterFile sinceVersionMasterFile = new SinceVersionMasterFile(masterFile.toPath(), classpathRoot.toPath(), sinceVersion);
+				sinceVersionMasterFile.stage(fileTransaction);
+				getLog().info("Left out " + sinceVersionMasterFile.getSkippedVersions() + " versions of " + masterFile + " in " + sinceVersionMasterFile.getPath());
+			}
+			fileTransaction.commit();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			try
+			{
+				fileTransaction.rollBack();
+			}
+			catch (IOException | RuntimeException rollBackException)
+			{
+				e.addSuppressed(rollBackException);
+			}
+
+			if (e instanceof IOException)
+			{
+				throw new MojoFailureException("IO exception while trimming the master files", e);
+			}
+			throw (RuntimeException) e;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+/**
+ * OutputStream that keeps its content in memory until a threshold is reached. After that, everything is spilled to a temporary file next to the file the content is
+ * meant for. When done, the content is handed over as a file with {@link #stage()}, to be moved in place by a {@link FileTransaction}.
+ */
+public class SpillableOutputStream extends OutputStream
+{
+	private final Path target;
+	private final int threshold;
+
+	private ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
+	private Path spillFile;
+	private OutputStream spillStream;
+	private long size = 0;
+
+	/**
+	 * @param target the file the content is meant for. Temporary files are created in the same directory, so they can be moved in place atomically.
+	 * @param threshold the maximum number of bytes that are kept in memory.
+	 */
+	public SpillableOutputStream(@Nonnull final Path target, final int threshold)
+	{
+		this.target = target;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void write(final int b) throws IOException
+	{
+		currentStream(1).write(b);
+		size++;
+	}
+
+	@Override
+	public void write(@Nonnull final byte[] b, final int off, final int len) throws IOException
+	{
+		currentStream(len).write(b, off, len);
+		size += len;
+	}
+
+	@Nonnull
+	private OutputStream currentStream(final int bytesToWrite) throws IOException
+	{
+		if (memoryStream != null && size + bytesToWrite > threshold)
+		{
+			spillFile = Utils.createSiblingFile(target);
+			spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+			memoryStream.writeTo(spillStream);
+			memoryStream = null;
+		}
+		return memoryStream != null ? memoryStream : spillStream;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		if (spillStream != null)
+		{
+			spillStream.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (spillStream != null)
+		{
+			spillStream.close();
+		}
+	}
+
+	public boolean isSpilled()
+	{
+		return spillFile != null;
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Write the content written so far to the given stream.
+	 *
+	 * @throws IOException whenever there is an exception while reading or writing the content
+	 */
+	public void writeTo(@Nonnull final OutputStream outputStream) throws IOException
+	{
+		if (spillFile == null)
+		{
+			memoryStream.writeTo(outputStream);
+		}
+		else
+		{
+			spillStream.flush();
+			Files.copy(spillFile, outputStream);
+		}
+	}
+
+	/**
+	 * Read back the content written so far. Content written after this call may or may not be visible in the returned stream.
+	 *
+	 * @throws IOException whenever there is an exception while opening the temporary file
+	 */
+	@Nonnull
+	public InputStream openInputStream() throws IOException
+	{
+		if (spillFile == null)
+		{
+			return new ByteArrayInputStream(memoryStream.toByteArray());
+		}
+		spillStream.flush();
+		return Files.newInputStream(spillFile);
+	}
+
+	/**
+	 * Make sure the content is in a temporary file next to the target file, and hand that file over to the caller. After this, this stream is empty; the caller is
+	 * responsible for moving or deleting the returned file.
+	 *
+	 * @throws IOException whenever there is an exception while writing the content
+	 */
+	@Nonnull
+	public Path stage() throws IOException
+	{
+		close();
+
+		Path result = spillFile;
+		if (result == null)
+		{
+			result = Utils.createSiblingFile(target);
+			try (OutputStream outputStream = Files.newOutputStream(result))
+			{
+				memoryStream.writeTo(outputStream);
+			}
+		}
+
+		spillFile = null;
+		memoryStream = null;
+		return result;
+	}
+
+	/**
+	 * Throw away the content, including the temporary file if the content was spilled to disk.
+	 */
+	public void discard() throws IOException
+	{
+		close();
+
+		if (spillFile != null)
+		{
+			Files.deleteIfExists(spillFile);
+			spillFile = null;
+		}
+		memoryStream = null;
+	}
+}
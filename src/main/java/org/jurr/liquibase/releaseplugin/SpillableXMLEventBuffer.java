@@ -0,0 +1,308 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Buffer for XML events that are written later on. The events are kept as compact bytes instead of event objects. Names are stored only once per buffer. When the
+ * buffer grows beyond a threshold, it is spilled to a temporary file, see {@link SpillableOutputStream}.
+ * <p>
+ * Location information of the events is not kept.
+ */
+public class SpillableXMLEventBuffer
+{
+	private static final XMLEventFactory XML_EVENT_FACTORY = XMLEventFactory.newInstance();
+
+	private static final int CHARACTERS = 0;
+	private static final int CDATA = 1;
+	private static final int IGNORABLE_WHITESPACE = 2;
+
+	private final Path target;
+	private final int threshold;
+
+	private final Map<String, Integer> nameIndexes = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+	private SpillableOutputStream outputStream;
+	private DataOutputStream dataOutputStream;
+	private int size = 0;
+
+	/**
+	 * @param target the file the events are meant for. Temporary files are created in the same directory.
+	 * @param threshold the maximum number of bytes that are kept in memory.
+	 */
+	public SpillableXMLEventBuffer(@Nonnull final Path target, final int threshold)
+	{
+		this.target = target;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @return the number of events in this buffer.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isSpilled()
+	{
+		return outputStream != null && outputStream.isSpilled();
+	}
+
+	public void add(@Nonnull final XMLEvent xmlEvent) throws XMLStreamException
+	{
+		if (outputStream == null)
+		{
+			outputStream = new SpillableOutputStream(target, threshold);
+			dataOutputStream = new DataOutputStream(outputStream);
+		}
+
+		try
+		{
+			final int eventType = xmlEvent.getEventType();
+			switch (eventType)
+			{
+			case XMLStreamConstants.START_ELEMENT:
+				final StartElement startElement = xmlEvent.asStartElement();
+				dataOutputStream.writeByte(eventType);
+				writeName(startElement.getName().getPrefix());
+				writeName(startElement.getName().getNamespaceURI());
+				writeName(startElement.getName().getLocalPart());
+				for (final Iterator<?> namespaces = startElement.getNamespaces(); namespaces.hasNext();)
+				{
+					final Namespace namespace = (Namespace) namespaces.next();
+					dataOutputStream.writeByte(XMLStreamConstants.NAMESPACE);
+					writeName(namespace.getPrefix());
+					writeName(namespace.getNamespaceURI());
+				}
+				for (final Iterator<?> attributes = startElement.getAttributes(); attributes.hasNext();)
+				{
+					final Attribute attribute = (Attribute) attributes.next();
+					dataOutputStream.writeByte(XMLStreamConstants.ATTRIBUTE);
+					writeName(attribute.getName().getPrefix());
+					writeName(attribute.getName().getNamespaceURI());
+					writeName(attribute.getName().getLocalPart());
+					writeString(attribute.getValue());
+				}
+				dataOutputStream.writeByte(0);
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				final EndElement endElement = xmlEvent.asEndElement();
+				dataOutputStream.writeByte(eventType);
+				writeName(endElement.getName().getPrefix());
+				writeName(endElement.getName().getNamespaceURI());
+				writeName(endElement.getName().getLocalPart());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				final Characters characters = xmlEvent.asCharacters();
+				dataOutputStream.writeByte(XMLStreamConstants.CHARACTERS);
+				dataOutputStream.writeByte(characters.isCData() ? CDATA : characters.isIgnorableWhiteSpace() ? IGNORABLE_WHITESPACE : CHARACTERS);
+				writeString(characters.getData());
+				break;
+			case XMLStreamConstants.COMMENT:
+				dataOutputStream.writeByte(eventType);
+				writeString(((Comment) xmlEvent).getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				final ProcessingInstruction processingInstruction = (ProcessingInstruction) xmlEvent;
+				dataOutputStream.writeByte(eventType);
+				writeString(processingInstruction.getTarget());
+				writeString(processingInstruction.getData() == null ? "" : processingInstruction.getData());
+				break;
+			case XMLStreamConstants.END_DOCUMENT:
+				dataOutputStream.writeByte(eventType);
+				break;
+			default:
+				throw new IllegalArgumentException("XML events of type " + eventType + " can not be buffered");
+			}
+			size++;
+		}
+		catch (IOException e)
+		{
+			throw new XMLStreamException("IO error while buffering XML event for " + target, e);
+		}
+	}
+
+	/**
+	 * Write all buffered events to the given writer, and empty this buffer.
+	 */
+	public void writeTo(@Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
+	{
+		if (size == 0)
+		{
+			return;
+		}
+
+		try
+		{
+			dataOutputStream.flush();
+			try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(outputStream.openInputStream())))
+			{
+				for (int i = 0; i < size; i++)
+				{
+					xmlEventWriter.add(readEvent(dataInputStream));
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new XMLStreamException("IO error while reading buffered XML events for " + target, e);
+		}
+
+		discard();
+	}
+
+	/**
+	 * Empty this buffer, including the temporary file if the buffer was spilled to disk.
+	 */
+	public void discard()
+	{
+		if (outputStream != null)
+		{
+			try
+			{
+				outputStream.discard();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("IO error while discarding buffered XML events for " + target, e);
+			}
+			outputStream = null;
+			dataOutputStream = null;
+		}
+		nameIndexes.clear();
+		names.clear();
+		size = 0;
+	}
+
+	@Nonnull
+	private XMLEvent readEvent(@Nonnull final DataInputStream dataInputStream) throws IOException
+	{
+		final int eventType = dataInputStream.readUnsignedByte();
+		switch (eventType)
+		{
+		case XMLStreamConstants.START_ELEMENT:
+			final String prefix = readName(dataInputStream);
+			final String namespaceURI = readName(dataInputStream);
+			final String localName = readName(dataInputStream);
+			final List<Namespace> namespaces = new ArrayList<>(2);
+			final List<Attribute> attributes = new ArrayList<>(4);
+			int partType;
+			while ((partType = dataInputStream.readUnsignedByte()) != 0)
+			{
+				if (partType == XMLStreamConstants.NAMESPACE)
+				{
+					namespaces.add(XML_EVENT_FACTORY.createNamespace(readName(dataInputStream), readName(dataInputStream)));
+				}
+				else
+				{
+					attributes.add(XML_EVENT_FACTORY.createAttribute(readName(dataInputStream), readName(dataInputStream), readName(dataInputStream), readString(dataInputStream)));
+				}
+			}
+			return XML_EVENT_FACTORY.createStartElement(prefix, namespaceURI, localName, attributes.iterator(), namespaces.iterator());
+		case XMLStreamConstants.END_ELEMENT:
+			return XML_EVENT_FACTORY.createEndElement(readName(dataInputStream), readName(dataInputStream), readName(dataInputStream));
+		case XMLStreamConstants.CHARACTERS:
+			final int kind = dataInputStream.readUnsignedByte();
+			final String data = readString(dataInputStream);
+			return kind == CDATA ? XML_EVENT_FACTORY.createCData(data) : kind == IGNORABLE_WHITESPACE ? XML_EVENT_FACTORY.createIgnorableSpace(data) : XML_EVENT_FACTORY.createCharacters(data);
+		case XMLStreamConstants.COMMENT:
+			return XML_EVENT_FACTORY.createComment(readString(dataInputStream));
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			return XML_EVENT_FACTORY.createProcessingInstruction(readString(dataInputStream), readString(dataInputStream));
+		case XMLStreamConstants.END_DOCUMENT:
+			return XML_EVENT_FACTORY.createEndDocument();
+		default:
+			throw new IllegalStateException("Corrupt XML event buffer for " + target + ": unknown event type " + eventType);
+		}
+	}
+
+	private void writeName(@Nonnull final String name) throws IOException
+	{
+		final Integer index = nameIndexes.get(name);
+		if (index != null)
+		{
+			writeVarInt(index + 1);
+		}
+		else
+		{
+			nameIndexes.put(name, names.size());
+			names.add(name);
+			writeVarInt(0);
+			writeString(name);
+		}
+	}
+
+	@Nonnull
+	private String readName(@Nonnull final DataInputStream dataInputStream) throws IOException
+	{
+		final int index = readVarInt(dataInputStream);
+		return index > 0 ? names.get(index - 1) : readString(dataInputStream);
+	}
+
+	private void writeString(@Nonnull final String string) throws IOException
+	{
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		dataOutputStream.write(bytes);
+	}
+
+	@Nonnull
+	private static String readString(@Nonnull final DataInputStream dataInputStream) throws IOException
+	{
+		final byte[] bytes = new byte[readVarInt(dataInputStream)];
+		dataInputStream.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void writeVarInt(final int value) throws IOException
+	{
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0)
+		{
+			dataOutputStream.writeByte((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		dataOutputStream.writeByte(remaining);
+	}
+
+	private static int readVarInt(@Nonnull final DataInputStream dataInputStream) throws IOException
+	{
+		int result = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = dataInputStream.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return result;
+	}
+}
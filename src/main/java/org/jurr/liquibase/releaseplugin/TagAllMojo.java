@@ -0,0 +1,111 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.jurr.liquibase.releaseplugin.context.LiquibaseProject;
+import org.jurr.liquibase.releaseplugin.context.MasterFile;
+
+/**
+ * Tag the master files of all modules in the build at once, like the <code>tag</code> goal would do for each module. The <code>masterFiles</code> and
+ * <code>skippedIncludeFiles</code> are taken from the configuration of this plugin in every module, and tagged as one project: the files are read by the same
+ * threads, an include file that is shared between modules is versioned once, and nothing is changed unless every module could be tagged.
+ */
+@Mojo(name = "tag-all", defaultPhase = LifecyclePhase.NONE, aggregator = true)
+public class TagAllMojo extends TagDatabaseMojo
+{
+	private static final String DEFAULT_CLASSPATH_ROOT = "src/main/resources";
+
+	@Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+	private List<MavenProject> reactorProjects;
+
+	@Parameter(defaultValue = "${plugin}", readonly = true, required = true)
+	private PluginDescriptor pluginDescriptor;
+
+	private int modulesWithMasterFiles;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		super.execute();
+		getLog().info("Tagged the master files of " + modulesWithMasterFiles + " of " + reactorProjects.size() + " modules");
+	}
+
+	@Override
+	void addMasterFiles(@Nonnull final LiquibaseProject liquibaseProject) throws MojoExecutionException
+	{
+		// The configuration of this goal itself, if any
+		super.addMasterFiles(liquibaseProject);
+
+		modulesWithMasterFiles = 0;
+		for (final MavenProject project : reactorProjects)
+		{
+			final Xpp3Dom configuration = getConfiguration(project);
+			final Xpp3Dom masterFiles = configuration == null ? null : configuration.getChild("masterFiles");
+			if (masterFiles == null || masterFiles.getChildCount() == 0)
+			{
+				continue;
+			}
+
+			final Path basedir = project.getBasedir().toPath();
+			final Path classpathRoot = getClasspathRoot(project, configuration);
+			for (final Xpp3Dom masterFile : masterFiles.getChildren())
+			{
+				liquibaseProject.addMasterFile(new MasterFile(basedir.resolve(masterFile.getValue().trim()), classpathRoot));
+			}
+
+			final Xpp3Dom skippedIncludeFiles = configuration.getChild("skippedIncludeFiles");
+			if (skippedIncludeFiles != null)
+			{
+				for (final Xpp3Dom skippedIncludeFile : skippedIncludeFiles.getChildren())
+				{
+					liquibaseProject.addIncludeFileToSkipTagging(basedir.resolve(skippedIncludeFile.getValue().trim()));
+				}
+			}
+
+			modulesWithMasterFiles++;
+			getLog().debug("Added " + masterFiles.getChildCount() + " master files of " + project.getArtifactId());
+		}
+	}
+
+	/**
+	 * @return the configuration of this plugin in the given module, or <code>null</code> if the module does not use this plugin.
+	 */
+	@CheckForNull
+	private Xpp3Dom getConfiguration(@Nonnull final MavenProject project)
+	{
+		final Plugin plugin = project.getPlugin(pluginDescriptor.getPluginLookupKey());
+		return plugin == null ? null : (Xpp3Dom) plugin.getConfiguration();
+	}
+
+	/**
+	 * @return the classpath root of the given module, the same way the <code>tag</code> goal would find it when run in that module.
+	 */
+	@Nonnull
+	private static Path getClasspathRoot(@Nonnull final MavenProject project, @Nonnull final Xpp3Dom configuration)
+	{
+		final Path basedir = project.getBasedir().toPath();
+		final Xpp3Dom classpathRoot = configuration.getChild("classpathRoot");
+		if (classpathRoot != null && StringUtils.isNotBlank(classpathRoot.getValue()))
+		{
+			return basedir.resolve(classpathRoot.getValue().trim());
+		}
+
+		final List<Resource> resources = project.getBuild().getResources();
+		return basedir.resolve(resources.isEmpty() ? DEFAULT_CLASSPATH_ROOT : resources.get(0).getDirectory());
+	}
+}
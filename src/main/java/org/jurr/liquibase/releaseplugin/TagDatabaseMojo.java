@@ -2,108 +2,68 @@ package org.jurr.liquibase.releaseplugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Set;
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.maven.settings.Settings;
-import org.codehaus.plexus.components.interactivity.Prompter;
-import org.codehaus.plexus.components.interactivity.PrompterException;
-import org.codehaus.plexus.util.StringUtils;
 import org.jurr.liquibase.releaseplugin.context.LiquibaseProject;
-import org.jurr.liquibase.releaseplugin.context.MasterFile;
 
 @Mojo(name = "tag", defaultPhase = LifecyclePhase.NONE)
-public class TagDatabaseMojo extends AbstractMojo
+public class TagDatabaseMojo extends AbstractLiquibaseProjectMojo
 {
 	/**
-	 * These files are considered 'master files'; tags are placed in these files and files included from these files are copied to a new version variant.
+	 * The file to keep track of the files that are being moved in place, while the new version is committed. If the build is killed halfway through, the next run
+	 * uses it to undo what was done.
 	 */
-	@Parameter(required = true)
-	private Set<File> masterFiles;
+	@Parameter(property = "journalFile", defaultValue = "${project.build.directory}/liquibase-db-release.journal")
+	private File journalFile;
 
 	/**
-	 * These files are not tagged with the new version, even if they are included.
+	 * Whether to write the checksums of the include files that are frozen in the new version to a manifest next to every master file. The <code>verify</code> goal
+	 * uses these to check that the files did not change afterwards.
 	 */
-	@Parameter
-	private Set<File> skippedIncludeFiles;
+	@Parameter(property = "checksumManifest", defaultValue = "false")
+	private boolean checksumManifest;
 
 	/**
-	 * The version that this plugin should create.
+	 * Whether to write an index of the versions in every XML master file next to it, with the byte offsets of every tagDatabase changeSet and the includes that
+	 * follow it. Deploy tooling can use it to pick the smallest changelog a database needs.
 	 */
-	@Parameter(property = "newVersion")
-	private String newVersion;
+	@Parameter(property = "versionIndex", defaultValue = "false")
+	private boolean versionIndex;
 
 	/**
-	 * The context to set on the tagDatabase changeSet. Default is to not generate a context attribute.
+	 * Whether to keep an index of every changeSet released in an XML master file next to it, and fail when a changeSet that is frozen in the new version was
+	 * released before. The index is used by the <code>where-is</code> goal as well.
 	 */
-	@Parameter(property = "context", required = false)
-	private String context;
-
-	@Component
-	private Prompter prompter;
-
-	@Parameter(property = "settings", readonly = true, required = true)
-	private Settings settings;
-
-	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
-	private File classpathRoot;
+	@Parameter(property = "changeSetIndex", defaultValue = "false")
+	private boolean changeSetIndex;
 
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException
 	{
-		retrieveNewVersion();
+		final LiquibaseProject liquibaseProject = createLiquibaseProject();
+		liquibaseProject.setJournalFile(journalFile.toPath());
+		liquibaseProject.setWritingChecksumManifests(checksumManifest);
+		liquibaseProject.setWritingVersionIndexes(versionIndex);
+		liquibaseProject.setWritingChangeSetIndexes(changeSetIndex);
 
-		final LiquibaseProject liquibaseProject = new LiquibaseProject(newVersion, context, classpathRoot.toPath());
-
-		for (final File masterFile : masterFiles)
-		{
-			liquibaseProject.addMasterFile(new MasterFile(masterFile.toPath()));
-		}
-
-		if (skippedIncludeFiles != null)
+		try
 		{
-			for (final File skippedIncludeFile : skippedIncludeFiles)
+			if (liquibaseProject.recoverInterruptedCommit())
 			{
-				liquibaseProject.addIncludeFileToSkipTagging(skippedIncludeFile.toPath());
+				getLog().warn("An earlier run was interrupted while moving files in place; the files were brought back in a consistent state using " + journalFile);
 			}
-		}
 
-		try
-		{
 			liquibaseProject.createNewVersion();
+			getLog().debug("Parsed " + liquibaseProject.getParsedIncludeFiles() + " include files");
+			writePerformanceReport(liquibaseProject);
 		}
 		catch (IOException e)
 		{
 			throw new MojoFailureException("IO exception while creating new version", e);
 		}
 	}
-
-	private void retrieveNewVersion() throws MojoExecutionException
-	{
-		if (StringUtils.isEmpty(newVersion))
-		{
-			if (settings.isInteractiveMode())
-			{
-				try
-				{
-					newVersion = prompter.prompt("Enter the new version to set");
-				}
-				catch (PrompterException e)
-				{
-					throw new MojoExecutionException(e.getMessage(), e);
-				}
-			}
-		}
-
-		if (StringUtils.isEmpty(newVersion))
-		{
-			throw new MojoExecutionException("You must specify the new version, either by using the newVersion property (that is -DnewVersion=... on the command line) or run in interactive mode");
-		}
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,286 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes the difference between two texts in the unified format of <code>diff -u</code>, so it can be read by people and applied by <code>patch</code> or
+ * <code>git apply</code>.
+ * <p>
+ * The lines that changed are found with Myers' algorithm, which is fast when there are few changes. When there are more than {@link #MAX_EDIT_DISTANCE} changed lines,
+ * everything between the common start and the common end is shown as replaced instead.
+ */
+public final class UnifiedDiff
+{
+	static final int CONTEXT_LINES = 3;
+	static final int MAX_EDIT_DISTANCE = 2000;
+
+	private static final String NO_NEWLINE_AT_END_OF_FILE = "\\ No newline at end of file\n";
+
+	private UnifiedDiff()
+	{
+	}
+
+	/**
+	 * Write the difference between <code>oldText</code> and <code>newText</code>. Nothing is written when they are the same.
+	 *
+	 * @param oldName the name of the old file, as shown after <code>---</code>
+	 * @param newName the name of the new file, as shown after <code>+++</code>
+	 */
+	public static void write(@Nonnull final Writer writer, @Nonnull final String oldName, @Nonnull final String newName, @Nonnull final String oldText, @Nonnull final String newText) throws IOException
+	{
+		if (oldText.equals(newText))
+		{
+			return;
+		}
+
+		final List<String> oldLines = splitLines(oldText);
+		final List<String> newLines = splitLines(newText);
+		final List<Edit> edits = diff(oldLines, newLines);
+
+		writer.write("--- " + oldName + "\n");
+		writer.write("+++ " + newName + "\n");
+
+		int first = 0;
+		while (first < edits.size())
+		{
+			// A hunk runs until there are more than twice the number of context lines unchanged
+			int last = first;
+			for (int next = first + 1; next < edits.size() && edits.get(next).oldStart - (edits.get(last).oldStart + edits.get(last).oldLength) <= 2 * CONTEXT_LINES; next++)
+			{
+				last = next;
+			}
+			writeHunk(writer, oldLines, newLines, edits.subList(first, last + 1));
+			first = last + 1;
+		}
+	}
+
+	/**
+	 * Split the text in lines, keeping the line endings; the last line has none if the text does not end with one.
+	 */
+	@Nonnull
+	static List<String> splitLines(@Nonnull final String text)
+	{
+		final List<String> result = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i < text.length(); i++)
+		{
+			if (text.charAt(i) == '\n')
+			{
+				result.add(text.substring(start, i + 1));
+				start = i + 1;
+			}
+		}
+		if (start < text.length())
+		{
+			result.add(text.substring(start));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ranges of lines that are removed from <code>oldLines</code> and put in their place from <code>newLines</code>, in order.
+	 */
+	@Nonnull
+	static List<Edit> diff(@Nonnull final List<String> oldLines, @Nonnull final List<String> newLines)
+	{
+		int commonStart = 0;
+		while (commonStart < oldLines.size() && commonStart < newLines.size() && oldLines.get(commonStart).equals(newLines.get(commonStart)))
+		{
+			commonStart++;
+		}
+		int commonEnd = 0;
+		while (commonEnd < oldLines.size() - commonStart && commonEnd < newLines.size() - commonStart
+				&& oldLines.get(oldLines.size() - 1 - commonEnd).equals(newLines.get(newLines.size() - 1 - commonEnd)))
+		{
+			commonEnd++;
+		}
+
+		final List<String> oldMiddle = oldLines.subList(commonStart, oldLines.size() - commonEnd);
+		final List<String> newMiddle = newLines.subList(commonStart, newLines.size() - commonEnd);
+		List<Edit> edits = myers(oldMiddle, newMiddle);
+		if (edits == null)
+		{
+			edits = new ArrayList<>();
+			edits.add(new Edit(0, oldMiddle.size(), 0, newMiddle.size()));
+		}
+
+		final List<Edit> result = new ArrayList<>(edits.size());
+		for (final Edit edit : edits)
+		{
+			result.add(new Edit(edit.oldStart + commonStart, edit.oldLength, edit.newStart + commonStart, edit.newLength));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the edits, or <code>null</code> when there are more than {@link #MAX_EDIT_DISTANCE} lines to remove and add.
+	 */
+	private static List<Edit> myers(@Nonnull final List<String> a, @Nonnull final List<String> b)
+	{
+		final int n = a.size();
+		final int m = b.size();
+		final int offset = n + m + 1;
+		final int[] v = new int[2 * offset + 1];
+		final List<int[]> trace = new ArrayList<>();
+
+		int editDistance = -1;
+		for (int d = 0; d <= n + m && d <= MAX_EDIT_DISTANCE && editDistance < 0; d++)
+		{
+			for (int k = -d; k <= d; k += 2)
+			{
+				int x = k == -d || k != d && v[offset + k - 1] < v[offset + k + 1] ? v[offset + k + 1] : v[offset + k - 1] + 1;
+				int y = x - k;
+				while (x < n && y < m && a.get(x).equals(b.get(y)))
+				{
+					x++;
+					y++;
+				}
+				v[offset + k] = x;
+				if (x >= n && y >= m)
+				{
+					editDistance = d;
+				}
+			}
+
+			// Remember the furthest reaching paths of this round, to find the way back
+			final int[] round = new int[2 * d + 1];
+			System.arraycopy(v, offset - d, round, 0, round.length);
+			trace.add(round);
+		}
+		if (editDistance < 0)
+		{
+			return null;
+		}
+
+		// Walk back from the end, collecting the removed and added lines as single line edits, last one first
+		final List<Edit> lineEdits = new ArrayList<>();
+		int x = n;
+		int y = m;
+		for (int d = editDistance; d > 0; d--)
+		{
+			final int[] previousRound = trace.get(d - 1);
+			final int k = x - y;
+			final boolean added = k == -d || k != d && previousRound[k - 1 + d - 1] < previousRound[k + 1 + d - 1];
+			final int previousK = added ? k + 1 : k - 1;
+			final int previousX = previousRound[previousK + d - 1];
+			final int previousY = previousX - previousK;
+			if (added)
+			{
+				lineEdits.add(new Edit(previousX, 0, previousY, 1));
+			}
+			else
+			{
+				lineEdits.add(new Edit(previousX, 1, previousY, 0));
+			}
+			x = previousX;
+			y = previousY;
+		}
+
+		// Merge adjacent single line edits
+		final List<Edit> result = new ArrayList<>();
+		for (int i = lineEdits.size() - 1; i >= 0; i--)
+		{
+			final Edit edit = lineEdits.get(i);
+			final Edit last = result.isEmpty() ? null : result.get(result.size() - 1);
+			if (last != null && last.oldStart + last.oldLength == edit.oldStart && last.newStart + last.newLength == edit.newStart)
+			{
+				result.set(result.size() - 1, new Edit(last.oldStart, last.oldLength + edit.oldLength, last.newStart, last.newLength + edit.newLength));
+			}
+			else
+			{
+				result.add(edit);
+			}
+		}
+		return result;
+	}
+
+	private static void writeHunk(@Nonnull final Writer writer, @Nonnull final List<String> oldLines, @Nonnull final List<String> newLines, @Nonnull final List<Edit> edits) throws IOException
+	{
+		final Edit first = edits.get(0);
+		final Edit last = edits.get(edits.size() - 1);
+		final int contextBefore = Math.min(CONTEXT_LINES, first.oldStart);
+		final int contextAfter = Math.min(CONTEXT_LINES, oldLines.size() - (last.oldStart + last.oldLength));
+
+		final int oldStart = first.oldStart - contextBefore;
+		final int oldEnd = last.oldStart + last.oldLength + contextAfter;
+		final int newStart = first.newStart - contextBefore;
+		final int newEnd = last.newStart + last.newLength + contextAfter;
+
+		writer.write("@@ -" + range(oldStart, oldEnd - oldStart) + " +" + range(newStart, newEnd - newStart) + " @@\n");
+
+		int oldLine = oldStart;
+		for (final Edit edit : edits)
+		{
+			for (; oldLine < edit.oldStart; oldLine++)
+			{
+				writeLine(writer, ' ', oldLines.get(oldLine));
+			}
+			for (int i = edit.oldStart; i < edit.oldStart + edit.oldLength; i++)
+			{
+				writeLine(writer, '-', oldLines.get(i));
+			}
+			for (int i = edit.newStart; i < edit.newStart + edit.newLength; i++)
+			{
+				writeLine(writer, '+', newLines.get(i));
+			}
+			oldLine = edit.oldStart + edit.oldLength;
+		}
+		for (; oldLine < oldEnd; oldLine++)
+		{
+			writeLine(writer, ' ', oldLines.get(oldLine));
+		}
+	}
+
+	@Nonnull
+	private static String range(final int start, final int length)
+	{
+		// Lines are counted from 1; an empty range refers to the line before it
+		if (length == 1)
+		{
+			return Integer.toString(start + 1);
+		}
+		return (length == 0 ? start : start + 1) + "," + length;
+	}
+
+	private static void writeLine(@Nonnull final Writer writer, final char prefix, @Nonnull final String line) throws IOException
+	{
+		writer.write(prefix);
+		writer.write(line);
+		if (!line.endsWith("\n"))
+		{
+			writer.write('\n');
+			writer.write(NO_NEWLINE_AT_END_OF_FILE);
+		}
+	}
+
+	/**
+	 * Replace <code>oldLength</code> lines, starting at <code>oldStart</code>, with <code>newLength</code> lines starting at <code>newStart</code>. Line numbers
+	 * start at 0.
+	 */
+	static final class Edit
+	{
+		final int oldStart;
+		final int oldLength;
+		final int newStart;
+		final int newLength;
+
+		Edit(final int oldStart, final int oldLength, final int newStart, final int newLength)
+		{
+			this.oldStart = oldStart;
+			this.oldLength = oldLength;
+			this.newStart = newStart;
+			this.newLength = newLength;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "-" + oldStart + "," + oldLength + " +" + newStart + "," + newLength;
+		}
+	}
+}
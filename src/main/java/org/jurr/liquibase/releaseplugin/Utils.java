@@ -1,14 +1,19 @@
 package org.jurr.liquibase.releaseplugin;
 
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.Nonnull;
-import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 import org.codehaus.plexus.util.StringUtils;
 
@@ -30,6 +35,34 @@ public final class Utils
 		return masterFile.resolveSibling(includeFileWithSlashesCorrected);
 	}
 
+	/**
+	 * Get a path that is the same for every way a file can be reached: absolute, normalized, and with symbolic links resolved. When the file does not exist, the
+	 * absolute, normalized path is returned.
+	 */
+	@Nonnull
+	public static Path toRealPath(@Nonnull final Path path)
+	{
+		try
+		{
+			return path.toRealPath();
+		}
+		catch (IOException e)
+		{
+			return path.toAbsolutePath().normalize();
+		}
+	}
+
+	/**
+	 * @return the file name of the given file without its extension, like <code>master</code> for <code>db/master.xml</code>.
+	 */
+	@Nonnull
+	public static String getBaseName(@Nonnull final Path file)
+	{
+		final String fileName = file.getFileName().toString();
+		final int extension = fileName.lastIndexOf('.');
+		return extension > 0 ? fileName.substring(0, extension) : fileName;
+	}
+
 	@Nonnull
 	public static Path replaceStringInPath(@Nonnull final Path input, @Nonnull final String token, @Nonnull final String replacement)
 	{
@@ -42,20 +75,151 @@ public final class Utils
 		return StringUtils.replace(path.toString(), "\\", "/");
 	}
 
-	public static void skipUntillEndElement(@Nonnull final XMLEventReader xmlEventReader, @Nonnull final StartElement startElement) throws XMLStreamException
+	/**
+	 * Create a new, empty, hidden file in the same directory as the given file. Unlike {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute...)}
+	 * the file gets the default permissions, so it can replace the given file later on.
+	 */
+	@Nonnull
+	public static Path createSiblingFile(@Nonnull final Path file) throws IOException
+	{
+		final Path directory = file.toAbsolutePath().getParent();
+		while (true)
+		{
+			final Path siblingFile = directory.resolve("." + file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+			try
+			{
+				return Files.createFile(siblingFile);
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				// Try again with another name
+			}
+		}
+	}
+
+	/**
+	 * Copy the POSIX permissions of <code>source</code> to <code>target</code>. Nothing happens when <code>source</code> does not exist, or when the file system does
+	 * not support POSIX permissions.
+	 */
+	public static void copyPermissions(@Nonnull final Path source, @Nonnull final Path target) throws IOException
+	{
+		final PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		final PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+		if (sourceView != null && targetView != null && Files.exists(source))
+		{
+			targetView.setPermissions(sourceView.readAttributes().permissions());
+		}
+	}
+
+	/**
+	 * Move <code>source</code> to <code>target</code>, replacing <code>target</code> if it exists. The move is atomic if the file system supports it.
+	 */
+	public static void moveAtomically(@Nonnull final Path source, @Nonnull final Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Decode the raw value of an XML attribute, as it appears between the quotes: whitespace is normalized to spaces, and entity and character references are
+	 * resolved.
+	 */
+	@Nonnull
+	public static String decodeXmlAttributeValue(@Nonnull final String rawValue)
+	{
+		if (rawValue.indexOf('&') < 0 && rawValue.indexOf('\t') < 0 && rawValue.indexOf('\n') < 0 && rawValue.indexOf('\r') < 0)
+		{
+			return rawValue;
+		}
+
+		final StringBuilder result = new StringBuilder(rawValue.length());
+		int i = 0;
+		while (i < rawValue.length())
+		{
+			final char c = rawValue.charAt(i);
+			final int semicolon = c == '&' ? rawValue.indexOf(';', i) : -1;
+			if (semicolon > i)
+			{
+				final String reference = rawValue.substring(i + 1, semicolon);
+				if (reference.startsWith("#x"))
+				{
+					result.appendCodePoint(Integer.parseInt(reference.substring(2), 16));
+				}
+				else if (reference.startsWith("#"))
+				{
+					result.appendCodePoint(Integer.parseInt(reference.substring(1)));
+				}
+				else
+				{
+					result.append(decodePredefinedEntity(reference));
+				}
+				i = semicolon + 1;
+			}
+			else
+			{
+				if (c == '\r' && i + 1 < rawValue.length() && rawValue.charAt(i + 1) == '\n')
+				{
+					// Line endings are normalized before whitespace is
+					i++;
+				}
+				result.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+				i++;
+			}
+		}
+		return result.toString();
+	}
+
+	private static char decodePredefinedEntity(@Nonnull final String entity)
+	{
+		switch (entity)
+		{
+		case "lt":
+			return '<';
+		case "gt":
+			return '>';
+		case "amp":
+			return '&';
+		case "quot":
+			return '"';
+		case "apos":
+			return '\'';
+		default:
+			throw new IllegalArgumentException("Unknown entity &" + entity + ";");
+		}
+	}
+
+	/**
+	 * Skip the element the reader is positioned at, including everything in it. The content is not looked at. Afterwards, the reader is positioned at the end
+	 * element.
+	 */
+	public static void skipElement(@Nonnull final XMLStreamReader xmlStreamReader) throws XMLStreamException
 	{
-		while (xmlEventReader.hasNext())
+		final String localName = xmlStreamReader.getLocalName();
+		int depth = 1;
+		while (xmlStreamReader.hasNext())
 		{
-			final XMLEvent xmlEvent = xmlEventReader.nextEvent();
-			if (xmlEvent.isEndElement())
+			switch (xmlStreamReader.next())
 			{
-				final EndElement endElement = (EndElement) xmlEvent;
-				if (endElement.getName().equals(startElement.getName()))
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				if (depth == 0)
 				{
 					return;
 				}
+				break;
+			default:
+				break;
 			}
 		}
-		throw new IllegalStateException("End of document reached while searching for end tag for " + startElement.getName());
+		throw new IllegalStateException("End of document reached while searching for end tag for " + localName);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.ChecksumManifest;
+
+/**
+ * Check that the files that were frozen in earlier versions did not change, using the checksum manifests that the <code>tag</code> goal writes next to the master
+ * files when <code>checksumManifest</code> is enabled. Only the files are hashed; they are not parsed.
+ */
+@Mojo(name = "verify", defaultPhase = LifecyclePhase.VERIFY)
+public class VerifyMojo extends AbstractMojo
+{
+	/**
+	 * The master files to check the checksum manifests of.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		final List<String> problems = new ArrayList<>();
+		int manifests = 0;
+		try
+		{
+			for (final File masterFile : masterFiles)
+			{
+				for (final Path manifestFile : ChecksumManifest.find(masterFile.toPath()))
+				{
+					problems.addAll(ChecksumManifest.verify(manifestFile));
+					manifests++;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new MojoExecutionException("IO exception while verifying the checksum manifests", e);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+
+		if (!problems.isEmpty())
+		{
+			for (final String problem : problems)
+			{
+				getLog().error(problem);
+			}
+			throw new MojoFailureException("Files that were tagged in an earlier version changed; see the log for the details");
+		}
+		getLog().info("Verified " + manifests + " checksum manifests");
+	}
+}
@@ -0,0 +1,75 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jurr.liquibase.releaseplugin.context.ChangeSetIndex;
+import org.jurr.liquibase.releaseplugin.context.ChangeSetIndex.ChangeSetLocation;
+
+/**
+ * Find the versions and files a changeSet was released in. The changeSet index next to every master file is used when the <code>tag</code> goal keeps one;
+ * otherwise the tagged versions of the master file are scanned, without writing an index.
+ */
+@Mojo(name = "where-is", defaultPhase = LifecyclePhase.NONE)
+public class WhereIsMojo extends AbstractMojo
+{
+	/**
+	 * The master files to look in. The master files are handled in the order of their path.
+	 */
+	@Parameter(required = true)
+	private Set<File> masterFiles;
+
+	@Parameter(property = "classpathRoot", required = true, defaultValue = "${project.build.resources[0].directory}")
+	private File classpathRoot;
+
+	/**
+	 * The id of the changeSet to look for.
+	 */
+	@Parameter(property = "changeSetId", required = true)
+	private String changeSetId;
+
+	/**
+	 * The author of the changeSet to look for, or empty for any author.
+	 */
+	@Parameter(property = "changeSetAuthor")
+	private String changeSetAuthor;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		try
+		{
+			int found = 0;
+			for (final File masterFile : new TreeSet<>(masterFiles))
+			{
+				final Path indexFile = ChangeSetIndex.getPath(masterFile.toPath());
+				final ChangeSetIndex index = Files.isRegularFile(indexFile) ? ChangeSetIndex.read(indexFile) : ChangeSetIndex.build(masterFile.toPath(), classpathRoot.toPath());
+				final List<ChangeSetLocation> changeSets = index.find(changeSetId, changeSetAuthor == null || changeSetAuthor.isEmpty() ? null : changeSetAuthor);
+				for (final ChangeSetLocation changeSet : changeSets)
+				{
+					getLog().info(masterFile + ": " + changeSet + " (" + changeSet.getPath() + ")");
+				}
+				found += changeSets.size();
+			}
+			if (found == 0)
+			{
+				getLog().info("ChangeSet '" + changeSetId + "' was not released in any tagged version");
+			}
+		}
+		catch (IOException e)
+		{
+			throw new MojoFailureException("IO exception while looking for the changeSet", e);
+		}
+	}
+}
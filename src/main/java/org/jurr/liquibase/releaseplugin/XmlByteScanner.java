@@ -0,0 +1,492 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Very small XML scanner that works directly on the bytes of a document. It only reports start and end elements, together with their byte offsets in the document.
+ * Text, comments, CDATA sections, processing instructions and the document type declaration are skipped without being decoded.
+ * <p>
+ * This is not a validating parser; it assumes the document is well-formed. It is meant for quickly finding elements in large documents, and for copying byte
+ * ranges of a document unchanged. It only works for character sets in which the XML markup characters are encoded as single ASCII bytes, see
+ * {@link #supports(Charset)}.
+ */
+public class XmlByteScanner implements Closeable
+{
+	public static final int START_ELEMENT = XMLStreamConstants.START_ELEMENT;
+	public static final int END_ELEMENT = XMLStreamConstants.END_ELEMENT;
+	public static final int END_DOCUMENT = XMLStreamConstants.END_DOCUMENT;
+
+	private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PROCESSING_INSTRUCTION_END = "?>".getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream inputStream;
+	private final Charset charset;
+	private final byte[] buffer = new byte[16 * 1024];
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+	private long bufferOffset = 0;
+
+	private byte[] tag = new byte[256];
+	private int tagLength;
+	private int nameEnd;
+	private int localNameStart;
+	private int attributeNameStart;
+	private int attributeLocalNameStart;
+	private int attributeNameEnd;
+	private int attributeValueStart;
+	private int attributeValueEnd;
+	private long startOffset;
+	private long endOffset;
+	private int depth = 0;
+	private boolean pendingEmptyElementEnd = false;
+	private int eventType = XMLStreamConstants.START_DOCUMENT;
+	private MessageDigest digest;
+	private long digestOffset;
+
+	public XmlByteScanner(@Nonnull final InputStream inputStream, @Nonnull final Charset charset)
+	{
+		this.inputStream = inputStream;
+		this.charset = charset;
+	}
+
+	/**
+	 * @return whether documents in the given character set can be scanned.
+	 */
+	public static boolean supports(@Nonnull final Charset charset)
+	{
+		if (!charset.canEncode())
+		{
+			return false;
+		}
+		final String markup = "<!-- --><?pi?><![CDATA[]]><a:b c='d' e=\"f\"/>\t\r\n";
+		return Arrays.equals(markup.getBytes(charset), markup.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Move to the next start or end element.
+	 *
+	 * @return {@link #START_ELEMENT}, {@link #END_ELEMENT} or {@link #END_DOCUMENT}
+	 * @throws IOException whenever there is an exception while reading, or the document ends in the middle of markup
+	 */
+	public int next() throws IOException
+	{
+		if (pendingEmptyElementEnd)
+		{
+			// An empty element is reported as start and end element, just like StAX does
+			pendingEmptyElementEnd = false;
+			depth--;
+			startOffset = endOffset;
+			eventType = END_ELEMENT;
+			return eventType;
+		}
+
+		while (true)
+		{
+			int b = read();
+			while (b != '<')
+			{
+				if (b < 0)
+				{
+					eventType = END_DOCUMENT;
+					return eventType;
+				}
+				b = read();
+			}
+
+			final long markupOffset = bufferOffset + bufferPosition - 1;
+			b = readRequired();
+			if (b == '!')
+			{
+				skipDeclaration();
+			}
+			else if (b == '?')
+			{
+				skipUntil(PROCESSING_INSTRUCTION_END);
+			}
+			else
+			{
+				startOffset = markupOffset;
+				readTag(b);
+				endOffset = bufferOffset + bufferPosition;
+				if (b == '/')
+				{
+					depth--;
+					eventType = END_ELEMENT;
+				}
+				else
+				{
+					depth++;
+					pendingEmptyElementEnd = tag[tagLength - 2] == '/';
+					eventType = START_ELEMENT;
+				}
+				return eventType;
+			}
+		}
+	}
+
+	public int getEventType()
+	{
+		return eventType;
+	}
+
+	/**
+	 * @return the offset of the first byte of the current element's tag, that is the <code>&lt;</code>. For the end event of an empty element, this is the same as
+	 *         {@link #getEndOffset()}.
+	 */
+	public long getStartOffset()
+	{
+		return startOffset;
+	}
+
+	/**
+	 * @return the offset just after the last byte of the current element's tag, that is just after the <code>&gt;</code>.
+	 */
+	public long getEndOffset()
+	{
+		return endOffset;
+	}
+
+	/**
+	 * @return the depth of the current element. The root element has depth 1. For an end element, this is the depth of the parent.
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * @return whether the current start element is an empty element, like <code>&lt;include/&gt;</code>.
+	 */
+	public boolean isEmptyElement()
+	{
+		return eventType == START_ELEMENT && pendingEmptyElementEnd;
+	}
+
+	/**
+	 * @return whether the local name (that is, the name without namespace prefix) of the current element is the given name. This does not allocate anything.
+	 */
+	public boolean isLocalName(@Nonnull final String localName)
+	{
+		if (nameEnd - localNameStart != localName.length())
+		{
+			return false;
+		}
+		for (int i = 0; i < localName.length(); i++)
+		{
+			if (tag[localNameStart + i] != localName.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Nonnull
+	public String getLocalName()
+	{
+		return new String(tag, localNameStart, nameEnd - localNameStart, charset);
+	}
+
+	/**
+	 * @return the bytes of the current tag, from <code>&lt;</code> up to and including <code>&gt;</code>. Only valid until the next call to {@link #next()}.
+	 */
+	@Nonnull
+	public byte[] getTagBytes()
+	{
+		return tag;
+	}
+
+	public int getTagLength()
+	{
+		return tagLength;
+	}
+
+	/**
+	 * @return the qualified name of the current element, that is including its namespace prefix, if any.
+	 */
+	@Nonnull
+	public String getQualifiedName()
+	{
+		final int nameStart = tag[1] == '/' ? 2 : 1;
+		return new String(tag, nameStart, nameEnd - nameStart, charset);
+	}
+
+	/**
+	 * @return the offset in {@link #getTagBytes()} just after the qualified name of the current element. Attributes can be inserted here.
+	 */
+	public int getNameEnd()
+	{
+		return nameEnd;
+	}
+
+	/**
+	 * @return the value of the attribute with the given local name on the current start element, with entity and character references resolved. Returns
+	 *         <code>null</code> when there is no such attribute.
+	 */
+	@CheckForNull
+	public String getAttributeValue(@Nonnull final String localName)
+	{
+		int i = nameEnd;
+		while ((i = nextAttribute(i)) >= 0)
+		{
+			if (attributeNameEnd - attributeLocalNameStart == localName.length() && new String(tag, attributeLocalNameStart, attributeNameEnd - attributeLocalNameStart, StandardCharsets.US_ASCII).equals(localName))
+			{
+				return Utils.decodeXmlAttributeValue(new String(tag, attributeValueStart, attributeValueEnd - attributeValueStart, charset));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the attributes of the current start element, by their qualified name and in the order they are written. The values are as written in the document,
+	 *         so entity and character references are not resolved.
+	 */
+	@Nonnull
+	public Map<String, String> getAttributes()
+	{
+		final Map<String, String> result = new LinkedHashMap<>();
+		int i = nameEnd;
+		while ((i = nextAttribute(i)) >= 0)
+		{
+			result.put(new String(tag, attributeNameStart, attributeNameEnd - attributeNameStart, charset), new String(tag, attributeValueStart, attributeValueEnd - attributeValueStart, charset));
+		}
+		return result;
+	}
+
+	/**
+	 * Find the next attribute of the current tag, starting at the given offset in the tag. Its bounds are kept in the <code>attribute...</code> fields.
+	 *
+	 * @return the offset just after the attribute, or -1 if there are no more attributes
+	 */
+	private int nextAttribute(final int from)
+	{
+		int i = from;
+		while (i < tagLength && isWhitespace(tag[i]))
+		{
+			i++;
+		}
+		attributeNameStart = i;
+		attributeLocalNameStart = i;
+		while (i < tagLength && tag[i] != '=' && !isWhitespace(tag[i]) && tag[i] != '/' && tag[i] != '>')
+		{
+			if (tag[i] == ':')
+			{
+				attributeLocalNameStart = i + 1;
+			}
+			i++;
+		}
+		if (i == attributeNameStart)
+		{
+			return -1;
+		}
+		attributeNameEnd = i;
+		while (i < tagLength && tag[i] != '\'' && tag[i] != '"')
+		{
+			i++;
+		}
+		if (i == tagLength)
+		{
+			return -1;
+		}
+		final byte quote = tag[i++];
+		attributeValueStart = i;
+		while (i < tagLength && tag[i] != quote)
+		{
+			i++;
+		}
+		attributeValueEnd = i++;
+		return i;
+	}
+
+	/**
+	 * Pass the bytes of the document to the given digest as they are scanned, starting with the tag of the current start element, until {@link #endDigest()} is
+	 * called.
+	 */
+	public void startDigest(@Nonnull final MessageDigest digest)
+	{
+		this.digest = digest;
+		digest.update(tag, 0, tagLength);
+		digestOffset = endOffset;
+	}
+
+	/**
+	 * Stop passing bytes to the digest of {@link #startDigest(MessageDigest)}, after the tag of the current element.
+	 */
+	public void endDigest()
+	{
+		digest.update(buffer, (int) (digestOffset - bufferOffset), (int) (endOffset - digestOffset));
+		digest = null;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		inputStream.close();
+	}
+
+	private void readTag(final int secondByte) throws IOException
+	{
+		tagLength = 0;
+		appendToTag('<');
+		appendToTag(secondByte);
+
+		int quote = 0;
+		int b = secondByte;
+		while (quote != 0 || b != '>')
+		{
+			b = readRequired();
+			appendToTag(b);
+			if (quote != 0)
+			{
+				if (b == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (b == '"' || b == '\'')
+			{
+				quote = b;
+			}
+		}
+
+		final int nameStart = secondByte == '/' ? 2 : 1;
+		nameEnd = nameStart;
+		localNameStart = nameStart;
+		while (nameEnd < tagLength && !isWhitespace(tag[nameEnd]) && tag[nameEnd] != '/' && tag[nameEnd] != '>')
+		{
+			if (tag[nameEnd] == ':')
+			{
+				localNameStart = nameEnd + 1;
+			}
+			nameEnd++;
+		}
+	}
+
+	private void appendToTag(final int b)
+	{
+		if (tagLength == tag.length)
+		{
+			tag = Arrays.copyOf(tag, tag.length * 2);
+		}
+		tag[tagLength++] = (byte) b;
+	}
+
+	private void skipDeclaration() throws IOException
+	{
+		int b = readRequired();
+		if (b == '-')
+		{
+			readRequired();
+			skipUntil(COMMENT_END);
+		}
+		else if (b == '[')
+		{
+			skipUntil(CDATA_END);
+		}
+		else
+		{
+			// Document type declaration, possibly with an internal subset between square brackets
+			int brackets = 0;
+			int quote = 0;
+			while (quote != 0 || brackets > 0 || b != '>')
+			{
+				if (quote != 0)
+				{
+					if (b == quote)
+					{
+						quote = 0;
+					}
+				}
+				else if (b == '"' || b == '\'')
+				{
+					quote = b;
+				}
+				else if (b == '[')
+				{
+					brackets++;
+				}
+				else if (b == ']')
+				{
+					brackets--;
+				}
+				b = readRequired();
+			}
+		}
+	}
+
+	/**
+	 * Skip until just after the given end marker. The end marker must consist of a repeated character followed by one other character, like <code>--&gt;</code>.
+	 */
+	private void skipUntil(@Nonnull final byte[] end) throws IOException
+	{
+		int matched = 0;
+		while (matched < end.length)
+		{
+			final int b = readRequired();
+			if (b == end[matched])
+			{
+				matched++;
+			}
+			else if (b != end[0])
+			{
+				matched = 0;
+			}
+			// else: something like "--->"; the last characters still match the start of the end marker
+		}
+	}
+
+	private int readRequired() throws IOException
+	{
+		final int b = read();
+		if (b < 0)
+		{
+			throw new EOFException("Unexpected end of document at offset " + (bufferOffset + bufferPosition));
+		}
+		return b;
+	}
+
+	private int read() throws IOException
+	{
+		if (bufferPosition == bufferLimit)
+		{
+			if (digest != null)
+			{
+				digest.update(buffer, (int) (digestOffset - bufferOffset), (int) (bufferOffset + bufferLimit - digestOffset));
+				digestOffset = bufferOffset + bufferLimit;
+			}
+			bufferOffset += bufferLimit;
+			bufferPosition = 0;
+			bufferLimit = 0;
+			int read = 0;
+			while (read == 0)
+			{
+				read = inputStream.read(buffer);
+			}
+			if (read < 0)
+			{
+				return -1;
+			}
+			bufferLimit = read;
+		}
+		return buffer[bufferPosition++] & 0xFF;
+	}
+
+	private static boolean isWhitespace(final byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+}
@@ -0,0 +1,259 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * Squashes the versions in an XML master file that are older than a given version into one baseline changelog next to the master file. The changeSets of the
+ * included files and the changeSets in the master file itself are copied into the baseline byte for byte and in order, and the master file includes the baseline
+ * instead.
+ * <p>
+ * Every changeSet in the baseline gets a <code>logicalFilePath</code> attribute with the path of the file it came from, unless it already has one. Liquibase
+ * identifies a changeSet by its id, author and file path, so databases that already ran the changeSets do not run them again, and their checksums stay the same.
+ * The path of the master file is taken relative to the classpath root, unless its <code>databaseChangeLog</code> has a <code>logicalFilePath</code>.
+ * <p>
+ * The files are scanned with an {@link XmlByteScanner} and copied in a streaming way, so they are never parsed or kept in memory as a whole.
+ */
+public final class BaselineChangeLog
+{
+	private final Path masterFile;
+	private final Path classpathRoot;
+	private final String version;
+	private final Charset charset = Charset.defaultCharset();
+
+	private Path path;
+	private int consolidatedVersions;
+
+	/**
+	 * @param version the version to consolidate everything before. The versions before it end up in the baseline; this version and the ones after it stay in the
+	 *            master file.
+	 */
+	public BaselineChangeLog(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @Nonnull final String version)
+	{
+		this.masterFile = masterFile;
+		this.classpathRoot = classpathRoot;
+		this.version = version;
+	}
+
+	/**
+	 * @return the baseline changelog, once it is staged.
+	 */
+	@CheckForNull
+	public Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return the number of versions in the baseline changelog, once it is staged.
+	 */
+	public int getConsolidatedVersions()
+	{
+		return consolidatedVersions;
+	}
+
+	/**
+	 * Write the baseline changelog and the new master file, and stage them in the given transaction.
+	 *
+	 * @throws IOException whenever there is an exception while reading or writing the files
+	 * @throws IllegalArgumentException whenever the master file or one of its older versions can not be consolidated
+	 */
+	public void stage(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		if (ChangeLogFormat.forPath(masterFile) != null)
+		{
+			throw new IllegalArgumentException("Only XML master files can be consolidated, but " + masterFile + " is not");
+		}
+		if (!XmlByteScanner.supports(charset))
+		{
+			throw new IllegalArgumentException("Master files in character set " + charset + " can not be consolidated");
+		}
+
+		final MasterFileIndex master = MasterFileIndex.read(masterFile, version);
+		final int lastConsolidated = findLastConsolidatedElement(master, masterFile, version);
+		final Element lastTag = master.elements.get(lastConsolidated);
+		path = masterFile.resolveSibling(Utils.getBaseName(masterFile) + "-baseline-" + lastTag.tag + ".xml");
+
+		final SpillableOutputStream baseline = new SpillableOutputStream(path, LiquibaseProject.DEFAULT_MAX_IN_MEMORY_FILE_SIZE);
+		final SpillableOutputStream newMasterFile = new SpillableOutputStream(masterFile, LiquibaseProject.DEFAULT_MAX_IN_MEMORY_FILE_SIZE);
+		boolean success = false;
+		try
+		{
+			try (SpillableOutputStream output = baseline)
+			{
+				writeBaseline(master, lastConsolidated, output);
+			}
+			try (SpillableOutputStream output = newMasterFile)
+			{
+				writeNewMasterFile(master, lastConsolidated, output);
+			}
+
+			final Path stagedBaseline = baseline.stage();
+			fileTransaction.addStagedFile(stagedBaseline);
+			fileTransaction.move(stagedBaseline, path);
+			fileTransaction.replace(newMasterFile.stage(), masterFile);
+			success = true;
+		}
+		finally
+		{
+			if (!success)
+			{
+				baseline.discard();
+				newMasterFile.discard();
+			}
+		}
+	}
+
+	private void writeBaseline(@Nonnull final MasterFileIndex master, final int lastConsolidated, @Nonnull final OutputStream output) throws IOException
+	{
+		final String rawLogicalFilePath = master.rootAttributes.get(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+		final String masterFilePath = ChangeLogFlattener.getMasterFilePath(masterFile, classpathRoot, rawLogicalFilePath);
+		final String masterLogicalPath = rawLogicalFilePath == null ? masterFilePath : Utils.decodeXmlAttributeValue(rawLogicalFilePath);
+
+		final WritableByteChannel target = Channels.newChannel(output);
+		final ChangeLogFlattener flattener = new ChangeLogFlattener(classpathRoot, target, master.rootAttributes);
+		try (FileChannel channel = FileChannel.open(masterFile, StandardOpenOption.READ))
+		{
+			// The prolog and the databaseChangeLog tag of the master file, so the baseline has the same encoding and namespaces
+			LatestFileSplicer.transfer(channel, 0, master.rootEnd, target);
+
+			for (int i = 0; i <= lastConsolidated; i++)
+			{
+				final Element element = master.elements.get(i);
+				if (DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart().equals(element.localName))
+				{
+					flattener.write("\n\t");
+					flattener.copyChangeSet(channel, element, masterLogicalPath, null);
+					if (element.tag != null)
+					{
+						flattener.write("\n");
+						consolidatedVersions++;
+					}
+				}
+				else if (DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName))
+				{
+					flattener.copyIncludedFile(element.attributes, masterFile, masterFilePath);
+				}
+			}
+		}
+		flattener.write("\n</" + master.rootQualifiedName + ">\n");
+	}
+
+	private void writeNewMasterFile(@Nonnull final MasterFileIndex master, final int lastConsolidated, @Nonnull final OutputStream output) throws IOException
+	{
+		final WritableByteChannel target = Channels.newChannel(output);
+		try (FileChannel channel = FileChannel.open(masterFile, StandardOpenOption.READ))
+		{
+			Element first = null;
+			for (int i = 0; i <= lastConsolidated && first == null; i++)
+			{
+				if (isConsolidated(master.elements.get(i)))
+				{
+					first = master.elements.get(i);
+				}
+			}
+			final Element last = master.elements.get(lastConsolidated);
+
+			// Leave out everything from the line of the first consolidated element up to the line of the last one, except for elements that are not consolidated
+			final long lineStart = LatestFileSplicer.findLineStart(channel, first.start);
+			final long spanStart = lineStart >= master.rootEnd ? lineStart : first.start;
+			final long lineEnd = LatestFileSplicer.findLineEnd(channel, last.end);
+			final long spanEnd = lineEnd >= 0 ? lineEnd : last.end;
+			final String indentation = spanStart < first.start ? read(channel, spanStart, first.start) : "\t";
+
+			LatestFileSplicer.transfer(channel, 0, spanStart, target);
+			for (int i = 0; i <= lastConsolidated; i++)
+			{
+				final Element element = master.elements.get(i);
+				if (!isConsolidated(element) && element.start > first.start)
+				{
+					write(output, indentation);
+					LatestFileSplicer.transfer(channel, element.start, element.end - element.start, target);
+					write(output, "\n");
+				}
+			}
+
+			final String prefix = master.getPrefix();
+			write(output, indentation + "<!-- Baseline of the versions up to " + last.tag + " -->\n");
+			write(output, indentation + "<" + prefix + DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart() + " " + DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart() + "=\"" + ChangeLogFlattener.escape(path.getFileName().toString())
+					+ "\" " + DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart() + "=\"true\"></" + prefix + DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart() + ">");
+			if (spanEnd > last.end)
+			{
+				write(output, "\n");
+			}
+			LatestFileSplicer.transfer(channel, spanEnd, channel.size() - spanEnd, target);
+		}
+	}
+
+	@Nonnull
+	private String read(@Nonnull final FileChannel channel, final long start, final long end) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0)
+		{
+			// Read until the buffer is full
+		}
+		return new String(buffer.array(), 0, buffer.position(), charset);
+	}
+
+	private void write(@Nonnull final OutputStream output, @Nonnull final String text) throws IOException
+	{
+		output.write(text.getBytes(charset));
+	}
+
+	/**
+	 * @return the index of the last tagDatabase changeSet before the one of the given version.
+	 */
+	private static int findLastConsolidatedElement(@Nonnull final MasterFileIndex master, @Nonnull final Path masterFile, @Nonnull final String version)
+	{
+		final int versionIndex = master.elements.size() - 1;
+		if (versionIndex < 0 || !version.equals(master.elements.get(versionIndex).tag))
+		{
+			throw new IllegalArgumentException("Version " + version + " is not tagged in file " + masterFile);
+		}
+
+		int lastConsolidated = -1;
+		for (int i = versionIndex - 1; i >= 0 && lastConsolidated < 0; i--)
+		{
+			if (master.elements.get(i).tag != null)
+			{
+				lastConsolidated = i;
+			}
+		}
+		if (lastConsolidated < 0)
+		{
+			throw new IllegalArgumentException("There are no versions before version " + version + " in file " + masterFile + " to consolidate");
+		}
+
+		for (int i = 0; i < lastConsolidated; i++)
+		{
+			final Element element = master.elements.get(i);
+			if (!isConsolidated(element) && !ChangeLogFlattener.PROPERTY_TAG.equals(element.localName) && !ChangeLogFlattener.PRE_CONDITIONS_TAG.equals(element.localName))
+			{
+				throw new IllegalArgumentException("Can not consolidate file " + masterFile + "; it contains a " + element.localName + " tag before version " + version);
+			}
+		}
+		return lastConsolidated;
+	}
+
+	private static boolean isConsolidated(@Nonnull final Element element)
+	{
+		return DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart().equals(element.localName) || DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName);
+	}
+}
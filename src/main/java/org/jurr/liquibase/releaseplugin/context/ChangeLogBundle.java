@@ -0,0 +1,77 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.Utils;
+
+/**
+ * Flattens an XML master file and everything it includes into one changelog, so Liquibase reads one file instead of looking up every include on the classpath.
+ * <p>
+ * The changeSets are copied byte for byte and in order, and each gets a <code>logicalFilePath</code> with the path Liquibase knows it by, so the checksums and the
+ * rows in <code>DATABASECHANGELOG</code> stay the same. The files are streamed from disk to disk, so the size of the tree does not matter.
+ */
+public final class ChangeLogBundle
+{
+	private final Path masterFile;
+	private final Path classpathRoot;
+	private long changeSets;
+	private int files;
+
+	public ChangeLogBundle(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot)
+	{
+		this.masterFile = masterFile;
+		this.classpathRoot = classpathRoot;
+	}
+
+	/**
+	 * Write the bundle. The bundle is written next to the given file first and moved in place when it is complete, so an existing bundle is never left half
+	 * written.
+	 */
+	public void write(@Nonnull final Path bundleFile) throws IOException
+	{
+		final Path parent = bundleFile.toAbsolutePath().getParent();
+		if (parent != null)
+		{
+			Files.createDirectories(parent);
+		}
+
+		final Path temporaryFile = Utils.createSiblingFile(bundleFile);
+		try
+		{
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				final ChangeLogFlattener flattener = new ChangeLogFlattener(classpathRoot, channel, null);
+				flattener.copyMasterFile(masterFile);
+				changeSets = flattener.getChangeSets();
+				files = flattener.getFiles();
+			}
+			Utils.moveAtomically(temporaryFile, bundleFile);
+		}
+		finally
+		{
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * @return the number of changeSets in the bundle.
+	 */
+	public long getChangeSets()
+	{
+		return changeSets;
+	}
+
+	/**
+	 * @return the number of files that were flattened into the bundle, including the master file.
+	 */
+	public int getFiles()
+	{
+		return files;
+	}
+}
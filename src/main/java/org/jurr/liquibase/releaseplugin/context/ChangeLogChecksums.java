@@ -0,0 +1,340 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.CountingInputStream;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+
+/**
+ * The checksums of a changelog file that is frozen in a version: one of the whole file, and one of every changeSet in it. The checksums are SHA-256 hashes of the
+ * bytes in the file, so any change to the file or to a changeSet, even in whitespace, changes its checksum.
+ * <p>
+ * The changeSets are only found in XML files that can be scanned on byte level, see {@link XmlByteScanner}. Of other files, only the checksum of the whole file is
+ * known.
+ */
+final class ChangeLogChecksums
+{
+	static final String ALGORITHM = "SHA-256";
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final String checksum;
+	private final List<ChangeSetChecksum> changeSets;
+	private final long bytesRead;
+
+	private ChangeLogChecksums(@Nonnull final String checksum, @Nonnull final List<ChangeSetChecksum> changeSets, final long bytesRead)
+	{
+		this.checksum = checksum;
+		this.changeSets = Collections.unmodifiableList(changeSets);
+		this.bytesRead = bytesRead;
+	}
+
+	/**
+	 * @param xml whether the file is an XML changelog, of which the changeSets can be found
+	 */
+	@Nonnull
+	static ChangeLogChecksums compute(@Nonnull final Path file, final boolean xml) throws IOException
+	{
+		final ComputingInputStream input = new ComputingInputStream(Files.newInputStream(file), xml);
+		try (InputStream inputStream = input)
+		{
+			drain(inputStream);
+		}
+		return input.getChecksums();
+	}
+
+	/**
+	 * @return the checksum of the whole given file, like {@link #getChecksum()} of the file.
+	 */
+	@Nonnull
+	static String checksumOf(@Nonnull final Path file) throws IOException
+	{
+		final MessageDigest digest = newMessageDigest();
+		try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest))
+		{
+			drain(input);
+		}
+		return toHex(digest.digest());
+	}
+
+	@Nonnull
+	String getChecksum()
+	{
+		return checksum;
+	}
+
+	/**
+	 * @return the changeSets in the file, in the order they appear in the file. This is empty when the changeSets could not be found.
+	 */
+	@Nonnull
+	List<ChangeSetChecksum> getChangeSets()
+	{
+		return changeSets;
+	}
+
+	/**
+	 * @return the number of bytes that were read to compute the checksums.
+	 */
+	long getBytesRead()
+	{
+		return bytesRead;
+	}
+
+	private static void drain(@Nonnull final InputStream input) throws IOException
+	{
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		while (input.read(buffer) >= 0)
+		{
+			// Only read, for the digest
+		}
+	}
+
+	@Nonnull
+	private static MessageDigest newMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+
+	@Nonnull
+	private static String toHex(@Nonnull final byte[] bytes)
+	{
+		final StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+		{
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Passes the bytes of a changelog file on unchanged, and computes the checksums of the file while they are read. The checksums are known once the whole file is
+	 * read.
+	 */
+	static final class ComputingInputStream extends InputStream
+	{
+		private final MessageDigest fileDigest = newMessageDigest();
+		private final CountingInputStream input;
+		private final List<ChangeSetChecksum> changeSets = new ArrayList<>();
+		private XmlByteScanner scanner;
+
+		// The bytes the scanner read ahead, that have not been passed on yet
+		private byte[] scanned = new byte[BUFFER_SIZE];
+		private int scannedStart;
+		private int scannedEnd;
+
+		private String rootLogicalFilePath;
+		private int changeSetDepth = -1;
+		private String[] changeSet;
+		private MessageDigest changeSetDigest;
+		private boolean endOfFile = false;
+		private ChangeLogChecksums checksums;
+
+		/**
+		 * @param xml whether the file is an XML changelog, of which the changeSets can be found
+		 */
+		ComputingInputStream(@Nonnull final InputStream inputStream, final boolean xml)
+		{
+			input = new CountingInputStream(new DigestInputStream(inputStream, fileDigest));
+			final Charset charset = Charset.defaultCharset();
+			if (xml && XmlByteScanner.supports(charset))
+			{
+				scanner = new XmlByteScanner(new ScannedInputStream(), charset);
+			}
+		}
+
+		/**
+		 * @return the checksums of the file, or <code>null</code> if this stream was closed before the whole file was read.
+		 */
+		@CheckForNull
+		ChangeLogChecksums getChecksums()
+		{
+			return checksums;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			while (scannedStart == scannedEnd)
+			{
+				if (scanner == null)
+				{
+					final int read = input.read(b, off, len);
+					endOfFile = read < 0;
+					return read;
+				}
+				scan();
+			}
+			final int read = Math.min(len, scannedEnd - scannedStart);
+			System.arraycopy(scanned, scannedStart, b, off, read);
+			scannedStart += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			input.close();
+			if (endOfFile && checksums == null)
+			{
+				checksums = new ChangeLogChecksums(toHex(fileDigest.digest()), changeSets, input.getCount());
+			}
+		}
+
+		/**
+		 * Let the scanner read up to the next element, and compute the checksum of the changeSet the element starts or ends.
+		 */
+		private void scan() throws IOException
+		{
+			try
+			{
+				final int eventType = scanner.next();
+				if (eventType == XmlByteScanner.END_DOCUMENT)
+				{
+					if (changeSetDepth > 0)
+					{
+						changeSets.clear();
+					}
+					scanner = null;
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 1)
+				{
+					rootLogicalFilePath = scanner.getAttributeValue(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && changeSetDepth < 0 && scanner.isLocalName(DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart()))
+				{
+					changeSetDepth = scanner.getDepth();
+					final String logicalFilePath = scanner.getAttributeValue(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+					changeSet = new String[] { scanner.getAttributeValue(DatabaseChangeLogFile.CHANGE_SET_TAG_ID_ATTRIBUTE.getLocalPart()),
+							scanner.getAttributeValue(DatabaseChangeLogFile.CHANGE_SET_TAG_AUTHOR_ATTRIBUTE.getLocalPart()), logicalFilePath != null ? logicalFilePath : rootLogicalFilePath };
+					changeSetDigest = newMessageDigest();
+					scanner.startDigest(changeSetDigest);
+				}
+				else if (eventType == XmlByteScanner.END_ELEMENT && changeSetDepth > 0 && scanner.getDepth() == changeSetDepth - 1)
+				{
+					changeSetDepth = -1;
+					scanner.endDigest();
+					changeSets.add(new ChangeSetChecksum(changeSet[0], changeSet[1], changeSet[2], toHex(changeSetDigest.digest())));
+				}
+			}
+			catch (EOFException | IllegalArgumentException e)
+			{
+				// Not well-formed; only the checksum of the whole file is known
+				changeSets.clear();
+				scanner = null;
+			}
+		}
+
+		/**
+		 * What the scanner reads: the file, of which every byte is kept until it is passed on.
+		 */
+		private final class ScannedInputStream extends InputStream
+		{
+			@Override
+			public int read() throws IOException
+			{
+				final byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException
+			{
+				final int read = input.read(b, off, len);
+				if (read > 0)
+				{
+					if (scannedStart == scannedEnd)
+					{
+						scannedStart = 0;
+						scannedEnd = 0;
+					}
+					if (scannedEnd + read > scanned.length)
+					{
+						scanned = Arrays.copyOf(scanned, Math.max(scanned.length * 2, scannedEnd + read));
+					}
+					System.arraycopy(b, off, scanned, scannedEnd, read);
+					scannedEnd += read;
+				}
+				return read;
+			}
+		}
+	}
+
+	/**
+	 * The checksum of one changeSet.
+	 */
+	static final class ChangeSetChecksum
+	{
+		private final String id;
+		private final String author;
+		private final String logicalFilePath;
+		private final String checksum;
+
+		ChangeSetChecksum(@CheckForNull final String id, @CheckForNull final String author, @CheckForNull final String logicalFilePath, @Nonnull final String checksum)
+		{
+			this.id = id;
+			this.author = author;
+			this.logicalFilePath = logicalFilePath;
+			this.checksum = checksum;
+		}
+
+		@CheckForNull
+		String getId()
+		{
+			return id;
+		}
+
+		@CheckForNull
+		String getAuthor()
+		{
+			return author;
+		}
+
+		/**
+		 * @return the <code>logicalFilePath</code> of the changeSet, or else of the file, or <code>null</code> if neither has one.
+		 */
+		@CheckForNull
+		String getLogicalFilePath()
+		{
+			return logicalFilePath;
+		}
+
+		@Nonnull
+		String getChecksum()
+		{
+			return checksum;
+		}
+	}
+}
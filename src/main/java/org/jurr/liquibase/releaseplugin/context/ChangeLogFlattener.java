@@ -0,0 +1,360 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.ChangeLogArchive;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+
+/**
+ * Copies the changeSets of XML changelogs into one other changelog, byte for byte and in order, following the includes in the changelogs.
+ * <p>
+ * Every changeSet that is copied gets a <code>logicalFilePath</code> attribute with the path Liquibase knows it by, unless it already has one. Liquibase
+ * identifies a changeSet by its id, author and file path, so it sees no difference between the copied changeSets and the original ones, and their checksums stay
+ * the same. Namespaces that are declared on the root of the original file and not on the root of the new changelog are declared on the changeSet itself.
+ * <p>
+ * The files are scanned with an {@link XmlByteScanner}, and the changeSets are copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so the
+ * files are never parsed or kept in memory.
+ */
+final class ChangeLogFlattener
+{
+	static final String LOGICAL_FILE_PATH_ATTRIBUTE = "logicalFilePath";
+	static final String PROPERTY_TAG = "property";
+	static final String PRE_CONDITIONS_TAG = "preConditions";
+
+	private static final String XMLNS_ATTRIBUTE = "xmlns";
+	private static final String ERROR_IF_MISSING_ATTRIBUTE = "errorIfMissing";
+
+	private final Path classpathRoot;
+	private final WritableByteChannel target;
+	private final Charset charset = Charset.defaultCharset();
+	private final Set<Path> filesBeingCopied = new HashSet<>();
+	private Map<String, String> targetRootAttributes;
+	private long changeSets;
+	private int files;
+
+	/**
+	 * @param targetRootAttributes the attributes of the root of the new changelog, or <code>null</code> if the root of the master file is copied with
+	 *            {@link #copyMasterFile(Path)}
+	 */
+	ChangeLogFlattener(@Nonnull final Path classpathRoot, @Nonnull final WritableByteChannel target, @CheckForNull final Map<String, String> targetRootAttributes)
+	{
+		this.classpathRoot = classpathRoot;
+		this.target = target;
+		this.targetRootAttributes = targetRootAttributes;
+	}
+
+	/**
+	 * @return the number of changeSets copied.
+	 */
+	long getChangeSets()
+	{
+		return changeSets;
+	}
+
+	/**
+	 * @return the number of files read, including the master file.
+	 */
+	int getFiles()
+	{
+		return files;
+	}
+
+	/**
+	 * Copy the whole master file, with everything it includes, including its prolog and root tag.
+	 */
+	void copyMasterFile(@Nonnull final Path masterFile) throws IOException
+	{
+		copyFile(masterFile, null, true);
+	}
+
+	/**
+	 * Copy the changeSets of an included file, and of the files it includes.
+	 *
+	 * @param includeAttributes the attributes on the include tag, as written in the file
+	 * @param parentFile the file that includes the file
+	 * @param parentPath the path Liquibase finds the parent file by, which relative includes are resolved against
+	 */
+	void copyIncludedFile(@Nonnull final Map<String, String> includeAttributes, @Nonnull final Path parentFile, @Nonnull final String parentPath) throws IOException
+	{
+		final String rawFile = includeAttributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart());
+		final String file = rawFile == null ? "" : Utils.decodeXmlAttributeValue(rawFile);
+		for (final String attribute : includeAttributes.keySet())
+		{
+			if (!attribute.equals(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart()) && !attribute.equals(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart())
+					&& !attribute.equals(ERROR_IF_MISSING_ATTRIBUTE))
+			{
+				throw new IllegalArgumentException("The include of " + file + " in file " + parentFile + " has a " + attribute + " attribute, which can not be moved to its changeSets");
+			}
+		}
+		if (file.trim().isEmpty())
+		{
+			throw new IllegalArgumentException("No file given for an include in file " + parentFile);
+		}
+		if (file.contains(ChangeLogArchive.ENTRY_SEPARATOR))
+		{
+			throw new IllegalArgumentException("File " + file + " in file " + parentFile + " is packed in an archive, which can not be copied");
+		}
+		if (ChangeLogFormat.forPath(Paths.get(file)) != null)
+		{
+			throw new IllegalArgumentException("Only XML changelogs can be copied, but " + file + " in file " + parentFile + " is not");
+		}
+
+		final boolean relativeToChangelogFile = Boolean.parseBoolean(includeAttributes.get(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart()));
+		final Path includedFile = Utils.resolveIncludeFile(parentFile, Paths.get(file), relativeToChangelogFile, classpathRoot);
+		if ("false".equals(includeAttributes.get(ERROR_IF_MISSING_ATTRIBUTE)) && !Files.exists(includedFile))
+		{
+			return;
+		}
+
+		copyFile(includedFile, getIncludedFilePath(parentPath, file, relativeToChangelogFile), false);
+	}
+
+	/**
+	 * Copy a changeSet, with a <code>logicalFilePath</code> and the given namespace declarations added to it.
+	 */
+	void copyChangeSet(@Nonnull final FileChannel channel, @Nonnull final Element changeSet, @Nonnull final String logicalPath, @CheckForNull final Map<String, String> namespaces) throws IOException
+	{
+		final StringBuilder insertedAttributes = new StringBuilder();
+		if (namespaces != null)
+		{
+			for (final Map.Entry<String, String> namespace : namespaces.entrySet())
+			{
+				if (!changeSet.attributes.containsKey(namespace.getKey()))
+				{
+					insertedAttributes.append(' ').append(namespace.getKey()).append("=\"").append(namespace.getValue().replace("\"", "&quot;")).append('"');
+				}
+			}
+		}
+		if (!changeSet.attributes.containsKey(LOGICAL_FILE_PATH_ATTRIBUTE))
+		{
+			insertedAttributes.append(' ').append(LOGICAL_FILE_PATH_ATTRIBUTE).append("=\"").append(escape(logicalPath)).append('"');
+		}
+
+		final long nameEnd = changeSet.start + changeSet.nameEnd;
+		LatestFileSplicer.transfer(channel, changeSet.start, nameEnd - changeSet.start, target);
+		write(insertedAttributes.toString());
+		LatestFileSplicer.transfer(channel, nameEnd, changeSet.end - nameEnd, target);
+		changeSets++;
+	}
+
+	/**
+	 * Copy an element as it is.
+	 */
+	void copyElement(@Nonnull final FileChannel channel, @Nonnull final Element element) throws IOException
+	{
+		LatestFileSplicer.transfer(channel, element.start, element.end - element.start, target);
+	}
+
+	void write(@Nonnull final String text) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(charset));
+		while (buffer.hasRemaining())
+		{
+			target.write(buffer);
+		}
+	}
+
+	/**
+	 * @param path the path Liquibase finds the file by, or <code>null</code> for the master file
+	 */
+	private void copyFile(@Nonnull final Path file, @CheckForNull final String path, final boolean masterFile) throws IOException
+	{
+		final Path realPath = Utils.toRealPath(file);
+		if (!filesBeingCopied.add(realPath))
+		{
+			throw new IllegalArgumentException("File " + file + " includes itself");
+		}
+
+		try (XmlByteScanner scanner = new XmlByteScanner(Files.newInputStream(file), charset);
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			String filePath = path;
+			String logicalPath = path;
+			Map<String, String> namespaces = null;
+			Element element = null;
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 1)
+				{
+					final Map<String, String> rootAttributes = scanner.getAttributes();
+					final String rootLogicalPath = rootAttributes.get(LOGICAL_FILE_PATH_ATTRIBUTE);
+					if (masterFile)
+					{
+						filePath = getMasterFilePath(file, classpathRoot, rootLogicalPath);
+						targetRootAttributes = rootAttributes;
+						copyRoot(channel, scanner);
+					}
+					else
+					{
+						namespaces = getMissingNamespaces(rootAttributes);
+					}
+					logicalPath = rootLogicalPath == null ? filePath : Utils.decodeXmlAttributeValue(rootLogicalPath);
+					files++;
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 2)
+				{
+					if (!scanner.isLocalName(DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart()) && !scanner.isLocalName(DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart())
+							&& !scanner.isLocalName(PROPERTY_TAG) && !(masterFile && scanner.isLocalName(PRE_CONDITIONS_TAG)))
+					{
+						throw new IllegalArgumentException("File " + file + " contains a " + scanner.getLocalName() + " tag, which can not be copied into another changelog");
+					}
+					element = new Element(scanner);
+				}
+				else if (eventType == XmlByteScanner.END_ELEMENT && scanner.getDepth() == 1 && element != null)
+				{
+					element.end = scanner.getEndOffset();
+					if (DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName))
+					{
+						copyIncludedFile(element.attributes, file, filePath);
+					}
+					else
+					{
+						write("\n\t");
+						if (DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart().equals(element.localName))
+						{
+							copyChangeSet(channel, element, logicalPath, namespaces);
+						}
+						else
+						{
+							copyElement(channel, element);
+						}
+					}
+					element = null;
+				}
+				else if (eventType == XmlByteScanner.END_ELEMENT && scanner.getDepth() == 0 && masterFile)
+				{
+					write("\n</" + scanner.getQualifiedName() + ">\n");
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			throw new IllegalArgumentException("File " + file + " is not well-formed", e);
+		}
+		finally
+		{
+			filesBeingCopied.remove(realPath);
+		}
+	}
+
+	/**
+	 * Copy the prolog and the root tag of the master file, so the new changelog has the same encoding and namespaces.
+	 */
+	private void copyRoot(@Nonnull final FileChannel channel, @Nonnull final XmlByteScanner scanner) throws IOException
+	{
+		if (scanner.isEmptyElement())
+		{
+			// Like <databaseChangeLog/>; leave out the slash, as the end tag is written separately
+			LatestFileSplicer.transfer(channel, 0, scanner.getEndOffset() - 2, target);
+			write(">");
+		}
+		else
+		{
+			LatestFileSplicer.transfer(channel, 0, scanner.getEndOffset(), target);
+		}
+	}
+
+	/**
+	 * @return the namespace declarations on the root of an included file that are not on the root of the new changelog.
+	 */
+	@Nonnull
+	private Map<String, String> getMissingNamespaces(@Nonnull final Map<String, String> rootAttributes)
+	{
+		final Map<String, String> result = new LinkedHashMap<>();
+		for (final Map.Entry<String, String> attribute : rootAttributes.entrySet())
+		{
+			final String name = attribute.getKey();
+			final boolean isNamespace = name.equals(XMLNS_ATTRIBUTE) || name.startsWith(XMLNS_ATTRIBUTE + ":");
+			if (isNamespace && (targetRootAttributes == null || !attribute.getValue().equals(targetRootAttributes.get(name))))
+			{
+				result.put(name, attribute.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param rawLogicalFilePath the <code>logicalFilePath</code> on the root of the master file, as written in the file
+	 * @return the path Liquibase finds the master file by: relative to the classpath root, or else the <code>logicalFilePath</code> of the file.
+	 */
+	@Nonnull
+	static String getMasterFilePath(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @CheckForNull final String rawLogicalFilePath)
+	{
+		final Path absoluteMasterFile = masterFile.toAbsolutePath().normalize();
+		final Path absoluteClasspathRoot = classpathRoot.toAbsolutePath().normalize();
+		if (absoluteMasterFile.startsWith(absoluteClasspathRoot))
+		{
+			return toPath(absoluteClasspathRoot.relativize(absoluteMasterFile));
+		}
+		if (rawLogicalFilePath != null)
+		{
+			return Utils.decodeXmlAttributeValue(rawLogicalFilePath);
+		}
+		throw new IllegalArgumentException("Can not find out the file path Liquibase uses for " + masterFile + ", as it is not in the classpath root " + classpathRoot
+				+ "; add a logicalFilePath to its databaseChangeLog tag");
+	}
+
+	/**
+	 * @param parentPath the path Liquibase finds the including file by
+	 * @param file the file of the include, as written in the including file
+	 * @return the path Liquibase finds the included file by.
+	 */
+	@Nonnull
+	static String getIncludedFilePath(@Nonnull final String parentPath, @Nonnull final String file, final boolean relativeToChangelogFile)
+	{
+		final Path path = Paths.get(Utils.convertPathSeparatorToForwardSlash(Paths.get(file)));
+		return toPath(relativeToChangelogFile ? Paths.get(parentPath).resolveSibling(path) : path);
+	}
+
+	@Nonnull
+	private static String toPath(@Nonnull final Path path)
+	{
+		return Utils.convertPathSeparatorToForwardSlash(path.normalize());
+	}
+
+	@Nonnull
+	static String escape(@Nonnull final String attributeValue)
+	{
+		return attributeValue.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * An element directly below <code>databaseChangeLog</code>.
+	 */
+	static final class Element
+	{
+		final String localName;
+		final long start;
+		final int nameEnd;
+		final Map<String, String> attributes;
+		long end;
+		/** The version tagged by the tagDatabase in this element, if it is a changeSet in a master file. */
+		String tag;
+
+		Element(@Nonnull final XmlByteScanner scanner)
+		{
+			localName = scanner.getLocalName();
+			start = scanner.getStartOffset();
+			nameEnd = scanner.getNameEnd();
+			attributes = scanner.getAttributes();
+		}
+	}
+}
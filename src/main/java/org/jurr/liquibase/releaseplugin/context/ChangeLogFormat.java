@@ -0,0 +1,181 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.FormattedSqlScanner;
+
+/**
+ * A changelog format other than XML. XML changelogs are parsed and pretty-printed by {@link DatabaseChangeLogFile} itself. The other formats are read with a
+ * streaming parser, that only looks at one token at a time, and written by copying the text of the file around the parts that change.
+ */
+abstract class ChangeLogFormat
+{
+	static final String DATABASE_CHANGELOG = DatabaseChangeLogFile.DATABASE_CHANGELOG_TAG.getLocalPart();
+	static final String CHANGE_SET = DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart();
+	static final String INCLUDE = DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart();
+	static final String TAG_DATABASE = DatabaseChangeLogFile.TAG_DATABASE_TAG.getLocalPart();
+	static final String TAG = DatabaseChangeLogFile.TAG_DATABASE_TAG_ATTRIBUTE.getLocalPart();
+
+	private static final byte[] BYTE_ORDER_MARK = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	/**
+	 * @return the format of the given file, decided by its extension like Liquibase does, or <code>null</code> if it is an XML file.
+	 */
+	@CheckForNull
+	static ChangeLogFormat forPath(@Nonnull final Path path)
+	{
+		final Path fileName = path.getFileName();
+		final String name = fileName == null ? "" : fileName.toString().toLowerCase(Locale.ROOT);
+		if (FormattedSqlScanner.isFormattedSql(path))
+		{
+			return FormattedSqlChangeLogFormat.INSTANCE;
+		}
+		else if (name.endsWith(".yaml") || name.endsWith(".yml"))
+		{
+			return YamlChangeLogFormat.INSTANCE;
+		}
+		else if (name.endsWith(".json"))
+		{
+			return JsonChangeLogFormat.INSTANCE;
+		}
+		return null;
+	}
+
+	/**
+	 * Copy a changelog, leaving out its changeSets. This is the content of the new latest file.
+	 *
+	 * @param path the file that is read, for error messages
+	 * @param output where to copy the changelog to, or <code>null</code> to only find out whether there is a changeSet. Reading then stops at the first changeSet.
+	 * @return whether the changelog contains a changeSet
+	 * @throws IOException whenever there is an exception while reading or writing
+	 * @throws IllegalArgumentException when the input is not a changelog in this format
+	 */
+	abstract boolean copyLatestFile(@Nonnull Path path, @Nonnull InputStream input, @CheckForNull OutputStream output) throws IOException;
+
+	/**
+	 * Copy a master file, and add the includes and the tagDatabase changeSet of the new version. The file is read twice: once to find its includes and the versions
+	 * that are tagged in it, and once to copy it.
+	 *
+	 * @param path the file that is read, for error messages
+	 * @param scanInput the content of the file, to find the includes and the tagged versions in
+	 * @param copyInput the content of the file again, to copy
+	 * @throws IOException whenever there is an exception while reading or writing
+	 * @throws IllegalArgumentException when the input is not a master file in this format
+	 */
+	abstract void rewriteMasterFile(@Nonnull Path path, @Nonnull InputStream scanInput, @Nonnull InputStream copyInput, @Nonnull OutputStream output, @Nonnull MasterFileHandler handler) throws IOException;
+
+	/**
+	 * @return a reader for a UTF-8 encoded file, leaving out the byte order mark if there is one.
+	 */
+	@Nonnull
+	static Reader newReader(@Nonnull final InputStream input) throws IOException
+	{
+		final BufferedInputStream bufferedInput = new BufferedInputStream(input);
+		bufferedInput.mark(BYTE_ORDER_MARK.length);
+		for (final byte b : BYTE_ORDER_MARK)
+		{
+			if (bufferedInput.read() != (b & 0xFF))
+			{
+				bufferedInput.reset();
+				break;
+			}
+		}
+		return new InputStreamReader(bufferedInput, StandardCharsets.UTF_8.newDecoder());
+	}
+
+	/**
+	 * @return a UTF-8 writer for the given output.
+	 */
+	@Nonnull
+	static Writer newWriter(@Nonnull final OutputStream output)
+	{
+		return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Receives what is found in a master file, and decides what to add to it.
+	 */
+	interface MasterFileHandler
+	{
+		/**
+		 * Called for every include in the master file, in the order they appear in the file.
+		 *
+		 * @param attributes the attributes of the include that have a plain value, in the order they appear in the file
+		 */
+		void include(@Nonnull Map<String, String> attributes);
+
+		/**
+		 * Called for every changeSet that contains a tagDatabase, in the order they appear in the file.
+		 */
+		void tagDatabase(@Nonnull String tag);
+
+		/**
+		 * Called when the whole master file is read.
+		 *
+		 * @return what to add to the master file
+		 */
+		@Nonnull
+		NewVersion getNewVersion();
+	}
+
+	/**
+	 * The includes and the tagDatabase changeSet to add to a master file. These are added before the includes that are not tagged yet, or at the end if there are
+	 * none.
+	 */
+	static final class NewVersion
+	{
+		private final String comment;
+		private final List<Map<String, String>> includes;
+		private final Map<String, String> changeSetAttributes;
+		private final String tag;
+
+		NewVersion(@Nonnull final String comment, @Nonnull final List<Map<String, String>> includes, @Nonnull final Map<String, String> changeSetAttributes, @Nonnull final String tag)
+		{
+			this.comment = comment;
+			this.includes = Collections.unmodifiableList(includes);
+			this.changeSetAttributes = Collections.unmodifiableMap(changeSetAttributes);
+			this.tag = tag;
+		}
+
+		@Nonnull
+		String getComment()
+		{
+			return comment;
+		}
+
+		@Nonnull
+		List<Map<String, String>> getIncludes()
+		{
+			return includes;
+		}
+
+		@Nonnull
+		Map<String, String> getChangeSetAttributes()
+		{
+			return changeSetAttributes;
+		}
+
+		@Nonnull
+		String getTag()
+		{
+			return tag;
+		}
+	}
+}
@@ -0,0 +1,634 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.ChangeLogArchive;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * Every changeSet that was released in the tagged versions of an XML master file, with the version and the file it was released in. A changeSet is known by its
+ * id, author and file path, like Liquibase does.
+ * <p>
+ * In memory, the changeSets are found through open addressing hash tables of 64-bit hashes of their id and author, and of their id alone, so checking whether
+ * a changeSet was released before, and finding it, takes constant time. On disk, the index is a binary file next to the master file with one block per version. The <code>tag</code> goal appends
+ * the block of the new version to it, so the frozen files are only scanned once: when the index is created.
+ */
+public final class ChangeSetIndex
+{
+	private static final int MAGIC = 0x4c424349;
+	private static final int FORMAT_VERSION = 1;
+	private static final int VERSION_BLOCK = 'V';
+	private static final String FILE_NAME_SUFFIX = ".changesets.idx";
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final List<ChangeSetLocation> changeSets = new ArrayList<>();
+	private final List<String> files = new ArrayList<>();
+	private final List<String> fileVersions = new ArrayList<>();
+	private final HashChains byIdAndAuthor = new HashChains();
+	private final HashChains byId = new HashChains();
+	private int storedChangeSets;
+	private int storedFiles;
+
+	/**
+	 * Create an empty index.
+	 */
+	public ChangeSetIndex()
+	{
+	}
+
+	/**
+	 * @return the index file of the given master file, like <code>master.changesets.idx</code> for <code>master.xml</code>.
+	 */
+	@Nonnull
+	public static Path getPath(@Nonnull final Path masterFile)
+	{
+		return masterFile.resolveSibling(Utils.getBaseName(masterFile) + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Read an index file.
+	 *
+	 * @throws IOException whenever there is an exception while reading the file
+	 * @throws IllegalArgumentException whenever the file is not an index, or an index in another format
+	 */
+	@Nonnull
+	public static ChangeSetIndex read(@Nonnull final Path indexFile) throws IOException
+	{
+		final ChangeSetIndex result = new ChangeSetIndex();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile))))
+		{
+			if (input.readInt() != MAGIC)
+			{
+				throw new IllegalArgumentException("File " + indexFile + " is not a changeSet index");
+			}
+			final int formatVersion = input.readInt();
+			if (formatVersion != FORMAT_VERSION)
+			{
+				throw new IllegalArgumentException("ChangeSet index " + indexFile + " has format version " + formatVersion + "; only version " + FORMAT_VERSION + " is supported");
+			}
+
+			int block;
+			while ((block = input.read()) >= 0)
+			{
+				if (block != VERSION_BLOCK)
+				{
+					throw new IllegalArgumentException("ChangeSet index " + indexFile + " contains an unknown block");
+				}
+				final String version = input.readUTF();
+				final int firstFile = result.files.size();
+				final int fileCount = input.readInt();
+				for (int i = 0; i < fileCount; i++)
+				{
+					result.files.add(input.readUTF());
+					result.fileVersions.add(version);
+				}
+				final int changeSetCount = input.readInt();
+				for (int i = 0; i < changeSetCount; i++)
+				{
+					final long idAndAuthorHash = input.readLong();
+					final int file = firstFile + input.readInt();
+					result.insert(idAndAuthorHash, new ChangeSetLocation(input.readUTF(), input.readUTF(), input.readUTF(), version, result.files.get(file)));
+				}
+			}
+		}
+		catch (EOFException | IndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("ChangeSet index " + indexFile + " is truncated or broken", e);
+		}
+		result.storedChangeSets = result.changeSets.size();
+		result.storedFiles = result.files.size();
+		return result;
+	}
+
+	/**
+	 * Create the index of an XML master file by scanning the files of all versions tagged in it. Files after the last tagged version are not part of a version yet,
+	 * and are left out. Changelogs that are not XML are left out as well.
+	 *
+	 * @throws IOException whenever there is an exception while reading the files
+	 * @throws IllegalArgumentException whenever the master file is not an XML file that can be scanned
+	 */
+	@Nonnull
+	public static ChangeSetIndex build(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot) throws IOException
+	{
+		if (ChangeLogFormat.forPath(masterFile) != null || !XmlByteScanner.supports(Charset.defaultCharset()))
+		{
+			throw new IllegalArgumentException("Only XML master files can be indexed, but " + masterFile + " is not");
+		}
+
+		final MasterFileIndex master = MasterFileIndex.read(masterFile, null);
+		final String masterFilePath = getMasterFilePath(masterFile, classpathRoot, master.rootAttributes.get(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE));
+		final ChangeSetIndex result = new ChangeSetIndex();
+		final List<Element> includes = new ArrayList<>();
+		for (final Element element : master.elements)
+		{
+			if (DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName))
+			{
+				includes.add(element);
+			}
+			else if (element.tag != null)
+			{
+				for (final Element include : includes)
+				{
+					result.addIncludedFile(masterFile, classpathRoot, masterFilePath, include, element.tag);
+				}
+				includes.clear();
+			}
+		}
+		return result;
+	}
+
+	private void addIncludedFile(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @Nonnull final String masterFilePath, @Nonnull final Element include,
+			@Nonnull final String version) throws IOException
+	{
+		final String rawFile = include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart());
+		if (rawFile == null)
+		{
+			return;
+		}
+		final String file = Utils.decodeXmlAttributeValue(rawFile);
+		final boolean relativeToChangelogFile = Boolean.parseBoolean(include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart()));
+		final int separator = file.indexOf(ChangeLogArchive.ENTRY_SEPARATOR);
+		final String entryName = separator < 0 ? null : file.substring(separator + ChangeLogArchive.ENTRY_SEPARATOR.length());
+		final Path path = Utils.resolveIncludeFile(masterFile, Paths.get(separator < 0 ? file : file.substring(0, separator)), relativeToChangelogFile, classpathRoot);
+		if (ChangeLogFormat.forPath(Paths.get(file)) != null || !Files.isRegularFile(path))
+		{
+			return;
+		}
+
+		final String filePath = entryName != null ? entryName : ChangeLogFlattener.getIncludedFilePath(masterFilePath, file, relativeToChangelogFile);
+		if (entryName == null)
+		{
+			try (InputStream input = Files.newInputStream(path))
+			{
+				addChangeSets(input, version, file, filePath);
+			}
+		}
+		else
+		{
+			try (ChangeLogArchive archive = ChangeLogArchive.open(path))
+			{
+				final InputStream input = archive.openEntry(entryName);
+				if (input != null)
+				{
+					addChangeSets(input, version, file, filePath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the changeSets in the given XML changelog. Files that are not well-formed are left out.
+	 */
+	private void addChangeSets(@Nonnull final InputStream input, @Nonnull final String version, @Nonnull final String file, @Nonnull final String filePath) throws IOException
+	{
+		addFile(version, file);
+		try (XmlByteScanner scanner = new XmlByteScanner(input, Charset.defaultCharset()))
+		{
+			String rootLogicalFilePath = null;
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 1)
+				{
+					rootLogicalFilePath = scanner.getAttributeValue(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 2 && scanner.isLocalName(DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart()))
+				{
+					final String logicalFilePath = scanner.getAttributeValue(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+					addChangeSet(scanner.getAttributeValue(DatabaseChangeLogFile.CHANGE_SET_TAG_ID_ATTRIBUTE.getLocalPart()),
+							scanner.getAttributeValue(DatabaseChangeLogFile.CHANGE_SET_TAG_AUTHOR_ATTRIBUTE.getLocalPart()),
+							logicalFilePath != null ? logicalFilePath : rootLogicalFilePath != null ? rootLogicalFilePath : filePath);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			// Not well-formed; Liquibase would not run it either
+		}
+	}
+
+	/**
+	 * Add the changeSets of the files that are frozen in a new version of the given master file.
+	 * <p>
+	 * A changeSet with the same id, author and path as a released changeSet is the same changeSet to Liquibase, so it would not run. A changeSet with the same id
+	 * and author as a changeSet that was released in an earlier version of the same 'latest' file was most likely copied back from that version; as it is in
+	 * another file now, Liquibase would run it again. Other changeSets with the same id and author are fine; many projects number their changeSets per file.
+	 *
+	 * @param files the new version files, as included by the master file
+	 * @param latestFiles the 'latest' files the new version files are created from, as included by the master file, in the same order
+	 * @param checksums the checksums of the new version files, in the same order
+	 * @throws IllegalArgumentException whenever one of the changeSets was released before
+	 */
+	void addVersion(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @Nonnull final String version, @Nonnull final List<String> files,
+			@Nonnull final List<String> latestFiles, @Nonnull final List<ChangeLogChecksums> checksums) throws IOException
+	{
+		final String masterFilePath = getMasterFilePath(masterFile, classpathRoot, readRootLogicalFilePath(masterFile));
+		for (int i = 0; i < files.size(); i++)
+		{
+			final String file = files.get(i);
+			final String filePath = ChangeLogFlattener.getIncludedFilePath(masterFilePath, file, true);
+			addFile(version, file);
+			for (final ChangeLogChecksums.ChangeSetChecksum changeSet : checksums.get(i).getChangeSets())
+			{
+				final String path = changeSet.getLogicalFilePath() != null ? changeSet.getLogicalFilePath() : filePath;
+				final ChangeSetLocation existing = addChangeSet(changeSet.getId(), changeSet.getAuthor(), path);
+				if (existing != null)
+				{
+					throw new IllegalArgumentException("ChangeSet '" + existing.id + "' by '" + existing.author + "' in " + file + " was already released in version "
+							+ existing.version + " in file " + existing.file);
+				}
+				final ChangeSetLocation moved = findEarlierVersion(changeSet.getId(), changeSet.getAuthor(), path, latestFiles.get(i));
+				if (moved != null)
+				{
+					throw new IllegalArgumentException("ChangeSet '" + moved.id + "' by '" + moved.author + "' in " + file + " was already released in version " + moved.version
+							+ " in file " + moved.file + "; as it is in another file now, Liquibase would run it again");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the changeSet with the given id and author, but another path, that was released in an earlier version of the given 'latest' file, or
+	 *         <code>null</code> if there is none.
+	 */
+	@CheckForNull
+	private ChangeSetLocation findEarlierVersion(@CheckForNull final String id, @CheckForNull final String author, @Nonnull final String path,
+			@Nonnull final String latestFile)
+	{
+		if (id == null)
+		{
+			return null;
+		}
+		final String nonNullAuthor = author == null ? "" : author;
+		for (final ChangeSetLocation changeSet : find(id, nonNullAuthor))
+		{
+			if (!changeSet.path.equals(path)
+					&& changeSet.file.equals(latestFile.replace(IncludeFile.PART_OF_FILENAME_THAT_WILL_BE_REPLACED_WITH_VERSION, changeSet.version)))
+			{
+				return changeSet;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the <code>logicalFilePath</code> on the root of the given XML file, as written in the file.
+	 */
+	@CheckForNull
+	private static String readRootLogicalFilePath(@Nonnull final Path file) throws IOException
+	{
+		try (XmlByteScanner scanner = new XmlByteScanner(Files.newInputStream(file), Charset.defaultCharset()))
+		{
+			return scanner.next() == XmlByteScanner.START_ELEMENT ? scanner.getAttributes().get(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE) : null;
+		}
+	}
+
+	/**
+	 * @return the path Liquibase finds the master file by, or its file name if that can not be found out.
+	 */
+	@Nonnull
+	static String getMasterFilePath(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @CheckForNull final String rawLogicalFilePath)
+	{
+		try
+		{
+			return ChangeLogFlattener.getMasterFilePath(masterFile, classpathRoot, rawLogicalFilePath);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return masterFile.getFileName().toString();
+		}
+	}
+
+	/**
+	 * @return the number of changeSets in the index.
+	 */
+	public int size()
+	{
+		return changeSets.size();
+	}
+
+	/**
+	 * Start a new file of the given version. The changeSets added after this are in this file.
+	 *
+	 * @param file the path of the file, as included by the master file
+	 */
+	void addFile(@Nonnull final String version, @Nonnull final String file)
+	{
+		files.add(file);
+		fileVersions.add(version);
+	}
+
+	/**
+	 * Add a changeSet to the file that was added last, unless it is in the index already. ChangeSets without an id are left out.
+	 *
+	 * @return where the changeSet was released before, or <code>null</code> if it is new.
+	 */
+	@CheckForNull
+	ChangeSetLocation addChangeSet(@CheckForNull final String id, @CheckForNull final String author, @Nonnull final String path)
+	{
+		if (id == null)
+		{
+			return null;
+		}
+		final String nonNullAuthor = author == null ? "" : author;
+		final ChangeSetLocation existing = get(id, nonNullAuthor, path);
+		if (existing != null)
+		{
+			return existing;
+		}
+		final int file = files.size() - 1;
+		insert(hash(id, nonNullAuthor), new ChangeSetLocation(id, nonNullAuthor, path, fileVersions.get(file), files.get(file)));
+		return null;
+	}
+
+	/**
+	 * @return where the changeSet with the given id, author and path was released, or <code>null</code> if it is not in the index.
+	 */
+	@CheckForNull
+	public ChangeSetLocation get(@Nonnull final String id, @Nonnull final String author, @Nonnull final String path)
+	{
+		for (int number = byIdAndAuthor.first(hash(id, author)); number >= 0; number = byIdAndAuthor.next(number))
+		{
+			final ChangeSetLocation changeSet = changeSets.get(number);
+			if (changeSet.id.equals(id) && changeSet.author.equals(author) && changeSet.path.equals(path))
+			{
+				return changeSet;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param author the author of the changeSets, or <code>null</code> for any author
+	 * @return the changeSets with the given id, in the order they were released.
+	 */
+	@Nonnull
+	public List<ChangeSetLocation> find(@Nonnull final String id, @CheckForNull final String author)
+	{
+		final HashChains chains = author == null ? byId : byIdAndAuthor;
+		final List<ChangeSetLocation> result = new ArrayList<>();
+		for (int number = chains.first(author == null ? hash(id) : hash(id, author)); number >= 0; number = chains.next(number))
+		{
+			final ChangeSetLocation changeSet = changeSets.get(number);
+			if (changeSet.id.equals(id) && (author == null || changeSet.author.equals(author)))
+			{
+				result.add(changeSet);
+			}
+		}
+		// The chains start with the changeSet that was added last
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Write the index. When the given file contains an earlier state of this index, as read with {@link #read(Path)}, it is copied as it is and only the versions
+	 * added since are appended.
+	 *
+	 * @param storedFile the file this index was read from, or <code>null</code> to write the whole index
+	 */
+	void write(@Nonnull final OutputStream outputStream, @CheckForNull final Path storedFile) throws IOException
+	{
+		final DataOutputStream output = new DataOutputStream(outputStream);
+		int firstFile = 0;
+		int firstChangeSet = 0;
+		if (storedFile != null)
+		{
+			Files.copy(storedFile, output);
+			firstFile = storedFiles;
+			firstChangeSet = storedChangeSets;
+		}
+		else
+		{
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+		}
+
+		int changeSet = firstChangeSet;
+		int blockStart = firstFile;
+		while (blockStart < files.size())
+		{
+			final String version = fileVersions.get(blockStart);
+			int blockEnd = blockStart;
+			while (blockEnd < files.size() && fileVersions.get(blockEnd).equals(version))
+			{
+				blockEnd++;
+			}
+
+			int changeSetEnd = changeSet;
+			while (changeSetEnd < changeSets.size() && changeSets.get(changeSetEnd).version.equals(version))
+			{
+				changeSetEnd++;
+			}
+
+			output.write(VERSION_BLOCK);
+			output.writeUTF(version);
+			output.writeInt(blockEnd - blockStart);
+			for (int i = blockStart; i < blockEnd; i++)
+			{
+				output.writeUTF(files.get(i));
+			}
+			output.writeInt(changeSetEnd - changeSet);
+			for (int i = changeSet; i < changeSetEnd; i++)
+			{
+				final ChangeSetLocation location = changeSets.get(i);
+				output.writeLong(hash(location.id, location.author));
+				output.writeInt(files.subList(blockStart, blockEnd).indexOf(location.file));
+				output.writeUTF(location.id);
+				output.writeUTF(location.author);
+				output.writeUTF(location.path);
+			}
+			changeSet = changeSetEnd;
+			blockStart = blockEnd;
+		}
+		output.flush();
+	}
+
+	private void insert(final long idAndAuthorHash, @Nonnull final ChangeSetLocation changeSet)
+	{
+		changeSets.add(changeSet);
+		byIdAndAuthor.add(idAndAuthorHash, changeSets.size() - 1);
+		byId.add(hash(changeSet.id), changeSets.size() - 1);
+	}
+
+	/**
+	 * @return the 64-bit FNV-1a hash of the given parts, like the id and author of a changeSet.
+	 */
+	static long hash(@Nonnull final String... parts)
+	{
+		long hash = FNV_OFFSET_BASIS;
+		for (final String part : parts)
+		{
+			for (int i = 0; i < part.length(); i++)
+			{
+				hash = (hash ^ part.charAt(i)) * FNV_PRIME;
+			}
+			// Separate the parts, so "ab" + "c" and "a" + "bc" differ
+			hash = (hash ^ 0xffff) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * The numbers of the changeSets, grouped by a 64-bit hash. The hashes are kept in an open addressing table with the number of the changeSet that was added last;
+	 * every changeSet links to the one with the same hash that was added before it.
+	 */
+	private static final class HashChains
+	{
+		private long[] hashes = new long[64];
+		/** The number of the last changeSet with the hash in the same slot, plus one; 0 for an empty slot. */
+		private int[] heads = new int[64];
+		/** For every changeSet, the number of the changeSet with the same hash that was added before it, plus one; 0 for none. */
+		private int[] previous = new int[64];
+		private int size;
+
+		void add(final long hash, final int number)
+		{
+			if (number >= previous.length)
+			{
+				previous = Arrays.copyOf(previous, Math.max(previous.length * 2, number + 1));
+			}
+			final int slot = findSlot(hash);
+			if (heads[slot] == 0)
+			{
+				hashes[slot] = hash;
+				size++;
+			}
+			previous[number] = heads[slot];
+			heads[slot] = number + 1;
+
+			if (size * 2 > heads.length)
+			{
+				// Keep the table at most half full, so the probe sequences stay short
+				final long[] oldHashes = hashes;
+				final int[] oldHeads = heads;
+				hashes = new long[oldHeads.length * 2];
+				heads = new int[oldHeads.length * 2];
+				for (int i = 0; i < oldHeads.length; i++)
+				{
+					if (oldHeads[i] != 0)
+					{
+						final int newSlot = findSlot(oldHashes[i]);
+						hashes[newSlot] = oldHashes[i];
+						heads[newSlot] = oldHeads[i];
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the number of the last changeSet with the given hash, or -1 if there is none.
+		 */
+		int first(final long hash)
+		{
+			return heads[findSlot(hash)] - 1;
+		}
+
+		/**
+		 * @return the number of the changeSet with the same hash that was added before the given one, or -1 if there is none.
+		 */
+		int next(final int number)
+		{
+			return previous[number] - 1;
+		}
+
+		/**
+		 * @return the slot of the given hash, or the empty slot where it belongs.
+		 */
+		private int findSlot(final long hash)
+		{
+			final int mask = heads.length - 1;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while (heads[slot] != 0 && hashes[slot] != hash)
+			{
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * Where a changeSet was released.
+	 */
+	public static final class ChangeSetLocation
+	{
+		private final String id;
+		private final String author;
+		private final String path;
+		private final String version;
+		private final String file;
+
+		ChangeSetLocation(@Nonnull final String id, @Nonnull final String author, @Nonnull final String path, @Nonnull final String version, @Nonnull final String file)
+		{
+			this.id = id;
+			this.author = author;
+			this.path = path;
+			this.version = version;
+			this.file = file;
+		}
+
+		@Nonnull
+		public String getId()
+		{
+			return id;
+		}
+
+		@Nonnull
+		public String getAuthor()
+		{
+			return author;
+		}
+
+		/**
+		 * @return the file path Liquibase knows the changeSet by.
+		 */
+		@Nonnull
+		public String getPath()
+		{
+			return path;
+		}
+
+		/**
+		 * @return the version the changeSet was released in.
+		 */
+		@Nonnull
+		public String getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * @return the file the changeSet is in, as included by the master file.
+		 */
+		@Nonnull
+		public String getFile()
+		{
+			return file;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "changeSet '" + id + "' by '" + author + "' in file " + file + " of version " + version;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.JsonWriter;
+import org.jurr.liquibase.releaseplugin.Utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The checksums of the files that were frozen in a version, written next to the master file that includes them when the version is tagged. With it, a file can be
+ * checked to be unchanged with one hash, instead of parsing it and computing the checksum of every changeSet in it.
+ * <p>
+ * The manifest of version <code>1.2.3</code> of <code>master.xml</code> is <code>master-1.2.3.checksums.json</code>. It looks like:
+ *
+ * <pre>
+ * {
+ * 	"formatVersion": 1,
+ * 	"version": "1.2.3",
+ * 	"masterFile": "master.xml",
+ * 	"algorithm": "SHA-256",
+ * 	"files": [
+ * 		{
+ * 			"path": "myApp/1.2.3.xml",
+ * 			"checksum": "...",
+ * 			"changeSets": [
+ * 				{
+ * 					"id": "Make a change to our database",
+ * 					"author": "John Doe",
+ * 					"checksum": "..."
+ * 				}
+ * 			]
+ * 		}
+ * 	]
+ * }
+ * </pre>
+ *
+ * The paths are relative to the directory of the master file, just like the includes of the version. The checksums are SHA-256 hashes of the bytes of the file and
+ * of each changeSet in it; changeSets are only listed for XML files.
+ */
+public final class ChecksumManifest
+{
+	public static final int FORMAT_VERSION = 1;
+
+	private static final String FILE_NAME_SUFFIX = ".checksums.json";
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private ChecksumManifest()
+	{
+	}
+
+	/**
+	 * @return the manifest of the given version of the given master file.
+	 */
+	@Nonnull
+	public static Path getPath(@Nonnull final Path masterFile, @Nonnull final String version)
+	{
+		return masterFile.resolveSibling(Utils.getBaseName(masterFile) + "-" + version + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * @return the manifests of all versions of the given master file, ordered by their name.
+	 * @throws IOException whenever there is an exception while listing the directory of the master file
+	 */
+	@Nonnull
+	public static List<Path> find(@Nonnull final Path masterFile) throws IOException
+	{
+		final Path directory = masterFile.toAbsolutePath().getParent();
+		final String prefix = Utils.getBaseName(masterFile) + "-";
+		final List<Path> result = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + FILE_NAME_SUFFIX))
+		{
+			for (final Path file : files)
+			{
+				result.add(file);
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Compute the checksums of the files listed in the given manifest again, and compare them to the ones in the manifest.
+	 *
+	 * @return a description of every file that is missing or changed, and of every changeSet that changed in it. This is empty when nothing changed.
+	 * @throws IOException whenever there is an exception while reading the manifest or one of the files
+	 * @throws IllegalArgumentException whenever the manifest is not a checksum manifest this plugin can read
+	 */
+	@Nonnull
+	public static List<String> verify(@Nonnull final Path manifestFile) throws IOException
+	{
+		final List<String> problems = new ArrayList<>();
+		for (final FileEntry file : read(manifestFile))
+		{
+			final Path path = manifestFile.resolveSibling(file.path);
+			final ChangeLogChecksums checksums;
+			try
+			{
+				checksums = file.changeSets.isEmpty() ? null : ChangeLogChecksums.compute(path, ChangeLogFormat.forPath(path) == null);
+				if (checksums == null ? file.checksum.equals(ChangeLogChecksums.checksumOf(path)) : file.checksum.equals(checksums.getChecksum()))
+				{
+					continue;
+				}
+			}
+			catch (NoSuchFileException e)
+			{
+				problems.add("File " + file.path + " of " + manifestFile.getFileName() + " is missing");
+				continue;
+			}
+
+			problems.add("File " + file.path + " changed after it was tagged in " + manifestFile.getFileName());
+			if (checksums != null)
+			{
+				addChangedChangeSets(file, checksums, problems);
+			}
+		}
+		return problems;
+	}
+
+	private static void addChangedChangeSets(@Nonnull final FileEntry file, @Nonnull final ChangeLogChecksums checksums, @Nonnull final List<String> problems)
+	{
+		final Map<String, String> expected = new LinkedHashMap<>(file.changeSets);
+		for (final ChangeLogChecksums.ChangeSetChecksum changeSet : checksums.getChangeSets())
+		{
+			final String key = toKey(changeSet.getId(), changeSet.getAuthor());
+			final String checksum = expected.remove(key);
+			if (checksum == null)
+			{
+				problems.add("  changeSet " + key + " was added");
+			}
+			else if (!checksum.equals(changeSet.getChecksum()))
+			{
+				problems.add("  changeSet " + key + " changed");
+			}
+		}
+		for (final String key : expected.keySet())
+		{
+			problems.add("  changeSet " + key + " was removed");
+		}
+	}
+
+	/**
+	 * @param files the paths of the frozen files, as included by the master file
+	 * @param checksums the checksums of each of the files
+	 */
+	static void write(@Nonnull final Writer writer, @Nonnull final String version, @Nonnull final Path masterFile, @Nonnull final List<String> files, @Nonnull final List<ChangeLogChecksums> checksums) throws IOException
+	{
+		final JsonWriter json = new JsonWriter(writer);
+		json.beginObject();
+		json.name("formatVersion").value(FORMAT_VERSION);
+		json.name("version").value(version);
+		json.name("masterFile").value(masterFile.getFileName().toString());
+		json.name("algorithm").value(ChangeLogChecksums.ALGORITHM);
+		json.name("files").beginArray();
+		for (int i = 0; i < files.size(); i++)
+		{
+			json.beginObject();
+			json.name("path").value(files.get(i));
+			json.name("checksum").value(checksums.get(i).getChecksum());
+			json.name("changeSets").beginArray();
+			for (final ChangeLogChecksums.ChangeSetChecksum changeSet : checksums.get(i).getChangeSets())
+			{
+				json.beginObject();
+				json.name("id").value(changeSet.getId());
+				json.name("author").value(changeSet.getAuthor());
+				json.name("checksum").value(changeSet.getChecksum());
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.flush();
+	}
+
+	@Nonnull
+	private static List<FileEntry> read(@Nonnull final Path manifestFile) throws IOException
+	{
+		try (InputStream input = Files.newInputStream(manifestFile);
+				JsonParser parser = JSON_FACTORY.createParser(input))
+		{
+			final List<FileEntry> files = new ArrayList<>();
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+			{
+				throw new IllegalArgumentException("Checksum manifest " + manifestFile + " is not a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				final String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("formatVersion".equals(name) && parser.getValueAsInt() != FORMAT_VERSION)
+				{
+					throw new IllegalArgumentException("Checksum manifest " + manifestFile + " has format version " + parser.getText() + "; only version " + FORMAT_VERSION + " is supported");
+				}
+				else if ("algorithm".equals(name) && !ChangeLogChecksums.ALGORITHM.equals(parser.getText()))
+				{
+					throw new IllegalArgumentException("Checksum manifest " + manifestFile + " uses algorithm " + parser.getText() + "; only " + ChangeLogChecksums.ALGORITHM + " is supported");
+				}
+				else if ("files".equals(name))
+				{
+					readFiles(parser, manifestFile, files);
+				}
+				else
+				{
+					parser.skipChildren();
+				}
+			}
+			return files;
+		}
+		catch (JsonProcessingException e)
+		{
+			throw new IllegalArgumentException("Checksum manifest " + manifestFile + " is not valid JSON", e);
+		}
+	}
+
+	private static void readFiles(@Nonnull final JsonParser parser, @Nonnull final Path manifestFile, @Nonnull final List<FileEntry> files) throws IOException
+	{
+		if (parser.currentToken() != JsonToken.START_ARRAY)
+		{
+			throw new IllegalArgumentException("Expected a list of files in checksum manifest " + manifestFile);
+		}
+		while (parser.nextToken() == JsonToken.START_OBJECT)
+		{
+			String path = null;
+			String checksum = null;
+			final Map<String, String> changeSets = new LinkedHashMap<>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				final String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("path".equals(name))
+				{
+					path = parser.getValueAsString();
+				}
+				else if ("checksum".equals(name))
+				{
+					checksum = parser.getValueAsString();
+				}
+				else if ("changeSets".equals(name) && parser.currentToken() == JsonToken.START_ARRAY)
+				{
+					readChangeSets(parser, changeSets);
+				}
+				else
+				{
+					parser.skipChildren();
+				}
+			}
+			if (path == null || checksum == null)
+			{
+				throw new IllegalArgumentException("File without a path or checksum in checksum manifest " + manifestFile);
+			}
+			files.add(new FileEntry(path, checksum, changeSets));
+		}
+	}
+
+	private static void readChangeSets(@Nonnull final JsonParser parser, @Nonnull final Map<String, String> changeSets) throws IOException
+	{
+		while (parser.nextToken() == JsonToken.START_OBJECT)
+		{
+			String id = null;
+			String author = null;
+			String checksum = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				final String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("id".equals(name))
+				{
+					id = parser.getValueAsString();
+				}
+				else if ("author".equals(name))
+				{
+					author = parser.getValueAsString();
+				}
+				else if ("checksum".equals(name))
+				{
+					checksum = parser.getValueAsString();
+				}
+				else
+				{
+					parser.skipChildren();
+				}
+			}
+			changeSets.put(toKey(id, author), checksum);
+		}
+	}
+
+	@Nonnull
+	private static String toKey(@CheckForNull final String id, @CheckForNull final String author)
+	{
+		return "'" + id + "' by '" + author + "'";
+	}
+
+	private static final class FileEntry
+	{
+		private final String path;
+		private final String checksum;
+		private final Map<String, String> changeSets;
+
+		FileEntry(@Nonnull final String path, @Nonnull final String checksum, @Nonnull final Map<String, String> changeSets)
+		{
+			this.path = path;
+			this.checksum = checksum;
+			this.changeSets = changeSets;
+		}
+	}
+}
@@ -3,24 +3,37 @@ package org.jurr.liquibase.releaseplugin.context;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventFactory;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
 import javax.xml.stream.events.XMLEvent;
 
+import org.jurr.liquibase.releaseplugin.CountingInputStream;
+import org.jurr.liquibase.releaseplugin.FileOperation;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
 import org.jurr.liquibase.releaseplugin.PrettyPrintXMLEventWriter;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.Utils;
 
 public abstract class DatabaseChangeLogFile
 {
@@ -47,14 +60,19 @@ public abstract class DatabaseChangeLogFile
 	public static final QName INCLUDE_TAG = new QName(LIQUIBASE_NAMESPACE, "include");
 	public static final QName INCLUDE_TAG_FILE_ATTRIBUTE = new QName("", "file");
 	public static final QName INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE = new QName("", "relativeToChangelogFile");
+	public static final QName INCLUDE_ALL_TAG = new QName(LIQUIBASE_NAMESPACE, "includeAll");
+	public static final QName INCLUDE_ALL_TAG_PATH_ATTRIBUTE = new QName("", "path");
 	public static final QName TAG_DATABASE_TAG = new QName(LIQUIBASE_NAMESPACE, "tagDatabase");
 	public static final QName TAG_DATABASE_TAG_ATTRIBUTE = new QName("", "tag");
 
 	private final Path path;
+	private final Path realPath;
 
 	private boolean fileRead = false;
+	private boolean discarded = false;
 	private LiquibaseProject liquibaseProject;
-	private byte[] newLatestFile;
+	private SpillableOutputStream newLatestFile;
+	private FileOperation readOperation;
 
 	DatabaseChangeLogFile(@Nonnull final Path path)
 	{
@@ -67,6 +85,7 @@ public abstract class DatabaseChangeLogFile
 			throw new IllegalArgumentException("File " + path + " is not readable");
 		}
 		this.path = path;
+		this.realPath = Utils.toRealPath(path);
 	}
 
 	@Nonnull
@@ -86,42 +105,154 @@ public abstract class DatabaseChangeLogFile
 		return path;
 	}
 
+	/**
+	 * @return the path of this file that is the same, no matter how the file was referred to. This is what identifies the file.
+	 * @see Utils#toRealPath(Path)
+	 */
 	@Nonnull
-	byte[] getNewLatestFile()
+	Path getRealPath()
 	{
-		return newLatestFile;
+		return realPath;
 	}
 
-	void readFile()
+	/**
+	 * Hand over the new content of this file, as created by {@link #readFile()}, as a temporary file next to this file.
+	 *
+	 * @throws IOException whenever there is an exception while writing the temporary file
+	 */
+	@Nonnull
+	synchronized Path stageNewLatestFile() throws IOException
 	{
-		if (fileRead)
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.STAGE, path);
+		try
+		{
+			operation.addBytesWritten(newLatestFile.size());
+			final Path stagedFile = newLatestFile.stage();
+			newLatestFile = null;
+			return stagedFile;
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * @return the new content of this file, as created by {@link #readFile()}.
+	 * @throws IOException whenever there is an exception while reading the content back from a temporary file
+	 */
+	@Nonnull
+	synchronized String getNewLatestFileContent() throws IOException
+	{
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		newLatestFile.writeTo(content);
+		return new String(content.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Throw away the new content of this file, if any. After this, the file will not be read anymore.
+	 */
+	synchronized void discardNewLatestFile()
+	{
+		discarded = true;
+		if (newLatestFile != null)
+		{
+			try
+			{
+				newLatestFile.discard();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("IO error while discarding new content of " + path, e);
+			}
+			newLatestFile = null;
+		}
+	}
+
+	synchronized void readFile()
+	{
+		if (fileRead || discarded)
 		{
 			return;
 		}
 
-		try (BufferedReader masterFileBR = Files.newBufferedReader(path, Charset.defaultCharset()))
+		readOperation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.PARSE, path);
+		try
 		{
-			try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
+			newLatestFile = createNewLatestFile();
+			readOperation.addBytesWritten(newLatestFile.size());
+		}
+		finally
+		{
+			readOperation.end();
+			readOperation = null;
+		}
+		fileRead = true;
+	}
+
+	/**
+	 * @return the measurement of the {@link #readFile()} that is running, or <code>null</code> if the file is not being read.
+	 */
+	@CheckForNull
+	FileOperation getReadOperation()
+	{
+		return readOperation;
+	}
+
+	/**
+	 * @return a new, empty buffer for the new content of this file.
+	 */
+	@Nonnull
+	SpillableOutputStream createOutputBuffer()
+	{
+		return new SpillableOutputStream(path, getLiquibaseProject().getMaxInMemoryFileSize());
+	}
+
+	/**
+	 * @return a new stream of the content of this file, for {@link #readFile()}.
+	 * @throws IOException whenever there is an exception while opening the file
+	 */
+	@Nonnull
+	InputStream openForReading() throws IOException
+	{
+		return Files.newInputStream(path);
+	}
+
+	/**
+	 * Parse this file, and write the new content of this file to a new buffer.
+	 */
+	@Nonnull
+	SpillableOutputStream createNewLatestFile()
+	{
+		final SpillableOutputStream output = createOutputBuffer();
+		boolean success = false;
+		try (CountingInputStream input = new CountingInputStream(openForReading());
+				BufferedReader masterFileBR = new BufferedReader(new InputStreamReader(input, Charset.defaultCharset().newDecoder()));
+				SpillableOutputStream outputStream = output)
+		{
+			final XMLStreamReader xmlStreamReader = XML_INPUT_FACTORY.createXMLStreamReader(masterFileBR);
+			try
 			{
-				final XMLEventReader xmlEventReader = XML_INPUT_FACTORY.createXMLEventReader(masterFileBR);
-				final XMLEventWriter xmlEventWriter = new PrettyPrintXMLEventWriter(XML_OUTPUT_FACTORY.createXMLEventWriter(baos), "\t");
-				while (xmlEventReader.hasNext())
+				final PrettyPrintXMLEventWriter xmlEventWriter = new PrettyPrintXMLEventWriter(XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream), "\t");
+				if (xmlStreamReader.getEventType() != XMLStreamConstants.START_DOCUMENT)
 				{
-					final XMLEvent xmlEvent = xmlEventReader.nextEvent();
-					switch (xmlEvent.getEventType())
-					{
-					case XMLStreamConstants.START_DOCUMENT:
-						final StartDocument xmlStartDocument = (StartDocument) xmlEvent;
-						readStartDocumentTag(xmlEventReader, xmlStartDocument, xmlEventWriter);
-						break;
-					default:
-						throw new IllegalArgumentException("Unknown tag in file " + path + " at line " + xmlEvent.getLocation().getLineNumber() + ", column " + xmlEvent.getLocation().getColumnNumber());
-					}
+					throw new IllegalArgumentException("Unknown tag in file " + path + " at line " + xmlStreamReader.getLocation().getLineNumber() + ", column " + xmlStreamReader.getLocation().getColumnNumber());
 				}
+				xmlEventWriter.writeStartDocument(xmlStreamReader.getEncoding(), xmlStreamReader.getVersion());
+				readStartDocumentTag(xmlStreamReader, xmlEventWriter);
 
 				xmlEventWriter.flush();
-				newLatestFile = baos.toByteArray();
+				if (readOperation != null)
+				{
+					readOperation.addBytesRead(input.getCount());
+					readOperation.addXmlEvents(xmlEventWriter.getEventCount());
+				}
+			}
+			finally
+			{
+				xmlStreamReader.close();
 			}
+			success = true;
 		}
 		catch (IOException e)
 		{
@@ -131,25 +262,167 @@ public abstract class DatabaseChangeLogFile
 		{
 			throw new RuntimeException("XML exception while reading " + path, e);
 		}
+		finally
+		{
+			if (!success)
+			{
+				try
+				{
+					output.discard();
+				}
+				catch (IOException e)
+				{
+					// Ignore; we are already failing
+				}
+			}
+		}
 
-		fileRead = true;
+		return output;
 	}
 
-	abstract void readStartDocumentTag(@Nonnull final XMLEventReader xmlEventReader, @Nonnull final StartDocument startDocumentElement, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException;
+	/**
+	 * Check whether this file contains an element with the given name. This stops reading at the first occurrence, and does not write anything.
+	 *
+	 * @param inputStream the content of this file, which is closed when done
+	 */
+	boolean containsElement(@Nonnull final QName elementName, @Nonnull final InputStream inputStream)
+	{
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.PROBE, path);
+		try (CountingInputStream input = new CountingInputStream(inputStream);
+				BufferedReader fileBR = new BufferedReader(new InputStreamReader(input, Charset.defaultCharset().newDecoder())))
+		{
+			final XMLStreamReader xmlStreamReader = XML_INPUT_FACTORY.createXMLStreamReader(fileBR);
+			try
+			{
+				while (xmlStreamReader.hasNext())
+				{
+					if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT && isElement(xmlStreamReader, elementName))
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+			finally
+			{
+				xmlStreamReader.close();
+				operation.addBytesRead(input.getCount());
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + path, e);
+		}
+		catch (XMLStreamException e)
+		{
+			throw new RuntimeException("XML exception while reading " + path, e);
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * Read everything after the start of the document, and write the new content of this file. The start of the document has already been written.
+	 */
+	abstract void readStartDocumentTag(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException;
 
 	/**
-	 * This method will actually create the required files for the new database version.
+	 * @return whether the reader is positioned at an element with the given name. This does not create a QName for the element.
+	 */
+	static boolean isElement(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final QName elementName)
+	{
+		return elementName.getLocalPart().equals(xmlStreamReader.getLocalName()) && elementName.getNamespaceURI().equals(nullToEmpty(xmlStreamReader.getNamespaceURI()));
+	}
+
+	/**
+	 * @return the value of the attribute with the given name on the element the reader is positioned at, or <code>null</code> if there is no such attribute.
+	 */
+	@CheckForNull
+	static String getAttributeValue(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final QName attributeName)
+	{
+		for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++)
+		{
+			if (attributeName.getLocalPart().equals(xmlStreamReader.getAttributeLocalName(i)) && attributeName.getNamespaceURI().equals(nullToEmpty(xmlStreamReader.getAttributeNamespace(i))))
+			{
+				return xmlStreamReader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the attributes of the element the reader is positioned at.
+	 */
+	@Nonnull
+	static List<Attribute> createAttributes(@Nonnull final XMLStreamReader xmlStreamReader)
+	{
+		final List<Attribute> attributes = new ArrayList<>(xmlStreamReader.getAttributeCount());
+		for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++)
+		{
+			attributes.add(XML_EVENT_FACTORY.createAttribute(nullToEmpty(xmlStreamReader.getAttributePrefix(i)), nullToEmpty(xmlStreamReader.getAttributeNamespace(i)), xmlStreamReader.getAttributeLocalName(i), xmlStreamReader.getAttributeValue(i)));
+		}
+		return attributes;
+	}
+
+	/**
+	 * Create an event for the current position of the reader. Only needed for things that are written to the new file.
+	 */
+	@Nonnull
+	static XMLEvent createXMLEvent(@Nonnull final XMLStreamReader xmlStreamReader)
+	{
+		final int eventType = xmlStreamReader.getEventType();
+		switch (eventType)
+		{
+		case XMLStreamConstants.START_ELEMENT:
+			final List<Attribute> attributes = createAttributes(xmlStreamReader);
+			final List<Namespace> namespaces = new ArrayList<>(xmlStreamReader.getNamespaceCount());
+			for (int i = 0; i < xmlStreamReader.getNamespaceCount(); i++)
+			{
+				namespaces.add(XML_EVENT_FACTORY.createNamespace(nullToEmpty(xmlStreamReader.getNamespacePrefix(i)), nullToEmpty(xmlStreamReader.getNamespaceURI(i))));
+			}
+			return XML_EVENT_FACTORY.createStartElement(nullToEmpty(xmlStreamReader.getPrefix()), nullToEmpty(xmlStreamReader.getNamespaceURI()), xmlStreamReader.getLocalName(), attributes.iterator(), namespaces.iterator());
+		case XMLStreamConstants.END_ELEMENT:
+			return XML_EVENT_FACTORY.createEndElement(nullToEmpty(xmlStreamReader.getPrefix()), nullToEmpty(xmlStreamReader.getNamespaceURI()), xmlStreamReader.getLocalName());
+		case XMLStreamConstants.CHARACTERS:
+			return XML_EVENT_FACTORY.createCharacters(xmlStreamReader.getText());
+		case XMLStreamConstants.CDATA:
+			return XML_EVENT_FACTORY.createCData(xmlStreamReader.getText());
+		case XMLStreamConstants.SPACE:
+			return XML_EVENT_FACTORY.createIgnorableSpace(xmlStreamReader.getText());
+		case XMLStreamConstants.COMMENT:
+			return XML_EVENT_FACTORY.createComment(xmlStreamReader.getText());
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			return XML_EVENT_FACTORY.createProcessingInstruction(xmlStreamReader.getPITarget(), xmlStreamReader.getPIData());
+		case XMLStreamConstants.DTD:
+			return XML_EVENT_FACTORY.createDTD(xmlStreamReader.getText());
+		case XMLStreamConstants.END_DOCUMENT:
+			return XML_EVENT_FACTORY.createEndDocument();
+		default:
+			throw new IllegalArgumentException("Unsupported XML event of type " + eventType + " at line " + xmlStreamReader.getLocation().getLineNumber() + ", column " + xmlStreamReader.getLocation().getColumnNumber());
+		}
+	}
+
+	@Nonnull
+	private static String nullToEmpty(@CheckForNull final String string)
+	{
+		return string == null ? "" : string;
+	}
+
+	/**
+	 * Create the required files for the new database version, and add them to the given transaction. Nothing changes until the transaction is committed.
 	 *
-	 * @throws IOException whenever there is an exception while creating or moving files
+	 * @throws IOException whenever there is an exception while creating the files
 	 */
-	abstract void createNewVersion() throws IOException;
+	abstract void stageNewVersion(@Nonnull final FileTransaction fileTransaction) throws IOException;
 
 	@Override
 	public int hashCode()
 	{
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + (path == null ? 0 : path.hashCode());
+		result = prime * result + realPath.hashCode();
 		return result;
 	}
 
@@ -168,18 +441,7 @@ public abstract class DatabaseChangeLogFile
 		{
 			return false;
 		}
-		DatabaseChangeLogFile other = (IncludeFile) obj;
-		if (path == null)
-		{
-			if (other.path != null)
-			{
-				return false;
-			}
-		}
-		else if (!path.equals(other.path))
-		{
-			return false;
-		}
-		return true;
+		final DatabaseChangeLogFile other = (DatabaseChangeLogFile) obj;
+		return realPath.equals(other.realPath);
 	}
 }
\ No newline at end of file
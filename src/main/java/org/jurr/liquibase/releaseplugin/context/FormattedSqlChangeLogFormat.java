@@ -0,0 +1,44 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.FormattedSqlScanner;
+
+/**
+ * Liquibase formatted SQL changelogs. These can only be included; they can not include other files.
+ *
+ * @see FormattedSqlScanner
+ */
+final class FormattedSqlChangeLogFormat extends ChangeLogFormat
+{
+	static final FormattedSqlChangeLogFormat INSTANCE = new FormattedSqlChangeLogFormat();
+
+	private FormattedSqlChangeLogFormat()
+	{
+	}
+
+	@Override
+	boolean copyLatestFile(@Nonnull final Path path, @Nonnull final InputStream input, @CheckForNull final OutputStream output) throws IOException
+	{
+		try
+		{
+			return FormattedSqlScanner.copyHeader(input, output);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException("File " + path + " is not a formatted SQL changelog: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	void rewriteMasterFile(@Nonnull final Path path, @Nonnull final InputStream scanInput, @Nonnull final InputStream copyInput, @Nonnull final OutputStream output, @Nonnull final MasterFileHandler handler)
+	{
+		throw new IllegalArgumentException("File " + path + " is a formatted SQL changelog, which can not be used as master file");
+	}
+}
@@ -0,0 +1,226 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.Utils;
+
+/**
+ * Finds the changelogs of an <code>includeAll</code> the way Liquibase does: every file below the directory with the extension of a changelog format, ordered by
+ * path.
+ * <p>
+ * Directory listings and file attributes are kept for the whole run, so a directory that is included by several master files, or that is read again, is only
+ * walked once. When the project has more than one thread, subdirectories are walked in parallel.
+ */
+final class IncludeAllScanner
+{
+	private static final String[] CHANGELOG_EXTENSIONS = { ".xml", ".sql", ".yaml", ".yml", ".json" };
+
+	private final ConcurrentMap<Path, List<Path>> listings = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path, BasicFileAttributes> attributes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param minDepth the minimum depth of the files, where the files directly in the directory have depth 1
+	 * @param maxDepth the maximum depth of the files
+	 * @param endsWith the text the file names must end with, or <code>null</code> for any file name
+	 * @param threads the number of threads to walk the directory with
+	 * @return the changelogs below the directory, relative to it, in the order Liquibase includes them. This is empty if the directory does not exist.
+	 * @throws IOException whenever there is an exception while listing a directory
+	 */
+	@Nonnull
+	List<Path> scan(@Nonnull final Path directory, final int minDepth, final int maxDepth, @CheckForNull final String endsWith, final int threads) throws IOException
+	{
+		final BasicFileAttributes directoryAttributes = getAttributes(directory);
+		if (directoryAttributes == null || !directoryAttributes.isDirectory())
+		{
+			return Collections.emptyList();
+		}
+
+		final Walk walk = new Walk(directory, directory, 1, minDepth, maxDepth, endsWith, threads > 1);
+		final List<Path> result;
+		try
+		{
+			if (threads > 1)
+			{
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				try
+				{
+					result = pool.invoke(walk);
+				}
+				finally
+				{
+					pool.shutdown();
+				}
+			}
+			else
+			{
+				result = walk.compute();
+			}
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+
+		// Liquibase sorts on the whole path; the paths all start with the directory, so sorting on the rest gives the same order
+		Collections.sort(result, Comparator.comparing(Utils::convertPathSeparatorToForwardSlash));
+		return result;
+	}
+
+	/**
+	 * @return the entries of the given directory.
+	 */
+	@Nonnull
+	private List<Path> list(@Nonnull final Path directory) throws IOException
+	{
+		List<Path> result = listings.get(directory);
+		if (result == null)
+		{
+			result = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+			{
+				for (final Path entry : entries)
+				{
+					result.add(entry);
+				}
+			}
+			listings.putIfAbsent(directory, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the attributes of the given file, following symbolic links, or <code>null</code> if it does not exist.
+	 */
+	@CheckForNull
+	private BasicFileAttributes getAttributes(@Nonnull final Path file) throws IOException
+	{
+		BasicFileAttributes result = attributes.get(file);
+		if (result == null)
+		{
+			try
+			{
+				result = Files.readAttributes(file, BasicFileAttributes.class);
+			}
+			catch (NoSuchFileException e)
+			{
+				return null;
+			}
+			attributes.putIfAbsent(file, result);
+		}
+		return result;
+	}
+
+	private static boolean isChangeLog(@Nonnull final Path file, @CheckForNull final String endsWith)
+	{
+		final String name = file.getFileName().toString();
+		if (endsWith != null && !name.endsWith(endsWith))
+		{
+			return false;
+		}
+		final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+		for (final String extension : CHANGELOG_EXTENSIONS)
+		{
+			if (lowerCaseName.endsWith(extension))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the changelogs in one directory and, in subtasks, in its subdirectories.
+	 */
+	private final class Walk extends RecursiveTask<List<Path>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final transient Path root;
+		private final transient Path directory;
+		private final int depth;
+		private final int minDepth;
+		private final int maxDepth;
+		private final String endsWith;
+		private final boolean parallel;
+
+		Walk(@Nonnull final Path root, @Nonnull final Path directory, final int depth, final int minDepth, final int maxDepth, @CheckForNull final String endsWith,
+				final boolean parallel)
+		{
+			this.root = root;
+			this.directory = directory;
+			this.depth = depth;
+			this.minDepth = minDepth;
+			this.maxDepth = maxDepth;
+			this.endsWith = endsWith;
+			this.parallel = parallel;
+		}
+
+		@Override
+		protected List<Path> compute()
+		{
+			final List<Path> result = new ArrayList<>();
+			final List<Walk> subdirectories = new ArrayList<>();
+			try
+			{
+				for (final Path entry : list(directory))
+				{
+					final BasicFileAttributes entryAttributes = getAttributes(entry);
+					if (entryAttributes == null)
+					{
+						// Removed while walking
+					}
+					else if (entryAttributes.isDirectory())
+					{
+						if (depth < maxDepth)
+						{
+							subdirectories.add(new Walk(root, entry, depth + 1, minDepth, maxDepth, endsWith, parallel));
+						}
+					}
+					else if (entryAttributes.isRegularFile() && depth >= minDepth && isChangeLog(entry, endsWith))
+					{
+						result.add(root.relativize(entry));
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+
+			if (parallel)
+			{
+				invokeAll(subdirectories);
+				for (final Walk subdirectory : subdirectories)
+				{
+					result.addAll(subdirectory.join());
+				}
+			}
+			else
+			{
+				for (final Walk subdirectory : subdirectories)
+				{
+					result.addAll(subdirectory.compute());
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -1,38 +1,53 @@
 package org.jurr.liquibase.releaseplugin.context;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.StartDocument;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
+import org.jurr.liquibase.releaseplugin.CountingInputStream;
+import org.jurr.liquibase.releaseplugin.FileOperation;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
 import org.jurr.liquibase.releaseplugin.Utils;
 
 public class IncludeFile extends DatabaseChangeLogFile
 {
-	private static final String PART_OF_FILENAME_THAT_WILL_BE_REPLACED_WITH_VERSION = "latest";
+	static final String PART_OF_FILENAME_THAT_WILL_BE_REPLACED_WITH_VERSION = "latest";
 
 	private final MasterFile masterFile;
 	private final List<Attribute> attributes;
-	private boolean containsChangeSets;
+	private final ChangeLogFormat format;
+	private Boolean containsChangeSets;
+	private ChangeLogChecksums checksums;
+	private ChangeLogChecksums.ComputingInputStream checksumInput;
+	private IncludeFileCache.Entry cacheEntry;
+	private IncludeFileCache.Snapshot cacheSnapshot;
+	private Future<?> pendingRead;
+	private IncludeFile registeredIncludeFile = this;
+	private boolean newVersionStaged = false;
 
 	IncludeFile(@Nonnull final Path path, @Nonnull final MasterFile masterFile, final boolean relativeToChangelogFile, @Nonnull final Path classpathRoot, @Nonnull final Iterator<Attribute> attributeIterator)
 	{
 		super(Utils.resolveIncludeFile(masterFile.getPath(), path, relativeToChangelogFile, classpathRoot));
 		attributes = iteratorToList(attributeIterator);
+		format = ChangeLogFormat.forPath(getPath());
 		this.masterFile = masterFile;
+		setLiquibaseProject(masterFile.getLiquibaseProject());
 	}
 
 	@Nonnull
@@ -46,10 +61,111 @@ public class IncludeFile extends DatabaseChangeLogFile
 		return result;
 	}
 
+	/**
+	 * Find out if this file will be tagged, and if so, read it. This is done on one of the worker threads of the project, if it has any.
+	 */
+	void prepareNewVersionInBackground()
+	{
+		pendingRead = getLiquibaseProject().runInBackground(this::prepareNewVersion);
+	}
+
+	private void prepareNewVersion()
+	{
+		if (willBeTagged() && !getLiquibaseProject().isPlanning())
+		{
+			readFile();
+			if (isComputingChecksums())
+			{
+				getChecksums();
+			}
+		}
+	}
+
+	private boolean isComputingChecksums()
+	{
+		return getLiquibaseProject().isWritingChecksumManifests() || getLiquibaseProject().isWritingChangeSetIndexes();
+	}
+
+	/**
+	 * @return the checksums of this file as it is now, which is how it will be frozen in the new version. They are computed while the file is read, or else the
+	 *         first time they are asked for.
+	 */
+	@Nonnull
+	ChangeLogChecksums getChecksums()
+	{
+		if (registeredIncludeFile != this)
+		{
+			return registeredIncludeFile.getChecksums();
+		}
+		return computeChecksums();
+	}
+
+	@Nonnull
+	private synchronized ChangeLogChecksums computeChecksums()
+	{
+		if (checksums == null)
+		{
+			// The file may not have been read yet in the background; reading it computes the checksums too
+			readFile();
+		}
+		if (checksums == null)
+		{
+			final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.CHECKSUM, getPath());
+			try
+			{
+				checksums = ChangeLogChecksums.compute(getPath(), format == null);
+				operation.addBytesRead(checksums.getBytesRead());
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("IO error while reading " + getPath(), e);
+			}
+			finally
+			{
+				operation.end();
+			}
+		}
+		return checksums;
+	}
+
+	/**
+	 * Add this include file to the project. When the same file was already added, for example because it is shared by several master files, this one is discarded and
+	 * the one that was added first decides whether the file will be tagged.
+	 */
+	void register()
+	{
+		registeredIncludeFile = getLiquibaseProject().addIncludeFile(this);
+		if (registeredIncludeFile != this)
+		{
+			discard();
+		}
+	}
+
+	/**
+	 * Forget about this include file; it will not be read or tagged.
+	 */
+	void discard()
+	{
+		if (pendingRead != null)
+		{
+			pendingRead.cancel(false);
+		}
+		discardNewLatestFile();
+	}
+
 	public boolean willBeTagged()
 	{
-		final boolean shouldBeSkipped = masterFile.getLiquibaseProject().getIncludeFilesToSkipTagging().contains(getPath());
-		return !shouldBeSkipped && containsChangeSets();
+		if (registeredIncludeFile != this)
+		{
+			return registeredIncludeFile.willBeTagged();
+		}
+
+		return !isSkipped() && containsChangeSets();
+	}
+
+	private boolean isSkipped()
+	{
+		return getLiquibaseProject().getIncludeFilesToSkipTagging().contains(getRealPath());
 	}
 
 	@Nonnull
@@ -58,12 +174,267 @@ public class IncludeFile extends DatabaseChangeLogFile
 		return attributes;
 	}
 
-	private boolean containsChangeSets()
+	/**
+	 * Only reads up to the first changeSet. The full read (and rewrite) is left to {@link #readFile()}, which is only needed for files that will actually be tagged.
+	 */
+	private synchronized boolean containsChangeSets()
 	{
-		readFile();
+		if (containsChangeSets == null)
+		{
+			final IncludeFileCache includeFileCache = getLiquibaseProject().getIncludeFileCache();
+			if (includeFileCache != null)
+			{
+				cacheEntry = lookupInCache(includeFileCache);
+			}
+
+			if (cacheEntry != null)
+			{
+				containsChangeSets = cacheEntry.containsChangeSets();
+			}
+			else
+			{
+				getLiquibaseProject().countParsedIncludeFile();
+				final InputStream input = open();
+				containsChangeSets = format == null ? containsElement(CHANGE_SET_TAG, input) : containsChangeSetsInFormat(input);
+				if (includeFileCache != null && (!containsChangeSets || getLiquibaseProject().isPlanning()))
+				{
+					// A file with changeSets that is tagged, is stored once it is parsed, together with its emptied 'latest' file
+					includeFileCache.store(cacheSnapshot, containsChangeSets, null);
+				}
+			}
+		}
 		return containsChangeSets;
 	}
 
+	@CheckForNull
+	private IncludeFileCache.Entry lookupInCache(@Nonnull final IncludeFileCache includeFileCache)
+	{
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.CACHE_LOOKUP, getPath());
+		try
+		{
+			return includeFileCache.lookup(getPath());
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	@Override
+	@Nonnull
+	SpillableOutputStream createNewLatestFile()
+	{
+		final IncludeFileCache includeFileCache = getLiquibaseProject().getIncludeFileCache();
+		if (includeFileCache == null)
+		{
+			getLiquibaseProject().countParsedIncludeFile();
+			return parseFile();
+		}
+
+		if (cacheEntry == null)
+		{
+			cacheEntry = lookupInCache(includeFileCache);
+		}
+		if (cacheEntry != null)
+		{
+			final SpillableOutputStream cachedOutput = createOutputBuffer();
+			try
+			{
+				final boolean copied = includeFileCache.copyLatestFile(cacheEntry, cachedOutput);
+				cachedOutput.close();
+				if (copied)
+				{
+					containsChangeSets = cacheEntry.containsChangeSets();
+					return cachedOutput;
+				}
+				cachedOutput.discard();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("IO error while copying " + getPath() + " from the cache", e);
+			}
+		}
+
+		getLiquibaseProject().countParsedIncludeFile();
+		final SpillableOutputStream output = parseFile();
+		includeFileCache.store(cacheSnapshot, containsChangeSets, output);
+		return output;
+	}
+
+	@Nonnull
+	private SpillableOutputStream parseFile()
+	{
+		final SpillableOutputStream output = format == null ? parseXmlFile() : parseFileInFormat();
+		if (checksumInput != null)
+		{
+			// Computed while the file was read, unless it was not read up to the end
+			checksums = checksumInput.getChecksums();
+			checksumInput = null;
+		}
+		return output;
+	}
+
+	@Nonnull
+	private SpillableOutputStream parseXmlFile()
+	{
+		final SpillableOutputStream splicedFile = getLiquibaseProject().isPreserveFormatting() ? spliceFile() : null;
+		return splicedFile == null ? super.createNewLatestFile() : splicedFile;
+	}
+
+	@Nonnull
+	private SpillableOutputStream parseFileInFormat()
+	{
+		final SpillableOutputStream output = createOutputBuffer();
+		boolean success = false;
+		try (SpillableOutputStream outputStream = output)
+		{
+			containsChangeSets = copyLatestFile(openForReading(), outputStream, getReadOperation());
+			success = true;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + getPath(), e);
+		}
+		finally
+		{
+			if (!success)
+			{
+				try
+				{
+					output.discard();
+				}
+				catch (IOException e)
+				{
+					// Ignore; we are already failing
+				}
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Copy this file without its changeSets, byte for byte.
+	 *
+	 * @return the new content, or <code>null</code> if this file can not be copied that way
+	 */
+	@CheckForNull
+	private SpillableOutputStream spliceFile()
+	{
+		final SpillableOutputStream output = createOutputBuffer();
+		boolean success = false;
+		try (SpillableOutputStream outputStream = output)
+		{
+			final LatestFileSplicer splicer = LatestFileSplicer.scan(getPath(), openForReading());
+			if (splicer == null)
+			{
+				return null;
+			}
+			final long bytesRead = splicer.copyTo(outputStream);
+			if (getReadOperation() != null)
+			{
+				getReadOperation().addBytesRead(bytesRead);
+			}
+			containsChangeSets = splicer.containsChangeSets();
+			success = true;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + getPath(), e);
+		}
+		finally
+		{
+			if (!success)
+			{
+				try
+				{
+					output.discard();
+				}
+				catch (IOException e)
+				{
+					// Ignore; we are already failing
+				}
+			}
+		}
+		return output;
+	}
+
+	private boolean containsChangeSetsInFormat(@Nonnull final InputStream input)
+	{
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.PROBE, getPath());
+		try
+		{
+			return copyLatestFile(input, null, operation);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + getPath(), e);
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * @see ChangeLogFormat#copyLatestFile(Path, java.io.InputStream, OutputStream)
+	 */
+	private boolean copyLatestFile(@Nonnull final InputStream inputStream, @CheckForNull final OutputStream output, @CheckForNull final FileOperation operation) throws IOException
+	{
+		try (CountingInputStream input = new CountingInputStream(inputStream))
+		{
+			try
+			{
+				return format.copyLatestFile(getPath(), input, output);
+			}
+			finally
+			{
+				if (operation != null)
+				{
+					operation.addBytesRead(input.getCount());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a new stream of the content of this file. When there is an include file cache, what is read is remembered in {@link #cacheSnapshot}, to store in the
+	 *         cache afterwards.
+	 */
+	@Nonnull
+	private InputStream open()
+	{
+		final IncludeFileCache includeFileCache = getLiquibaseProject().getIncludeFileCache();
+		try
+		{
+			if (includeFileCache == null)
+			{
+				return Files.newInputStream(getPath());
+			}
+			cacheSnapshot = includeFileCache.open(getPath());
+			return cacheSnapshot;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + getPath(), e);
+		}
+	}
+
+	/**
+	 * When the checksums of this file are needed, they are computed from the same bytes the new 'latest' file is created from.
+	 */
+	@Override
+	@Nonnull
+	InputStream openForReading() throws IOException
+	{
+		final InputStream input = open();
+		if (checksums != null || !isComputingChecksums())
+		{
+			return input;
+		}
+		checksumInput = new ChangeLogChecksums.ComputingInputStream(input, format == null);
+		return checksumInput;
+	}
+
 	@Nonnull
 	Path getNewVersionFilename(final boolean relativeToChangelogFile)
 	{
@@ -79,50 +450,66 @@ public class IncludeFile extends DatabaseChangeLogFile
 	}
 
 	@Override
-	void readStartDocumentTag(@Nonnull final XMLEventReader xmlEventReader, @Nonnull final StartDocument startDocument, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
+	void readStartDocumentTag(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
 	{
-		xmlEventWriter.add(startDocument);
-
-		while (xmlEventReader.hasNext())
+		boolean foundChangeSets = false;
+		while (xmlStreamReader.hasNext())
 		{
-			final XMLEvent xmlEvent = xmlEventReader.nextEvent();
-			switch (xmlEvent.getEventType())
+			if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT && isElement(xmlStreamReader, CHANGE_SET_TAG))
 			{
-			case XMLStreamConstants.START_ELEMENT:
-				final StartElement xmlStartElement = (StartElement) xmlEvent;
-				if (xmlStartElement.getName().equals(CHANGE_SET_TAG))
-				{
-					containsChangeSets = true;
-					Utils.skipUntillEndElement(xmlEventReader, xmlStartElement);
-				}
-				else
-				{
-					xmlEventWriter.add(xmlEvent);
-				}
-				break;
-			default:
-				xmlEventWriter.add(xmlEvent);
-				break;
+				// Leave out the changeSet, without looking at its content
+				foundChangeSets = true;
+				Utils.skipElement(xmlStreamReader);
+			}
+			else
+			{
+				xmlEventWriter.add(createXMLEvent(xmlStreamReader));
 			}
 		}
+		containsChangeSets = foundChangeSets;
 	}
 
 	@Override
-	void createNewVersion() throws IOException
+	void stageNewVersion(@Nonnull final FileTransaction fileTransaction) throws IOException
 	{
-		readFile();
-
 		if (!willBeTagged())
 		{
+			discardNewLatestFile();
 			return;
 		}
 
+		readFile();
+
 		// Move this file to the version variant.
-		Path newFile = getNewVersionFilename(false);
-		Files.createDirectories(newFile.getParent());
-		Files.move(getPath(), newFile);
+		fileTransaction.move(getPath(), getNewVersionFilename(false));
 
 		// Create an empty copy with the original filename.
-		Files.write(getPath(), getNewLatestFile(), StandardOpenOption.CREATE_NEW);
+		final Path stagedFile = stageNewLatestFile();
+		fileTransaction.addStagedFile(stagedFile);
+		fileTransaction.move(stagedFile, getPath());
+		newVersionStaged = true;
+	}
+
+	/**
+	 * @return what will happen to this file when the new version is created. This only reads the file up to the first changeSet.
+	 */
+	@Nonnull
+	ReleasePlan.IncludeFileEntry plan()
+	{
+		final boolean willBeTagged = willBeTagged();
+		final Path newVersionPath = willBeTagged ? getNewVersionFilename(false) : null;
+		return new ReleasePlan.IncludeFileEntry(getPath(), isSkipped(), willBeTagged, newVersionPath, newVersionPath != null && Files.exists(newVersionPath));
+	}
+
+	/**
+	 * Called after the transaction that the new version was staged in, is committed.
+	 */
+	void newVersionCommitted()
+	{
+		final IncludeFileCache includeFileCache = getLiquibaseProject().getIncludeFileCache();
+		if (newVersionStaged && includeFileCache != null)
+		{
+			includeFileCache.store(getPath(), false, null);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,512 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.Utils;
+
+/**
+ * On-disk cache of what was learned from parsing include files: whether they contain changeSets, and what the emptied 'latest' file looks like.
+ * <p>
+ * Entries are keyed on the path of the include file, and are only used when the include file did not change. A file is considered unchanged when its size and
+ * modification time are the same as when the entry was written. If the modification time is different, or too close to the time the entry was written to be
+ * trusted, the content hash of the file is compared instead.
+ */
+public class IncludeFileCache
+{
+	/**
+	 * Change this whenever the format of an entry, or the way the 'latest' files are written, changes. This makes sure old entries are not used anymore.
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Modification times within this many milliseconds of writing the entry are not trusted, to allow for file systems with a coarse timestamp granularity.
+	 */
+	private static final long MODIFICATION_TIME_GRANULARITY = 2000;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String ENTRY_SUFFIX = ".entry";
+
+	private final Path cacheDirectory;
+	private final boolean preservingFormatting;
+
+	public IncludeFileCache(@Nonnull final Path cacheDirectory)
+	{
+		this(cacheDirectory, false);
+	}
+
+	/**
+	 * @param preservingFormatting whether the 'latest' files are created by copying the include file without its changeSets, instead of writing them anew. Entries
+	 *            written in the other way are not used.
+	 */
+	public IncludeFileCache(@Nonnull final Path cacheDirectory, final boolean preservingFormatting)
+	{
+		this.cacheDirectory = cacheDirectory;
+		this.preservingFormatting = preservingFormatting;
+	}
+
+	@Nonnull
+	public Path getCacheDirectory()
+	{
+		return cacheDirectory;
+	}
+
+	/**
+	 * @return the entry for the given include file, or <code>null</code> if there is no entry, or the include file changed after the entry was written.
+	 */
+	@CheckForNull
+	Entry lookup(@Nonnull final Path includeFile)
+	{
+		final Path entryFile = getEntryFile(includeFile);
+		final Entry entry;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile))))
+		{
+			entry = readHeader(input);
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		catch (EOFException e)
+		{
+			// Corrupt entry; it will be overwritten
+			return null;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading cache entry " + entryFile + " for " + includeFile, e);
+		}
+
+		if (entry == null || !entry.path.equals(normalize(includeFile).toString()))
+		{
+			return null;
+		}
+
+		try
+		{
+			final BasicFileAttributes attributes = Files.readAttributes(includeFile, BasicFileAttributes.class);
+			if (attributes.size() != entry.size)
+			{
+				return null;
+			}
+
+			final long lastModified = attributes.lastModifiedTime().toMillis();
+			if (lastModified == entry.lastModified && lastModified < entry.written - MODIFICATION_TIME_GRANULARITY)
+			{
+				return entry;
+			}
+			if (!Arrays.equals(hash(includeFile), entry.hash))
+			{
+				return null;
+			}
+
+			// The content did not change. Remember the current modification time, so next time the hash is not needed anymore.
+			refresh(entryFile, lastModified);
+			return entry;
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while checking " + includeFile + " against the cache", e);
+		}
+	}
+
+	/**
+	 * Copy the emptied 'latest' file from the given entry.
+	 *
+	 * @return whether the entry has an emptied 'latest' file
+	 */
+	boolean copyLatestFile(@Nonnull final Entry entry, @Nonnull final OutputStream outputStream)
+	{
+		if (!entry.hasLatestFile)
+		{
+			return false;
+		}
+
+		final Path entryFile = getEntryFile(entry.path);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile))))
+		{
+			final Entry currentEntry = readHeader(input);
+			if (currentEntry == null || !currentEntry.hasLatestFile || !Arrays.equals(currentEntry.hash, entry.hash))
+			{
+				return false;
+			}
+
+			final byte[] buffer = new byte[8192];
+			long remaining = input.readLong();
+			while (remaining > 0)
+			{
+				final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0)
+				{
+					throw new EOFException("Cache entry " + entryFile + " is truncated");
+				}
+				outputStream.write(buffer, 0, read);
+				remaining -= read;
+			}
+			return true;
+		}
+		catch (NoSuchFileException e)
+		{
+			return false;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading cache entry " + entryFile + " for " + entry.path, e);
+		}
+	}
+
+	/**
+	 * Open the given include file, to read it and then {@link #store(Snapshot, boolean, SpillableOutputStream)} what was learned from it.
+	 */
+	@Nonnull
+	Snapshot open(@Nonnull final Path includeFile) throws IOException
+	{
+		// Take the timestamp before looking at the file, so a change while reading is never trusted on its modification time alone.
+		final long written = System.currentTimeMillis();
+		final BasicFileAttributes attributes = Files.readAttributes(includeFile, BasicFileAttributes.class);
+		return new Snapshot(includeFile, Files.newInputStream(includeFile), written, attributes);
+	}
+
+	/**
+	 * Store what is known about the current content of the given include file, reading it once more.
+	 *
+	 * @param latestFile the emptied 'latest' file, or <code>null</code> if it is not known.
+	 */
+	void store(@Nonnull final Path includeFile, final boolean containsChangeSets, @CheckForNull final SpillableOutputStream latestFile)
+	{
+		final Snapshot snapshot;
+		try
+		{
+			snapshot = open(includeFile);
+			try (InputStream input = snapshot)
+			{
+				final byte[] buffer = new byte[8192];
+				while (input.read(buffer) >= 0)
+				{
+					// Only read, for the hash
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + includeFile + " for the cache", e);
+		}
+		store(snapshot, containsChangeSets, latestFile);
+	}
+
+	/**
+	 * Store what is known about the content of the include file that was read through the given snapshot. When reading stopped before the end of the file, for
+	 * example at the first changeSet, the rest of the file is only read for the hash. Nothing is stored when the size or modification time of the file changed
+	 * while it was read.
+	 *
+	 * @param latestFile the emptied 'latest' file, or <code>null</code> if it is not known.
+	 */
+	void store(@Nonnull final Snapshot snapshot, final boolean containsChangeSets, @CheckForNull final SpillableOutputStream latestFile)
+	{
+		final Path entryFile = getEntryFile(snapshot.includeFile);
+		try
+		{
+			if (!snapshot.endOfFile)
+			{
+				snapshot.readRest();
+			}
+			if (snapshot.bytesRead != snapshot.attributes.size())
+			{
+				return;
+			}
+			final BasicFileAttributes attributes = Files.readAttributes(snapshot.includeFile, BasicFileAttributes.class);
+			if (attributes.size() != snapshot.attributes.size() || !attributes.lastModifiedTime().equals(snapshot.attributes.lastModifiedTime()))
+			{
+				return;
+			}
+
+			Files.createDirectories(cacheDirectory);
+
+			final Entry entry = new Entry();
+			entry.written = snapshot.written;
+			entry.path = normalize(snapshot.includeFile).toString();
+			entry.size = snapshot.attributes.size();
+			entry.lastModified = snapshot.attributes.lastModifiedTime().toMillis();
+			entry.hash = snapshot.messageDigest.digest();
+			entry.containsChangeSets = containsChangeSets;
+			entry.hasLatestFile = latestFile != null;
+
+			final Path temporaryFile = Utils.createSiblingFile(entryFile);
+			try
+			{
+				try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile))))
+				{
+					writeHeader(output, entry);
+					if (latestFile != null)
+					{
+						output.writeLong(latestFile.size());
+						latestFile.writeTo(output);
+					}
+				}
+				Utils.moveAtomically(temporaryFile, entryFile);
+			}
+			finally
+			{
+				Files.deleteIfExists(temporaryFile);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while writing cache entry " + entryFile + " for " + snapshot.includeFile, e);
+		}
+	}
+
+	private void refresh(@Nonnull final Path entryFile, final long lastModified) throws IOException
+	{
+		final long written = System.currentTimeMillis();
+		final Path temporaryFile = Utils.createSiblingFile(entryFile);
+		try
+		{
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile))); DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile))))
+			{
+				final Entry entry = readHeader(input);
+				if (entry == null)
+				{
+					return;
+				}
+				entry.lastModified = lastModified;
+				entry.written = written;
+				writeHeader(output, entry);
+
+				// Copy the emptied 'latest' file, if any
+				final byte[] buffer = new byte[8192];
+				int read;
+				while ((read = input.read(buffer)) >= 0)
+				{
+					output.write(buffer, 0, read);
+				}
+			}
+			Utils.moveAtomically(temporaryFile, entryFile);
+		}
+		catch (NoSuchFileException e)
+		{
+			// Entry was removed in the meantime; nothing to refresh
+		}
+		finally
+		{
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	private void writeHeader(@Nonnull final DataOutputStream output, @Nonnull final Entry entry) throws IOException
+	{
+		output.writeInt(FORMAT_VERSION);
+		output.writeUTF(Charset.defaultCharset().name());
+		output.writeBoolean(preservingFormatting);
+		output.writeUTF(entry.path);
+		output.writeLong(entry.size);
+		output.writeLong(entry.lastModified);
+		output.writeLong(entry.written);
+		output.writeInt(entry.hash.length);
+		output.write(entry.hash);
+		output.writeBoolean(entry.containsChangeSets);
+		output.writeBoolean(entry.hasLatestFile);
+	}
+
+	@CheckForNull
+	private Entry readHeader(@Nonnull final DataInputStream input) throws IOException
+	{
+		if (input.readInt() != FORMAT_VERSION || !input.readUTF().equals(Charset.defaultCharset().name()) || input.readBoolean() != preservingFormatting)
+		{
+			return null;
+		}
+
+		final Entry entry = new Entry();
+		entry.path = input.readUTF();
+		entry.size = input.readLong();
+		entry.lastModified = input.readLong();
+		entry.written = input.readLong();
+		entry.hash = new byte[input.readInt()];
+		input.readFully(entry.hash);
+		entry.containsChangeSets = input.readBoolean();
+		entry.hasLatestFile = input.readBoolean();
+		return entry;
+	}
+
+	@Nonnull
+	private Path getEntryFile(@Nonnull final Path includeFile)
+	{
+		return getEntryFile(normalize(includeFile).toString());
+	}
+
+	@Nonnull
+	private Path getEntryFile(@Nonnull final String normalizedPath)
+	{
+		final MessageDigest messageDigest = newMessageDigest();
+		return cacheDirectory.resolve(toHex(messageDigest.digest(normalizedPath.getBytes(StandardCharsets.UTF_8))) + ENTRY_SUFFIX);
+	}
+
+	@Nonnull
+	private static Path normalize(@Nonnull final Path path)
+	{
+		return path.toAbsolutePath().normalize();
+	}
+
+	@Nonnull
+	private static byte[] hash(@Nonnull final Path file) throws IOException
+	{
+		final MessageDigest messageDigest = newMessageDigest();
+		try (InputStream input = Files.newInputStream(file))
+		{
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0)
+			{
+				messageDigest.update(buffer, 0, read);
+			}
+		}
+		return messageDigest.digest();
+	}
+
+	@Nonnull
+	private static MessageDigest newMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(HASH_ALGORITHM + " is not supported by this JVM", e);
+		}
+	}
+
+	@Nonnull
+	private static String toHex(@Nonnull final byte[] bytes)
+	{
+		final StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+		{
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * An include file that is being read. It remembers the size and modification time of the file from before it was read, and the hash of the bytes that were
+	 * read, so an entry is always stored for the content that was actually parsed.
+	 */
+	static final class Snapshot extends InputStream
+	{
+		private final Path includeFile;
+		private final InputStream input;
+		private final long written;
+		private final BasicFileAttributes attributes;
+		private final MessageDigest messageDigest = newMessageDigest();
+		private long bytesRead = 0;
+		private boolean endOfFile = false;
+
+		private Snapshot(@Nonnull final Path includeFile, @Nonnull final InputStream input, final long written, @Nonnull final BasicFileAttributes attributes)
+		{
+			this.includeFile = includeFile;
+			this.input = input;
+			this.written = written;
+			this.attributes = attributes;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int result = input.read();
+			if (result < 0)
+			{
+				endOfFile = true;
+			}
+			else
+			{
+				messageDigest.update((byte) result);
+				bytesRead++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException
+		{
+			final int result = input.read(b, off, len);
+			if (result < 0)
+			{
+				endOfFile = true;
+			}
+			else
+			{
+				messageDigest.update(b, off, result);
+				bytesRead += result;
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			input.close();
+		}
+
+		/**
+		 * Read the part of the file that was not read through this snapshot, for the hash only.
+		 */
+		private void readRest() throws IOException
+		{
+			try (SeekableByteChannel channel = Files.newByteChannel(includeFile))
+			{
+				channel.position(bytesRead);
+				final ByteBuffer buffer = ByteBuffer.allocate(8192);
+				int read;
+				while ((read = channel.read(buffer)) >= 0)
+				{
+					messageDigest.update(buffer.array(), 0, read);
+					bytesRead += read;
+					((Buffer) buffer).clear();
+				}
+			}
+			endOfFile = true;
+		}
+	}
+
+	static final class Entry
+	{
+		private String path;
+		private long size;
+		private long lastModified;
+		private long written;
+		private byte[] hash;
+		private boolean containsChangeSets;
+		private boolean hasLatestFile;
+
+		boolean containsChangeSets()
+		{
+			return containsChangeSets;
+		}
+	}
+}
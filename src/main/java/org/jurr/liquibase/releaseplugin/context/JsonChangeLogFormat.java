@@ -0,0 +1,344 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Liquibase JSON changelogs: an object with a <code>databaseChangeLog</code> array, that has an object for every changeSet or include.
+ * <p>
+ * The file is read token by token with a Jackson {@link JsonParser}. The values of changeSets are never looked at, unless they are in a master file and might
+ * contain a tagDatabase.
+ */
+final class JsonChangeLogFormat extends ChangeLogFormat
+{
+	static final JsonChangeLogFormat INSTANCE = new JsonChangeLogFormat();
+
+	// Changelogs with data in them may have long strings; only the number of nested objects and arrays is limited
+	private static final JsonFactory JSON_FACTORY = JsonFactory.builder().streamReadConstraints(StreamReadConstraints.builder().maxStringLength(Integer.MAX_VALUE).build()).build();
+
+	private JsonChangeLogFormat()
+	{
+	}
+
+	@Override
+	boolean copyLatestFile(@Nonnull final Path path, @Nonnull final InputStream input, @CheckForNull final OutputStream output) throws IOException
+	{
+		try (TextSplicer splicer = new TextSplicer(newReader(input), output == null ? null : newWriter(output), false);
+				JsonParser parser = JSON_FACTORY.createParser((Reader) splicer))
+		{
+			boolean foundChangeSets = false;
+			if (findChangeLogArray(path, parser))
+			{
+				final JsonStreamContext arrayContext = parser.getParsingContext();
+				// A changeSet is left out together with the comma before it; when there is nothing before it, with the comma after it
+				long keptEnd = -1;
+				String leadingWhitespace = null;
+				long arrayStart = parser.currentLocation().getCharOffset();
+				JsonToken token;
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+				{
+					final long entryStart = parser.currentTokenLocation().getCharOffset();
+					final boolean changeSet = token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME && CHANGE_SET.equals(parser.currentName());
+					if (changeSet)
+					{
+						foundChangeSets = true;
+						if (output == null)
+						{
+							return true;
+						}
+						if (keptEnd >= 0)
+						{
+							splicer.copyTo(keptEnd);
+						}
+						else if (leadingWhitespace == null)
+						{
+							splicer.copyTo(arrayStart);
+							leadingWhitespace = splicer.take(entryStart);
+						}
+					}
+					else if (leadingWhitespace != null)
+					{
+						splicer.skipTo(entryStart);
+						splicer.insert(leadingWhitespace);
+						leadingWhitespace = null;
+					}
+					skipEntry(parser, arrayContext);
+
+					final long entryEnd = parser.currentLocation().getCharOffset();
+					if (changeSet)
+					{
+						splicer.skipTo(entryEnd);
+					}
+					else
+					{
+						keptEnd = entryEnd;
+						splicer.copyTo(keptEnd);
+					}
+					arrayStart = -1;
+				}
+			}
+			splicer.finish();
+			return foundChangeSets;
+		}
+		catch (JsonProcessingException e)
+		{
+			throw parseError(path, e);
+		}
+	}
+
+	@Override
+	void rewriteMasterFile(@Nonnull final Path path, @Nonnull final InputStream scanInput, @Nonnull final InputStream copyInput, @Nonnull final OutputStream output, @Nonnull final MasterFileHandler handler)
+			throws IOException
+	{
+		long arrayStart;
+		long insertBefore = -1;
+		long lastEntryStart = -1;
+		long lastEntryEnd = -1;
+		try (JsonParser parser = JSON_FACTORY.createParser(newReader(scanInput)))
+		{
+			if (!findChangeLogArray(path, parser))
+			{
+				throw new IllegalArgumentException("No " + DATABASE_CHANGELOG + " array found in file " + path);
+			}
+			arrayStart = parser.currentLocation().getCharOffset();
+			final JsonStreamContext arrayContext = parser.getParsingContext();
+
+			JsonToken token;
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+			{
+				lastEntryStart = parser.currentTokenLocation().getCharOffset();
+				final String name = token == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME ? parser.currentName() : null;
+				if (INCLUDE.equals(name))
+				{
+					handler.include(readAttributes(path, parser));
+					if (insertBefore < 0)
+					{
+						insertBefore = lastEntryStart;
+					}
+				}
+				else if (CHANGE_SET.equals(name))
+				{
+					parser.nextToken();
+					final String tag = findTag(parser, null);
+					if (tag != null)
+					{
+						handler.tagDatabase(tag);
+						insertBefore = -1;
+					}
+				}
+				else
+				{
+					throw new IllegalArgumentException("Unknown entry in file " + path + " at line " + parser.currentTokenLocation().getLineNr() + ", column " + parser.currentTokenLocation().getColumnNr());
+				}
+				skipEntry(parser, arrayContext);
+				lastEntryEnd = parser.currentLocation().getCharOffset();
+			}
+		}
+		catch (JsonProcessingException e)
+		{
+			throw parseError(path, e);
+		}
+
+		final NewVersion newVersion = handler.getNewVersion();
+		try (TextSplicer splicer = new TextSplicer(newReader(copyInput), newWriter(output), false))
+		{
+			if (insertBefore >= 0)
+			{
+				splicer.copyTo(insertBefore);
+				final String separator = getSeparator(splicer);
+				for (final String entry : toEntries(newVersion))
+				{
+					splicer.insert(entry + "," + separator);
+				}
+			}
+			else if (lastEntryEnd >= 0)
+			{
+				splicer.copyTo(lastEntryStart);
+				final String separator = getSeparator(splicer);
+				splicer.copyTo(lastEntryEnd);
+				for (final String entry : toEntries(newVersion))
+				{
+					splicer.insert("," + separator + entry);
+				}
+			}
+			else
+			{
+				splicer.copyTo(arrayStart);
+				splicer.insert(String.join(", ", toEntries(newVersion)));
+			}
+			splicer.finish();
+		}
+	}
+
+	/**
+	 * Move the parser to the start of the <code>databaseChangeLog</code> array.
+	 *
+	 * @return whether there is such an array
+	 */
+	private static boolean findChangeLogArray(@Nonnull final Path path, @Nonnull final JsonParser parser) throws IOException
+	{
+		if (parser.nextToken() != JsonToken.START_OBJECT)
+		{
+			throw new IllegalArgumentException("File " + path + " does not contain a JSON object");
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			final JsonToken value = parser.nextToken();
+			if (DATABASE_CHANGELOG.equals(parser.currentName()) && value == JsonToken.START_ARRAY)
+			{
+				return true;
+			}
+			parser.skipChildren();
+		}
+		return false;
+	}
+
+	/**
+	 * Move the parser to the last token of the current entry of the <code>databaseChangeLog</code> array.
+	 */
+	private static void skipEntry(@Nonnull final JsonParser parser, @Nonnull final JsonStreamContext arrayContext) throws IOException
+	{
+		while (parser.getParsingContext() != arrayContext)
+		{
+			parser.nextToken();
+		}
+	}
+
+	@Nonnull
+	private static Map<String, String> readAttributes(@Nonnull final Path path, @Nonnull final JsonParser parser) throws IOException
+	{
+		if (parser.nextToken() != JsonToken.START_OBJECT)
+		{
+			throw new IllegalArgumentException("Include in file " + path + " at line " + parser.currentTokenLocation().getLineNr() + ", column " + parser.currentTokenLocation().getColumnNr() + " is not an object");
+		}
+		final Map<String, String> result = new LinkedHashMap<>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			final String name = parser.currentName();
+			if (parser.nextToken().isScalarValue())
+			{
+				result.put(name, parser.getText());
+			}
+			else
+			{
+				parser.skipChildren();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Look for a tagDatabase in the object or array the parser is at, and move the parser to its end.
+	 *
+	 * @return the last tag that was found, or the given tag if none was found
+	 */
+	@CheckForNull
+	private static String findTag(@Nonnull final JsonParser parser, @CheckForNull final String tagSoFar) throws IOException
+	{
+		String result = tagSoFar;
+		if (parser.currentToken() == JsonToken.START_OBJECT)
+		{
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				final String name = parser.currentName();
+				final JsonToken value = parser.nextToken();
+				if (TAG_DATABASE.equals(name) && value == JsonToken.START_OBJECT)
+				{
+					while (parser.nextToken() == JsonToken.FIELD_NAME)
+					{
+						final boolean isTag = TAG.equals(parser.currentName());
+						if (parser.nextToken().isScalarValue() && isTag)
+						{
+							result = parser.getText();
+						}
+						parser.skipChildren();
+					}
+				}
+				else
+				{
+					result = findTag(parser, result);
+				}
+			}
+		}
+		else if (parser.currentToken() == JsonToken.START_ARRAY)
+		{
+			while (parser.nextToken() != JsonToken.END_ARRAY)
+			{
+				result = findTag(parser, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return what to put between two entries: a line break and the indentation of the entry before the current position, if that is on a line of its own.
+	 */
+	@Nonnull
+	private static String getSeparator(@Nonnull final TextSplicer splicer)
+	{
+		final String indent = splicer.getLineIndent();
+		return indent == null ? " " : "\n" + indent;
+	}
+
+	@Nonnull
+	private static String[] toEntries(@Nonnull final NewVersion newVersion)
+	{
+		final String[] result = new String[newVersion.getIncludes().size() + 1];
+		for (int i = 0; i < newVersion.getIncludes().size(); i++)
+		{
+			result[i] = "{" + quote(INCLUDE) + ": " + toObject(newVersion.getIncludes().get(i)) + "}";
+		}
+		final Map<String, String> tagDatabase = new LinkedHashMap<>();
+		tagDatabase.put(TAG, newVersion.getTag());
+		final String changes = "[{" + quote(TAG_DATABASE) + ": " + toObject(tagDatabase) + "}]";
+		final String changeSet = toObject(newVersion.getChangeSetAttributes());
+		result[result.length - 1] = "{" + quote(CHANGE_SET) + ": " + changeSet.substring(0, changeSet.length() - 1) + ", \"changes\": " + changes + "}}";
+		return result;
+	}
+
+	@Nonnull
+	private static String toObject(@Nonnull final Map<String, String> attributes)
+	{
+		final StringBuilder result = new StringBuilder("{");
+		for (final Map.Entry<String, String> attribute : attributes.entrySet())
+		{
+			if (result.length() > 1)
+			{
+				result.append(", ");
+			}
+			final String value = attribute.getValue();
+			result.append(quote(attribute.getKey())).append(": ").append("true".equals(value) || "false".equals(value) ? value : quote(value));
+		}
+		return result.append('}').toString();
+	}
+
+	@Nonnull
+	private static String quote(@Nonnull final String value)
+	{
+		return "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + "\"";
+	}
+
+	@Nonnull
+	private static IllegalArgumentException parseError(@Nonnull final Path path, @Nonnull final JsonProcessingException e)
+	{
+		final JsonLocation location = e.getLocation();
+		return new IllegalArgumentException("JSON error in file " + path + (location == null ? "" : " at line " + location.getLineNr() + ", column " + location.getColumnNr()) + ": " + e.getOriginalMessage(), e);
+	}
+}
@@ -0,0 +1,202 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.CountingInputStream;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+
+/**
+ * The byte ranges of the changeSets in an XML include file, to create the new 'latest' file by copying everything else unchanged. A changeSet that is on lines of
+ * its own is left out together with those lines.
+ * <p>
+ * The ranges are found with an {@link XmlByteScanner}, and the rest of the file is copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so the file is never decoded or written anew.
+ */
+final class LatestFileSplicer
+{
+	private final Path path;
+	private long bytesScanned;
+
+	// Start and end offset of every changeSet, one after the other
+	private long[] ranges = new long[16];
+	private int rangeCount;
+
+	private LatestFileSplicer(@Nonnull final Path path)
+	{
+		this.path = path;
+	}
+
+	/**
+	 * @param inputStream the content of the include file, which is closed when done
+	 * @return the changeSets of the given include file, or <code>null</code> if the file cannot be scanned on byte level. The caller should then parse the file.
+	 */
+	@CheckForNull
+	static LatestFileSplicer scan(@Nonnull final Path includeFile, @Nonnull final InputStream inputStream) throws IOException
+	{
+		final Charset charset = Charset.defaultCharset();
+		final LatestFileSplicer result = new LatestFileSplicer(includeFile);
+		try (CountingInputStream input = new CountingInputStream(inputStream);
+				XmlByteScanner scanner = new XmlByteScanner(input, charset))
+		{
+			if (!XmlByteScanner.supports(charset))
+			{
+				return null;
+			}
+
+			int changeSetDepth = -1;
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT && changeSetDepth < 0 && scanner.isLocalName(DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart()))
+				{
+					changeSetDepth = scanner.getDepth();
+					result.addOffset(scanner.getStartOffset());
+				}
+				else if (eventType == XmlByteScanner.END_ELEMENT && changeSetDepth > 0 && scanner.getDepth() == changeSetDepth - 1)
+				{
+					changeSetDepth = -1;
+					result.addOffset(scanner.getEndOffset());
+				}
+			}
+			if (changeSetDepth > 0)
+			{
+				return null;
+			}
+			result.bytesScanned = input.getCount();
+		}
+		catch (EOFException | IllegalArgumentException e)
+		{
+			// Not well-formed; leave it to the parser to report this properly
+			return null;
+		}
+		return result;
+	}
+
+	boolean containsChangeSets()
+	{
+		return rangeCount > 0;
+	}
+
+	/**
+	 * Copy the include file without its changeSets.
+	 *
+	 * @return the number of bytes read from the include file, to scan and to copy it
+	 */
+	long copyTo(@Nonnull final OutputStream output) throws IOException
+	{
+		long bytesRead = bytesScanned;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			final WritableByteChannel target = Channels.newChannel(output);
+			long position = 0;
+			for (int i = 0; i < rangeCount; i += 2)
+			{
+				long start = ranges[i];
+				long end = ranges[i + 1];
+				final long lineStart = findLineStart(channel, start);
+				final long lineEnd = findLineEnd(channel, end);
+				if (lineStart >= position && lineEnd >= 0)
+				{
+					// The changeSet is on lines of its own
+					start = lineStart;
+					end = lineEnd;
+				}
+				bytesRead += transfer(channel, position, start - position, target);
+				position = end;
+			}
+			bytesRead += transfer(channel, position, channel.size() - position, target);
+		}
+		return bytesRead;
+	}
+
+	private void addOffset(final long offset)
+	{
+		if (rangeCount == ranges.length)
+		{
+			ranges = Arrays.copyOf(ranges, ranges.length * 2);
+		}
+		ranges[rangeCount++] = offset;
+	}
+
+	static long transfer(@Nonnull final FileChannel channel, final long position, final long count, @Nonnull final WritableByteChannel target) throws IOException
+	{
+		long transferred = 0;
+		while (transferred < count)
+		{
+			final long result = channel.transferTo(position + transferred, count - transferred, target);
+			if (result <= 0)
+			{
+				throw new EOFException("File " + channel + " is shorter than expected");
+			}
+			transferred += result;
+		}
+		return transferred;
+	}
+
+	/**
+	 * @return the start of the line the given offset is on, if there is only whitespace between the two. Otherwise -1.
+	 */
+	static long findLineStart(@Nonnull final FileChannel channel, final long offset) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(1);
+		long position = offset;
+		while (position > 0)
+		{
+			((Buffer) buffer).clear();
+			channel.read(buffer, position - 1);
+			final byte b = buffer.get(0);
+			if (b == '\n')
+			{
+				return position;
+			}
+			if (b != ' ' && b != '\t')
+			{
+				return -1;
+			}
+			position--;
+		}
+		return position;
+	}
+
+	/**
+	 * @return the offset just after the line break that ends the line the given offset is on, if there is only whitespace between the two. Otherwise -1.
+	 */
+	static long findLineEnd(@Nonnull final FileChannel channel, final long offset) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(1);
+		long position = offset;
+		while (true)
+		{
+			((Buffer) buffer).clear();
+			if (channel.read(buffer, position) < 0)
+			{
+				return position;
+			}
+			final byte b = buffer.get(0);
+			position++;
+			if (b == '\n')
+			{
+				return position;
+			}
+			if (b != ' ' && b != '\t' && b != '\r')
+			{
+				return -1;
+			}
+		}
+	}
+}
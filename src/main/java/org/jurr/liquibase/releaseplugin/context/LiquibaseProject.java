@@ -3,25 +3,50 @@ package org.jurr.liquibase.releaseplugin.context;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.PerformanceReport;
 import org.jurr.liquibase.releaseplugin.Utils;
 
 public class LiquibaseProject
 {
-	private final Set<MasterFile> masterFiles = new HashSet<>();
+	public static final int DEFAULT_MAX_IN_MEMORY_FILE_SIZE = 64 * 1024;
+
+	private final Set<MasterFile> masterFiles = new TreeSet<>(Comparator.comparing(MasterFile::getRealPath));
 	private final String newVersion;
 	private final Set<Path> includeFilesToSkipTagging = new HashSet<>();
-	private final List<IncludeFile> includeFiles = new ArrayList<>();
+	private final Map<Path, IncludeFile> includeFiles = new ConcurrentHashMap<>();
+	private final IncludeAllScanner includeAllScanner = new IncludeAllScanner();
 	private final String context;
 	private final Path classpathRoot;
+	private int threads = 1;
+	private int maxInMemoryFileSize = DEFAULT_MAX_IN_MEMORY_FILE_SIZE;
+	private ExecutorService executorService;
+	private IncludeFileCache includeFileCache;
+	private boolean preserveFormatting = false;
+	private boolean writingChecksumManifests = false;
+	private boolean writingVersionIndexes = false;
+	private boolean writingChangeSetIndexes = false;
+	private Path journalFile;
+	private boolean planning = false;
+	private PerformanceReport performanceReport;
+	private final AtomicInteger parsedIncludeFiles = new AtomicInteger();
 
 	public LiquibaseProject(@Nonnull final String newVersion, final String context, @Nonnull final Path classpathRoot)
 	{
@@ -36,6 +61,9 @@ public class LiquibaseProject
 		return context;
 	}
 
+	/**
+	 * @return the master files, ordered by their path. This is also the order in which they are written.
+	 */
 	@Nonnull
 	public Set<MasterFile> getMasterFiles()
 	{
@@ -54,12 +82,188 @@ public class LiquibaseProject
 		return newVersion;
 	}
 
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * @param threads the number of threads used to read master files and include files. When this is more than one, master files are read in parallel, and include
+	 *            files are read in the background as soon as a master file discovers them.
+	 */
+	public void setThreads(final int threads)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("The number of threads must be at least 1, but was " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public int getMaxInMemoryFileSize()
+	{
+		return maxInMemoryFileSize;
+	}
+
+	/**
+	 * @param maxInMemoryFileSize the maximum number of bytes of a new file that are kept in memory until the new version is written. Larger files are written to a
+	 *            temporary file next to the original file, and moved in place when the new version is written. The same limit applies to the part of a master file
+	 *            that is buffered while looking for the place to insert the new version.
+	 */
+	public void setMaxInMemoryFileSize(final int maxInMemoryFileSize)
+	{
+		if (maxInMemoryFileSize < 0)
+		{
+			throw new IllegalArgumentException("The maximum in-memory file size can not be negative, but was " + maxInMemoryFileSize);
+		}
+		this.maxInMemoryFileSize = maxInMemoryFileSize;
+	}
+
+	@CheckForNull
+	public IncludeFileCache getIncludeFileCache()
+	{
+		return includeFileCache;
+	}
+
+	/**
+	 * @param cacheDirectory the directory to keep an {@link IncludeFileCache} in, or <code>null</code> to not use a cache.
+	 */
+	public void setCacheDirectory(@CheckForNull final Path cacheDirectory)
+	{
+		includeFileCache = cacheDirectory == null ? null : new IncludeFileCache(cacheDirectory, preserveFormatting);
+	}
+
+	public boolean isPreserveFormatting()
+	{
+		return preserveFormatting;
+	}
+
+	/**
+	 * @param preserveFormatting whether to create the new 'latest' XML include files by copying everything but the changeSets byte for byte, instead of writing
+	 *            the files anew. Files that can not be scanned on byte level are still written anew.
+	 */
+	public void setPreserveFormatting(final boolean preserveFormatting)
+	{
+		this.preserveFormatting = preserveFormatting;
+		if (includeFileCache != null)
+		{
+			includeFileCache = new IncludeFileCache(includeFileCache.getCacheDirectory(), preserveFormatting);
+		}
+	}
+
+	public boolean isWritingChecksumManifests()
+	{
+		return writingChecksumManifests;
+	}
+
+	/**
+	 * @param writingChecksumManifests whether to write a {@link ChecksumManifest} of the include files that are frozen in the new version, next to every master file.
+	 */
+	public void setWritingChecksumManifests(final boolean writingChecksumManifests)
+	{
+		this.writingChecksumManifests = writingChecksumManifests;
+	}
+
+	public boolean isWritingChangeSetIndexes()
+	{
+		return writingChangeSetIndexes;
+	}
+
+	/**
+	 * @param writingChangeSetIndexes whether to add the changeSets that are frozen in the new version to the {@link ChangeSetIndex} of every XML master file, and
+	 *            fail when one of them was released before.
+	 */
+	public void setWritingChangeSetIndexes(final boolean writingChangeSetIndexes)
+	{
+		this.writingChangeSetIndexes = writingChangeSetIndexes;
+	}
+
+	public boolean isWritingVersionIndexes()
+	{
+		return writingVersionIndexes;
+	}
+
+	/**
+	 * @param writingVersionIndexes whether to write a {@link VersionIndex} of every XML master file, next to it.
+	 */
+	public void setWritingVersionIndexes(final boolean writingVersionIndexes)
+	{
+		this.writingVersionIndexes = writingVersionIndexes;
+	}
+
+	@CheckForNull
+	public Path getJournalFile()
+	{
+		return journalFile;
+	}
+
+	/**
+	 * @param journalFile the file to keep the journal of the commit of the new version in, or <code>null</code> to not keep a journal on disk. With a journal, a commit
+	 *            that was interrupted can be undone with {@link #recoverInterruptedCommit()}.
+	 * @see FileTransaction
+	 */
+	public void setJournalFile(@CheckForNull final Path journalFile)
+	{
+		this.journalFile = journalFile;
+	}
+
+	@CheckForNull
+	public PerformanceReport getPerformanceReport()
+	{
+		return performanceReport;
+	}
+
+	/**
+	 * @param performanceReport the report to add the time spent on every file to, or <code>null</code> to not keep a report. Flight Recorder events are created
+	 *            either way.
+	 */
+	public void setPerformanceReport(@CheckForNull final PerformanceReport performanceReport)
+	{
+		this.performanceReport = performanceReport;
+	}
+
+	/**
+	 * Undo the changes of an earlier run that was interrupted while committing the new version. A run that finished committing, but not cleaning up, is cleaned up.
+	 *
+	 * @return whether an interrupted commit was found
+	 * @throws IOException whenever there is an exception while undoing the changes
+	 */
+	public boolean recoverInterruptedCommit() throws IOException
+	{
+		return journalFile != null && FileTransaction.recover(journalFile);
+	}
+
+	/**
+	 * @return the number of times an include file was parsed, either to find out if it contains changeSets, or to create the emptied 'latest' file.
+	 */
+	public int getParsedIncludeFiles()
+	{
+		return parsedIncludeFiles.get();
+	}
+
+	void countParsedIncludeFile()
+	{
+		parsedIncludeFiles.incrementAndGet();
+	}
+
 	@Nonnull
 	Path getClasspathRoot()
 	{
 		return classpathRoot;
 	}
 
+	/**
+	 * @return the scanner for the <code>includeAll</code> tags of all master files, so every directory is walked once per run.
+	 */
+	@Nonnull
+	IncludeAllScanner getIncludeAllScanner()
+	{
+		return includeAllScanner;
+	}
+
+	/**
+	 * @return the real paths of the include files to skip, see {@link Utils#toRealPath(Path)}.
+	 */
 	@Nonnull
 	public Set<Path> getIncludeFilesToSkipTagging()
 	{
@@ -78,7 +282,7 @@ public class LiquibaseProject
 	 */
 	public void addIncludeFileToSkipTagging(@Nonnull final MasterFile masterFile, @Nonnull final Path path)
 	{
-		includeFilesToSkipTagging.add(Utils.resolveIncludeFile(masterFile.getPath(), path, true, classpathRoot));
+		includeFilesToSkipTagging.add(Utils.toRealPath(Utils.resolveIncludeFile(masterFile.getPath(), path, true, classpathRoot)));
 	}
 
 	public void addIncludeFileToSkipTagging(@Nonnull final String uri)
@@ -92,35 +296,212 @@ public class LiquibaseProject
 	 */
 	public void addIncludeFileToSkipTagging(@Nonnull final Path path)
 	{
-		includeFilesToSkipTagging.add(path);
+		includeFilesToSkipTagging.add(Utils.toRealPath(path));
 	}
 
+	/**
+	 * Create the new version. First, all new files are created next to the files they are meant for. Only when that worked out for every file, they are all moved in
+	 * place at once. When that fails, the files that were moved already are moved back. Either way, the project is left either untouched or completely tagged.
+	 *
+	 * @throws IOException whenever there is an exception while creating or moving files
+	 */
 	public void createNewVersion() throws IOException
 	{
+		startWorkers();
+
+		final FileTransaction fileTransaction = new FileTransaction(journalFile);
+		fileTransaction.setPerformanceReport(performanceReport);
+		try
+		{
+			for (final MasterFile masterFile : masterFiles)
+			{
+				masterFile.readFileInBackground();
+			}
+
+			// Whatever happens on the worker threads, the files are staged (and errors are thrown) in the same order every time
+			for (final MasterFile masterFile : masterFiles)
+			{
+				masterFile.stageNewVersion(fileTransaction);
+			}
+
+			if (writingVersionIndexes)
+			{
+				for (final MasterFile masterFile : masterFiles)
+				{
+					masterFile.stageVersionIndex(fileTransaction);
+				}
+			}
+
+			if (writingChecksumManifests)
+			{
+				// Before the include files are staged, so the checksums are of the files that are about to be frozen
+				for (final MasterFile masterFile : masterFiles)
+				{
+					masterFile.stageChecksumManifest(fileTransaction);
+				}
+			}
+
+			if (writingChangeSetIndexes)
+			{
+				// Before the include files are staged, like the checksum manifests
+				for (final MasterFile masterFile : masterFiles)
+				{
+					masterFile.stageChangeSetIndex(fileTransaction);
+				}
+			}
+
+			for (final IncludeFile includeFile : getIncludeFiles())
+			{
+				includeFile.stageNewVersion(fileTransaction);
+			}
+
+			fileTransaction.commit();
+
+			for (final IncludeFile includeFile : getIncludeFiles())
+			{
+				includeFile.newVersionCommitted();
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			try
+			{
+				fileTransaction.rollBack();
+			}
+			catch (IOException | RuntimeException rollBackException)
+			{
+				e.addSuppressed(rollBackException);
+			}
+			throw e;
+		}
+		finally
+		{
+			// Clean up whatever was not written because of an exception
+			discardAndStopWorkers();
+		}
+	}
+
+	/**
+	 * Find out what {@link #createNewVersion()} would do, without changing anything. Master files are read like they would be for the new version. Include files are
+	 * only read up to their first changeSet, to find out whether they will be tagged; they are not rewritten.
+	 *
+	 * @param withContent whether to keep the current and the new content of the master files in the plan, for {@link ReleasePlan#writeDiff(java.io.Writer, Path)}
+	 * @throws IOException whenever there is an exception while reading the content of the master files
+	 */
+	@Nonnull
+	public ReleasePlan createPlan(final boolean withContent) throws IOException
+	{
+		planning = true;
+		startWorkers();
+		try
+		{
+			for (final MasterFile masterFile : masterFiles)
+			{
+				masterFile.readFileInBackground();
+			}
+
+			final ReleasePlan releasePlan = new ReleasePlan(newVersion, context);
+			for (final MasterFile masterFile : masterFiles)
+			{
+				releasePlan.addMasterFile(masterFile.plan(withContent));
+			}
+			for (final IncludeFile includeFile : getIncludeFiles())
+			{
+				releasePlan.addIncludeFile(includeFile.plan());
+			}
+			return releasePlan;
+		}
+		finally
+		{
+			discardAndStopWorkers();
+			planning = false;
+		}
+	}
+
+	/**
+	 * @return whether this project is only finding out what the new version would look like. Include files are not rewritten then.
+	 */
+	boolean isPlanning()
+	{
+		return planning;
+	}
+
+	private void startWorkers()
+	{
+		if (threads > 1)
+		{
+			executorService = Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	private void discardAndStopWorkers()
+	{
+		// Discarding a master file waits for it to be read, so after this, no include files are added
 		for (final MasterFile masterFile : masterFiles)
 		{
-			masterFile.createNewVersion();
+			masterFile.discardNewLatestFile();
+		}
+		for (final IncludeFile includeFile : includeFiles.values())
+		{
+			includeFile.discard();
 		}
 
-		for (final IncludeFile includeFile : includeFiles)
+		if (executorService != null)
 		{
-			includeFile.createNewVersion();
+			executorService.shutdownNow();
+			executorService = null;
 		}
 	}
 
-	@Nonnull
-	IncludeFile addIncludeFile(@Nonnull final IncludeFile includeFile)
+	/**
+	 * Run the given task on one of the worker threads. Tasks must be idempotent, so whoever needs the result first will either wait for the worker to finish, or do
+	 * the work itself if the worker did not get to it yet.
+	 *
+	 * @return the pending task, or <code>null</code> when this project does not run tasks in the background.
+	 */
+	@CheckForNull
+	Future<?> runInBackground(@Nonnull final Runnable task)
 	{
-		final int includeFileIndex = includeFiles.indexOf(includeFile);
-		if (includeFileIndex == -1)
+		if (executorService == null)
 		{
-			includeFile.setLiquibaseProject(this);
-			includeFiles.add(includeFile);
-			return includeFile;
+			return null;
 		}
-		else
+		return executorService.submit(task);
+	}
+
+	/**
+	 * @return the include file that was added for the file with the given real path, or <code>null</code> if there is none.
+	 */
+	@CheckForNull
+	IncludeFile getIncludeFile(@Nonnull final Path realPath)
+	{
+		return includeFiles.get(realPath);
+	}
+
+	/**
+	 * @return the include files of this project, ordered by their real path.
+	 */
+	@Nonnull
+	Collection<IncludeFile> getIncludeFiles()
+	{
+		return new TreeMap<>(includeFiles).values();
+	}
+
+	/**
+	 * Add an include file to this project. Include files are identified by their real path, so a file that is included from several master files, or under several
+	 * names, is only tagged once. This may be called by several master files at the same time.
+	 *
+	 * @return the include file that was added first for the same file; this is <code>includeFile</code> itself when there was none yet.
+	 */
+	@Nonnull
+	IncludeFile addIncludeFile(@Nonnull final IncludeFile includeFile)
+	{
+		final IncludeFile existingIncludeFile = includeFiles.putIfAbsent(includeFile.getRealPath(), includeFile);
+		if (existingIncludeFile != null)
 		{
-			return includeFiles.get(includeFileIndex);
+			return existingIncludeFile;
 		}
+		includeFile.setLiquibaseProject(this);
+		return includeFile;
 	}
-}
\ No newline at end of file
+}
@@ -1,47 +1,98 @@
 package org.jurr.liquibase.releaseplugin.context;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartDocument;
-import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import org.codehaus.plexus.util.StringUtils;
+import org.jurr.liquibase.releaseplugin.CountingInputStream;
+import org.jurr.liquibase.releaseplugin.FileOperation;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.SpillableXMLEventBuffer;
 import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
 import org.jurr.liquibase.releaseplugin.exceptions.VersionAlreadyTaggedException;
 
 public class MasterFile extends DatabaseChangeLogFile
 {
+	private static final String TAG_CHANGE_SET_AUTHOR = "liquibase-db-release";
+	private static final String INCLUDE_ALL_ERROR_IF_MISSING_OR_EMPTY_ATTRIBUTE = "errorIfMissingOrEmpty";
+	private static final String INCLUDE_ALL_MIN_DEPTH_ATTRIBUTE = "minDepth";
+	private static final String INCLUDE_ALL_MAX_DEPTH_ATTRIBUTE = "maxDepth";
+	private static final String INCLUDE_ALL_ENDS_WITH_FILTER_ATTRIBUTE = "endsWithFilter";
+	/** The attributes of an includeAll that are not copied to the includes of the new versions of its files. */
+	private static final List<String> INCLUDE_ALL_ONLY_ATTRIBUTES = Arrays.asList(INCLUDE_ALL_TAG_PATH_ATTRIBUTE.getLocalPart(), INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart(),
+			INCLUDE_ALL_ERROR_IF_MISSING_OR_EMPTY_ATTRIBUTE, INCLUDE_ALL_MIN_DEPTH_ATTRIBUTE, INCLUDE_ALL_MAX_DEPTH_ATTRIBUTE, INCLUDE_ALL_ENDS_WITH_FILTER_ATTRIBUTE);
+	/** The attributes of an includeAll that name Java classes, which can not be used outside of Liquibase. */
+	private static final List<String> INCLUDE_ALL_UNSUPPORTED_ATTRIBUTES = Arrays.asList("resourceFilter", "filter", "resourceComparator");
+
+	private final ChangeLogFormat format;
+	private final Path classpathRoot;
 	private final List<IncludeFile> includedFiles = new ArrayList<>();
+	private final List<String> newVersionIncludes = new ArrayList<>();
+	private final List<IncludeFile> newVersionIncludeFiles = new ArrayList<>();
 
 	private boolean bufferingXMLEvents = false;
-	private List<XMLEvent> bufferedXMLEvents = new LinkedList<>();
+	private SpillableXMLEventBuffer bufferedXMLEvents;
+
+	private TagDatabaseIndex tagDatabaseIndex;
+	private Path stagedFile;
+	private int tagDatabasesFound;
 
 	public MasterFile(@Nonnull final Path path)
+	{
+		this(path, null);
+	}
+
+	/**
+	 * @param classpathRoot the directory that includes which are not relative to this master file are resolved against, or <code>null</code> to use the one of the
+	 *            project. Master files of different modules have different classpath roots.
+	 */
+	public MasterFile(@Nonnull final Path path, @CheckForNull final Path classpathRoot)
 	{
 		super(path);
+		this.classpathRoot = classpathRoot;
+		format = ChangeLogFormat.forPath(getPath());
+	}
+
+	@Nonnull
+	Path getClasspathRoot()
+	{
+		return classpathRoot == null ? getLiquibaseProject().getClasspathRoot() : classpathRoot;
 	}
 
 	private void addXMLEventToOutput(@Nonnull final XMLEventWriter xmlEventWriter, @Nonnull final XMLEvent xmlEvent) throws XMLStreamException
 	{
 		if (bufferingXMLEvents)
 		{
+			if (bufferedXMLEvents == null)
+			{
+				bufferedXMLEvents = new SpillableXMLEventBuffer(getPath(), getLiquibaseProject().getMaxInMemoryFileSize());
+			}
 			bufferedXMLEvents.add(xmlEvent);
 		}
 		else
@@ -54,127 +105,350 @@ public class MasterFile extends DatabaseChangeLogFile
 	{
 		if (bufferingXMLEvents)
 		{
-			for (XMLEvent xmlEvent : bufferedXMLEvents)
+			if (bufferedXMLEvents != null)
 			{
-				xmlEventWriter.add(xmlEvent);
+				bufferedXMLEvents.writeTo(xmlEventWriter);
 			}
-			bufferedXMLEvents.clear();
 			bufferingXMLEvents = false;
 		}
 	}
 
+	/**
+	 * Everything up to and including the last tagDatabase changeSet is historical; it was tagged in an earlier version. Includes in there do not need to be looked at.
+	 * If the file could not be indexed up front, this is only found out while parsing.
+	 */
+	private boolean isInHistoricalPart()
+	{
+		return tagDatabaseIndex != null && tagDatabasesFound < tagDatabaseIndex.size();
+	}
+
+	/**
+	 * Read this file on one of the worker threads of the project, if it has any. Otherwise, it is read when the new version is created.
+	 */
+	void readFileInBackground()
+	{
+		getLiquibaseProject().runInBackground(this::readFile);
+	}
+
 	@Override
-	void readStartDocumentTag(@Nonnull final XMLEventReader xmlEventReader, @Nonnull final StartDocument startDocumentElement, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
+	SpillableOutputStream createNewLatestFile()
 	{
-		xmlEventWriter.add(startDocumentElement);
+		// Start from scratch; an earlier attempt on a worker thread may have failed halfway
+		discardIncludedFiles();
+		tagDatabasesFound = 0;
+		newVersionIncludes.clear();
+		newVersionIncludeFiles.clear();
+
+		if (format != null)
+		{
+			return rewriteFile();
+		}
 
-		while (xmlEventReader.hasNext())
+		tagDatabaseIndex = TagDatabaseIndex.read(getPath());
+		if (tagDatabaseIndex != null && tagDatabaseIndex.contains(getLiquibaseProject().getNewVersion()))
 		{
-			final XMLEvent xmlEvent = xmlEventReader.nextEvent();
+			throw new VersionAlreadyTaggedException(getLiquibaseProject().getNewVersion(), getPath());
+		}
+
+		final SpillableOutputStream result = parseFile();
+		if (!isInHistoricalPart())
+		{
+			return result;
+		}
 
-			switch (xmlEvent.getEventType())
+		// The parser found fewer tagDatabase changeSets than the index did, so includes after the real last one were skipped. Parse again, without the index.
+		try
+		{
+			result.discard();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while discarding new content of " + getPath(), e);
+		}
+		discardIncludedFiles();
+		tagDatabaseIndex = null;
+		tagDatabasesFound = 0;
+		newVersionIncludes.clear();
+		newVersionIncludeFiles.clear();
+		return parseFile();
+	}
+
+	@Nonnull
+	private SpillableOutputStream parseFile()
+	{
+		try
+		{
+			return super.createNewLatestFile();
+		}
+		finally
+		{
+			discardBufferedXMLEvents();
+		}
+	}
+
+	/**
+	 * Copy this file in its own format, adding the new version where it belongs.
+	 */
+	@Nonnull
+	private SpillableOutputStream rewriteFile()
+	{
+		final SpillableOutputStream output = createOutputBuffer();
+		boolean success = false;
+		try (CountingInputStream scanInput = new CountingInputStream(Files.newInputStream(getPath()));
+				CountingInputStream copyInput = new CountingInputStream(Files.newInputStream(getPath()));
+				SpillableOutputStream outputStream = output)
+		{
+			try
+			{
+				format.rewriteMasterFile(getPath(), scanInput, copyInput, outputStream, new FormatHandler());
+			}
+			finally
+			{
+				if (getReadOperation() != null)
+				{
+					getReadOperation().addBytesRead(scanInput.getCount() + copyInput.getCount());
+				}
+			}
+			success = true;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + getPath(), e);
+		}
+		finally
+		{
+			if (!success)
+			{
+				try
+				{
+					output.discard();
+				}
+				catch (IOException e)
+				{
+					// Ignore; we are already failing
+				}
+			}
+		}
+		return output;
+	}
+
+	private void discardBufferedXMLEvents()
+	{
+		bufferingXMLEvents = false;
+		if (bufferedXMLEvents != null)
+		{
+			bufferedXMLEvents.discard();
+			bufferedXMLEvents = null;
+		}
+	}
+
+	@Override
+	void readStartDocumentTag(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
+	{
+		while (xmlStreamReader.hasNext())
+		{
+			switch (xmlStreamReader.next())
 			{
 			case XMLStreamConstants.START_ELEMENT:
-				final StartElement xmlStartElement = (StartElement) xmlEvent;
-				if (xmlStartElement.getName().equals(DATABASE_CHANGELOG_TAG))
+				if (isElement(xmlStreamReader, DATABASE_CHANGELOG_TAG))
 				{
 					// Skip
-					addXMLEventToOutput(xmlEventWriter, xmlEvent);
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 				}
-				else if (xmlStartElement.getName().equals(INCLUDE_TAG))
+				else if (isElement(xmlStreamReader, INCLUDE_TAG) && isInHistoricalPart())
+				{
+					// Already tagged; pass it through as is
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
+				}
+				else if (isElement(xmlStreamReader, INCLUDE_TAG))
 				{
 					// This is possibly a file to include
-					readIncludeTag(xmlStartElement);
+					readIncludeTag(getAttributeValue(xmlStreamReader, INCLUDE_TAG_FILE_ATTRIBUTE), getAttributeValue(xmlStreamReader, INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE), createAttributes(xmlStreamReader));
 
 					bufferingXMLEvents = true;
-					addXMLEventToOutput(xmlEventWriter, xmlEvent);
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
+				}
+				else if (isElement(xmlStreamReader, INCLUDE_ALL_TAG) && isInHistoricalPart())
+				{
+					// Already tagged; pass it through as is
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 				}
-				else if (xmlStartElement.getName().equals(CHANGE_SET_TAG))
+				else if (isElement(xmlStreamReader, INCLUDE_ALL_TAG))
+				{
+					// Every changelog in the directory is possibly a file to include
+					readIncludeAllTag(createAttributes(xmlStreamReader), xmlStreamReader.getLocation().getLineNumber());
+
+					bufferingXMLEvents = true;
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
+				}
+				else if (isElement(xmlStreamReader, CHANGE_SET_TAG))
 				{
 					// This is possibly a <tagDatabase /> changeSet
-					addXMLEventToOutput(xmlEventWriter, xmlEvent);
+					addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 
-					final String taggedVersion = readChangeSetTag(xmlEventReader, xmlEventWriter);
+					final String taggedVersion = readChangeSetTag(xmlStreamReader, xmlEventWriter);
 					if (taggedVersion == null)
 					{
 						// changeSet tag does not contain a tagDatabase tag; skip it.
 					}
-					else if (taggedVersion.equals(getLiquibaseProject().getNewVersion()))
-					{
-						throw new VersionAlreadyTaggedException(getLiquibaseProject().getNewVersion(), getPath());
-					}
 					else
 					{
-						// We have found a tagDatabase tag. All stuff before this tag is already tagged, so start fresh again.
-						includedFiles.clear();
-
+						readTagDatabase(taggedVersion);
 						flushBufferedXMLEvents(xmlEventWriter);
 					}
 				}
 				else
 				{
-					throw new IllegalArgumentException("Unknown tag in file " + getPath() + " at line " + xmlEvent.getLocation().getLineNumber() + ", column " + xmlEvent.getLocation().getColumnNumber());
+					throw new IllegalArgumentException("Unknown tag in file " + getPath() + " at line " + xmlStreamReader.getLocation().getLineNumber() + ", column " + xmlStreamReader.getLocation().getColumnNumber());
 				}
 				break;
 			case XMLStreamConstants.END_ELEMENT:
-				final EndElement xmlEndElement = (EndElement) xmlEvent;
-				if (xmlEndElement.getName().equals(DATABASE_CHANGELOG_TAG))
+				if (isElement(xmlStreamReader, DATABASE_CHANGELOG_TAG))
 				{
 					bufferingXMLEvents = true;
 				}
-				addXMLEventToOutput(xmlEventWriter, xmlEvent);
+				addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 				break;
 			default:
-				addXMLEventToOutput(xmlEventWriter, xmlEvent);
+				addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 				break;
 			}
 		}
 
-		for (int i = 0; i < includedFiles.size(); i++)
-		{
-			final IncludeFile includeFile = includedFiles.get(i);
-			final IncludeFile actualIncludeFile = getLiquibaseProject().addIncludeFile(includeFile);
-			includedFiles.set(i, actualIncludeFile);
-		}
-
+		registerIncludedFiles();
 		insertNewVersionIncludesAndTag(xmlEventWriter);
 
 		flushBufferedXMLEvents(xmlEventWriter);
 	}
 
-	private void readIncludeTag(@Nonnull final StartElement includeStartElement)
+	private void readIncludeTag(@CheckForNull final String file, @CheckForNull final String relativeToChangelogFileString, @Nonnull final List<Attribute> attributes)
 	{
-		final Path includeFilePath = Paths.get(includeStartElement.getAttributeByName(INCLUDE_TAG_FILE_ATTRIBUTE).getValue());
+		if (StringUtils.isBlank(file))
+		{
+			throw new IllegalArgumentException("No file given for an include in file " + getPath());
+		}
 
-		final String relativeToChangelogFileString = includeStartElement.getAttributeByName(INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE).getValue();
+		final Path includeFilePath = Paths.get(file);
 		final boolean relativeToChangelogFile = Boolean.valueOf(relativeToChangelogFileString);
 
-		final IncludeFile includeFile = new IncludeFile(includeFilePath, this, relativeToChangelogFile, getLiquibaseProject().getClasspathRoot(), includeStartElement.getAttributes());
+		final IncludeFile includeFile = new IncludeFile(includeFilePath, this, relativeToChangelogFile, getClasspathRoot(), attributes.iterator());
 		includedFiles.add(includeFile);
+		if (getLiquibaseProject().getIncludeFile(includeFile.getRealPath()) == null)
+		{
+			// Files that are shared with a master file that was read before, are already taken care of
+			includeFile.prepareNewVersionInBackground();
+		}
+	}
+
+	/**
+	 * Read the changelogs of an <code>includeAll</code> as if each of them was included on its own, in the order Liquibase runs them. The new versions of these
+	 * files are included one by one, so the path must contain 'latest' like the file of an include does: the new versions are then written outside of the
+	 * directory, where the <code>includeAll</code> does not find them.
+	 */
+	private void readIncludeAllTag(@Nonnull final List<Attribute> attributes, final int lineNumber)
+	{
+		final Map<String, String> includeAllAttributes = new LinkedHashMap<>();
+		final List<Attribute> includeAttributes = new ArrayList<>();
+		for (final Attribute attribute : attributes)
+		{
+			final String name = attribute.getName().getLocalPart();
+			includeAllAttributes.put(name, attribute.getValue());
+			if (INCLUDE_ALL_UNSUPPORTED_ATTRIBUTES.contains(name))
+			{
+				throw new IllegalArgumentException("The includeAll in file " + getPath() + " at line " + lineNumber + " has a " + name + ", which can not be used when tagging");
+			}
+			if (!INCLUDE_ALL_ONLY_ATTRIBUTES.contains(name))
+			{
+				includeAttributes.add(attribute);
+			}
+		}
+
+		final String path = includeAllAttributes.get(INCLUDE_ALL_TAG_PATH_ATTRIBUTE.getLocalPart());
+		if (StringUtils.isBlank(path))
+		{
+			throw new IllegalArgumentException("No path given for the includeAll in file " + getPath() + " at line " + lineNumber);
+		}
+		if (!path.contains(IncludeFile.PART_OF_FILENAME_THAT_WILL_BE_REPLACED_WITH_VERSION))
+		{
+			throw new IllegalArgumentException("The path " + path + " of the includeAll in file " + getPath() + " at line " + lineNumber + " does not contain '"
+					+ IncludeFile.PART_OF_FILENAME_THAT_WILL_BE_REPLACED_WITH_VERSION + "', so the new versions of its files would be included by it again");
+		}
+
+		final String relativeToChangelogFile = includeAllAttributes.get(INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart());
+		final Path directory = Utils.resolveIncludeFile(getPath(), Paths.get(path), Boolean.valueOf(relativeToChangelogFile), getClasspathRoot());
+		final String minDepth = includeAllAttributes.get(INCLUDE_ALL_MIN_DEPTH_ATTRIBUTE);
+		final String maxDepth = includeAllAttributes.get(INCLUDE_ALL_MAX_DEPTH_ATTRIBUTE);
+		final List<Path> files;
+		try
+		{
+			files = getLiquibaseProject().getIncludeAllScanner().scan(directory, minDepth == null ? 1 : Integer.parseInt(minDepth.trim()),
+					maxDepth == null ? Integer.MAX_VALUE : Integer.parseInt(maxDepth.trim()), includeAllAttributes.get(INCLUDE_ALL_ENDS_WITH_FILTER_ATTRIBUTE),
+					getLiquibaseProject().getThreads());
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while listing " + directory, e);
+		}
+		if (files.isEmpty() && !"false".equalsIgnoreCase(includeAllAttributes.get(INCLUDE_ALL_ERROR_IF_MISSING_OR_EMPTY_ATTRIBUTE)))
+		{
+			throw new IllegalArgumentException("The directory " + directory + " of the includeAll in file " + getPath() + " at line " + lineNumber + " does not exist or contains no changelogs");
+		}
+
+		for (final Path file : files)
+		{
+			readIncludeTag(Utils.convertPathSeparatorToForwardSlash(Paths.get(path).resolve(file)), relativeToChangelogFile, includeAttributes);
+		}
+	}
+
+	private void readTagDatabase(@Nonnull final String taggedVersion)
+	{
+		if (taggedVersion.equals(getLiquibaseProject().getNewVersion()))
+		{
+			throw new VersionAlreadyTaggedException(getLiquibaseProject().getNewVersion(), getPath());
+		}
+		tagDatabasesFound++;
+
+		// We have found a tagDatabase tag. All stuff before this tag is already tagged, so start fresh again.
+		discardIncludedFiles();
+	}
+
+	private void registerIncludedFiles()
+	{
+		for (final IncludeFile includeFile : includedFiles)
+		{
+			includeFile.register();
+		}
+	}
+
+	private void discardIncludedFiles()
+	{
+		for (final IncludeFile includeFile : includedFiles)
+		{
+			includeFile.discard();
+		}
+		includedFiles.clear();
 	}
 
 	@CheckForNull
-	private String readChangeSetTag(@Nonnull final XMLEventReader xmlEventReader, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
+	private String readChangeSetTag(@Nonnull final XMLStreamReader xmlStreamReader, @Nonnull final XMLEventWriter xmlEventWriter) throws XMLStreamException
 	{
 		String lastFoundTag = null;
 
-		while (xmlEventReader.hasNext())
+		while (xmlStreamReader.hasNext())
 		{
-			final XMLEvent xmlEvent = xmlEventReader.nextEvent();
-			addXMLEventToOutput(xmlEventWriter, xmlEvent);
+			final int eventType = xmlStreamReader.next();
+			addXMLEventToOutput(xmlEventWriter, createXMLEvent(xmlStreamReader));
 
-			switch (xmlEvent.getEventType())
+			switch (eventType)
 			{
 			case XMLStreamConstants.START_ELEMENT:
-				final StartElement xmlStartElement = (StartElement) xmlEvent;
-				if (xmlStartElement.getName().equals(TAG_DATABASE_TAG))
+				if (isElement(xmlStreamReader, TAG_DATABASE_TAG))
 				{
-					lastFoundTag = xmlStartElement.getAttributeByName(TAG_DATABASE_TAG_ATTRIBUTE).getValue();
+					lastFoundTag = getAttributeValue(xmlStreamReader, TAG_DATABASE_TAG_ATTRIBUTE);
 				}
 				break;
 			case XMLStreamConstants.END_ELEMENT:
-				final EndElement xmlEndElement = (EndElement) xmlEvent;
-				if (xmlEndElement.getName().equals(CHANGE_SET_TAG))
+				if (isElement(xmlStreamReader, CHANGE_SET_TAG))
 				{
 					return lastFoundTag;
 				}
@@ -193,28 +467,14 @@ public class MasterFile extends DatabaseChangeLogFile
 		xmlEventWriter.add(XML_EVENT_FACTORY.createComment(" Version " + newVersion + " "));
 		xmlEventWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
 
-		for (IncludeFile includeFile : includedFiles)
-		{
-			if (includeFile.willBeTagged())
-			{
-				final String newVersionFilename = Utils.convertPathSeparatorToForwardSlash(includeFile.getNewVersionFilename(true));
-				final List<Attribute> attributesForIncludeTag = getAttributesForIncludeTag(includeFile.getAttributes(), newVersionFilename);
-
-				xmlEventWriter.add(XML_EVENT_FACTORY.createStartElement(INCLUDE_TAG, attributesForIncludeTag.iterator(), null));
-				xmlEventWriter.add(XML_EVENT_FACTORY.createEndElement(INCLUDE_TAG, null));
-				xmlEventWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
-			}
-		}
-
-		final List<Attribute> attributes = new ArrayList<>(3);
-		attributes.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_ID_ATTRIBUTE, "Tag " + newVersion));
-		attributes.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_AUTHOR_ATTRIBUTE, "liquibase-db-release"));
-		if (StringUtils.isNotBlank(getLiquibaseProject().getContext()))
+		for (final List<Attribute> attributesForIncludeTag : getNewVersionIncludes())
 		{
-			attributes.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_CONTEXT_ATTRIBUTE, getLiquibaseProject().getContext()));
+			xmlEventWriter.add(XML_EVENT_FACTORY.createStartElement(INCLUDE_TAG, attributesForIncludeTag.iterator(), null));
+			xmlEventWriter.add(XML_EVENT_FACTORY.createEndElement(INCLUDE_TAG, null));
+			xmlEventWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
 		}
 
-		xmlEventWriter.add(XML_EVENT_FACTORY.createStartElement(CHANGE_SET_TAG, attributes.iterator(), null));
+		xmlEventWriter.add(XML_EVENT_FACTORY.createStartElement(CHANGE_SET_TAG, getTagChangeSetAttributes().iterator(), null));
 		xmlEventWriter.add(XML_EVENT_FACTORY.createCharacters("\n"));
 
 		final Attribute tag = XML_EVENT_FACTORY.createAttribute(TAG_DATABASE_TAG_ATTRIBUTE, newVersion);
@@ -226,6 +486,39 @@ public class MasterFile extends DatabaseChangeLogFile
 		xmlEventWriter.add(XML_EVENT_FACTORY.createCharacters("\n\n"));
 	}
 
+	/**
+	 * @return the attributes of the includes of the new versions of the include files that will be tagged. This also remembers these includes for the plan.
+	 */
+	@Nonnull
+	private List<List<Attribute>> getNewVersionIncludes()
+	{
+		final List<List<Attribute>> result = new ArrayList<>();
+		for (final IncludeFile includeFile : includedFiles)
+		{
+			if (includeFile.willBeTagged())
+			{
+				final String newVersionFilename = Utils.convertPathSeparatorToForwardSlash(includeFile.getNewVersionFilename(true));
+				newVersionIncludes.add(newVersionFilename);
+				newVersionIncludeFiles.add(includeFile);
+				result.add(getAttributesForIncludeTag(includeFile.getAttributes(), newVersionFilename));
+			}
+		}
+		return result;
+	}
+
+	@Nonnull
+	private List<Attribute> getTagChangeSetAttributes()
+	{
+		final List<Attribute> result = new ArrayList<>(3);
+		result.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_ID_ATTRIBUTE, getTagChangeSetId()));
+		result.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_AUTHOR_ATTRIBUTE, TAG_CHANGE_SET_AUTHOR));
+		if (StringUtils.isNotBlank(getLiquibaseProject().getContext()))
+		{
+			result.add(XML_EVENT_FACTORY.createAttribute(CHANGE_SET_TAG_CONTEXT_ATTRIBUTE, getLiquibaseProject().getContext()));
+		}
+		return result;
+	}
+
 	@Nonnull
 	private List<Attribute> getAttributesForIncludeTag(@Nonnull final List<Attribute> originalAtributesOnIncludeTag, @Nonnull final String newVersionFilename)
 	{
@@ -245,11 +538,201 @@ public class MasterFile extends DatabaseChangeLogFile
 		return result;
 	}
 
+	@Nonnull
+	private String getTagChangeSetId()
+	{
+		return "Tag " + getLiquibaseProject().getNewVersion();
+	}
+
+	/**
+	 * @param withContent whether to add the current and the new content of this file to the plan
+	 * @return what will be added to this file when the new version is created.
+	 */
+	@Nonnull
+	ReleasePlan.MasterFileEntry plan(final boolean withContent) throws IOException
+	{
+		readFile();
+
+		String oldContent = null;
+		String newContent = null;
+		if (withContent)
+		{
+			oldContent = new String(Files.readAllBytes(getPath()), StandardCharsets.UTF_8);
+			newContent = getNewLatestFileContent();
+		}
+		return new ReleasePlan.MasterFileEntry(getPath(), newVersionIncludes, getTagChangeSetId(), oldContent, newContent);
+	}
+
 	@Override
-	void createNewVersion() throws IOException
+	void stageNewVersion(@Nonnull final FileTransaction fileTransaction) throws IOException
 	{
 		readFile();
 
-		Files.write(getPath(), getNewLatestFile());
+		stagedFile = stageNewLatestFile();
+		fileTransaction.replace(stagedFile, getPath());
+	}
+
+	/**
+	 * Write the {@link VersionIndex} of the new content of this file, next to this file. Nothing is written when this is not an XML file. This must be called after
+	 * {@link #stageNewVersion(FileTransaction)}, and before the transaction is committed.
+	 */
+	void stageVersionIndex(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		if (format != null || !XmlByteScanner.supports(Charset.defaultCharset()))
+		{
+			return;
+		}
+
+		final Path indexFile = VersionIndex.getPath(getPath());
+		final SpillableOutputStream output = new SpillableOutputStream(indexFile, getLiquibaseProject().getMaxInMemoryFileSize());
+		try (Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8))
+		{
+			VersionIndex.write(writer, getPath(), stagedFile);
+		}
+
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.STAGE, indexFile);
+		try
+		{
+			operation.addBytesWritten(output.size());
+			fileTransaction.replace(output.stage(), indexFile);
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * Write the {@link ChecksumManifest} of the include files that are frozen in the new version, next to this file. Nothing is written when no file is frozen.
+	 * This must be called after {@link #stageNewVersion(FileTransaction)}, and before the include files are moved.
+	 */
+	void stageChecksumManifest(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		if (newVersionIncludeFiles.isEmpty())
+		{
+			return;
+		}
+
+		final List<ChangeLogChecksums> checksums = new ArrayList<>(newVersionIncludeFiles.size());
+		for (final IncludeFile includeFile : newVersionIncludeFiles)
+		{
+			checksums.add(includeFile.getChecksums());
+		}
+
+		final Path manifestFile = ChecksumManifest.getPath(getPath(), getLiquibaseProject().getNewVersion());
+		final SpillableOutputStream output = new SpillableOutputStream(manifestFile, getLiquibaseProject().getMaxInMemoryFileSize());
+		try (Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8))
+		{
+			ChecksumManifest.write(writer, getLiquibaseProject().getNewVersion(), getPath(), newVersionIncludes, checksums);
+		}
+
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.STAGE, manifestFile);
+		try
+		{
+			operation.addBytesWritten(output.size());
+			fileTransaction.replace(output.stage(), manifestFile);
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * Add the changeSets of the include files that are frozen in the new version to the {@link ChangeSetIndex} next to this file, and check that none of them was
+	 * released before. The index is created from the versions that are tagged already if it does not exist yet. Nothing is written when this is not an XML file.
+	 * This must be called after {@link #stageNewVersion(FileTransaction)}, and before the include files are moved.
+	 *
+	 * @throws IllegalArgumentException whenever one of the changeSets was released before
+	 */
+	void stageChangeSetIndex(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		if (format != null || !XmlByteScanner.supports(Charset.defaultCharset()))
+		{
+			return;
+		}
+
+		final Path indexFile = ChangeSetIndex.getPath(getPath());
+		final boolean indexExists = Files.isRegularFile(indexFile);
+		if (indexExists && newVersionIncludeFiles.isEmpty())
+		{
+			return;
+		}
+		final ChangeSetIndex index = indexExists ? ChangeSetIndex.read(indexFile) : ChangeSetIndex.build(getPath(), getClasspathRoot());
+
+		final List<String> latestFiles = new ArrayList<>(newVersionIncludeFiles.size());
+		final List<ChangeLogChecksums> checksums = new ArrayList<>(newVersionIncludeFiles.size());
+		for (final IncludeFile includeFile : newVersionIncludeFiles)
+		{
+			latestFiles.add(Utils.convertPathSeparatorToForwardSlash(getPath().getParent().relativize(includeFile.getPath())));
+			checksums.add(includeFile.getChecksums());
+		}
+		index.addVersion(getPath(), getClasspathRoot(), getLiquibaseProject().getNewVersion(), newVersionIncludes, latestFiles, checksums);
+
+		final SpillableOutputStream output = new SpillableOutputStream(indexFile, getLiquibaseProject().getMaxInMemoryFileSize());
+		try (OutputStream outputStream = new BufferedOutputStream(output))
+		{
+			index.write(outputStream, indexExists ? indexFile : null);
+		}
+
+		final FileOperation operation = FileOperation.start(getLiquibaseProject().getPerformanceReport(), Phase.STAGE, indexFile);
+		try
+		{
+			operation.addBytesWritten(output.size());
+			fileTransaction.replace(output.stage(), indexFile);
+		}
+		finally
+		{
+			operation.end();
+		}
+	}
+
+	/**
+	 * Passes what a {@link ChangeLogFormat} finds in this file on to the same bookkeeping as the XML parser, and tells it what to add.
+	 */
+	private final class FormatHandler implements ChangeLogFormat.MasterFileHandler
+	{
+		@Override
+		public void include(@Nonnull final Map<String, String> attributes)
+		{
+			final List<Attribute> xmlAttributes = new ArrayList<>(attributes.size());
+			for (final Map.Entry<String, String> attribute : attributes.entrySet())
+			{
+				xmlAttributes.add(XML_EVENT_FACTORY.createAttribute(attribute.getKey(), attribute.getValue()));
+			}
+			readIncludeTag(attributes.get(INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart()), attributes.get(INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart()), xmlAttributes);
+		}
+
+		@Override
+		public void tagDatabase(@Nonnull final String tag)
+		{
+			readTagDatabase(tag);
+		}
+
+		@Nonnull
+		@Override
+		public ChangeLogFormat.NewVersion getNewVersion()
+		{
+			registerIncludedFiles();
+
+			final List<Map<String, String>> includes = new ArrayList<>();
+			for (final List<Attribute> attributesForIncludeTag : getNewVersionIncludes())
+			{
+				includes.add(toMap(attributesForIncludeTag));
+			}
+			final String newVersion = getLiquibaseProject().getNewVersion();
+			return new ChangeLogFormat.NewVersion("Version " + newVersion, includes, toMap(getTagChangeSetAttributes()), newVersion);
+		}
+
+		@Nonnull
+		private Map<String, String> toMap(@Nonnull final List<Attribute> attributes)
+		{
+			final Map<String, String> result = new LinkedHashMap<>();
+			for (final Attribute attribute : attributes)
+			{
+				result.put(attribute.getName().getLocalPart(), attribute.getValue());
+			}
+			return result;
+		}
 	}
 }
\ No newline at end of file
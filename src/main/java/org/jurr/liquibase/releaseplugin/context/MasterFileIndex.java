@@ -0,0 +1,88 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * The elements directly below the <code>databaseChangeLog</code> of an XML master file, up to and including the tagDatabase changeSet of a given version.
+ */
+final class MasterFileIndex
+{
+	final List<Element> elements = new ArrayList<>();
+	String rootQualifiedName;
+	Map<String, String> rootAttributes;
+	long rootNameEnd;
+	long rootEnd;
+
+	private MasterFileIndex()
+	{
+	}
+
+	/**
+	 * @param version the version to stop after, or <code>null</code> to read the whole file
+	 */
+	@Nonnull
+	static MasterFileIndex read(@Nonnull final Path masterFile, @CheckForNull final String version) throws IOException
+	{
+		final MasterFileIndex result = new MasterFileIndex();
+		try (XmlByteScanner scanner = new XmlByteScanner(Files.newInputStream(masterFile), Charset.defaultCharset()))
+		{
+			Element element = null;
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 1)
+				{
+					result.rootQualifiedName = scanner.getQualifiedName();
+					result.rootAttributes = scanner.getAttributes();
+					result.rootNameEnd = scanner.getStartOffset() + scanner.getNameEnd();
+					result.rootEnd = scanner.getEndOffset();
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 2)
+				{
+					element = new Element(scanner);
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && element != null && scanner.isLocalName(DatabaseChangeLogFile.TAG_DATABASE_TAG.getLocalPart())
+						&& DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart().equals(element.localName))
+				{
+					element.tag = scanner.getAttributeValue(DatabaseChangeLogFile.TAG_DATABASE_TAG_ATTRIBUTE.getLocalPart());
+				}
+				else if (eventType == XmlByteScanner.END_ELEMENT && scanner.getDepth() == 1 && element != null)
+				{
+					element.end = scanner.getEndOffset();
+					result.elements.add(element);
+					if (version != null && version.equals(element.tag))
+					{
+						// The rest of the file stays as it is
+						break;
+					}
+					element = null;
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			throw new IllegalArgumentException("File " + masterFile + " is not well-formed", e);
+		}
+		return result;
+	}
+
+	@Nonnull
+	String getPrefix()
+	{
+		final int colon = rootQualifiedName.indexOf(':');
+		return colon < 0 ? "" : rootQualifiedName.substring(0, colon + 1);
+	}
+}
@@ -0,0 +1,288 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.JsonWriter;
+import org.jurr.liquibase.releaseplugin.UnifiedDiff;
+import org.jurr.liquibase.releaseplugin.Utils;
+
+/**
+ * What {@link LiquibaseProject#createNewVersion()} would do: which include files are moved to their version variant, and what is added to the master files.
+ *
+ * @see LiquibaseProject#createPlan(boolean)
+ */
+public class ReleasePlan
+{
+	private final String newVersion;
+	private final String context;
+	private final List<MasterFileEntry> masterFiles = new ArrayList<>();
+	private final List<IncludeFileEntry> includeFiles = new ArrayList<>();
+
+	ReleasePlan(@Nonnull final String newVersion, @CheckForNull final String context)
+	{
+		this.newVersion = newVersion;
+		this.context = context;
+	}
+
+	@Nonnull
+	public String getNewVersion()
+	{
+		return newVersion;
+	}
+
+	@CheckForNull
+	public String getContext()
+	{
+		return context;
+	}
+
+	/**
+	 * @return the master files, ordered by their path.
+	 */
+	@Nonnull
+	public List<MasterFileEntry> getMasterFiles()
+	{
+		return Collections.unmodifiableList(masterFiles);
+	}
+
+	void addMasterFile(@Nonnull final MasterFileEntry masterFile)
+	{
+		masterFiles.add(masterFile);
+	}
+
+	/**
+	 * @return the include files found after the last tag in the master files, ordered by their real path. Every file is in here once, no matter how many master files
+	 *         include it.
+	 */
+	@Nonnull
+	public List<IncludeFileEntry> getIncludeFiles()
+	{
+		return Collections.unmodifiableList(includeFiles);
+	}
+
+	void addIncludeFile(@Nonnull final IncludeFileEntry includeFile)
+	{
+		includeFiles.add(includeFile);
+	}
+
+	/**
+	 * @return the number of include files that will be moved to their version variant.
+	 */
+	public int getIncludeFilesToTag()
+	{
+		int result = 0;
+		for (final IncludeFileEntry includeFile : includeFiles)
+		{
+			if (includeFile.willBeTagged())
+			{
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Write this plan as JSON.
+	 *
+	 * @param baseDirectory the directory that paths are written relative to, or <code>null</code> to write absolute paths. Paths outside of this directory are always
+	 *            written as absolute paths.
+	 */
+	public void writeJson(@Nonnull final Writer writer, @CheckForNull final Path baseDirectory) throws IOException
+	{
+		final JsonWriter json = new JsonWriter(writer);
+		json.beginObject();
+		json.name("newVersion").value(newVersion);
+		json.name("context").value(context);
+
+		json.name("masterFiles").beginArray();
+		for (final MasterFileEntry masterFile : masterFiles)
+		{
+			json.beginObject();
+			json.name("path").value(toString(masterFile.getPath(), baseDirectory));
+			json.name("newIncludes").beginArray();
+			for (final String newInclude : masterFile.getNewIncludes())
+			{
+				json.value(newInclude);
+			}
+			json.endArray();
+			json.name("tagChangeSetId").value(masterFile.getTagChangeSetId());
+			json.endObject();
+		}
+		json.endArray();
+
+		json.name("includeFiles").beginArray();
+		for (final IncludeFileEntry includeFile : includeFiles)
+		{
+			json.beginObject();
+			json.name("path").value(toString(includeFile.getPath(), baseDirectory));
+			json.name("skipped").value(includeFile.isSkipped());
+			json.name("willBeTagged").value(includeFile.willBeTagged());
+			if (includeFile.willBeTagged())
+			{
+				json.name("newVersionPath").value(toString(includeFile.getNewVersionPath(), baseDirectory));
+				json.name("newVersionPathExists").value(includeFile.newVersionPathExists());
+			}
+			json.endObject();
+		}
+		json.endArray();
+
+		json.endObject();
+		json.flush();
+	}
+
+	/**
+	 * Write the changes to the master files as a unified diff. Only master files that were planned with their content are in there. The include files that are moved
+	 * to their version variant are not; see {@link #getIncludeFiles()} for those.
+	 *
+	 * @param baseDirectory the directory that paths are written relative to, or <code>null</code> to write absolute paths.
+	 */
+	public void writeDiff(@Nonnull final Writer writer, @CheckForNull final Path baseDirectory) throws IOException
+	{
+		for (final MasterFileEntry masterFile : masterFiles)
+		{
+			if (masterFile.getOldContent() != null && masterFile.getNewContent() != null)
+			{
+				final String name = toString(masterFile.getPath(), baseDirectory);
+				UnifiedDiff.write(writer, "a/" + name, "b/" + name, masterFile.getOldContent(), masterFile.getNewContent());
+			}
+		}
+		writer.flush();
+	}
+
+	@Nonnull
+	private static String toString(@Nonnull final Path path, @CheckForNull final Path baseDirectory)
+	{
+		Path result = path.toAbsolutePath().normalize();
+		if (baseDirectory != null)
+		{
+			final Path absoluteBaseDirectory = baseDirectory.toAbsolutePath().normalize();
+			if (result.startsWith(absoluteBaseDirectory))
+			{
+				result = absoluteBaseDirectory.relativize(result);
+			}
+		}
+		return Utils.convertPathSeparatorToForwardSlash(result);
+	}
+
+	public static class MasterFileEntry
+	{
+		private final Path path;
+		private final List<String> newIncludes;
+		private final String tagChangeSetId;
+		private final String oldContent;
+		private final String newContent;
+
+		MasterFileEntry(@Nonnull final Path path, @Nonnull final List<String> newIncludes, @Nonnull final String tagChangeSetId, @CheckForNull final String oldContent, @CheckForNull final String newContent)
+		{
+			this.path = path;
+			this.newIncludes = new ArrayList<>(newIncludes);
+			this.tagChangeSetId = tagChangeSetId;
+			this.oldContent = oldContent;
+			this.newContent = newContent;
+		}
+
+		@Nonnull
+		public Path getPath()
+		{
+			return path;
+		}
+
+		/**
+		 * @return the values of the <code>file</code> attribute of the include tags that are added for the new version, in order.
+		 */
+		@Nonnull
+		public List<String> getNewIncludes()
+		{
+			return Collections.unmodifiableList(newIncludes);
+		}
+
+		/**
+		 * @return the id of the changeSet with the tagDatabase tag that is added.
+		 */
+		@Nonnull
+		public String getTagChangeSetId()
+		{
+			return tagChangeSetId;
+		}
+
+		/**
+		 * @return the current content of the master file, or <code>null</code> if the content was not planned.
+		 */
+		@CheckForNull
+		public String getOldContent()
+		{
+			return oldContent;
+		}
+
+		/**
+		 * @return the content the master file would get, or <code>null</code> if the content was not planned.
+		 */
+		@CheckForNull
+		public String getNewContent()
+		{
+			return newContent;
+		}
+	}
+
+	public static class IncludeFileEntry
+	{
+		private final Path path;
+		private final boolean skipped;
+		private final boolean willBeTagged;
+		private final Path newVersionPath;
+		private final boolean newVersionPathExists;
+
+		IncludeFileEntry(@Nonnull final Path path, final boolean skipped, final boolean willBeTagged, @CheckForNull final Path newVersionPath, final boolean newVersionPathExists)
+		{
+			this.path = path;
+			this.skipped = skipped;
+			this.willBeTagged = willBeTagged;
+			this.newVersionPath = newVersionPath;
+			this.newVersionPathExists = newVersionPathExists;
+		}
+
+		@Nonnull
+		public Path getPath()
+		{
+			return path;
+		}
+
+		/**
+		 * @return whether this file is in the list of files to skip.
+		 */
+		public boolean isSkipped()
+		{
+			return skipped;
+		}
+
+		public boolean willBeTagged()
+		{
+			return willBeTagged;
+		}
+
+		/**
+		 * @return the file this file is moved to, or <code>null</code> if it will not be tagged.
+		 */
+		@CheckForNull
+		public Path getNewVersionPath()
+		{
+			return newVersionPath;
+		}
+
+		/**
+		 * @return whether the file this file is moved to exists already. Creating the new version fails if it does.
+		 */
+		public boolean newVersionPathExists()
+		{
+			return newVersionPathExists;
+		}
+	}
+}
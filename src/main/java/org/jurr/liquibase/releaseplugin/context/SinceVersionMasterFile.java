@@ -0,0 +1,141 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * A trimmed copy of an XML master file for databases that are at a given version already: it leaves out the changeSets and includes up to and including the
+ * tagDatabase changeSet of that version, so Liquibase does not need to read them. Everything else before that changeSet, like properties and preconditions, is
+ * kept.
+ * <p>
+ * The copy is written next to the master file, so relative includes find the same files. Its <code>databaseChangeLog</code> gets a <code>logicalFilePath</code>
+ * with the path of the master file, unless it already has one, so the changeSets in it keep their file path.
+ */
+public final class SinceVersionMasterFile
+{
+	private final Path masterFile;
+	private final Path classpathRoot;
+	private final String version;
+	private final Charset charset = Charset.defaultCharset();
+
+	private Path path;
+	private int skippedVersions;
+
+	public SinceVersionMasterFile(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @Nonnull final String version)
+	{
+		this.masterFile = masterFile;
+		this.classpathRoot = classpathRoot;
+		this.version = version;
+	}
+
+	/**
+	 * @return the trimmed master file, once it is staged.
+	 */
+	@CheckForNull
+	public Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return the number of versions left out, including the given version itself.
+	 */
+	public int getSkippedVersions()
+	{
+		return skippedVersions;
+	}
+
+	/**
+	 * Write the trimmed master file and stage it in the given transaction. An earlier trimmed master file for the same version is replaced.
+	 *
+	 * @throws IOException whenever there is an exception while reading or writing the files
+	 * @throws IllegalArgumentException whenever the master file can not be trimmed, or the version is not tagged in it
+	 */
+	public void stage(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		if (ChangeLogFormat.forPath(masterFile) != null)
+		{
+			throw new IllegalArgumentException("Only XML master files can be trimmed, but " + masterFile + " is not");
+		}
+		if (!XmlByteScanner.supports(charset))
+		{
+			throw new IllegalArgumentException("Master files in character set " + charset + " can not be trimmed");
+		}
+
+		final MasterFileIndex master = MasterFileIndex.read(masterFile, version);
+		final int versionIndex = master.elements.size() - 1;
+		if (versionIndex < 0 || !version.equals(master.elements.get(versionIndex).tag))
+		{
+			throw new IllegalArgumentException("Version " + version + " is not tagged in file " + masterFile);
+		}
+
+		final String rawLogicalFilePath = master.rootAttributes.get(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE);
+		final String insertedAttribute = rawLogicalFilePath != null ? ""
+				: " " + ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE + "=\"" + ChangeLogFlattener.escape(ChangeLogFlattener.getMasterFilePath(masterFile, classpathRoot, null)) + "\"";
+		final Path sinceVersionFile = masterFile.resolveSibling(Utils.getBaseName(masterFile) + "-since-" + version + getExtension(masterFile));
+
+		final SpillableOutputStream output = new SpillableOutputStream(sinceVersionFile, LiquibaseProject.DEFAULT_MAX_IN_MEMORY_FILE_SIZE);
+		boolean success = false;
+		try
+		{
+			try (OutputStream outputStream = output;
+					FileChannel channel = FileChannel.open(masterFile, StandardOpenOption.READ))
+			{
+				final WritableByteChannel target = Channels.newChannel(outputStream);
+				LatestFileSplicer.transfer(channel, 0, master.rootNameEnd, target);
+				outputStream.write(insertedAttribute.getBytes(charset));
+				LatestFileSplicer.transfer(channel, master.rootNameEnd, master.rootEnd - master.rootNameEnd, target);
+
+				skippedVersions = 0;
+				for (final Element element : master.elements)
+				{
+					if (element.tag != null)
+					{
+						skippedVersions++;
+					}
+					else if (!DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart().equals(element.localName) && !DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName))
+					{
+						outputStream.write("\n\t".getBytes(charset));
+						LatestFileSplicer.transfer(channel, element.start, element.end - element.start, target);
+					}
+				}
+
+				final long rest = master.elements.get(versionIndex).end;
+				LatestFileSplicer.transfer(channel, rest, channel.size() - rest, target);
+			}
+
+			fileTransaction.replace(output.stage(), sinceVersionFile);
+			path = sinceVersionFile;
+			success = true;
+		}
+		finally
+		{
+			if (!success)
+			{
+				output.discard();
+			}
+		}
+	}
+
+	@Nonnull
+	private static String getExtension(@Nonnull final Path file)
+	{
+		final String fileName = file.getFileName().toString();
+		return fileName.substring(Utils.getBaseName(file).length());
+	}
+}
@@ -0,0 +1,110 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+
+/**
+ * The versions tagged in a master file, that is the changeSets directly below <code>&lt;databaseChangeLog&gt;</code> that contain a
+ * <code>&lt;tagDatabase&gt;</code> tag, in the order they appear in the file.
+ * <p>
+ * The index is built with an {@link XmlByteScanner}, which is a lot cheaper than parsing the file. This allows the master file to know up front where the
+ * historical part of the file ends.
+ */
+final class TagDatabaseIndex
+{
+	private final List<String> tags = new ArrayList<>();
+	private final Set<String> tagSet = new HashSet<>();
+
+	private TagDatabaseIndex()
+	{
+	}
+
+	/**
+	 * @return the index of the given master file, or <code>null</code> if the file cannot be scanned on byte level. The caller should then find out while
+	 *         parsing.
+	 */
+	@CheckForNull
+	static TagDatabaseIndex read(@Nonnull final Path masterFile)
+	{
+		final Charset charset = Charset.defaultCharset();
+		if (!XmlByteScanner.supports(charset))
+		{
+			return null;
+		}
+
+		final TagDatabaseIndex result = new TagDatabaseIndex();
+		try (XmlByteScanner scanner = new XmlByteScanner(Files.newInputStream(masterFile), charset))
+		{
+			String lastFoundTag = null;
+			int changeSetDepth = -1;
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT)
+				{
+					if (changeSetDepth < 0 && scanner.getDepth() == 2 && scanner.isLocalName(DatabaseChangeLogFile.CHANGE_SET_TAG.getLocalPart()))
+					{
+						changeSetDepth = scanner.getDepth();
+						lastFoundTag = null;
+					}
+					else if (changeSetDepth > 0 && scanner.isLocalName(DatabaseChangeLogFile.TAG_DATABASE_TAG.getLocalPart()))
+					{
+						lastFoundTag = scanner.getAttributeValue(DatabaseChangeLogFile.TAG_DATABASE_TAG_ATTRIBUTE.getLocalPart());
+					}
+				}
+				else if (changeSetDepth > 0 && scanner.getDepth() == changeSetDepth - 1)
+				{
+					// End of the changeSet
+					if (lastFoundTag != null)
+					{
+						result.tags.add(lastFoundTag);
+						result.tagSet.add(lastFoundTag);
+					}
+					changeSetDepth = -1;
+				}
+			}
+		}
+		catch (EOFException | IllegalArgumentException e)
+		{
+			// Not well-formed; leave it to the parser to report this properly
+			return null;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("IO error while reading " + masterFile, e);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of tagged versions.
+	 */
+	int size()
+	{
+		return tags.size();
+	}
+
+	boolean contains(@Nonnull final String tag)
+	{
+		return tagSet.contains(tag);
+	}
+
+	@Nonnull
+	List<String> getTags()
+	{
+		return Collections.unmodifiableList(tags);
+	}
+}
@@ -0,0 +1,208 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Copies text from a reader to a writer, leaving out or adding parts on the way. The parts are given as offsets in the text, in the order they appear in the text.
+ * <p>
+ * This is also a reader itself, so a streaming parser can read the text through it. The offsets that the parser reports can then be used to copy the text, while
+ * only the text between the last offset that was given and the position of the parser is held in memory.
+ */
+final class TextSplicer extends Reader
+{
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final Reader reader;
+	private final Writer writer;
+	private final boolean countCodePoints;
+
+	// The text that was read, but not copied or left out yet. The first char is at offset windowOffset.
+	private char[] window;
+	private int windowStart;
+	private int windowEnd;
+	private long windowOffset;
+	private boolean endOfInput;
+	private char[] readBuffer;
+
+	// Whitespace at the start of the line that the text that was copied or left out ends on
+	private final StringBuilder lineIndent = new StringBuilder();
+	private boolean onlyWhitespaceOnLine = true;
+
+	/**
+	 * @param writer where to copy the text to, or <code>null</code> to only count
+	 * @param countCodePoints whether offsets count code points, instead of chars
+	 */
+	TextSplicer(@Nonnull final Reader reader, @CheckForNull final Writer writer, final boolean countCodePoints)
+	{
+		this.reader = reader;
+		this.writer = writer;
+		this.countCodePoints = countCodePoints;
+		window = writer == null ? null : new char[BUFFER_SIZE];
+	}
+
+	@Override
+	public int read(@Nonnull final char[] buffer, final int off, final int len) throws IOException
+	{
+		final int read = reader.read(buffer, off, len);
+		if (read < 0)
+		{
+			endOfInput = true;
+			return read;
+		}
+
+		if (writer != null)
+		{
+			final int held = windowEnd - windowStart;
+			if (windowEnd + read > window.length)
+			{
+				if (held + read > window.length)
+				{
+					window = Arrays.copyOf(window, Math.max(window.length * 2, held + read));
+				}
+				System.arraycopy(window, windowStart, window, 0, held);
+				windowStart = 0;
+				windowEnd = held;
+			}
+			System.arraycopy(buffer, off, window, windowEnd, read);
+			windowEnd += read;
+		}
+		return read;
+	}
+
+	/**
+	 * Copy the text up to the given offset.
+	 */
+	void copyTo(final long target) throws IOException
+	{
+		release(target, writer);
+	}
+
+	/**
+	 * Leave out the text up to the given offset.
+	 */
+	void skipTo(final long target) throws IOException
+	{
+		release(target, null);
+	}
+
+	/**
+	 * Leave out the text up to the given offset, and return it. This is meant for short parts of the text.
+	 */
+	@Nonnull
+	String take(final long target) throws IOException
+	{
+		final StringWriter result = new StringWriter();
+		release(target, result);
+		return result.toString();
+	}
+
+	/**
+	 * Add text at the current position.
+	 */
+	void insert(@Nonnull final String text) throws IOException
+	{
+		if (writer != null)
+		{
+			writer.write(text);
+		}
+	}
+
+	/**
+	 * Copy the rest of the text, and flush the writer.
+	 */
+	void finish() throws IOException
+	{
+		if (writer != null)
+		{
+			release(Long.MAX_VALUE, writer);
+			writer.flush();
+		}
+	}
+
+	/**
+	 * @return the whitespace at the start of the current line, or <code>null</code> if there is more than whitespace before the current position on this line.
+	 */
+	@CheckForNull
+	String getLineIndent()
+	{
+		return onlyWhitespaceOnLine ? lineIndent.toString() : null;
+	}
+
+	private void release(final long target, @CheckForNull final Writer output) throws IOException
+	{
+		if (writer == null)
+		{
+			return;
+		}
+
+		while (windowOffset < target)
+		{
+			// A surrogate pair is released as a whole, so make sure both halves are there
+			if (windowEnd - windowStart < 2 && !endOfInput)
+			{
+				readMore();
+				continue;
+			}
+			if (windowStart == windowEnd)
+			{
+				return;
+			}
+
+			final int start = windowStart;
+			final int end = endOfInput ? windowEnd : windowEnd - 1;
+			while (windowOffset < target && windowStart < end)
+			{
+				final char c = window[windowStart++];
+				trackLineIndent(c);
+				if (countCodePoints && Character.isHighSurrogate(c) && windowStart < windowEnd && Character.isLowSurrogate(window[windowStart]))
+				{
+					windowStart++;
+				}
+				windowOffset++;
+			}
+			if (output != null)
+			{
+				output.write(window, start, windowStart - start);
+			}
+		}
+	}
+
+	private void readMore() throws IOException
+	{
+		if (readBuffer == null)
+		{
+			readBuffer = new char[BUFFER_SIZE];
+		}
+		read(readBuffer, 0, readBuffer.length);
+	}
+
+	private void trackLineIndent(final char c)
+	{
+		if (c == '\n' || c == '\r')
+		{
+			lineIndent.setLength(0);
+			onlyWhitespaceOnLine = true;
+		}
+		else if (onlyWhitespaceOnLine && (c == ' ' || c == '\t'))
+		{
+			lineIndent.append(c);
+		}
+		else
+		{
+			onlyWhitespaceOnLine = false;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+}
@@ -0,0 +1,462 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.ChangeLogArchive;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.SpillableOutputStream;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.XmlByteScanner;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * Packs the files of the tagged versions in an XML master file into one archive next to the master file, and lets the master file include them from there.
+ * <p>
+ * The archive is a ZIP file in which every entry is stored without compression, under the path Liquibase found the file by. Its central directory serves as the
+ * index that {@link ChangeLogArchive} looks entries up in. The includes in the master file get a file like
+ * <code>master-versions-1.2.zip!/db/myApp/1.2.xml</code>, and the root of every packed file gets a <code>logicalFilePath</code> with its old path, unless it
+ * already has one, so Liquibase sees the same file path and checksums as before.
+ * <p>
+ * Only XML files that do not include other files are packed; other includes are left as they are. The packed files are left in place as well, unless
+ * {@link #setRemovingPackedFiles(boolean)} is set.
+ */
+public final class VersionArchive
+{
+	private static final String FILE_NAME_INFIX = "-versions-";
+	private static final String FILE_NAME_SUFFIX = ".zip";
+	private static final String ERROR_IF_MISSING_ATTRIBUTE = "errorIfMissing";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Path masterFile;
+	private final Path classpathRoot;
+	private final String packBefore;
+	private final Charset charset = Charset.defaultCharset();
+
+	private boolean removingPackedFiles = false;
+	private Set<Path> filesIncludedElsewhere = Collections.emptySet();
+
+	private Path path;
+	private int packedVersions;
+	private int packedFiles;
+	private int removedFiles;
+
+	/**
+	 * @param packBefore the version to pack everything before, or <code>null</code> to pack every tagged version
+	 */
+	public VersionArchive(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @CheckForNull final String packBefore)
+	{
+		this.masterFile = masterFile;
+		this.classpathRoot = classpathRoot;
+		this.packBefore = packBefore;
+	}
+
+	/**
+	 * @param removingPackedFiles whether to remove the packed files in the same transaction. Files that the master file still includes after packing, or that
+	 *            another master file includes, see {@link #setFilesIncludedElsewhere(Set)}, are left in place.
+	 */
+	public void setRemovingPackedFiles(final boolean removingPackedFiles)
+	{
+		this.removingPackedFiles = removingPackedFiles;
+	}
+
+	/**
+	 * @param filesIncludedElsewhere the real paths of the files that other master files include, see {@link #findIncludedFiles(Path, Path)}
+	 */
+	public void setFilesIncludedElsewhere(@Nonnull final Set<Path> filesIncludedElsewhere)
+	{
+		this.filesIncludedElsewhere = filesIncludedElsewhere;
+	}
+
+	/**
+	 * @return the real paths of the files that the given XML master file includes, other than from an archive.
+	 * @throws IOException whenever there is an exception while reading the master file
+	 */
+	@Nonnull
+	public static Set<Path> findIncludedFiles(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot) throws IOException
+	{
+		checkPackable(masterFile);
+		return new VersionArchive(masterFile, classpathRoot, null).findIncludedFiles(MasterFileIndex.read(masterFile, null), Collections.<Long> emptySet());
+	}
+
+	private static void checkPackable(@Nonnull final Path masterFile)
+	{
+		if (ChangeLogFormat.forPath(masterFile) != null)
+		{
+			throw new IllegalArgumentException("Only XML master files can be packed, but " + masterFile + " is not");
+		}
+		if (!XmlByteScanner.supports(Charset.defaultCharset()))
+		{
+			throw new IllegalArgumentException("Master files in character set " + Charset.defaultCharset() + " can not be packed");
+		}
+	}
+
+	/**
+	 * @return the archive, once it is staged, or <code>null</code> if there was nothing to pack.
+	 */
+	@CheckForNull
+	public Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return the number of versions that files were packed of.
+	 */
+	public int getPackedVersions()
+	{
+		return packedVersions;
+	}
+
+	/**
+	 * @return the number of files in the archive.
+	 */
+	public int getPackedFiles()
+	{
+		return packedFiles;
+	}
+
+	/**
+	 * @return the number of packed files that are removed.
+	 */
+	public int getRemovedFiles()
+	{
+		return removedFiles;
+	}
+
+	/**
+	 * Write the archive and the new master file, and stage them in the given transaction, together with the removal of the packed files if asked for. Nothing is
+	 * staged when there are no files left to pack.
+	 *
+	 * @throws IOException whenever there is an exception while reading or writing the files
+	 * @throws IllegalArgumentException whenever the master file or one of the files to pack can not be packed
+	 */
+	public void stage(@Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		checkPackable(masterFile);
+
+		final MasterFileIndex master = MasterFileIndex.read(masterFile, packBefore);
+		final String masterFilePath = ChangeLogFlattener.getMasterFilePath(masterFile, classpathRoot, master.rootAttributes.get(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE));
+		final List<Element> includes = findIncludesToPack(master);
+		if (includes.isEmpty())
+		{
+			return;
+		}
+
+		String lastTag = null;
+		for (final Element element : master.elements)
+		{
+			if (element.tag != null && element.start > includes.get(includes.size() - 1).start && lastTag == null)
+			{
+				lastTag = element.tag;
+			}
+		}
+		path = masterFile.resolveSibling(Utils.getBaseName(masterFile) + FILE_NAME_INFIX + lastTag + FILE_NAME_SUFFIX);
+		if (Files.exists(path))
+		{
+			throw new IllegalArgumentException("Can not pack the versions of file " + masterFile + "; archive " + path + " already exists");
+		}
+
+		final SpillableOutputStream archive = new SpillableOutputStream(path, LiquibaseProject.DEFAULT_MAX_IN_MEMORY_FILE_SIZE);
+		final SpillableOutputStream newMasterFile = new SpillableOutputStream(masterFile, LiquibaseProject.DEFAULT_MAX_IN_MEMORY_FILE_SIZE);
+		boolean success = false;
+		try
+		{
+			try (ZipOutputStream output = new ZipOutputStream(archive))
+			{
+				writeArchive(includes, masterFilePath, output);
+			}
+			try (SpillableOutputStream output = newMasterFile)
+			{
+				writeNewMasterFile(master, includes, masterFilePath, output);
+			}
+
+			final Path stagedArchive = archive.stage();
+			fileTransaction.addStagedFile(stagedArchive);
+			fileTransaction.move(stagedArchive, path);
+			fileTransaction.replace(newMasterFile.stage(), masterFile);
+			if (removingPackedFiles)
+			{
+				removePackedFiles(includes, fileTransaction);
+			}
+			success = true;
+		}
+		finally
+		{
+			if (!success)
+			{
+				archive.discard();
+				newMasterFile.discard();
+				path = null;
+			}
+		}
+	}
+
+	private void removePackedFiles(@Nonnull final List<Element> includes, @Nonnull final FileTransaction fileTransaction) throws IOException
+	{
+		final Set<Long> packedIncludes = new HashSet<>();
+		for (final Element include : includes)
+		{
+			packedIncludes.add(include.start);
+		}
+		final Set<Path> keptFiles = findIncludedFiles(MasterFileIndex.read(masterFile, null), packedIncludes);
+		keptFiles.addAll(filesIncludedElsewhere);
+
+		for (final Element include : includes)
+		{
+			final Path file = resolve(include);
+			if (Files.exists(file) && keptFiles.add(Utils.toRealPath(file)))
+			{
+				fileTransaction.delete(file);
+				removedFiles++;
+			}
+		}
+	}
+
+	/**
+	 * @return the real paths of the files the master file includes, other than from an archive, leaving out the includes that start at one of the given offsets.
+	 */
+	@Nonnull
+	private Set<Path> findIncludedFiles(@Nonnull final MasterFileIndex master, @Nonnull final Set<Long> skippedIncludes)
+	{
+		final Set<Path> result = new HashSet<>();
+		for (final Element element : master.elements)
+		{
+			final String rawFile = element.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart());
+			if (DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName) && rawFile != null && !skippedIncludes.contains(element.start)
+					&& !Utils.decodeXmlAttributeValue(rawFile).contains(ChangeLogArchive.ENTRY_SEPARATOR))
+			{
+				result.add(Utils.toRealPath(resolve(element)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the includes of XML files in the versions to pack that are not packed yet.
+	 */
+	@Nonnull
+	private List<Element> findIncludesToPack(@Nonnull final MasterFileIndex master)
+	{
+		int lastPacked = master.elements.size() - 1;
+		if (packBefore != null)
+		{
+			if (lastPacked < 0 || !packBefore.equals(master.elements.get(lastPacked).tag))
+			{
+				throw new IllegalArgumentException("Version " + packBefore + " is not tagged in file " + masterFile);
+			}
+			lastPacked--;
+		}
+		while (lastPacked >= 0 && master.elements.get(lastPacked).tag == null)
+		{
+			// Includes after the last tagDatabase changeSet are not part of a finished version
+			lastPacked--;
+		}
+
+		final List<Element> result = new ArrayList<>();
+		boolean versionHasIncludes = false;
+		for (int i = 0; i <= lastPacked; i++)
+		{
+			final Element element = master.elements.get(i);
+			if (DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName) && isPackable(element))
+			{
+				result.add(element);
+				versionHasIncludes = true;
+			}
+			else if (element.tag != null && versionHasIncludes)
+			{
+				packedVersions++;
+				versionHasIncludes = false;
+			}
+		}
+		return result;
+	}
+
+	private boolean isPackable(@Nonnull final Element include)
+	{
+		final String rawFile = include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart());
+		if (rawFile == null)
+		{
+			return false;
+		}
+		final String file = Utils.decodeXmlAttributeValue(rawFile);
+		if (file.contains(ChangeLogArchive.ENTRY_SEPARATOR) || ChangeLogFormat.forPath(Paths.get(file)) != null)
+		{
+			return false;
+		}
+		return !"false".equals(include.attributes.get(ERROR_IF_MISSING_ATTRIBUTE)) || Files.exists(resolve(include));
+	}
+
+	private void writeArchive(@Nonnull final List<Element> includes, @Nonnull final String masterFilePath, @Nonnull final ZipOutputStream output) throws IOException
+	{
+		output.setMethod(ZipOutputStream.STORED);
+		final Set<String> entryNames = new HashSet<>();
+		for (final Element include : includes)
+		{
+			final String entryName = getEntryName(include, masterFilePath);
+			if (entryNames.add(entryName))
+			{
+				writeEntry(resolve(include), entryName, output);
+				packedFiles++;
+			}
+		}
+	}
+
+	private void writeEntry(@Nonnull final Path file, @Nonnull final String entryName, @Nonnull final ZipOutputStream output) throws IOException
+	{
+		long rootNameEnd = -1;
+		boolean hasLogicalFilePath = false;
+		try (XmlByteScanner scanner = new XmlByteScanner(Files.newInputStream(file), charset))
+		{
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 1)
+				{
+					rootNameEnd = scanner.getStartOffset() + scanner.getNameEnd();
+					hasLogicalFilePath = scanner.getAttributeValue(ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE) != null;
+				}
+				else if (eventType == XmlByteScanner.START_ELEMENT && scanner.getDepth() == 2 && scanner.isLocalName(DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart()))
+				{
+					throw new IllegalArgumentException("File " + file + " includes other files, which can not be packed");
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			throw new IllegalArgumentException("File " + file + " is not well-formed", e);
+		}
+		if (rootNameEnd < 0)
+		{
+			throw new IllegalArgumentException("File " + file + " is not a changelog");
+		}
+
+		final byte[] insertedAttribute = hasLogicalFilePath ? new byte[0]
+				: (" " + ChangeLogFlattener.LOGICAL_FILE_PATH_ATTRIBUTE + "=\"" + ChangeLogFlattener.escape(entryName) + "\"").getBytes(charset);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+
+			// Stored entries need their size and checksum before their content
+			final CRC32 crc = new CRC32();
+			update(crc, channel, 0, rootNameEnd);
+			crc.update(insertedAttribute);
+			update(crc, channel, rootNameEnd, size);
+
+			final ZipEntry entry = new ZipEntry(entryName);
+			entry.setSize(size + insertedAttribute.length);
+			entry.setCompressedSize(size + insertedAttribute.length);
+			entry.setCrc(crc.getValue());
+			entry.setTime(Files.getLastModifiedTime(file).toMillis());
+			output.putNextEntry(entry);
+
+			final WritableByteChannel target = Channels.newChannel(output);
+			LatestFileSplicer.transfer(channel, 0, rootNameEnd, target);
+			output.write(insertedAttribute);
+			LatestFileSplicer.transfer(channel, rootNameEnd, size - rootNameEnd, target);
+			output.closeEntry();
+		}
+	}
+
+	private void writeNewMasterFile(@Nonnull final MasterFileIndex master, @Nonnull final List<Element> includes, @Nonnull final String masterFilePath, @Nonnull final OutputStream output)
+			throws IOException
+	{
+		final WritableByteChannel target = Channels.newChannel(output);
+		try (FileChannel channel = FileChannel.open(masterFile, StandardOpenOption.READ))
+		{
+			final String includeTag = master.getPrefix() + DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart();
+			long position = 0;
+			for (final Element include : includes)
+			{
+				LatestFileSplicer.transfer(channel, position, include.start - position, target);
+
+				final StringBuilder tag = new StringBuilder("<").append(includeTag);
+				final String file = path.getFileName() + ChangeLogArchive.ENTRY_SEPARATOR + getEntryName(include, masterFilePath);
+				appendAttribute(tag, DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart(), ChangeLogFlattener.escape(file));
+				appendAttribute(tag, DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart(), "true");
+				for (final Map.Entry<String, String> attribute : include.attributes.entrySet())
+				{
+					if (!attribute.getKey().equals(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart())
+							&& !attribute.getKey().equals(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart()))
+					{
+						appendAttribute(tag, attribute.getKey(), attribute.getValue());
+					}
+				}
+				tag.append("></").append(includeTag).append('>');
+				output.write(tag.toString().getBytes(charset));
+				position = include.end;
+			}
+			LatestFileSplicer.transfer(channel, position, channel.size() - position, target);
+		}
+	}
+
+	@Nonnull
+	private String getEntryName(@Nonnull final Element include, @Nonnull final String masterFilePath)
+	{
+		final String file = Utils.decodeXmlAttributeValue(include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart()));
+		final String entryName = ChangeLogFlattener.getIncludedFilePath(masterFilePath, file, isRelativeToChangelogFile(include));
+		if (entryName.startsWith("../") || entryName.startsWith("/"))
+		{
+			throw new IllegalArgumentException("Can not pack " + file + " of file " + masterFile + "; it is outside of the classpath root");
+		}
+		return entryName;
+	}
+
+	@Nonnull
+	private Path resolve(@Nonnull final Element include)
+	{
+		final String file = Utils.decodeXmlAttributeValue(include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart()));
+		return Utils.resolveIncludeFile(masterFile, Paths.get(file), isRelativeToChangelogFile(include), classpathRoot);
+	}
+
+	private static boolean isRelativeToChangelogFile(@Nonnull final Element include)
+	{
+		return Boolean.parseBoolean(include.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart()));
+	}
+
+	private static void appendAttribute(@Nonnull final StringBuilder tag, @Nonnull final String name, @Nonnull final String rawValue)
+	{
+		final char quote = rawValue.indexOf('"') < 0 ? '"' : '\'';
+		tag.append(' ').append(name).append('=').append(quote).append(rawValue).append(quote);
+	}
+
+	private static void update(@Nonnull final CRC32 crc, @Nonnull final FileChannel channel, final long start, final long end) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = start;
+		while (position < end)
+		{
+			((Buffer) buffer).clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+			final int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new EOFException();
+			}
+			crc.update(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.JsonWriter;
+import org.jurr.liquibase.releaseplugin.Utils;
+import org.jurr.liquibase.releaseplugin.context.ChangeLogFlattener.Element;
+
+/**
+ * A JSON file next to an XML master file, that lists every version tagged in it: the byte offsets of its tagDatabase changeSet, and the includes that follow
+ * that changeSet up to the next version. A database at a given version only needs what comes after the end offset of that version, so deploy tooling can use
+ * the index to pick or cut the smallest changelog that covers the versions a database is missing, without parsing the master file.
+ * <p>
+ * The index is written by the <code>tag</code> goal when <code>versionIndex</code> is enabled.
+ */
+public final class VersionIndex
+{
+	private static final int FORMAT_VERSION = 1;
+	private static final String FILE_NAME_SUFFIX = ".versions.json";
+
+	private VersionIndex()
+	{
+	}
+
+	/**
+	 * @return the version index of the given master file, like <code>master.versions.json</code> for <code>master.xml</code>.
+	 */
+	@Nonnull
+	public static Path getPath(@Nonnull final Path masterFile)
+	{
+		return masterFile.resolveSibling(Utils.getBaseName(masterFile) + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Write the index of an XML master file.
+	 *
+	 * @param masterFile the master file, as it will be when the index is moved in place
+	 * @param content the file to read the content of the master file from
+	 */
+	static void write(@Nonnull final Writer writer, @Nonnull final Path masterFile, @Nonnull final Path content) throws IOException
+	{
+		final MasterFileIndex master = MasterFileIndex.read(content, null);
+
+		final JsonWriter json = new JsonWriter(writer);
+		json.beginObject();
+		json.name("formatVersion").value(FORMAT_VERSION);
+		json.name("masterFile").value(masterFile.getFileName().toString());
+		json.name("size").value(Files.size(content));
+		json.name("versions").beginArray();
+		boolean inVersion = false;
+		for (final Element element : master.elements)
+		{
+			if (element.tag != null)
+			{
+				if (inVersion)
+				{
+					json.endArray();
+					json.endObject();
+				}
+				json.beginObject();
+				json.name("tag").value(element.tag);
+				json.name("offset").value(element.start);
+				json.name("end").value(element.end);
+				json.name("includes").beginArray();
+				inVersion = true;
+			}
+			else if (inVersion && DatabaseChangeLogFile.INCLUDE_TAG.getLocalPart().equals(element.localName))
+			{
+				final String file = element.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_FILE_ATTRIBUTE.getLocalPart());
+				json.beginObject();
+				json.name("file").value(file == null ? null : Utils.decodeXmlAttributeValue(file));
+				json.name("relativeToChangelogFile").value(Boolean.parseBoolean(element.attributes.get(DatabaseChangeLogFile.INCLUDE_TAG_RELATIVE_TO_CHANGE_LOG_FILE_ATTRIBUTE.getLocalPart())));
+				json.endObject();
+			}
+		}
+		if (inVersion)
+		{
+			json.endArray();
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.flush();
+	}
+}
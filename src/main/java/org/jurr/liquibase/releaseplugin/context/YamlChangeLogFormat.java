@@ -0,0 +1,464 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Liquibase YAML changelogs: a mapping with a <code>databaseChangeLog</code> sequence, that has a mapping for every changeSet or include.
+ * <p>
+ * The file is read event by event with a SnakeYAML {@link Parser}; no document tree is built. Entries are left out or added as whole lines, so the
+ * <code>databaseChangeLog</code> sequence must be in block style (one <code>-</code> per entry) whenever something needs to change in it.
+ */
+final class YamlChangeLogFormat extends ChangeLogFormat
+{
+	static final YamlChangeLogFormat INSTANCE = new YamlChangeLogFormat();
+
+	private static final Resolver RESOLVER = new Resolver();
+	private static final Pattern PLAIN_SCALAR = Pattern.compile("[A-Za-z0-9_./$]([A-Za-z0-9_./$() -]*[A-Za-z0-9_./$()-])?");
+
+	private YamlChangeLogFormat()
+	{
+	}
+
+	@Override
+	boolean copyLatestFile(@Nonnull final Path path, @Nonnull final InputStream input, @CheckForNull final OutputStream output) throws IOException
+	{
+		try (TextSplicer splicer = new TextSplicer(new LineBreakAtEndReader(newReader(input)), output == null ? null : newWriter(output), true))
+		{
+			final Parser parser = newParser(splicer);
+			boolean foundChangeSets = false;
+			final CollectionStartEvent sequenceStart = findChangeLogSequence(parser);
+			if (sequenceStart != null)
+			{
+				// Entries are left out from the start of their line, up to the start of the line of the next entry
+				boolean dropping = false;
+				boolean kept = false;
+				Event event;
+				while (!(event = parser.getEvent()).is(Event.ID.SequenceEnd))
+				{
+					final long entryStart = getLineStart(event.getStartMark());
+					if (dropping)
+					{
+						splicer.skipTo(entryStart);
+					}
+					else
+					{
+						splicer.copyTo(entryStart);
+					}
+
+					dropping = event.is(Event.ID.MappingStart) && isScalar(parser.peekEvent(), CHANGE_SET);
+					if (dropping)
+					{
+						foundChangeSets = true;
+						if (output == null)
+						{
+							return true;
+						}
+						if (sequenceStart.isFlow())
+						{
+							throw new IllegalArgumentException("The " + DATABASE_CHANGELOG + " in file " + path + " is not a block sequence; changeSets can only be left out of a block sequence");
+						}
+					}
+					kept |= !dropping;
+					skipNode(parser, event);
+				}
+
+				if (dropping)
+				{
+					splicer.skipTo(getLineStart(event.getStartMark()));
+					if (!kept)
+					{
+						splicer.insert("  []\n");
+					}
+				}
+			}
+			splicer.finish();
+			return foundChangeSets;
+		}
+		catch (YAMLException e)
+		{
+			throw parseError(path, e);
+		}
+	}
+
+	@Override
+	void rewriteMasterFile(@Nonnull final Path path, @Nonnull final InputStream scanInput, @Nonnull final InputStream copyInput, @Nonnull final OutputStream output, @Nonnull final MasterFileHandler handler)
+			throws IOException
+	{
+		final int sequenceIndent;
+		String entryPrefix = null;
+		long insertBefore = -1;
+		final long sequenceEnd;
+		try (Reader reader = new LineBreakAtEndReader(newReader(scanInput)))
+		{
+			final Parser parser = newParser(reader);
+			final CollectionStartEvent sequenceStart = findChangeLogSequence(parser);
+			if (sequenceStart == null || sequenceStart.isFlow())
+			{
+				throw new IllegalArgumentException("No block sequence " + DATABASE_CHANGELOG + " found in file " + path);
+			}
+			sequenceIndent = sequenceStart.getStartMark().getColumn();
+
+			Event event;
+			while (!(event = parser.getEvent()).is(Event.ID.SequenceEnd))
+			{
+				if (entryPrefix == null)
+				{
+					// This is how the entries are indented, for example "  - "
+					entryPrefix = spaces(sequenceIndent) + "-" + spaces(Math.max(1, event.getStartMark().getColumn() - sequenceIndent - 1));
+				}
+
+				final Event key = event.is(Event.ID.MappingStart) ? parser.getEvent() : null;
+				if (key != null && isScalar(key, INCLUDE))
+				{
+					final Event value = parser.getEvent();
+					if (!value.is(Event.ID.MappingStart))
+					{
+						throw new IllegalArgumentException("Include in file " + path + " at line " + (value.getStartMark().getLine() + 1) + ", column " + (value.getStartMark().getColumn() + 1) + " is not a mapping");
+					}
+					handler.include(readAttributes(parser));
+					if (insertBefore < 0)
+					{
+						insertBefore = getLineStart(event.getStartMark());
+					}
+				}
+				else if (key != null && isScalar(key, CHANGE_SET))
+				{
+					final String tag = findTag(parser, parser.getEvent(), null);
+					if (tag != null)
+					{
+						handler.tagDatabase(tag);
+						insertBefore = -1;
+					}
+				}
+				else
+				{
+					throw new IllegalArgumentException("Unknown entry in file " + path + " at line " + (event.getStartMark().getLine() + 1) + ", column " + (event.getStartMark().getColumn() + 1));
+				}
+
+				// Skip anything else in the entry
+				Event rest;
+				while (!(rest = parser.getEvent()).is(Event.ID.MappingEnd))
+				{
+					skipNode(parser, rest);
+				}
+			}
+			sequenceEnd = getLineStart(event.getStartMark());
+		}
+		catch (YAMLException e)
+		{
+			throw parseError(path, e);
+		}
+
+		final String entries = toEntries(handler.getNewVersion(), spaces(sequenceIndent), entryPrefix);
+		try (TextSplicer splicer = new TextSplicer(new LineBreakAtEndReader(newReader(copyInput)), newWriter(output), true))
+		{
+			if (insertBefore >= 0)
+			{
+				splicer.copyTo(insertBefore);
+				splicer.insert(entries + "\n");
+			}
+			else
+			{
+				splicer.copyTo(sequenceEnd);
+				splicer.insert("\n" + entries);
+			}
+			splicer.finish();
+		}
+	}
+
+	@Nonnull
+	private static Parser newParser(@Nonnull final Reader reader)
+	{
+		final LoaderOptions loaderOptions = new LoaderOptions();
+		// Changelogs with data in them may be large; they are never held in memory as a whole
+		loaderOptions.setCodePointLimit(Integer.MAX_VALUE);
+		return new ParserImpl(new StreamReader(reader), loaderOptions);
+	}
+
+	/**
+	 * Move the parser to the start of the <code>databaseChangeLog</code> sequence.
+	 *
+	 * @return the start of the sequence, or <code>null</code> if there is no such sequence
+	 */
+	@CheckForNull
+	private static CollectionStartEvent findChangeLogSequence(@Nonnull final Parser parser)
+	{
+		parser.getEvent();
+		if (parser.checkEvent(Event.ID.StreamEnd))
+		{
+			return null;
+		}
+		parser.getEvent();
+		if (!parser.getEvent().is(Event.ID.MappingStart))
+		{
+			return null;
+		}
+
+		Event key;
+		while (!(key = parser.getEvent()).is(Event.ID.MappingEnd))
+		{
+			skipNode(parser, key);
+			final Event value = parser.getEvent();
+			if (isScalar(key, DATABASE_CHANGELOG) && value.is(Event.ID.SequenceStart))
+			{
+				return (CollectionStartEvent) value;
+			}
+			skipNode(parser, value);
+		}
+		return null;
+	}
+
+	/**
+	 * Move the parser to the end of the node that starts with the given event.
+	 */
+	private static void skipNode(@Nonnull final Parser parser, @Nonnull final Event event)
+	{
+		if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart))
+		{
+			int depth = 1;
+			while (depth > 0)
+			{
+				final Event next = parser.getEvent();
+				if (next.is(Event.ID.MappingStart) || next.is(Event.ID.SequenceStart))
+				{
+					depth++;
+				}
+				else if (next.is(Event.ID.MappingEnd) || next.is(Event.ID.SequenceEnd))
+				{
+					depth--;
+				}
+			}
+		}
+	}
+
+	private static boolean isScalar(@Nonnull final Event event, @Nonnull final String value)
+	{
+		return event instanceof ScalarEvent && value.equals(((ScalarEvent) event).getValue());
+	}
+
+	/**
+	 * Read the rest of the mapping that the parser is in.
+	 *
+	 * @return the scalar values in the mapping, in the order they appear
+	 */
+	@Nonnull
+	private static Map<String, String> readAttributes(@Nonnull final Parser parser)
+	{
+		final Map<String, String> result = new LinkedHashMap<>();
+		Event key;
+		while (!(key = parser.getEvent()).is(Event.ID.MappingEnd))
+		{
+			skipNode(parser, key);
+			final Event value = parser.getEvent();
+			if (key instanceof ScalarEvent && value instanceof ScalarEvent)
+			{
+				result.put(((ScalarEvent) key).getValue(), ((ScalarEvent) value).getValue());
+			}
+			skipNode(parser, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Look for a tagDatabase in the node that starts with the given event, and move the parser to its end.
+	 *
+	 * @return the last tag that was found, or the given tag if none was found
+	 */
+	@CheckForNull
+	private static String findTag(@Nonnull final Parser parser, @Nonnull final Event node, @CheckForNull final String tagSoFar)
+	{
+		String result = tagSoFar;
+		if (node.is(Event.ID.MappingStart))
+		{
+			Event key;
+			while (!(key = parser.getEvent()).is(Event.ID.MappingEnd))
+			{
+				skipNode(parser, key);
+				final Event value = parser.getEvent();
+				if (isScalar(key, TAG_DATABASE) && value.is(Event.ID.MappingStart))
+				{
+					final String tag = readAttributes(parser).get(TAG);
+					result = tag == null ? result : tag;
+				}
+				else
+				{
+					result = findTag(parser, value, result);
+				}
+			}
+		}
+		else if (node.is(Event.ID.SequenceStart))
+		{
+			Event item;
+			while (!(item = parser.getEvent()).is(Event.ID.SequenceEnd))
+			{
+				result = findTag(parser, item, result);
+			}
+		}
+		return result;
+	}
+
+	private static long getLineStart(@Nonnull final Mark mark)
+	{
+		return (long) mark.getIndex() - mark.getColumn();
+	}
+
+	@Nonnull
+	private static String toEntries(@Nonnull final NewVersion newVersion, @Nonnull final String commentIndent, @Nonnull final String entryPrefix)
+	{
+		final String indent = spaces(entryPrefix.length() + 2);
+		final StringBuilder result = new StringBuilder();
+		result.append(commentIndent).append("# ").append(newVersion.getComment()).append('\n');
+		for (final Map<String, String> include : newVersion.getIncludes())
+		{
+			result.append(entryPrefix).append(INCLUDE).append(":\n");
+			appendAttributes(result, indent, include);
+		}
+		result.append(entryPrefix).append(CHANGE_SET).append(":\n");
+		appendAttributes(result, indent, newVersion.getChangeSetAttributes());
+		result.append(indent).append("changes:\n");
+		result.append(indent).append("  - ").append(TAG_DATABASE).append(":\n");
+		result.append(indent).append("      ").append(TAG).append(": ").append(toScalar(newVersion.getTag())).append('\n');
+		return result.toString();
+	}
+
+	private static void appendAttributes(@Nonnull final StringBuilder result, @Nonnull final String indent, @Nonnull final Map<String, String> attributes)
+	{
+		for (final Map.Entry<String, String> attribute : attributes.entrySet())
+		{
+			result.append(indent).append(attribute.getKey()).append(": ").append(toScalar(attribute.getValue())).append('\n');
+		}
+	}
+
+	/**
+	 * @return the given value as a plain scalar if that is read back as the same string, or as a double quoted scalar otherwise. <code>true</code> and
+	 *         <code>false</code> are written as booleans.
+	 */
+	@Nonnull
+	static String toScalar(@Nonnull final String value)
+	{
+		if ("true".equals(value) || "false".equals(value) || PLAIN_SCALAR.matcher(value).matches() && Tag.STR.equals(RESOLVER.resolve(NodeId.scalar, value, true)))
+		{
+			return value;
+		}
+
+		final StringBuilder result = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++)
+		{
+			final char c = value.charAt(i);
+			switch (c)
+			{
+			case '"':
+			case '\\':
+				result.append('\\').append(c);
+				break;
+			case '\n':
+				result.append("\\n");
+				break;
+			case '\t':
+				result.append("\\t");
+				break;
+			default:
+				if (c < ' ')
+				{
+					result.append(String.format("\\x%02x", (int) c));
+				}
+				else
+				{
+					result.append(c);
+				}
+				break;
+			}
+		}
+		return result.append('"').toString();
+	}
+
+	@Nonnull
+	private static String spaces(final int count)
+	{
+		final char[] result = new char[count];
+		Arrays.fill(result, ' ');
+		return new String(result);
+	}
+
+	@Nonnull
+	private static RuntimeException parseError(@Nonnull final Path path, @Nonnull final YAMLException e) throws IOException
+	{
+		if (e.getCause() instanceof IOException)
+		{
+			throw (IOException) e.getCause();
+		}
+		return new IllegalArgumentException("YAML error in file " + path + ": " + e.getMessage(), e);
+	}
+
+	/**
+	 * Makes sure the text ends with a line break, so every entry ends at the start of a line.
+	 */
+	private static final class LineBreakAtEndReader extends FilterReader
+	{
+		private char lastChar = '\n';
+		private boolean endOfInput = false;
+
+		LineBreakAtEndReader(@Nonnull final Reader reader)
+		{
+			super(reader);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final char[] buffer = new char[1];
+			return read(buffer, 0, 1) < 0 ? -1 : buffer[0];
+		}
+
+		@Override
+		public int read(@Nonnull final char[] buffer, final int off, final int len) throws IOException
+		{
+			if (endOfInput || len == 0)
+			{
+				return endOfInput ? -1 : 0;
+			}
+
+			final int read = super.read(buffer, off, len);
+			if (read > 0)
+			{
+				lastChar = buffer[off + read - 1];
+				return read;
+			}
+			if (read < 0)
+			{
+				endOfInput = true;
+				if (lastChar != '\n' && lastChar != '\r')
+				{
+					buffer[off] = '\n';
+					return 1;
+				}
+			}
+			return read;
+		}
+	}
+}
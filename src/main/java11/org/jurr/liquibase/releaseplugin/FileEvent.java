@@ -0,0 +1,58 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+
+/**
+ * The Flight Recorder event of a {@link FileOperation}. Created by {@link JfrFileEventRecorder}.
+ */
+@Name("org.jurr.liquibase.releaseplugin.FileOperation")
+@Label("Liquibase File Operation")
+@Description("Something that the liquibase-db-release plugin does to a file")
+@Category({ "Liquibase", "DB Release" })
+@StackTrace(false)
+final class FileEvent extends Event implements FileEventRecorder.Recording
+{
+	@Label("Path")
+	String path;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+
+	@Label("Bytes Written")
+	@DataAmount
+	long bytesWritten;
+
+	@Label("XML Events")
+	long xmlEvents;
+
+	@Override
+	public void finish(@Nonnull final Path path, @Nonnull final Phase phase, final long bytesRead, final long bytesWritten, final long xmlEvents)
+	{
+		end();
+		if (shouldCommit())
+		{
+			this.path = path.toString();
+			this.phase = phase.name();
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.xmlEvents = xmlEvents;
+			commit();
+		}
+	}
+}
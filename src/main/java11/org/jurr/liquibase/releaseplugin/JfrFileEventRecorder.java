@@ -0,0 +1,18 @@
+package org.jurr.liquibase.releaseplugin;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The {@link FileEventRecorder} of JVMs that have Flight Recorder. Loaded by {@link FileOperation}.
+ */
+final class JfrFileEventRecorder implements FileEventRecorder
+{
+	@Nonnull
+	@Override
+	public Recording begin()
+	{
+		final FileEvent event = new FileEvent();
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,182 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.jurr.liquibase.releaseplugin.TestFiles.read;
+import static org.jurr.liquibase.releaseplugin.TestFiles.write;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileTransactionTest
+{
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path root;
+	private Path journalFile;
+	private Path masterFile;
+	private Path includeFile;
+	private Path versionFile;
+
+	@Before
+	public void createFiles() throws IOException
+	{
+		root = temporaryFolder.newFolder("project").toPath();
+		journalFile = temporaryFolder.getRoot().toPath().resolve("journal");
+		masterFile = write(root.resolve("master.xml"), "old master");
+		includeFile = write(root.resolve("include_latest.xml"), "old include");
+		versionFile = root.resolve("1.2.3").resolve("include_1.2.3.xml");
+	}
+
+	@Test
+	public void testCommit() throws IOException
+	{
+		final FileTransaction fileTransaction = stageNewVersion();
+		fileTransaction.commit();
+
+		assertEquals("new master", read(masterFile));
+		assertEquals("new include", read(includeFile));
+		assertEquals("old include", read(versionFile));
+		assertEquals("No temporary files should be left", 3, listFiles().size());
+		assertFalse(Files.exists(journalFile));
+	}
+
+	@Test
+	public void testRollBackWhenCommitFails() throws IOException
+	{
+		final FileTransaction fileTransaction = stageNewVersion();
+
+		// Someone else creates the version file in the meantime; the master file is already replaced when this is found out
+		write(versionFile, "someone else");
+		try
+		{
+			fileTransaction.commit();
+			fail("The version file already exists");
+		}
+		catch (FileAlreadyExistsException e)
+		{
+			// Expected
+		}
+
+		assertEquals("old master", read(masterFile));
+		assertEquals("old include", read(includeFile));
+		assertEquals("someone else", read(versionFile));
+		assertEquals("No temporary files should be left", 3, listFiles().size());
+		assertFalse(Files.exists(journalFile));
+	}
+
+	@Test
+	public void testDelete() throws IOException
+	{
+		FileTransaction fileTransaction = new FileTransaction(journalFile);
+		fileTransaction.delete(includeFile);
+		fileTransaction.rollBack();
+		assertEquals("old include", read(includeFile));
+		assertEquals(2, listFiles().size());
+
+		fileTransaction = new FileTransaction(journalFile);
+		fileTransaction.delete(includeFile);
+		fileTransaction.commit();
+		assertFalse(Files.exists(includeFile));
+		assertEquals("No temporary files should be left", 1, listFiles().size());
+	}
+
+	@Test
+	public void testRollBackBeforeCommit() throws IOException
+	{
+		stageNewVersion().rollBack();
+
+		assertEquals("old master", read(masterFile));
+		assertEquals("old include", read(includeFile));
+		assertFalse("Created directories should be removed", Files.exists(versionFile.getParent()));
+		assertEquals(2, listFiles().size());
+	}
+
+	@Test
+	public void testBackupFilesAreReservedOnCommit() throws IOException
+	{
+		final Path obsoleteFile = write(root.resolve("obsolete.xml"), "obsolete");
+		final FileTransaction fileTransaction = stageNewVersion();
+		fileTransaction.delete(obsoleteFile);
+
+		// A process that dies before the commit has no journal to clean up after it, so there must be nothing to clean up besides the staged files
+		assertEquals(5, listFiles().size());
+		assertTrue(listFiles().stream().noneMatch(file -> file.toFile().length() == 0));
+
+		fileTransaction.commit();
+		assertFalse(Files.exists(obsoleteFile));
+		assertEquals("No temporary files should be left", 3, listFiles().size());
+	}
+
+	@Test
+	public void testRecoverInterruptedCommit() throws IOException
+	{
+		assertFalse(FileTransaction.recover(journalFile));
+
+		final FileTransaction fileTransaction = stageNewVersion();
+		fileTransaction.writeJournal();
+
+		// The process dies after moving the master file out of the way, and putting the new one in place. The backup file is the empty one.
+		final List<Path> masterFiles = listFiles().stream().filter(file -> file.getFileName().toString().startsWith(".master.xml")).collect(Collectors.toList());
+		assertEquals(2, masterFiles.size());
+		final boolean firstIsBackup = Files.size(masterFiles.get(0)) == 0;
+		Files.move(masterFile, masterFiles.get(firstIsBackup ? 0 : 1), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(masterFiles.get(firstIsBackup ? 1 : 0), masterFile);
+
+		assertTrue(FileTransaction.recover(journalFile));
+		assertEquals("old master", read(masterFile));
+		assertEquals("old include", read(includeFile));
+		assertFalse(Files.exists(versionFile.getParent()));
+		assertEquals("No temporary files should be left", 2, listFiles().size());
+		assertFalse(Files.exists(journalFile));
+	}
+
+	@Nonnull
+	private FileTransaction stageNewVersion() throws IOException
+	{
+		final FileTransaction fileTransaction = new FileTransaction(journalFile);
+
+		fileTransaction.replace(stage(masterFile, "new master"), masterFile);
+
+		fileTransaction.move(includeFile, versionFile);
+		final Path stagedIncludeFile = stage(includeFile, "new include");
+		fileTransaction.addStagedFile(stagedIncludeFile);
+		fileTransaction.move(stagedIncludeFile, includeFile);
+
+		return fileTransaction;
+	}
+
+	@Nonnull
+	private static Path stage(@Nonnull final Path target, @Nonnull final String content) throws IOException
+	{
+		final SpillableOutputStream outputStream = new SpillableOutputStream(target, Integer.MAX_VALUE);
+		outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+		return outputStream.stage();
+	}
+
+	@Nonnull
+	private List<Path> listFiles() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(root))
+		{
+			return files.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+public class FormattedSqlScannerTest
+{
+	private static final String HEADER = "--liquibase formatted sql\n\n-- A comment about --changeset lines\n--changesets are not changeSets\n";
+
+	@Test
+	public void testHeaderIsCopied() throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertTrue(FormattedSqlScanner.copyHeader(input(HEADER + "--changeset john:1\ncreate table a (id int);\n"), output));
+		assertEquals(HEADER, new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testWithoutChangeSets() throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertFalse(FormattedSqlScanner.copyHeader(input(HEADER), output));
+		assertEquals(HEADER, new String(output.toByteArray(), StandardCharsets.UTF_8));
+		assertFalse(FormattedSqlScanner.copyHeader(input("--liquibase formatted sql"), null));
+	}
+
+	@Test
+	public void testKeywordsAreCaseInsensitive() throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertTrue(FormattedSqlScanner.copyHeader(input("\uFEFF-- Liquibase Formatted SQL\r\n-- property name=a value=b\r\n--  ChangeSet\tjohn:1\r\n"), output));
+		assertEquals("\uFEFF-- Liquibase Formatted SQL\r\n-- property name=a value=b\r\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFirstLineMustBeFormattedSql() throws IOException
+	{
+		FormattedSqlScanner.copyHeader(input("create table a (id int);\n--liquibase formatted sql\n"), null);
+	}
+
+	@Test
+	public void testLongLinesAcrossReads() throws IOException
+	{
+		final StringBuilder header = new StringBuilder("--liquibase formatted sql\n");
+		for (int i = 0; i < 3000; i++)
+		{
+			header.append("--");
+			for (int j = 0; j < 20; j++)
+			{
+				header.append(' ');
+			}
+			header.append("changese\n");
+		}
+		header.append("--").append(new String(new char[40000]).replace('\0', ' ')).append("change\n");
+
+		// Return a few bytes at a time, so held back line starts cross the reads
+		final InputStream input = new FilterInputStream(input(header + "--changeset john:1\n")) {
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException
+			{
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertTrue(FormattedSqlScanner.copyHeader(input, output));
+		assertEquals(header.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testIsFormattedSql()
+	{
+		assertTrue(FormattedSqlScanner.isFormattedSql(Paths.get("changes", "latest.SQL")));
+		assertFalse(FormattedSqlScanner.isFormattedSql(Paths.get("changes", "latest.xml")));
+	}
+
+	@Nonnull
+	private static InputStream input(@Nonnull final String content)
+	{
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,70 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.FileTotals;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+
+public class PerformanceReportTest
+{
+	@Test
+	public void testTotals()
+	{
+		final PerformanceReport report = createReport();
+
+		assertEquals(4, report.getTotals().getOperations());
+		assertEquals(3000, report.getTotals().getBytesRead());
+		assertEquals(Arrays.asList(Phase.PROBE, Phase.PARSE, Phase.MOVE), new ArrayList<>(report.getTotalsPerPhase().keySet()));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(30), report.getTotalsPerPhase().get(Phase.PARSE).getNanos());
+		assertEquals(50, report.getTotalsPerPhase().get(Phase.PARSE).getXmlEvents());
+	}
+
+	@Test
+	public void testSlowestFiles()
+	{
+		final List<String> paths = new ArrayList<>();
+		for (final FileTotals file : createReport().getSlowestFiles(2))
+		{
+			paths.add(file.getPath() + " " + TimeUnit.NANOSECONDS.toMillis(file.getTotals().getNanos()));
+		}
+		assertEquals(Arrays.asList("master.xml 25", "b_latest.xml 12"), paths);
+	}
+
+	@Test
+	public void testWriteJson() throws IOException
+	{
+		final PerformanceReport report = createReport();
+		report.finish();
+
+		final StringWriter writer = new StringWriter();
+		report.writeJson(writer, 1);
+		final String json = writer.toString();
+		assertTrue(json, json.contains("\"PARSE\": {\n\t\t\t\"operations\": 2,\n\t\t\t\"millis\": 30,\n\t\t\t\"bytesRead\": 2000,\n\t\t\t\"bytesWritten\": 500,\n\t\t\t\"xmlEvents\": 50\n\t\t}"));
+		assertTrue(json, json.contains("\"slowestFiles\": [\n\t\t{\n\t\t\t\"path\": \"master.xml\",\n\t\t\t\"millis\": 25,"));
+		assertTrue(json, !json.contains("b_latest.xml"));
+	}
+
+	private static PerformanceReport createReport()
+	{
+		final PerformanceReport report = new PerformanceReport();
+		report.record(measurement("b_latest.xml", Phase.PROBE, 2, 1000, 0, 0));
+		report.record(measurement("b_latest.xml", Phase.PARSE, 10, 1000, 0, 10));
+		report.record(measurement("master.xml", Phase.PARSE, 20, 1000, 500, 40));
+		report.record(measurement("master.xml", Phase.MOVE, 5, 0, 0, 0));
+		return report;
+	}
+
+	private static PerformanceReport.Measurement measurement(final String path, final Phase phase, final long millis, final long bytesRead, final long bytesWritten, final long xmlEvents)
+	{
+		return new PerformanceReport.Measurement(path, phase, TimeUnit.MILLISECONDS.toNanos(millis), bytesRead, bytesWritten, xmlEvents);
+	}
+}
@@ -0,0 +1,64 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static io.takari.maven.testing.TestResources.assertFilesNotPresent;
+import static io.takari.maven.testing.TestResources.assertFilesPresent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.annotation.Nonnull;
+
+import io.takari.maven.testing.TestMavenRuntime;
+import io.takari.maven.testing.TestResources;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PlanMojoTest
+{
+	@Rule
+	public final TestResources resources = new TestResources();
+
+	@Rule
+	public final TestMavenRuntime maven = new TestMavenRuntime();
+
+	@Test
+	public void testPlan() throws Exception
+	{
+		final File basedir = resources.getBasedir("testIncludedFiles");
+		final byte[] masterFileContent = Files.readAllBytes(basedir.toPath().resolve("master.xml"));
+		maven.executeMojo(basedir, "plan", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml")), np("diffFile", "target/release.diff"));
+
+		assertFilesPresent(basedir, "target/liquibase-db-release-plan.json", "target/release.diff");
+		assertFilesNotPresent(basedir, "1.2.3/include_1.2.3.xml", "component_1.2.3.xml");
+		assertEquals(new String(masterFileContent, StandardCharsets.UTF_8), new String(Files.readAllBytes(basedir.toPath().resolve("master.xml")), StandardCharsets.UTF_8));
+
+		final String plan = new String(Files.readAllBytes(basedir.toPath().resolve("target/liquibase-db-release-plan.json")), StandardCharsets.UTF_8);
+		assertTrue(plan, plan.contains("\"newVersionPath\": \"1.2.3/include_1.2.3.xml\""));
+		assertTrue(plan, plan.contains("\"newVersionPath\": \"component_1.2.3.xml\""));
+
+		final String diff = new String(Files.readAllBytes(basedir.toPath().resolve("target/release.diff")), StandardCharsets.UTF_8);
+		assertTrue(diff, diff.startsWith("--- a/master.xml\n+++ b/master.xml\n"));
+		assertTrue(diff, diff.contains("+\t<include file=\"1.2.3/include_1.2.3.xml\" relativeToChangelogFile=\"true\"></include>\n"));
+	}
+
+	@Nonnull
+	private static Xpp3Dom np(@Nonnull final String name, @Nonnull final String value)
+	{
+		return TestMavenRuntime.newParameter(name, value);
+	}
+
+	@Nonnull
+	private static Xpp3Dom np(@Nonnull final String name, @Nonnull final Xpp3Dom... value)
+	{
+		final Xpp3Dom result = new Xpp3Dom(name);
+		for (final Xpp3Dom child : value)
+		{
+			result.addChild(child);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,46 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class PrettyPrintXMLEventWriterTest
+{
+	@Test
+	public void testIndentingAndEmptyLines() throws XMLStreamException
+	{
+		final String input = "<?xml version=\"1.0\"?><databaseChangeLog>\n\n\n\n<changeSet id=\"1\">  text  \n<tagDatabase tag=\"1.2.3\"/>\n</changeSet>\n\n<!-- comment --><include file=\"a.xml\"/>\n</databaseChangeLog>";
+		final String expected = "<?xml version=\"1.0\"?>\n<databaseChangeLog>\n\n\t<changeSet id=\"1\">\n\t\t<tagDatabase tag=\"1.2.3\"></tagDatabase>\n\t</changeSet>\n\n\t<!-- comment --><include file=\"a.xml\"></include>\n</databaseChangeLog>";
+		assertEquals(expected, prettyPrint(input));
+	}
+
+	@Test
+	public void testDeepIndenting() throws XMLStreamException
+	{
+		final String input = "<a>\n<b>\n<c>\n<d>\n<e>\n<f>\n<g>\n<h>\n<i>\n<j/>\n</i>\n</h>\n</g>\n</f>\n</e>\n</d>\n</c>\n</b>\n</a>";
+		final String output = prettyPrint(input);
+		assertEquals("\t\t\t\t\t\t\t\t\t<j></j>", output.split("\n")[10]);
+	}
+
+	private static String prettyPrint(final String input) throws XMLStreamException
+	{
+		final StringWriter result = new StringWriter();
+		final XMLEventWriter xmlEventWriter = new PrettyPrintXMLEventWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(result), "\t");
+		final XMLEventReader xmlEventReader = XMLInputFactory.newInstance().createXMLEventReader(new StringReader(input));
+		while (xmlEventReader.hasNext())
+		{
+			xmlEventWriter.add(xmlEventReader.nextEvent());
+		}
+		xmlEventWriter.flush();
+		return result.toString();
+	}
+}
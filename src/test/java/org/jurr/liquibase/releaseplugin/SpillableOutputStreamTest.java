@@ -0,0 +1,92 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillableOutputStreamTest
+{
+	private static final byte[] CONTENT = "<databaseChangeLog></databaseChangeLog>".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testKeptInMemoryBelowThreshold() throws IOException
+	{
+		final Path target = temporaryFolder.getRoot().toPath().resolve("target.xml");
+		try (SpillableOutputStream outputStream = new SpillableOutputStream(target, CONTENT.length))
+		{
+			outputStream.write(CONTENT);
+			assertFalse(outputStream.isSpilled());
+			assertEquals(0, countFiles());
+
+			replace(outputStream, target);
+		}
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(target));
+		assertEquals(1, countFiles());
+	}
+
+	@Test
+	public void testSpilledAboveThreshold() throws IOException
+	{
+		final Path target = temporaryFolder.getRoot().toPath().resolve("target.xml");
+		Files.write(target, "old content".getBytes(StandardCharsets.UTF_8));
+		try (SpillableOutputStream outputStream = new SpillableOutputStream(target, CONTENT.length - 1))
+		{
+			outputStream.write(CONTENT);
+			assertTrue(outputStream.isSpilled());
+			assertEquals(CONTENT.length, outputStream.size());
+			assertEquals(2, countFiles());
+
+			replace(outputStream, target);
+		}
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(target));
+		assertEquals(1, countFiles());
+	}
+
+	@Test
+	public void testDiscardRemovesSpillFile() throws IOException
+	{
+		final Path target = temporaryFolder.getRoot().toPath().resolve("target.xml");
+		try (SpillableOutputStream outputStream = new SpillableOutputStream(target, 0))
+		{
+			outputStream.write(CONTENT);
+			assertTrue(outputStream.isSpilled());
+
+			outputStream.discard();
+		}
+
+		assertEquals(0, countFiles());
+	}
+
+	private static void replace(@Nonnull final SpillableOutputStream outputStream, @Nonnull final Path target) throws IOException
+	{
+		final FileTransaction fileTransaction = new FileTransaction(null);
+		fileTransaction.replace(outputStream.stage(), target);
+		fileTransaction.commit();
+	}
+
+	private long countFiles() throws IOException
+	{
+		try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath()))
+		{
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillableXMLEventBufferTest
+{
+	private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n"
+			+ "\t<!-- Version 1.2.3 -->\n"
+			+ "\t<include file=\"a &amp; b.xml\" relativeToChangelogFile=\"true\" xsi:type=\"t\"></include>\n"
+			+ "\t<changeSet id=\"1\" author=\"é\"><sql><![CDATA[select '<' from dual]]></sql><?pi data?></changeSet>\n"
+			+ "</databaseChangeLog>";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testReplayInMemory() throws Exception
+	{
+		final SpillableXMLEventBuffer buffer = new SpillableXMLEventBuffer(temporaryFolder.getRoot().toPath().resolve("master.xml"), Integer.MAX_VALUE);
+		assertEquals(writeDirectly(), writeBuffered(buffer));
+		assertFalse(buffer.isSpilled());
+	}
+
+	@Test
+	public void testReplaySpilled() throws Exception
+	{
+		final SpillableXMLEventBuffer buffer = new SpillableXMLEventBuffer(temporaryFolder.getRoot().toPath().resolve("master.xml"), 16);
+		assertEquals(writeDirectly(), writeBuffered(buffer));
+		assertEquals(0, buffer.size());
+		assertEquals("The temporary file should be removed after replaying", 0, countFiles());
+	}
+
+	@Test
+	public void testDiscard() throws Exception
+	{
+		final SpillableXMLEventBuffer buffer = new SpillableXMLEventBuffer(temporaryFolder.getRoot().toPath().resolve("master.xml"), 0);
+		final XMLEventReader xmlEventReader = XMLInputFactory.newInstance().createXMLEventReader(new StringReader(DOCUMENT));
+		xmlEventReader.nextEvent();
+		while (xmlEventReader.hasNext())
+		{
+			buffer.add(xmlEventReader.nextEvent());
+		}
+		assertTrue(buffer.isSpilled());
+		assertEquals(1, countFiles());
+
+		buffer.discard();
+		assertEquals(0, buffer.size());
+		assertEquals(0, countFiles());
+	}
+
+	private static String writeDirectly() throws XMLStreamException
+	{
+		final StringWriter result = new StringWriter();
+		final XMLEventWriter xmlEventWriter = XMLOutputFactory.newInstance().createXMLEventWriter(result);
+		xmlEventWriter.add(XMLInputFactory.newInstance().createXMLEventReader(new StringReader(DOCUMENT)));
+		xmlEventWriter.flush();
+		return result.toString();
+	}
+
+	private static String writeBuffered(final SpillableXMLEventBuffer buffer) throws XMLStreamException
+	{
+		final StringWriter result = new StringWriter();
+		final XMLEventWriter xmlEventWriter = XMLOutputFactory.newInstance().createXMLEventWriter(result);
+		final XMLEventReader xmlEventReader = XMLInputFactory.newInstance().createXMLEventReader(new StringReader(DOCUMENT));
+
+		// The start document is not buffered
+		xmlEventWriter.add(xmlEventReader.nextEvent());
+		while (xmlEventReader.hasNext())
+		{
+			buffer.add(xmlEventReader.nextEvent());
+		}
+		buffer.writeTo(xmlEventWriter);
+		xmlEventWriter.flush();
+		return result.toString();
+	}
+
+	private long countFiles() throws IOException
+	{
+		try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath()))
+		{
+			return files.count();
+		}
+	}
+}
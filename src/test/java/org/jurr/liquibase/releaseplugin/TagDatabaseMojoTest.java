@@ -11,17 +11,24 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.transform.Source;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import io.takari.maven.testing.TestMavenRuntime;
 import io.takari.maven.testing.TestResources;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.junit.Rule;
@@ -84,6 +91,50 @@ public class TagDatabaseMojoTest
 		assertThat("master.xml should include component_latest.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='component_latest.xml'])", NS, equalTo("1")));
 	}
 
+	@Test
+	public void testIncludedFilesMultiThreaded() throws Exception
+	{
+		final File serialBasedir = resources.getBasedir("testIncludedFiles");
+		final File threadedBasedir = new File(serialBasedir.getParentFile(), serialBasedir.getName() + "_threaded");
+		FileUtils.copyDirectoryStructure(serialBasedir, threadedBasedir);
+
+		maven.executeMojo(serialBasedir, "tag", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml")), np("threads", "1"));
+		maven.executeMojo(threadedBasedir, "tag", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml")), np("threads", "4"));
+
+		assertFilesPresent(threadedBasedir, "1.2.3/include_1.2.3.xml", "latest/include_latest.xml");
+		assertFilesPresent(threadedBasedir, "component_1.2.3.xml", "component_latest.xml");
+
+		// Reading include files in the background must not change a single byte of the result
+		final List<Path> serialFiles = listFiles(serialBasedir.toPath());
+		assertEquals("The threaded run should produce the same files as the serial run", serialFiles, listFiles(threadedBasedir.toPath()));
+		for (final Path file : serialFiles)
+		{
+			assertArrayEquals(file + " should be the same as in the serial run", Files.readAllBytes(serialBasedir.toPath().resolve(file)), Files.readAllBytes(threadedBasedir.toPath().resolve(file)));
+		}
+	}
+
+	@Test
+	public void testIncludedFilesWithoutMemoryBuffer() throws Exception
+	{
+		final File basedir = resources.getBasedir("testIncludedFiles");
+		maven.executeMojo(basedir, "tag", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml")), np("maxInMemoryFileSize", "0"));
+
+		assertFilesPresent(basedir, "1.2.3/include_1.2.3.xml", "latest/include_latest.xml");
+		assertFilesPresent(basedir, "component_1.2.3.xml", "component_latest.xml");
+		try (Stream<Path> files = Files.walk(basedir.toPath()))
+		{
+			assertEquals("No temporary files should be left behind", 0, files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count());
+		}
+
+		assertThat("latest/include_latest.xml should not contain a changeSet", xmlFile(basedir, "latest/include_latest.xml"), not(hasXPath("/l:databaseChangeLog/l:changeSet", NS)));
+		assertThat("component_latest.xml should not contain a changeSet", xmlFile(basedir, "component_latest.xml"), not(hasXPath("/l:databaseChangeLog/l:changeSet", NS)));
+
+		final Source masterXmlFile = xmlFile(basedir, "master.xml");
+		assertThat("master.xml should contain one tagDatabase changeSet", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:changeSet[l:tagDatabase])", NS, equalTo("1")));
+		assertThat("master.xml should include 1.2.3/include_1.2.3.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='1.2.3/include_1.2.3.xml'])", NS, equalTo("1")));
+		assertThat("master.xml should include component_1.2.3.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='component_1.2.3.xml'])", NS, equalTo("1")));
+	}
+
 	@Test
 	public void testIncludedFromRootWithDefaultRoot() throws Exception
 	{
@@ -185,6 +236,38 @@ public class TagDatabaseMojoTest
 		assertThat("test%2Ffolder/master.xml should include test%2Finclude/include%2Ffile_latest.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='test%2Finclude/include%2Ffile_latest.xml'])", NS, equalTo("1")));
 	}
 
+	@Test
+	public void testHistoricalIncludes() throws Exception
+	{
+		// include_1.0.0.xml does not exist; it is before the last tagDatabase, so it should not be looked at
+		final File basedir = resources.getBasedir("testHistoricalIncludes");
+		maven.executeMojo(basedir, "tag", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml")));
+
+		assertFilesPresent(basedir, "include_1.2.3.xml", "include_latest.xml");
+		assertFilesNotPresent(basedir, "include_1.0.0.xml");
+
+		final Source masterXmlFile = xmlFile(basedir, "master.xml");
+		assertThat("master.xml should contain two tagDatabase changeSets", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:changeSet[l:tagDatabase])", NS, equalTo("2")));
+		assertThat("master.xml should still include include_1.0.0.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='include_1.0.0.xml'])", NS, equalTo("1")));
+		assertThat("master.xml should include include_1.2.3.xml", masterXmlFile, hasXPath("count(/l:databaseChangeLog/l:include[@file='include_1.2.3.xml'])", NS, equalTo("1")));
+	}
+
+	@Test
+	public void testSharedIncludes() throws Exception
+	{
+		// Both master files include shared/shared_latest.xml, but under a different path
+		final File basedir = resources.getBasedir("testSharedIncludes");
+		maven.executeMojo(basedir, "tag", np("newVersion", "1.2.3"), np("masterFiles", np("masterFile", "master.xml"), np("masterFile", "sub/master.xml")));
+
+		assertFilesPresent(basedir, "shared/shared_1.2.3.xml", "shared/shared_latest.xml");
+
+		assertThat("shared/shared_1.2.3.xml should contain exactly one changeSet", xmlFile(basedir, "shared/shared_1.2.3.xml"), hasXPath("count(/l:databaseChangeLog/l:changeSet)", NS, equalTo("1")));
+		assertThat("shared/shared_latest.xml should not contain a changeSet", xmlFile(basedir, "shared/shared_latest.xml"), not(hasXPath("/l:databaseChangeLog/l:changeSet", NS)));
+
+		assertThat("master.xml should include shared/shared_1.2.3.xml", xmlFile(basedir, "master.xml"), hasXPath("count(/l:databaseChangeLog/l:include[@file='shared/shared_1.2.3.xml' and not(@context)])", NS, equalTo("1")));
+		assertThat("sub/master.xml should include ../shared/shared_1.2.3.xml", xmlFile(basedir, "sub/master.xml"), hasXPath("count(/l:databaseChangeLog/l:include[@file='../shared/shared_1.2.3.xml' and @context='sub'])", NS, equalTo("1")));
+	}
+
 	@Test
 	public void testTagAlreadyExists() throws IOException
 	{
@@ -223,6 +306,45 @@ public class TagDatabaseMojoTest
 		assertThat("master.xml should contain no includes without context", xmlFile(basedir, "master.xml"), hasXPath("count(/l:databaseChangeLog/l:include[not(@context)])", NS, equalTo("0")));
 	}
 
+	@Test
+	public void testTagAll() throws Exception
+	{
+		final File basedir = resources.getBasedir("testTagAll");
+		final MavenProject rootProject = maven.readMavenProject(basedir);
+		final MavenSession session = maven.newMavenSession(rootProject);
+		session.setProjects(Arrays.asList(rootProject, maven.readMavenProject(new File(basedir, "module-a")), maven.readMavenProject(new File(basedir, "module-b"))));
+		maven.executeMojo(session, rootProject, "tag-all", np("newVersion", "1.2.3"));
+
+		// The master file of the top-level project is configured for the goal and for the project itself, but is tagged once
+		assertFilesPresent(basedir, "root_1.2.3.xml", "root_latest.xml");
+		assertThat("master.xml should contain one tagDatabase changeSet", xmlFile(basedir, "master.xml"), hasXPath("count(/l:databaseChangeLog/l:changeSet[l:tagDatabase])", NS, equalTo("1")));
+
+		// Module a has no classpathRoot, so its includes are found through its first resource directory; one include file is skipped
+		final File moduleA = new File(basedir, "module-a/src/main/liquibase/db");
+		assertFilesPresent(moduleA, "a_1.2.3.xml", "a_latest.xml", "skipped_latest.xml");
+		assertFilesNotPresent(moduleA, "skipped_1.2.3.xml");
+		assertThat("skipped_latest.xml should still contain its changeSet", xmlFile(moduleA, "skipped_latest.xml"), hasXPath("count(/l:databaseChangeLog/l:changeSet)", NS, equalTo("1")));
+		assertThat("master.xml of module a should contain one tagDatabase changeSet", xmlFile(moduleA, "master.xml"), hasXPath("count(/l:databaseChangeLog/l:changeSet[l:tagDatabase])", NS, equalTo("1")));
+
+		// Module b has its own classpathRoot
+		final File moduleB = new File(basedir, "module-b/schema");
+		assertFilesPresent(moduleB, "b/1.2.3.xml", "b/latest.xml");
+		assertThat("b/latest.xml should not contain a changeSet", xmlFile(moduleB, "b/latest.xml"), not(hasXPath("/l:databaseChangeLog/l:changeSet", NS)));
+		assertThat("master.xml of module b should include b/1.2.3.xml", xmlFile(moduleB, "master.xml"), hasXPath("count(/l:databaseChangeLog/l:include[@file='b/1.2.3.xml'])", NS, equalTo("1")));
+	}
+
+	/**
+	 * @return the files below the directory, relative to it, sorted
+	 */
+	@Nonnull
+	private static List<Path> listFiles(@Nonnull final Path directory) throws IOException
+	{
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			return files.filter(Files::isRegularFile).map(directory::relativize).sorted().collect(Collectors.toList());
+		}
+	}
+
 	@Nonnull
 	private static Source xmlFile(@Nonnull final File basedir, @Nonnull final String xmlFile)
 	{
@@ -0,0 +1,55 @@
+package org.jurr.liquibase.releaseplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes and reads the UTF-8 files that tests set up and check.
+ */
+public final class TestFiles
+{
+	private TestFiles()
+	{
+	}
+
+	/**
+	 * Write a file, creating its directory if needed.
+	 */
+	@Nonnull
+	public static Path write(@Nonnull final Path file, @Nonnull final String content) throws IOException
+	{
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Nonnull
+	public static String read(@Nonnull final Path file) throws IOException
+	{
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a stream to the end, and close it.
+	 */
+	@Nonnull
+	public static String read(@Nonnull final InputStream inputStream) throws IOException
+	{
+		try (InputStream input = inputStream)
+		{
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) >= 0)
+			{
+				output.write(buffer, 0, read);
+			}
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+public class UnifiedDiffTest
+{
+	@Test
+	public void testSameTextHasNoDiff() throws IOException
+	{
+		assertEquals("", diff("a\nb\n", "a\nb\n"));
+	}
+
+	@Test
+	public void testInsertion() throws IOException
+	{
+		final String oldText = "1\n2\n3\n4\n5\n6\n7\n8\n";
+		final String newText = "1\n2\n3\n4\n5\nnew\n6\n7\n8\n";
+		assertEquals("--- a/f\n+++ b/f\n@@ -3,6 +3,7 @@\n 3\n 4\n 5\n+new\n 6\n 7\n 8\n", diff(oldText, newText));
+	}
+
+	@Test
+	public void testChangesFarApartAreSeparateHunks() throws IOException
+	{
+		final String oldText = "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n";
+		final String newText = "one\n2\n3\n4\n5\n6\n7\n8\n9\nten\n";
+		assertEquals("--- a/f\n+++ b/f\n@@ -1,4 +1,4 @@\n-1\n+one\n 2\n 3\n 4\n@@ -7,4 +7,4 @@\n 7\n 8\n 9\n-10\n+ten\n", diff(oldText, newText));
+	}
+
+	@Test
+	public void testNoNewlineAtEndOfFile() throws IOException
+	{
+		assertEquals("--- a/f\n+++ b/f\n@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+b\n", diff("a\nb", "a\nb\n"));
+	}
+
+	@Test
+	public void testEmptyOldText() throws IOException
+	{
+		assertEquals("--- a/f\n+++ b/f\n@@ -0,0 +1,2 @@\n+a\n+b\n", diff("", "a\nb\n"));
+	}
+
+	@Nonnull
+	private static String diff(@Nonnull final String oldText, @Nonnull final String newText) throws IOException
+	{
+		final StringWriter writer = new StringWriter();
+		UnifiedDiff.write(writer, "a/f", "b/f", oldText, newText);
+		return writer.toString();
+	}
+}
@@ -3,10 +3,16 @@ package org.jurr.liquibase.releaseplugin;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assume.assumeTrue;
 
+import java.io.StringReader;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.junit.Test;
 
 public class UtilsTest
@@ -33,6 +39,14 @@ public class UtilsTest
 		assertEquals(expectedPath, actualPath);
 	}
 
+	@Test
+	public void testToRealPathOfMissingFile()
+	{
+		final Path expectedPath = Paths.get("dir", "include.xml").toAbsolutePath();
+		final Path actualPath = Utils.toRealPath(Paths.get("dir", "subdir", "..", "include.xml"));
+		assertEquals(expectedPath, actualPath);
+	}
+
 	@Test
 	public void testReplaceStringInPath()
 	{
@@ -66,4 +80,32 @@ public class UtilsTest
 		final String actual = Utils.convertPathSeparatorToForwardSlash(input);
 		assertEquals(expected, actual);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testSkipElement() throws XMLStreamException
+	{
+		final XMLStreamReader xmlStreamReader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader("<a><changeSet><changeSet/><sql><![CDATA[</changeSet>]]></sql></changeSet><b/></a>"));
+		xmlStreamReader.nextTag();
+		xmlStreamReader.nextTag();
+		assertEquals("changeSet", xmlStreamReader.getLocalName());
+
+		Utils.skipElement(xmlStreamReader);
+		assertEquals(XMLStreamConstants.END_ELEMENT, xmlStreamReader.getEventType());
+		assertEquals("changeSet", xmlStreamReader.getLocalName());
+		assertEquals("The element after the skipped one should be next", "b", nextLocalName(xmlStreamReader));
+	}
+
+	@Test
+	public void testDecodeXmlAttributeValue()
+	{
+		assertEquals("a < b & c", Utils.decodeXmlAttributeValue("a &lt; b &amp;&#32;c"));
+		assertEquals("1.2.3", Utils.decodeXmlAttributeValue("1.2.3"));
+		assertEquals("a b", Utils.decodeXmlAttributeValue("a\r\nb"));
+	}
+
+	private static String nextLocalName(final XMLStreamReader xmlStreamReader) throws XMLStreamException
+	{
+		xmlStreamReader.nextTag();
+		return xmlStreamReader.getLocalName();
+	}
+}
@@ -0,0 +1,113 @@
+package org.jurr.liquibase.releaseplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class XmlByteScannerTest
+{
+	private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE databaseChangeLog [ <!ENTITY x \"<include>\"> ]>\n"
+			+ "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+			+ "\t<!-- <include file=\"commented.xml\"/> --->\n"
+			+ "\t<changeSet id=\"1\" author=\"a > b\"><sql><![CDATA[ <include file=\"cdata.xml\"/> ]]]></sql><?pi <include/> ?></changeSet>\n"
+			+ "\t<lb:include xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\" file='a&amp;b&#x20;c.xml'\n\tlb:relativeToChangelogFile=\"true\"/>\n"
+			+ "</databaseChangeLog>\n";
+
+	@Test
+	public void testOnlyElementsAreReported() throws IOException
+	{
+		final StringBuilder names = new StringBuilder();
+		try (XmlByteScanner scanner = createScanner())
+		{
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				names.append(eventType == XmlByteScanner.START_ELEMENT ? "<" : "</").append(scanner.getLocalName()).append(scanner.getDepth()).append(' ');
+			}
+		}
+		assertEquals("<databaseChangeLog1 <changeSet2 <sql3 </sql2 </changeSet1 <include2 </include1 </databaseChangeLog0 ", names.toString());
+	}
+
+	@Test
+	public void testOffsetsAndAttributes() throws IOException
+	{
+		try (XmlByteScanner scanner = createScanner())
+		{
+			while (scanner.next() != XmlByteScanner.START_ELEMENT || !scanner.isLocalName("include"))
+			{
+				// Skip
+			}
+
+			assertTrue(scanner.isEmptyElement());
+			assertEquals("a&b c.xml", scanner.getAttributeValue("file"));
+			assertEquals("true", scanner.getAttributeValue("relativeToChangelogFile"));
+			assertNull(scanner.getAttributeValue("context"));
+			assertEquals("lb:include", scanner.getQualifiedName());
+			assertEquals("{xmlns:lb=http://www.liquibase.org/xml/ns/dbchangelog, file=a&amp;b&#x20;c.xml, lb:relativeToChangelogFile=true}", scanner.getAttributes().toString());
+
+			final String tag = DOCUMENT.substring((int) scanner.getStartOffset(), (int) scanner.getEndOffset());
+			assertTrue(tag, tag.startsWith("<lb:include ") && tag.endsWith("/>"));
+			assertEquals(tag, new String(scanner.getTagBytes(), 0, scanner.getTagLength(), StandardCharsets.UTF_8));
+			assertEquals("<lb:include", tag.substring(0, scanner.getNameEnd()));
+
+			assertEquals(XmlByteScanner.END_ELEMENT, scanner.next());
+			assertFalse(scanner.isEmptyElement());
+			assertEquals(scanner.getEndOffset(), scanner.getStartOffset());
+		}
+	}
+
+	@Test
+	public void testDigest() throws IOException, NoSuchAlgorithmException
+	{
+		// The changeSet is larger than the buffer of the scanner, and is followed by an empty element
+		final char[] text = new char[40 * 1024];
+		Arrays.fill(text, 'x');
+		final String changeSet = "<changeSet id=\"1\">\n\t<sql>" + new String(text) + "</sql>\n</changeSet>";
+		final String document = "<databaseChangeLog>\n" + changeSet + "<include file=\"a.xml\"/></databaseChangeLog>";
+		final MessageDigest changeSetDigest = MessageDigest.getInstance("SHA-256");
+		final MessageDigest includeDigest = MessageDigest.getInstance("SHA-256");
+		try (XmlByteScanner scanner = new XmlByteScanner(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8))
+		{
+			int eventType;
+			while ((eventType = scanner.next()) != XmlByteScanner.END_DOCUMENT)
+			{
+				final MessageDigest digest = scanner.isLocalName("changeSet") ? changeSetDigest : scanner.isLocalName("include") ? includeDigest : null;
+				if (digest != null && eventType == XmlByteScanner.START_ELEMENT)
+				{
+					scanner.startDigest(digest);
+				}
+				else if (digest != null)
+				{
+					scanner.endDigest();
+				}
+			}
+		}
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(changeSet.getBytes(StandardCharsets.UTF_8)), changeSetDigest.digest());
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest("<include file=\"a.xml\"/>".getBytes(StandardCharsets.UTF_8)), includeDigest.digest());
+	}
+
+	@Test
+	public void testSupportedCharsets()
+	{
+		assertTrue(XmlByteScanner.supports(StandardCharsets.UTF_8));
+		assertTrue(XmlByteScanner.supports(StandardCharsets.ISO_8859_1));
+		assertFalse(XmlByteScanner.supports(StandardCharsets.UTF_16));
+	}
+
+	private static XmlByteScanner createScanner()
+	{
+		return new XmlByteScanner(new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+	}
+}
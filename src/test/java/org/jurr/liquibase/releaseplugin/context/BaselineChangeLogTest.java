@@ -0,0 +1,101 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.jurr.liquibase.releaseplugin.TestFiles.read;
+import static org.jurr.liquibase.releaseplugin.TestFiles.write;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+
+public class BaselineChangeLogTest
+{
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+	private static final String TAG_1_0 = "<changeSet id=\"Tag our database with 1.0\" author=\"John Doe\">\n\t\t<tagDatabase tag=\"1.0\"></tagDatabase>\n\t</changeSet>";
+	private static final String TAG_1_1 = "<changeSet id=\"Tag 1.1\" author=\"liquibase-db-release\">\n\t\t<tagDatabase tag=\"1.1\"></tagDatabase>\n\t</changeSet>";
+	private static final String VERSION_1_2 = "\t<!-- Version 1.2 -->\n\t<include file=\"myApp/1.2.xml\" relativeToChangelogFile=\"true\"></include>\n"
+			+ "\t<changeSet id=\"Tag 1.2\" author=\"liquibase-db-release\">\n\t\t<tagDatabase tag=\"1.2\"></tagDatabase>\n\t</changeSet>\n\n"
+			+ "\t<include file=\"myApp/latest.xml\" relativeToChangelogFile=\"true\"></include>\n</databaseChangeLog>\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testVersionsBeforeAreConsolidated() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("db/master.xml"), HEADER + "\t<property name=\"a\" value=\"b\"/>\n\t" + TAG_1_0 + "\n\n\t<!-- Version 1.1 -->\n"
+				+ "\t<include file=\"myApp/1.1.xml\" relativeToChangelogFile=\"true\"></include>\n\t<include file=\"db/other/1.1.xml\"></include>\n\t" + TAG_1_1 + "\n\n" + VERSION_1_2);
+		write(classpathRoot.resolve("db/myApp/1.1.xml"), "<lb:databaseChangeLog xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+				+ "  <lb:changeSet id=\"1\" author=\"john\">\n    <lb:sql>select 1</lb:sql>\n  </lb:changeSet>\n  <lb:changeSet id=\"2\" author=\"john\" logicalFilePath=\"moved.xml\"/>\n</lb:databaseChangeLog>");
+		write(classpathRoot.resolve("db/other/1.1.xml"), "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" logicalFilePath=\"other.xml\">\n"
+				+ "\t<property name=\"c\" value=\"d\"/>\n\t<changeSet id=\"3\" author=\"john\"/>\n</databaseChangeLog>");
+
+		final BaselineChangeLog baselineChangeLog = consolidate(masterFile, classpathRoot, "1.2");
+
+		assertEquals(classpathRoot.resolve("db/master-baseline-1.1.xml"), baselineChangeLog.getPath());
+		assertEquals(2, baselineChangeLog.getConsolidatedVersions());
+		assertEquals(HEADER + "\t<property name=\"a\" value=\"b\"/>\n\t<!-- Baseline of the versions up to 1.1 -->\n\t<include file=\"master-baseline-1.1.xml\" relativeToChangelogFile=\"true\"></include>\n\n" + VERSION_1_2,
+				read(masterFile));
+		assertEquals(HEADER + "\t" + TAG_1_0.replace("<changeSet", "<changeSet logicalFilePath=\"db/master.xml\"") + "\n"
+				+ "\n\t<lb:changeSet xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\" logicalFilePath=\"db/myApp/1.1.xml\" id=\"1\" author=\"john\">\n    <lb:sql>select 1</lb:sql>\n  </lb:changeSet>"
+				+ "\n\t<lb:changeSet xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\" id=\"2\" author=\"john\" logicalFilePath=\"moved.xml\"/>"
+				+ "\n\t<property name=\"c\" value=\"d\"/>\n\t<changeSet logicalFilePath=\"other.xml\" id=\"3\" author=\"john\"/>"
+				+ "\n\t" + TAG_1_1.replace("<changeSet", "<changeSet logicalFilePath=\"db/master.xml\"") + "\n\n</databaseChangeLog>\n", read(baselineChangeLog.getPath()));
+	}
+
+	@Test
+	public void testNothingIsChangedWhenTheVersionIsNotTagged() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final String content = HEADER + "\t" + TAG_1_0 + "\n</databaseChangeLog>\n";
+		final Path masterFile = write(classpathRoot.resolve("master.xml"), content);
+
+		try
+		{
+			consolidate(masterFile, classpathRoot, "1.1");
+			fail("Version 1.1 is not tagged");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Version 1.1 is not tagged in file "));
+		}
+		assertEquals(content, read(masterFile));
+		assertFalse(Files.exists(classpathRoot.resolve("master-baseline-1.0.xml")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNothingToConsolidate() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		consolidate(write(classpathRoot.resolve("master.xml"), HEADER + "\t" + TAG_1_0 + "\n</databaseChangeLog>\n"), classpathRoot, "1.0");
+	}
+
+	@Nonnull
+	private static BaselineChangeLog consolidate(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @Nonnull final String version) throws IOException
+	{
+		final BaselineChangeLog baselineChangeLog = new BaselineChangeLog(masterFile, classpathRoot, version);
+		final FileTransaction fileTransaction = new FileTransaction(null);
+		try
+		{
+			baselineChangeLog.stage(fileTransaction);
+			fileTransaction.commit();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			fileTransaction.rollBack();
+			throw e;
+		}
+		return baselineChangeLog;
+	}
+}
@@ -0,0 +1,68 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.jurr.liquibase.releaseplugin.TestFiles.read;
+import static org.jurr.liquibase.releaseplugin.TestFiles.write;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChangeLogBundleTest
+{
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testIncludesAreFlattened() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("db/master.xml"), HEADER + "\t<property name=\"a\" value=\"b\"/>\n"
+				+ "\t<include file=\"myApp/1.0.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"myApp/missing.xml\" relativeToChangelogFile=\"true\" errorIfMissing=\"false\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"/>\n\t</changeSet>\n</databaseChangeLog>\n");
+		write(classpathRoot.resolve("db/myApp/1.0.xml"), "<lb:databaseChangeLog xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n"
+				+ "  <lb:changeSet id=\"1\" author=\"john\"/>\n  <lb:include file=\"nested/1.0.xml\" relativeToChangelogFile=\"true\"/>\n</lb:databaseChangeLog>");
+		write(classpathRoot.resolve("db/myApp/nested/1.0.xml"), "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" logicalFilePath=\"nested.xml\">\n"
+				+ "\t<changeSet id=\"2\" author=\"john\"><sql>select 1</sql></changeSet>\n</databaseChangeLog>");
+
+		final Path bundleFile = classpathRoot.resolve("bundle/db/master.xml");
+		final ChangeLogBundle changeLogBundle = new ChangeLogBundle(masterFile, classpathRoot);
+		changeLogBundle.write(bundleFile);
+
+		assertEquals(3, changeLogBundle.getChangeSets());
+		assertEquals(3, changeLogBundle.getFiles());
+		assertEquals(HEADER + "\t<property name=\"a\" value=\"b\"/>"
+				+ "\n\t<lb:changeSet xmlns:lb=\"http://www.liquibase.org/xml/ns/dbchangelog\" logicalFilePath=\"db/myApp/1.0.xml\" id=\"1\" author=\"john\"/>"
+				+ "\n\t<changeSet logicalFilePath=\"nested.xml\" id=\"2\" author=\"john\"><sql>select 1</sql></changeSet>"
+				+ "\n\t<changeSet logicalFilePath=\"db/master.xml\" id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"/>\n\t</changeSet>\n</databaseChangeLog>\n", read(bundleFile));
+	}
+
+	@Test
+	public void testIncludeCycleIsRejected() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("master.xml"), HEADER + "\t<include file=\"a.xml\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>\n");
+		write(classpathRoot.resolve("a.xml"), HEADER + "\t<include file=\"a.xml\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>\n");
+
+		final Path bundleFile = classpathRoot.resolve("bundle.xml");
+		try
+		{
+			new ChangeLogBundle(masterFile, classpathRoot).write(bundleFile);
+			fail("a.xml includes itself");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().endsWith(" includes itself"));
+		}
+		assertFalse(Files.exists(bundleFile));
+	}
+}
@@ -0,0 +1,226 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.jurr.liquibase.releaseplugin.TestFiles.read;
+import static org.jurr.liquibase.releaseplugin.TestFiles.write;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncludeFileCacheTest
+{
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testWarmRunDoesNotParseUnchangedIncludeFiles() throws IOException
+	{
+		final Path projectDirectory = copyProject("testIncludedFiles");
+		final Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+
+		final LiquibaseProject coldRun = createNewVersion(projectDirectory, cacheDirectory, "1.2.3");
+		assertTrue("The first run should parse the include files", coldRun.getParsedIncludeFiles() > 0);
+		assertTrue(Files.exists(projectDirectory.resolve("component_1.2.3.xml")));
+
+		final LiquibaseProject warmRun = createNewVersion(projectDirectory, cacheDirectory, "1.2.4");
+		assertEquals("The second run should not parse any include file", 0, warmRun.getParsedIncludeFiles());
+		assertFalse(Files.exists(projectDirectory.resolve("component_1.2.4.xml")));
+		assertFalse(Files.exists(projectDirectory.resolve("1.2.4/include_1.2.4.xml")));
+	}
+
+	@Test
+	public void testIncludeFilesOfAFailedRunAreNotParsedAgain() throws IOException
+	{
+		final String sqlHeader = "--liquibase formatted sql\n\n-- Changes for the next release\n";
+		final Path projectDirectory = copyProject("testIncludedFiles", "project");
+		final Path referenceDirectory = copyProject("testIncludedFiles", "reference");
+		final StringBuilder changeSets = new StringBuilder();
+		for (int i = 1; i <= 1000; i++)
+		{
+			// Enough changeSets for the scanner to stop reading before the end of the file
+			changeSets.append("--changeset john:").append(i).append("\nselect ").append(i).append(";\n");
+		}
+		for (final Path directory : Arrays.asList(projectDirectory, referenceDirectory))
+		{
+			write(directory.resolve("script_latest.sql"), sqlHeader + changeSets);
+			write(directory.resolve("master.xml"), read(directory.resolve("master.xml")).replace("</databaseChangeLog>", "\t<include file=\"script_latest.sql\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>"));
+		}
+		final Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+
+		// The include files are parsed, but the run fails on the last one, so they are left untouched
+		final Path conflictingFile = write(projectDirectory.resolve("script_1.2.3.sql"), sqlHeader);
+		final LiquibaseProject failedRun = createProject(projectDirectory, cacheDirectory, "1.2.3");
+		try
+		{
+			failedRun.createNewVersion();
+			fail("The new version of script_latest.sql already exists");
+		}
+		catch (FileAlreadyExistsException e)
+		{
+			// Expected
+		}
+		assertTrue("The failed run should parse the include files", failedRun.getParsedIncludeFiles() > 0);
+		assertTrue(read(projectDirectory.resolve("script_latest.sql")).contains("--changeset"));
+		Files.delete(conflictingFile);
+
+		final LiquibaseProject secondRun = createProject(projectDirectory, cacheDirectory, "1.2.3");
+		secondRun.createNewVersion();
+		assertEquals("The untouched include files should be taken from the cache", 0, secondRun.getParsedIncludeFiles());
+
+		createProject(referenceDirectory, null, "1.2.3").createNewVersion();
+		for (final String file : Arrays.asList("component_latest.xml", "component_1.2.3.xml", "latest/include_latest.xml", "1.2.3/include_1.2.3.xml", "script_latest.sql", "script_1.2.3.sql"))
+		{
+			assertEquals(file, read(referenceDirectory.resolve(file)), read(projectDirectory.resolve(file)));
+		}
+		assertEquals(sqlHeader, read(projectDirectory.resolve("script_latest.sql")));
+	}
+
+	@Test
+	public void testProbedIncludeFilesAreNotProbedAgain() throws IOException
+	{
+		final Path projectDirectory = copyProject("testIncludedFiles");
+		final Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+
+		// Planning only reads the include files up to their first changeSet
+		final LiquibaseProject firstPlan = createProject(projectDirectory, cacheDirectory, "1.2.3");
+		assertEquals(2, firstPlan.createPlan(false).getIncludeFilesToTag());
+		assertTrue("The first plan should probe the include files", firstPlan.getParsedIncludeFiles() > 0);
+
+		final LiquibaseProject secondPlan = createProject(projectDirectory, cacheDirectory, "1.2.3");
+		assertEquals(2, secondPlan.createPlan(false).getIncludeFilesToTag());
+		assertEquals("The second plan should not probe any include file", 0, secondPlan.getParsedIncludeFiles());
+	}
+
+	@Test
+	public void testChangedIncludeFileIsParsedAgain() throws IOException
+	{
+		final Path projectDirectory = copyProject("testIncludedFiles");
+		final Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+
+		createNewVersion(projectDirectory, cacheDirectory, "1.2.3");
+
+		// Put the changeSets back into the 'latest' file
+		Files.copy(projectDirectory.resolve("component_1.2.3.xml"), projectDirectory.resolve("component_latest.xml"), StandardCopyOption.REPLACE_EXISTING);
+
+		final LiquibaseProject secondRun = createNewVersion(projectDirectory, cacheDirectory, "1.2.4");
+		assertTrue("The changed include file should be parsed", secondRun.getParsedIncludeFiles() > 0);
+		assertTrue(Files.exists(projectDirectory.resolve("component_1.2.4.xml")));
+		assertFalse(Files.exists(projectDirectory.resolve("1.2.4/include_1.2.4.xml")));
+	}
+
+	@Test
+	public void testEntriesWrittenWithOtherFormattingAreNotUsed() throws IOException
+	{
+		final Path includeFile = temporaryFolder.newFile("include_latest.xml").toPath();
+		final Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+		new IncludeFileCache(cacheDirectory, false).store(includeFile, true, null);
+
+		assertNotNull(new IncludeFileCache(cacheDirectory, false).lookup(includeFile));
+		assertNull(new IncludeFileCache(cacheDirectory, true).lookup(includeFile));
+	}
+
+	@Test
+	public void testOnlyWhatWasReadIsStored() throws IOException
+	{
+		final Path includeFile = write(temporaryFolder.getRoot().toPath().resolve("include_latest.xml"), "<databaseChangeLog/>");
+		final IncludeFileCache includeFileCache = new IncludeFileCache(temporaryFolder.newFolder("cache").toPath());
+
+		// Changed after it was read; the entry would describe content that was never parsed
+		IncludeFileCache.Snapshot snapshot = includeFileCache.open(includeFile);
+		read(snapshot);
+		write(includeFile, "<databaseChangeLog>\n\t<changeSet id=\"1\" author=\"john\"/>\n</databaseChangeLog>");
+		includeFileCache.store(snapshot, false, null);
+		assertNull(includeFileCache.lookup(includeFile));
+
+		// Not read up to the end, and changed afterwards
+		snapshot = includeFileCache.open(includeFile);
+		snapshot.read();
+		snapshot.close();
+		write(includeFile, "<databaseChangeLog>\n\t<changeSet id=\"2\" author=\"john\"/>\n</databaseChangeLog>");
+		includeFileCache.store(snapshot, true, null);
+		assertNull(includeFileCache.lookup(includeFile));
+
+		// Not read up to the end; the rest is read for the hash
+		snapshot = includeFileCache.open(includeFile);
+		snapshot.read();
+		snapshot.close();
+		includeFileCache.store(snapshot, true, null);
+		assertTrue(includeFileCache.lookup(includeFile).containsChangeSets());
+		write(includeFile, "<databaseChangeLog>\n\t<changeSet id=\"3\" author=\"john\"/>\n</databaseChangeLog>");
+		assertNull(includeFileCache.lookup(includeFile));
+
+		snapshot = includeFileCache.open(includeFile);
+		read(snapshot);
+		includeFileCache.store(snapshot, true, null);
+		assertTrue(includeFileCache.lookup(includeFile).containsChangeSets());
+	}
+
+	@Nonnull
+	private static LiquibaseProject createNewVersion(@Nonnull final Path projectDirectory, @Nonnull final Path cacheDirectory, @Nonnull final String newVersion) throws IOException
+	{
+		final LiquibaseProject liquibaseProject = createProject(projectDirectory, cacheDirectory, newVersion);
+		liquibaseProject.createNewVersion();
+		return liquibaseProject;
+	}
+
+	@Nonnull
+	private static LiquibaseProject createProject(@Nonnull final Path projectDirectory, @CheckForNull final Path cacheDirectory, @Nonnull final String newVersion)
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(newVersion, null, projectDirectory);
+		liquibaseProject.setCacheDirectory(cacheDirectory);
+		liquibaseProject.addMasterFile(new MasterFile(projectDirectory.resolve("master.xml")));
+		return liquibaseProject;
+	}
+
+	@Nonnull
+	private Path copyProject(@Nonnull final String name) throws IOException
+	{
+		return copyProject(name, name);
+	}
+
+	@Nonnull
+	private Path copyProject(@Nonnull final String name, @Nonnull final String folder) throws IOException
+	{
+		final Path source = Paths.get("src", "test", "projects", name);
+		final Path target = temporaryFolder.newFolder(folder).toPath();
+
+		final List<Path> files;
+		try (Stream<Path> stream = Files.walk(source))
+		{
+			files = stream.collect(Collectors.toList());
+		}
+		for (final Path file : files)
+		{
+			final Path targetFile = target.resolve(source.relativize(file).toString());
+			if (Files.isDirectory(file))
+			{
+				Files.createDirectories(targetFile);
+			}
+			else
+			{
+				Files.copy(file, targetFile);
+			}
+		}
+		return target;
+	}
+}
@@ -0,0 +1,147 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+public class JsonChangeLogFormatTest
+{
+	private static final Path PATH = Paths.get("changelog.json");
+
+	@Test
+	public void testChangeSetsAreLeftOut() throws IOException
+	{
+		final String changeLog = "{\n  \"databaseChangeLog\": [\n    {\"changeSet\": {\"id\": \"1\", \"changes\": [{\"sql\": \"select '}'\"}]}},\n    {\"property\": {\"name\": \"a\", \"value\": \"b\"}},\n    {\"changeSet\": {\"id\": \"2\"}},\n    {\"preConditions\": []},\n    {\"changeSet\": {\"id\": \"3\"}}\n  ]\n}\n";
+		assertEquals("{\n  \"databaseChangeLog\": [\n    {\"property\": {\"name\": \"a\", \"value\": \"b\"}},\n    {\"preConditions\": []}\n  ]\n}\n", copyLatestFile(changeLog));
+	}
+
+	@Test
+	public void testOnlyChangeSets() throws IOException
+	{
+		assertEquals("{\"databaseChangeLog\": [\n]}", copyLatestFile("{\"databaseChangeLog\": [\n  {\"changeSet\": {\"id\": \"1\"}},\n  {\"changeSet\": {\"id\": \"2\"}}\n]}"));
+	}
+
+	@Test
+	public void testProbe() throws IOException
+	{
+		assertTrue(JsonChangeLogFormat.INSTANCE.copyLatestFile(PATH, input("{\"databaseChangeLog\": [{\"changeSet\": {}}, {\"changeSet\": }"), null));
+		assertFalse(JsonChangeLogFormat.INSTANCE.copyLatestFile(PATH, input("{\"databaseChangeLog\": [{\"property\": {}}]}"), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidJson() throws IOException
+	{
+		copyLatestFile("{\"databaseChangeLog\": [{\"property\": {}]}");
+	}
+
+	@Test
+	public void testNewVersionIsAddedBeforeIncludesThatAreNotTagged() throws IOException
+	{
+		final String masterFile = "{\n  \"databaseChangeLog\": [\n    {\"include\": {\"file\": \"a_1.0.json\", \"relativeToChangelogFile\": true}},\n    {\"changeSet\": {\"id\": \"Tag 1.0\", \"changes\": [{\"tagDatabase\": {\"tag\": \"1.0\"}}]}},\n    {\"include\": {\"file\": \"a_latest.json\", \"relativeToChangelogFile\": true}}\n  ]\n}\n";
+		final RecordingHandler handler = new RecordingHandler();
+		assertEquals("{\n  \"databaseChangeLog\": [\n    {\"include\": {\"file\": \"a_1.0.json\", \"relativeToChangelogFile\": true}},\n    {\"changeSet\": {\"id\": \"Tag 1.0\", \"changes\": [{\"tagDatabase\": {\"tag\": \"1.0\"}}]}},\n"
+				+ "    {\"include\": {\"file\": \"a_2.0.json\", \"relativeToChangelogFile\": true}},\n    {\"changeSet\": {\"id\": \"Tag 2.0\", \"author\": \"me\", \"changes\": [{\"tagDatabase\": {\"tag\": \"2.0\"}}]}},\n"
+				+ "    {\"include\": {\"file\": \"a_latest.json\", \"relativeToChangelogFile\": true}}\n  ]\n}\n", rewriteMasterFile(masterFile, handler));
+		assertEquals(Arrays.asList("a_1.0.json|true", "1.0", "a_latest.json|true"), handler.events);
+	}
+
+	@Test
+	public void testNewVersionIsAddedAtTheEnd() throws IOException
+	{
+		assertEquals("{\"databaseChangeLog\": [{\"include\": {\"file\": \"a_latest.json\"}}, {\"changeSet\": {\"changes\": [{\"tagDatabase\": {\"tag\": \"1.0\"}}]}}, {\"changeSet\": {\"id\": \"Tag 2.0\", \"author\": \"me\", \"changes\": [{\"tagDatabase\": {\"tag\": \"2.0\"}}]}}]}",
+				rewriteMasterFile("{\"databaseChangeLog\": [{\"include\": {\"file\": \"a_latest.json\"}}, {\"changeSet\": {\"changes\": [{\"tagDatabase\": {\"tag\": \"1.0\"}}]}}]}", new RecordingHandler()));
+		assertEquals("{\"databaseChangeLog\": [{\"changeSet\": {\"id\": \"Tag 2.0\", \"author\": \"me\", \"changes\": [{\"tagDatabase\": {\"tag\": \"2.0\"}}]}}]}", rewriteMasterFile("{\"databaseChangeLog\": []}", new RecordingHandler()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEntryInMasterFile() throws IOException
+	{
+		rewriteMasterFile("{\"databaseChangeLog\": [{\"includeAll\": {\"path\": \"a\"}}]}", new RecordingHandler());
+	}
+
+	@Nonnull
+	private static String copyLatestFile(@Nonnull final String changeLog) throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		JsonChangeLogFormat.INSTANCE.copyLatestFile(PATH, input(changeLog), output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Nonnull
+	static String rewriteMasterFile(@Nonnull final ChangeLogFormat format, @Nonnull final String masterFile, @Nonnull final ChangeLogFormat.MasterFileHandler handler) throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		format.rewriteMasterFile(PATH, input(masterFile), input(masterFile), output, handler);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Nonnull
+	private static String rewriteMasterFile(@Nonnull final String masterFile, @Nonnull final ChangeLogFormat.MasterFileHandler handler) throws IOException
+	{
+		return rewriteMasterFile(JsonChangeLogFormat.INSTANCE, masterFile, handler);
+	}
+
+	@Nonnull
+	private static InputStream input(@Nonnull final String content)
+	{
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Remembers the includes and tags it is given, and tags every include that was found after the last tag as version 2.0.
+	 */
+	static class RecordingHandler implements ChangeLogFormat.MasterFileHandler
+	{
+		final List<String> events = new ArrayList<>();
+		private final List<String> untagged = new ArrayList<>();
+
+		@Override
+		public void include(@Nonnull final Map<String, String> attributes)
+		{
+			events.add(String.join("|", attributes.values()));
+			untagged.add(attributes.get("file"));
+		}
+
+		@Override
+		public void tagDatabase(@Nonnull final String tag)
+		{
+			events.add(tag);
+			untagged.clear();
+		}
+
+		@Nonnull
+		@Override
+		public ChangeLogFormat.NewVersion getNewVersion()
+		{
+			final List<Map<String, String>> includes = new ArrayList<>();
+			for (final String file : untagged)
+			{
+				final Map<String, String> include = new LinkedHashMap<>();
+				include.put("file", file.replace("latest", "2.0"));
+				include.put("relativeToChangelogFile", "true");
+				includes.add(include);
+			}
+			final Map<String, String> changeSet = new LinkedHashMap<>();
+			changeSet.put("id", "Tag 2.0");
+			changeSet.put("author", "me");
+			return new ChangeLogFormat.NewVersion("Version 2.0", includes, changeSet, "2.0");
+		}
+	}
+}
@@ -0,0 +1,549 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+import org.jurr.liquibase.releaseplugin.PerformanceReport;
+import org.jurr.liquibase.releaseplugin.PerformanceReport.Phase;
+import org.jurr.liquibase.releaseplugin.context.ChangeSetIndex.ChangeSetLocation;
+import org.jurr.liquibase.releaseplugin.exceptions.VersionAlreadyTaggedException;
+
+public class LiquibaseProjectTest
+{
+	private static final String HEADER = "<?xml version=\"1.0\"?>\n<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+	private static final String FOOTER = "</databaseChangeLog>\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testMasterFilesAreOrderedByPath() throws IOException
+	{
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, temporaryFolder.getRoot().toPath());
+		liquibaseProject.addMasterFile(new MasterFile(createMasterFile("c.xml", "")));
+		liquibaseProject.addMasterFile(new MasterFile(createMasterFile("a.xml", "")));
+		liquibaseProject.addMasterFile(new MasterFile(createMasterFile("b.xml", "")));
+
+		final List<String> fileNames = new ArrayList<>();
+		for (final MasterFile masterFile : liquibaseProject.getMasterFiles())
+		{
+			fileNames.add(masterFile.getPath().getFileName().toString());
+		}
+		assertEquals(Arrays.asList("a.xml", "b.xml", "c.xml"), fileNames);
+	}
+
+	@Test
+	public void testErrorOfFirstMasterFileIsReported() throws IOException
+	{
+		final String alreadyTagged = "\t<changeSet id=\"Tag 1.2.3\" author=\"test\">\n\t\t<tagDatabase tag=\"1.2.3\"/>\n\t</changeSet>\n";
+
+		// Master files are read in parallel; whichever fails first, the error about master_5.xml should be thrown
+		for (int attempt = 0; attempt < 5; attempt++)
+		{
+			final Path directory = temporaryFolder.newFolder("attempt_" + attempt).toPath();
+			final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+			liquibaseProject.setThreads(4);
+			for (int i = 9; i >= 0; i--)
+			{
+				liquibaseProject.addMasterFile(new MasterFile(createMasterFile(directory.resolve("master_" + i + ".xml"), i < 5 ? "" : alreadyTagged)));
+			}
+
+			try
+			{
+				liquibaseProject.createNewVersion();
+				fail("Version 1.2.3 is already tagged in some of the master files");
+			}
+			catch (VersionAlreadyTaggedException e)
+			{
+				assertEquals(new VersionAlreadyTaggedException("1.2.3", directory.resolve("master_5.xml")), e);
+			}
+		}
+	}
+
+	@Test
+	public void testNothingIsChangedWhenAMasterFileFails() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final Path includeFile = createMasterFile("include_latest.xml", "\t<changeSet id=\"1\" author=\"test\"/>\n");
+		final Path masterFile = createMasterFile("a.xml", "\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		final byte[] includeFileContent = Files.readAllBytes(includeFile);
+		final byte[] masterFileContent = Files.readAllBytes(masterFile);
+		createMasterFile("b.xml", "\t<changeSet id=\"Tag 1.2.3\" author=\"test\">\n\t\t<tagDatabase tag=\"1.2.3\"/>\n\t</changeSet>\n");
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.addMasterFile(new MasterFile(directory.resolve("b.xml")));
+		try
+		{
+			liquibaseProject.createNewVersion();
+			fail("Version 1.2.3 is already tagged in b.xml");
+		}
+		catch (VersionAlreadyTaggedException e)
+		{
+			// Expected
+		}
+
+		assertArrayEquals(masterFileContent, Files.readAllBytes(masterFile));
+		assertArrayEquals(includeFileContent, Files.readAllBytes(includeFile));
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals("No files should be added", 3, files.count());
+		}
+	}
+
+	@Test
+	public void testPlanDoesNotChangeAnything() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		createMasterFile("include_latest.xml", "\t<changeSet id=\"1\" author=\"test\"/>\n");
+		createMasterFile("empty_latest.xml", "");
+		createMasterFile("skipped_latest.xml", "\t<changeSet id=\"2\" author=\"test\"/>\n");
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"empty_latest.xml\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<include file=\"skipped_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		final byte[] masterFileContent = Files.readAllBytes(masterFile);
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.addIncludeFileToSkipTagging(directory.resolve("skipped_latest.xml"));
+		final ReleasePlan releasePlan = liquibaseProject.createPlan(true);
+
+		assertEquals(1, releasePlan.getMasterFiles().size());
+		final ReleasePlan.MasterFileEntry masterFileEntry = releasePlan.getMasterFiles().get(0);
+		assertEquals(Arrays.asList("include_1.2.3.xml"), masterFileEntry.getNewIncludes());
+		assertEquals("Tag 1.2.3", masterFileEntry.getTagChangeSetId());
+
+		assertEquals(1, releasePlan.getIncludeFilesToTag());
+		final List<String> includeFiles = new ArrayList<>();
+		for (final ReleasePlan.IncludeFileEntry includeFileEntry : releasePlan.getIncludeFiles())
+		{
+			includeFiles.add(includeFileEntry.getPath().getFileName() + " " + includeFileEntry.isSkipped() + " " + includeFileEntry.willBeTagged() + " " + includeFileEntry.getNewVersionPath());
+		}
+		assertEquals(Arrays.asList("empty_latest.xml false false null", "include_latest.xml false true " + directory.resolve("include_1.2.3.xml"), "skipped_latest.xml true false null"), includeFiles);
+
+		// Only the files that would be tagged are looked at, and only up to their first changeSet
+		assertEquals(2, liquibaseProject.getParsedIncludeFiles());
+		assertArrayEquals(masterFileContent, Files.readAllBytes(masterFile));
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals("No files should be added", 4, files.count());
+		}
+
+		final StringWriter json = new StringWriter();
+		releasePlan.writeJson(json, directory);
+		assertEquals("{\n\t\"newVersion\": \"1.2.3\",\n\t\"context\": null,\n\t\"masterFiles\": [\n\t\t{\n\t\t\t\"path\": \"master.xml\",\n\t\t\t\"newIncludes\": [\n\t\t\t\t\"include_1.2.3.xml\"\n\t\t\t],\n"
+				+ "\t\t\t\"tagChangeSetId\": \"Tag 1.2.3\"\n\t\t}\n\t],\n\t\"includeFiles\": [\n"
+				+ "\t\t{\n\t\t\t\"path\": \"empty_latest.xml\",\n\t\t\t\"skipped\": false,\n\t\t\t\"willBeTagged\": false\n\t\t},\n"
+				+ "\t\t{\n\t\t\t\"path\": \"include_latest.xml\",\n\t\t\t\"skipped\": false,\n\t\t\t\"willBeTagged\": true,\n\t\t\t\"newVersionPath\": \"include_1.2.3.xml\",\n\t\t\t\"newVersionPathExists\": false\n\t\t},\n"
+				+ "\t\t{\n\t\t\t\"path\": \"skipped_latest.xml\",\n\t\t\t\"skipped\": true,\n\t\t\t\"willBeTagged\": false\n\t\t}\n\t]\n}\n", json.toString());
+	}
+
+	@Test
+	public void testIncludeFilesWithoutChangeSetsAreOnlyProbed() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final Path includeFile = createMasterFile("include_latest.xml", "\t<!-- Keep me -->\n\t<changeSet id=\"1\" author=\"test\"/>\n");
+		final Path emptyFile = createMasterFile("empty_latest.xml", "\t<!-- Nothing to release yet -->\n");
+		final byte[] emptyFileContent = Files.readAllBytes(emptyFile);
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"empty_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		final long bytesToParse = Files.size(masterFile) + Files.size(includeFile);
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.setPerformanceReport(new PerformanceReport());
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		// Both include files are probed, but only the one with changeSets is parsed again to create its latest file
+		final Map<Phase, PerformanceReport.Totals> totalsPerPhase = liquibaseProject.getPerformanceReport().getTotalsPerPhase();
+		assertEquals(2, totalsPerPhase.get(Phase.PROBE).getOperations());
+		assertEquals("The master file and include_latest.xml are parsed", 2, totalsPerPhase.get(Phase.PARSE).getOperations());
+		assertEquals(bytesToParse, totalsPerPhase.get(Phase.PARSE).getBytesRead());
+		assertEquals(3, liquibaseProject.getParsedIncludeFiles());
+
+		assertArrayEquals(emptyFileContent, Files.readAllBytes(emptyFile));
+		assertFalse(Files.exists(directory.resolve("empty_1.2.3.xml")));
+		final String latestContent = new String(Files.readAllBytes(includeFile), Charset.defaultCharset());
+		assertTrue(latestContent, latestContent.contains("<!-- Keep me -->"));
+		assertFalse(latestContent, latestContent.contains("<changeSet"));
+		assertTrue(new String(Files.readAllBytes(directory.resolve("include_1.2.3.xml")), Charset.defaultCharset()).contains("<changeSet id=\"1\""));
+	}
+
+	@Test
+	public void testPlannedContentIsWhatIsWritten() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		createMasterFile("include_latest.xml", "\t<changeSet id=\"1\" author=\"test\"/>\n");
+		final Path masterFile = createMasterFile("master.xml", "\t<!-- Comment -->\n\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\" context=\"test\"/>\n");
+
+		final LiquibaseProject planningProject = new LiquibaseProject("1.2.3", "release", directory);
+		planningProject.addMasterFile(new MasterFile(masterFile));
+		final ReleasePlan.MasterFileEntry masterFileEntry = planningProject.createPlan(true).getMasterFiles().get(0);
+		assertEquals(new String(Files.readAllBytes(masterFile), StandardCharsets.UTF_8), masterFileEntry.getOldContent());
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", "release", directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+		assertEquals(new String(Files.readAllBytes(masterFile), StandardCharsets.UTF_8), masterFileEntry.getNewContent());
+	}
+
+	@Test
+	public void testPerformanceReport() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		createMasterFile("include_latest.xml", "\t<changeSet id=\"1\" author=\"test\"/>\n");
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		final long bytesToRead = Files.size(masterFile) + Files.size(directory.resolve("include_latest.xml"));
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.setPerformanceReport(new PerformanceReport());
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		final Map<Phase, PerformanceReport.Totals> totalsPerPhase = liquibaseProject.getPerformanceReport().getTotalsPerPhase();
+		assertEquals(Arrays.asList(Phase.PROBE, Phase.PARSE, Phase.STAGE, Phase.SYNC, Phase.MOVE), new ArrayList<>(totalsPerPhase.keySet()));
+		assertEquals("Both files are parsed", 2, totalsPerPhase.get(Phase.PARSE).getOperations());
+		assertEquals(bytesToRead, totalsPerPhase.get(Phase.PARSE).getBytesRead());
+		assertEquals(Files.size(masterFile) + Files.size(directory.resolve("include_latest.xml")), totalsPerPhase.get(Phase.STAGE).getBytesWritten());
+		assertEquals("The master file is moved out of the way and replaced, the include file is moved, and its new content is moved in place", 4, totalsPerPhase.get(Phase.MOVE).getOperations());
+	}
+
+	@Test
+	public void testFormattedSqlIncludeFiles() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final String header = "--liquibase formatted sql\n\n-- Changes for the next release\n";
+		final String content = header + "--changeset john:1\ncreate table a (id int);\n";
+		Files.write(directory.resolve("include_latest.sql"), content.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("empty_latest.sql"), header.getBytes(StandardCharsets.UTF_8));
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"include_latest.sql\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"empty_latest.sql\" relativeToChangelogFile=\"true\"/>\n");
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		assertEquals(content, new String(Files.readAllBytes(directory.resolve("include_1.2.3.sql")), StandardCharsets.UTF_8));
+		assertEquals(header, new String(Files.readAllBytes(directory.resolve("include_latest.sql")), StandardCharsets.UTF_8));
+		assertEquals(header, new String(Files.readAllBytes(directory.resolve("empty_latest.sql")), StandardCharsets.UTF_8));
+		assertFalse(Files.exists(directory.resolve("empty_1.2.3.sql")));
+		final String master = new String(Files.readAllBytes(masterFile), StandardCharsets.UTF_8);
+		assertTrue(master, master.contains("<include file=\"include_1.2.3.sql\" relativeToChangelogFile=\"true\"></include>"));
+	}
+
+	@Test
+	public void testMasterFilesOfModulesWithTheirOwnClasspathRoot() throws IOException
+	{
+		final String include = HEADER + "\t<changeSet id=\"1\" author=\"john\">\n\t\t<sql>select 1</sql>\n\t</changeSet>\n" + FOOTER;
+		final Path projectDirectory = temporaryFolder.getRoot().toPath();
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, projectDirectory);
+		for (final String module : Arrays.asList("module_a", "module_b"))
+		{
+			final Path classpathRoot = Files.createDirectories(projectDirectory.resolve(module).resolve("resources"));
+			Files.write(classpathRoot.resolve("include_latest.xml"), include.getBytes(StandardCharsets.UTF_8));
+			final Path masterFile = createMasterFile(classpathRoot.resolve("master.xml"), "\t<include file=\"include_latest.xml\"/>\n");
+			liquibaseProject.addMasterFile(new MasterFile(masterFile, classpathRoot));
+		}
+		liquibaseProject.createNewVersion();
+
+		for (final String module : Arrays.asList("module_a", "module_b"))
+		{
+			final Path classpathRoot = projectDirectory.resolve(module).resolve("resources");
+			assertTrue(module, Files.exists(classpathRoot.resolve("include_1.2.3.xml")));
+			final String master = new String(Files.readAllBytes(classpathRoot.resolve("master.xml")), StandardCharsets.UTF_8);
+			assertTrue(master, master.contains("<include file=\"include_1.2.3.xml\" relativeToChangelogFile=\"true\"></include>"));
+		}
+		assertFalse(Files.exists(projectDirectory.resolve("include_1.2.3.xml")));
+	}
+
+	@Test
+	public void testPreserveFormatting() throws IOException
+	{
+		final String header = "<?xml version='1.0'?>\r\n<!-- <changeSet> in a comment -->\r\n<databaseChangeLog\r\n\txmlns='http://www.liquibase.org/xml/ns/dbchangelog'>\r\n";
+		final String kept = "  <property name=\"a\" value='&lt;b&gt;'/>\r\n\r\n";
+		final String content = header + "  <changeSet id=\"1\" author=\"john\">\r\n    <sql><![CDATA[select '</changeSet>']]></sql>\r\n  </changeSet>\r\n" + kept
+				+ "  <property name=\"b\" value=\"c\"/><changeSet id=\"2\" author=\"john\"/>\r\n</databaseChangeLog>";
+		final Path directory = temporaryFolder.getRoot().toPath();
+		Files.write(directory.resolve("include_latest.xml"), content.getBytes(StandardCharsets.UTF_8));
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"include_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.setPreserveFormatting(true);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		assertEquals(content, new String(Files.readAllBytes(directory.resolve("include_1.2.3.xml")), StandardCharsets.UTF_8));
+		assertEquals(header + kept + "  <property name=\"b\" value=\"c\"/>\r\n</databaseChangeLog>", new String(Files.readAllBytes(directory.resolve("include_latest.xml")), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testYamlAndJsonChangeLogs() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final String yamlInclude = "databaseChangeLog:\n  - property:\n      name: a\n      value: b\n  - changeSet:\n      id: 1\n      author: john\n      changes:\n        - sql: select 1\n";
+		final String jsonInclude = "{\"databaseChangeLog\": [\n  {\"changeSet\": {\"id\": \"1\", \"author\": \"john\", \"changes\": [{\"sql\": {\"sql\": \"select 1\"}}]}}\n]}\n";
+		Files.write(directory.resolve("yaml_latest.yaml"), yamlInclude.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("json_latest.json"), jsonInclude.getBytes(StandardCharsets.UTF_8));
+		final Path masterFile = directory.resolve("master.yml");
+		final String master = "databaseChangeLog:\n  # Everything that is not released yet\n  - include:\n      file: yaml_latest.yaml\n      relativeToChangelogFile: true\n  - include:\n      file: json_latest.json\n      relativeToChangelogFile: true\n";
+		Files.write(masterFile, master.getBytes(StandardCharsets.UTF_8));
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		assertEquals(yamlInclude, new String(Files.readAllBytes(directory.resolve("yaml_1.2.3.yaml")), StandardCharsets.UTF_8));
+		assertEquals("databaseChangeLog:\n  - property:\n      name: a\n      value: b\n", new String(Files.readAllBytes(directory.resolve("yaml_latest.yaml")), StandardCharsets.UTF_8));
+		assertEquals(jsonInclude, new String(Files.readAllBytes(directory.resolve("json_1.2.3.json")), StandardCharsets.UTF_8));
+		assertEquals("{\"databaseChangeLog\": [\n]}\n", new String(Files.readAllBytes(directory.resolve("json_latest.json")), StandardCharsets.UTF_8));
+		assertEquals("databaseChangeLog:\n  # Everything that is not released yet\n  # Version 1.2.3\n  - include:\n      file: yaml_1.2.3.yaml\n      relativeToChangelogFile: true\n  - include:\n      file: json_1.2.3.json\n      relativeToChangelogFile: true\n"
+				+ "  - changeSet:\n      id: Tag 1.2.3\n      author: liquibase-db-release\n      changes:\n        - tagDatabase:\n            tag: 1.2.3\n\n" + master.substring(master.indexOf("  - include:")), new String(Files.readAllBytes(masterFile), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testChecksumManifest() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final String changeSet = "<changeSet id=\"2\" author=\"john\">\n\t\t<sql>select 2</sql>\n\t</changeSet>";
+		final String xmlInclude = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n\t<changeSet id=\"1\" author=\"john\"/>\n\t" + changeSet + "\n</databaseChangeLog>";
+		Files.write(directory.resolve("xml_latest.xml"), xmlInclude.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("yaml_latest.yaml"), "databaseChangeLog:\n  - changeSet:\n      id: 1\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("empty_latest.xml"), "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\"/>".getBytes(StandardCharsets.UTF_8));
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"xml_latest.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"empty_latest.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"yaml_latest.yaml\" relativeToChangelogFile=\"true\"/>\n");
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.setThreads(2);
+		liquibaseProject.setPerformanceReport(new PerformanceReport());
+		liquibaseProject.setWritingChecksumManifests(true);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+
+		final Path manifestFile = directory.resolve("master-1.2.3.checksums.json");
+		assertEquals(Arrays.asList(manifestFile), ChecksumManifest.find(masterFile));
+		final String manifest = new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8);
+		assertTrue(manifest.contains("\"path\": \"xml_1.2.3.xml\""));
+		assertTrue(manifest.contains("\"path\": \"yaml_1.2.3.yaml\""));
+		assertFalse(manifest.contains("empty_"));
+		assertTrue(manifest.contains("\"id\": \"2\",\n\t\t\t\t\t\"author\": \"john\",\n\t\t\t\t\t\"checksum\": \"" + sha256(changeSet) + "\""));
+		assertTrue(manifest.contains("\"checksum\": \"" + sha256(xmlInclude) + "\""));
+		assertNull("The checksums are computed while the include files are read", liquibaseProject.getPerformanceReport().getTotalsPerPhase().get(Phase.CHECKSUM));
+		assertEquals(new ArrayList<String>(), ChecksumManifest.verify(manifestFile));
+
+		Files.write(directory.resolve("xml_1.2.3.xml"), xmlInclude.replace("select 2", "select 3").getBytes(StandardCharsets.UTF_8));
+		Files.delete(directory.resolve("yaml_1.2.3.yaml"));
+		assertEquals(Arrays.asList("File xml_1.2.3.xml changed after it was tagged in master-1.2.3.checksums.json", "  changeSet '2' by 'john' changed",
+				"File yaml_1.2.3.yaml of master-1.2.3.checksums.json is missing"), ChecksumManifest.verify(manifestFile));
+	}
+
+	@Test
+	public void testVersionIndexAndSinceVersionMasterFile() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		for (final String version : Arrays.asList("1.0", "1.1"))
+		{
+			Files.write(directory.resolve("latest.xml"), ("<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n\t<changeSet id=\"" + version + "\" author=\"john\"/>\n</databaseChangeLog>")
+					.getBytes(StandardCharsets.UTF_8));
+			final LiquibaseProject liquibaseProject = new LiquibaseProject(version, null, directory);
+			liquibaseProject.setWritingVersionIndexes(true);
+			liquibaseProject.addMasterFile(new MasterFile(masterFile));
+			liquibaseProject.createNewVersion();
+		}
+
+		final String content = new String(Files.readAllBytes(masterFile), Charset.defaultCharset());
+		final int tag10 = content.lastIndexOf("<changeSet", content.indexOf("<tagDatabase tag=\"1.0\""));
+		final int tag11 = content.lastIndexOf("<changeSet", content.indexOf("<tagDatabase tag=\"1.1\""));
+		final int tag10End = content.indexOf("</changeSet>", tag10) + "</changeSet>".length();
+		final String index = new String(Files.readAllBytes(VersionIndex.getPath(masterFile)), StandardCharsets.UTF_8);
+		assertEquals(directory.resolve("master.versions.json"), VersionIndex.getPath(masterFile));
+		assertTrue(index, index.contains("\"size\": " + content.length()));
+		assertTrue(index, index.contains("\"tag\": \"1.0\",\n\t\t\t\"offset\": " + tag10 + ",\n\t\t\t\"end\": " + tag10End + ",\n\t\t\t\"includes\": [\n\t\t\t\t{\n\t\t\t\t\t\"file\": \"1.1.xml\""));
+		assertTrue(index, index.contains("\"tag\": \"1.1\",\n\t\t\t\"offset\": " + tag11 + ","));
+		assertTrue(index, index.contains("\"file\": \"latest.xml\",\n\t\t\t\t\t\"relativeToChangelogFile\": true"));
+
+		final FileTransaction fileTransaction = new FileTransaction(null);
+		final SinceVersionMasterFile sinceVersionMasterFile = new SinceVersionMasterFile(masterFile, directory, "1.0");
+		sinceVersionMasterFile.stage(fileTransaction);
+		fileTransaction.commit();
+		assertEquals(directory.resolve("master-since-1.0.xml"), sinceVersionMasterFile.getPath());
+		assertEquals(1, sinceVersionMasterFile.getSkippedVersions());
+		assertEquals(HEADER.replace("<databaseChangeLog", "<databaseChangeLog logicalFilePath=\"master.xml\"").trim() + content.substring(tag10End),
+				new String(Files.readAllBytes(sinceVersionMasterFile.getPath()), Charset.defaultCharset()));
+	}
+
+	@Test
+	public void testChangeSetIndex() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		final Path masterFile = createMasterFile("master.xml", "\t<include file=\"latest.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"other_latest.xml\" relativeToChangelogFile=\"true\"/>\n");
+		tagWithChangeSetIndex(masterFile, "1.0", "\t<changeSet id=\"a\" author=\"john\"/>\n", "");
+
+		// The same id and author in another file is another changeSet
+		tagWithChangeSetIndex(masterFile, "1.1", "\t<changeSet id=\"b\" author=\"john\"/>\n", "\t<changeSet id=\"a\" author=\"john\"/>\n");
+
+		// Copied back from 1.0.xml, it would be run again as a changeSet of 1.2.xml
+		final byte[] content = Files.readAllBytes(masterFile);
+		try
+		{
+			tagWithChangeSetIndex(masterFile, "1.2", "\t<changeSet id=\"a\" author=\"john\"/>\n", "");
+			fail("ChangeSet a by john was released in 1.0.xml before");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals("ChangeSet 'a' by 'john' in 1.2.xml was already released in version 1.0 in file 1.0.xml; as it is in another file now, Liquibase would run it again",
+					e.getMessage());
+		}
+		assertArrayEquals(content, Files.readAllBytes(masterFile));
+
+		try
+		{
+			tagWithChangeSetIndex(masterFile, "1.2", "\t<changeSet id=\"a\" author=\"john\" logicalFilePath=\"1.0.xml\"/>\n", "");
+			fail("ChangeSet a by john in 1.0.xml was released before");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals("ChangeSet 'a' by 'john' in 1.2.xml was already released in version 1.0 in file 1.0.xml", e.getMessage());
+		}
+		assertArrayEquals(content, Files.readAllBytes(masterFile));
+
+		final Path indexFile = ChangeSetIndex.getPath(masterFile);
+		assertEquals(directory.resolve("master.changesets.idx"), indexFile);
+		final ChangeSetIndex index = ChangeSetIndex.read(indexFile);
+		assertEquals(3, index.size());
+		final List<ChangeSetLocation> changeSets = index.find("b", null);
+		assertEquals(1, changeSets.size());
+		assertEquals("1.1", changeSets.get(0).getVersion());
+		assertEquals("1.1.xml", changeSets.get(0).getFile());
+		assertEquals("1.1.xml", changeSets.get(0).getPath());
+		assertEquals("1.0", index.get("a", "john", "1.0.xml").getVersion());
+		final List<String> files = new ArrayList<>();
+		for (final ChangeSetLocation changeSet : index.find("a", "john"))
+		{
+			files.add(changeSet.getFile());
+		}
+		assertEquals(Arrays.asList("1.0.xml", "other_1.1.xml"), files);
+		assertEquals(2, index.find("a", null).size());
+		assertTrue(index.find("a", "jane").isEmpty());
+
+		// The index that was appended to is the same as the one that is built from scratch
+		final ByteArrayOutputStream builtIndex = new ByteArrayOutputStream();
+		ChangeSetIndex.build(masterFile, directory).write(builtIndex, null);
+		assertArrayEquals(builtIndex.toByteArray(), Files.readAllBytes(indexFile));
+	}
+
+	private void tagWithChangeSetIndex(@Nonnull final Path masterFile, @Nonnull final String version, @Nonnull final String latestChangeSets,
+			@Nonnull final String otherChangeSets) throws IOException
+	{
+		createMasterFile(masterFile.resolveSibling("latest.xml"), latestChangeSets);
+		createMasterFile(masterFile.resolveSibling("other_latest.xml"), otherChangeSets);
+		final LiquibaseProject liquibaseProject = new LiquibaseProject(version, null, masterFile.getParent());
+		liquibaseProject.setWritingChangeSetIndexes(true);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		liquibaseProject.createNewVersion();
+	}
+
+	@Test
+	public void testIncludeAll() throws IOException
+	{
+		for (final int threads : Arrays.asList(1, 4))
+		{
+			final Path directory = temporaryFolder.newFolder("threads_" + threads).toPath();
+			final Path latest = Files.createDirectories(directory.resolve("changes/latest/a"));
+			createMasterFile(latest.resolve("z.xml"), "\t<changeSet id=\"z\" author=\"test\"/>\n");
+			createMasterFile(latest.resolveSibling("b.xml"), "\t<changeSet id=\"b\" author=\"test\"/>\n");
+			createMasterFile(latest.resolveSibling("a.xml"), "\t<changeSet id=\"a\" author=\"test\"/>\n");
+			createMasterFile(latest.resolveSibling("empty.xml"), "");
+			Files.write(latest.resolveSibling("readme.txt"), "Not a changelog".getBytes(StandardCharsets.UTF_8));
+			final Path masterFile = createMasterFile(directory.resolve("master.xml"), "\t<includeAll path=\"changes/latest/\" relativeToChangelogFile=\"true\" context=\"test\"/>\n");
+
+			final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+			liquibaseProject.setThreads(threads);
+			liquibaseProject.addMasterFile(new MasterFile(masterFile));
+			liquibaseProject.createNewVersion();
+
+			// Liquibase orders on the whole path, so a.xml comes before a/z.xml
+			final String master = new String(Files.readAllBytes(masterFile), Charset.defaultCharset());
+			final String includes = "\t<include file=\"changes/1.2.3/a.xml\" context=\"test\" relativeToChangelogFile=\"true\"></include>\n"
+					+ "\t<include file=\"changes/1.2.3/a/z.xml\" context=\"test\" relativeToChangelogFile=\"true\"></include>\n"
+					+ "\t<include file=\"changes/1.2.3/b.xml\" context=\"test\" relativeToChangelogFile=\"true\"></include>\n\t<changeSet";
+			assertTrue(master, master.contains(includes));
+			assertTrue(master, master.contains("<includeAll path=\"changes/latest/\" context=\"test\" relativeToChangelogFile=\"true\"></includeAll>"));
+			assertTrue(Files.exists(directory.resolve("changes/1.2.3/a/z.xml")));
+			assertFalse(Files.exists(directory.resolve("changes/1.2.3/empty.xml")));
+			assertFalse(new String(Files.readAllBytes(latest.resolve("z.xml")), StandardCharsets.UTF_8).contains("<changeSet"));
+		}
+	}
+
+	@Test
+	public void testIncludeAllOutsideOfALatestDirectory() throws IOException
+	{
+		final Path directory = temporaryFolder.getRoot().toPath();
+		createMasterFile(Files.createDirectories(directory.resolve("changes")).resolve("a.xml"), "\t<changeSet id=\"a\" author=\"test\"/>\n");
+		final Path masterFile = createMasterFile("master.xml", "\t<includeAll path=\"changes/\" relativeToChangelogFile=\"true\"/>\n");
+
+		final LiquibaseProject liquibaseProject = new LiquibaseProject("1.2.3", null, directory);
+		liquibaseProject.addMasterFile(new MasterFile(masterFile));
+		try
+		{
+			liquibaseProject.createNewVersion();
+			fail("The new versions would be written in the directory of the includeAll");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("does not contain 'latest'"));
+		}
+	}
+
+	@Nonnull
+	private static String sha256(@Nonnull final String content)
+	{
+		try
+		{
+			final StringBuilder result = new StringBuilder();
+			for (final byte b : MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)))
+			{
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Nonnull
+	private Path createMasterFile(@Nonnull final String name, @Nonnull final String content) throws IOException
+	{
+		return createMasterFile(temporaryFolder.getRoot().toPath().resolve(name), content);
+	}
+
+	@Nonnull
+	private static Path createMasterFile(@Nonnull final Path masterFile, @Nonnull final String content) throws IOException
+	{
+		Files.write(masterFile, (HEADER + content + FOOTER).getBytes(Charset.defaultCharset()));
+		return masterFile;
+	}
+}
@@ -0,0 +1,183 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.jurr.liquibase.releaseplugin.TestFiles.read;
+import static org.jurr.liquibase.releaseplugin.TestFiles.write;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jurr.liquibase.releaseplugin.ChangeLogArchive;
+import org.jurr.liquibase.releaseplugin.ChangeLogArchiveResources;
+import org.jurr.liquibase.releaseplugin.FileTransaction;
+
+public class VersionArchiveTest
+{
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n";
+	private static final String VERSION_1_0 = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\">\n\t<changeSet id=\"1\" author=\"john\"/>\n</databaseChangeLog>\n";
+	private static final String VERSION_1_1 = "<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" logicalFilePath=\"old.xml\">\n\t<changeSet id=\"2\" author=\"john\"/>\n</databaseChangeLog>\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testTaggedVersionsArePacked() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("db/master.xml"), HEADER + "\t<include file=\"myApp/1.0.xml\" relativeToChangelogFile=\"true\" context=\"a\"></include>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"></tagDatabase>\n\t</changeSet>\n"
+				+ "\t<include file=\"db/myApp/1.1.xml\"/>\n\t<include file=\"myApp/1.1.sql\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.1\" author=\"john\">\n\t\t<tagDatabase tag=\"1.1\"></tagDatabase>\n\t</changeSet>\n"
+				+ "\t<include file=\"myApp/latest.xml\" relativeToChangelogFile=\"true\"></include>\n</databaseChangeLog>\n");
+		write(classpathRoot.resolve("db/myApp/1.0.xml"), VERSION_1_0);
+		write(classpathRoot.resolve("db/myApp/1.1.xml"), VERSION_1_1);
+		write(classpathRoot.resolve("db/myApp/1.1.sql"), "--liquibase formatted sql\n");
+
+		final VersionArchive versionArchive = pack(masterFile, classpathRoot, null);
+
+		final Path archiveFile = classpathRoot.resolve("db/master-versions-1.1.zip");
+		assertEquals(archiveFile, versionArchive.getPath());
+		assertEquals(2, versionArchive.getPackedVersions());
+		assertEquals(2, versionArchive.getPackedFiles());
+		assertEquals(HEADER + "\t<include file=\"master-versions-1.1.zip!/db/myApp/1.0.xml\" relativeToChangelogFile=\"true\" context=\"a\"></include>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"></tagDatabase>\n\t</changeSet>\n"
+				+ "\t<include file=\"master-versions-1.1.zip!/db/myApp/1.1.xml\" relativeToChangelogFile=\"true\"></include>\n\t<include file=\"myApp/1.1.sql\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.1\" author=\"john\">\n\t\t<tagDatabase tag=\"1.1\"></tagDatabase>\n\t</changeSet>\n"
+				+ "\t<include file=\"myApp/latest.xml\" relativeToChangelogFile=\"true\"></include>\n</databaseChangeLog>\n", read(masterFile));
+
+		final String packedVersion10 = VERSION_1_0.replace("<databaseChangeLog", "<databaseChangeLog logicalFilePath=\"db/myApp/1.0.xml\"");
+		try (ChangeLogArchive archive = ChangeLogArchive.open(archiveFile))
+		{
+			assertEquals(packedVersion10, read(archive.openEntry("db/myApp/1.0.xml")));
+			assertEquals(VERSION_1_1, read(archive.openEntry("db/myApp/1.1.xml")));
+			assertNull(archive.openEntry("db/myApp/1.1.sql"));
+		}
+
+		// Any ZIP tool can read the archive as well
+		try (ZipFile zipFile = new ZipFile(archiveFile.toFile()))
+		{
+			final ZipEntry entry = zipFile.getEntry("db/myApp/1.0.xml");
+			assertEquals(ZipEntry.STORED, entry.getMethod());
+			assertEquals(packedVersion10, read(zipFile.getInputStream(entry)));
+		}
+
+		// Nothing is left to pack the second time
+		assertNull(pack(masterFile, classpathRoot, null).getPath());
+	}
+
+	@Test
+	public void testEntriesAreReadThroughTheClasspath() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("master.xml"), HEADER + "\t<include file=\"1.0.xml\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"/>\n\t</changeSet>\n"
+				+ "\t<include file=\"1.1.xml\" relativeToChangelogFile=\"true\"/>\n\t<changeSet id=\"Tag 1.1\" author=\"john\">\n\t\t<tagDatabase tag=\"1.1\"/>\n\t</changeSet>\n</databaseChangeLog>\n");
+		write(classpathRoot.resolve("1.0.xml"), VERSION_1_0);
+		write(classpathRoot.resolve("1.1.xml"), VERSION_1_1);
+
+		assertEquals(1, pack(masterFile, classpathRoot, "1.1").getPackedFiles());
+
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] { classpathRoot.toUri().toURL() }, null);
+				ChangeLogArchiveResources resources = new ChangeLogArchiveResources(classLoader))
+		{
+			assertEquals(VERSION_1_0.replace("<databaseChangeLog", "<databaseChangeLog logicalFilePath=\"1.0.xml\""), read(resources.openStream("master-versions-1.0.zip!/1.0.xml")));
+			assertEquals(VERSION_1_1, read(resources.openStream("1.1.xml")));
+			assertNull(resources.openStream("master-versions-1.0.zip!/1.1.xml"));
+			assertNull(resources.openStream("master-versions-0.9.zip!/1.0.xml"));
+		}
+		try (InputStream inputStream = Files.newInputStream(classpathRoot.resolve("master-versions-1.0.zip")))
+		{
+			assertEquals(1, ChangeLogArchive.read(inputStream, "master-versions-1.0.zip").getEntryNames().size());
+		}
+	}
+
+	@Test
+	public void testPackedFilesAreRemoved() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final Path masterFile = write(classpathRoot.resolve("master.xml"), HEADER + "\t<include file=\"1.0.xml\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"/>\n\t</changeSet>\n"
+				+ "\t<include file=\"1.1.xml\" relativeToChangelogFile=\"true\"/>\n\t<include file=\"shared.xml\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.1\" author=\"john\">\n\t\t<tagDatabase tag=\"1.1\"/>\n\t</changeSet>\n"
+				+ "\t<include file=\"shared.xml\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>\n");
+		final Path otherMasterFile = write(classpathRoot.resolve("other.xml"), HEADER + "\t<include file=\"1.1.xml\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>\n");
+		write(classpathRoot.resolve("1.0.xml"), VERSION_1_0);
+		write(classpathRoot.resolve("1.1.xml"), VERSION_1_1);
+		write(classpathRoot.resolve("shared.xml"), VERSION_1_0.replace("\"1\"", "\"3\""));
+
+		final VersionArchive versionArchive = new VersionArchive(masterFile, classpathRoot, null);
+		versionArchive.setRemovingPackedFiles(true);
+		versionArchive.setFilesIncludedElsewhere(VersionArchive.findIncludedFiles(otherMasterFile, classpathRoot));
+		final FileTransaction fileTransaction = new FileTransaction(null);
+		versionArchive.stage(fileTransaction);
+		assertTrue("Nothing is removed before the commit", Files.exists(classpathRoot.resolve("1.0.xml")));
+		fileTransaction.commit();
+
+		// 1.1.xml is still included by the other master file, and shared.xml by the master file itself after the last version
+		assertEquals(3, versionArchive.getPackedFiles());
+		assertEquals(1, versionArchive.getRemovedFiles());
+		assertFalse(Files.exists(classpathRoot.resolve("1.0.xml")));
+		assertTrue(Files.exists(classpathRoot.resolve("1.1.xml")));
+		assertTrue(Files.exists(classpathRoot.resolve("shared.xml")));
+		try (ChangeLogArchive archive = ChangeLogArchive.open(versionArchive.getPath()))
+		{
+			assertEquals(VERSION_1_0.replace("<databaseChangeLog", "<databaseChangeLog logicalFilePath=\"1.0.xml\""), read(archive.openEntry("1.0.xml")));
+		}
+	}
+
+	@Test
+	public void testFilesWithIncludesAreNotPacked() throws IOException
+	{
+		final Path classpathRoot = temporaryFolder.getRoot().toPath();
+		final String content = HEADER + "\t<include file=\"1.0.xml\" relativeToChangelogFile=\"true\"/>\n"
+				+ "\t<changeSet id=\"Tag 1.0\" author=\"john\">\n\t\t<tagDatabase tag=\"1.0\"/>\n\t</changeSet>\n</databaseChangeLog>\n";
+		final Path masterFile = write(classpathRoot.resolve("master.xml"), content);
+		write(classpathRoot.resolve("1.0.xml"), HEADER + "\t<include file=\"other.xml\" relativeToChangelogFile=\"true\"/>\n</databaseChangeLog>\n");
+
+		try
+		{
+			pack(masterFile, classpathRoot, null);
+			fail("1.0.xml includes other files");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().endsWith(" includes other files, which can not be packed"));
+		}
+		assertEquals(content, read(masterFile));
+		assertFalse(Files.exists(classpathRoot.resolve("master-versions-1.0.zip")));
+	}
+
+	@Nonnull
+	private static VersionArchive pack(@Nonnull final Path masterFile, @Nonnull final Path classpathRoot, @CheckForNull final String packBefore) throws IOException
+	{
+		final VersionArchive versionArchive = new VersionArchive(masterFile, classpathRoot, packBefore);
+		final FileTransaction fileTransaction = new FileTransaction(null);
+		try
+		{
+			versionArchive.stage(fileTransaction);
+			fileTransaction.commit();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			fileTransaction.rollBack();
+			throw e;
+		}
+		return versionArchive;
+	}
+}
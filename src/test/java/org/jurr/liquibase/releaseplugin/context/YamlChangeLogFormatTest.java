@@ -0,0 +1,106 @@
+package org.jurr.liquibase.releaseplugin.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.jurr.liquibase.releaseplugin.context.JsonChangeLogFormatTest.RecordingHandler;
+import org.junit.Test;
+
+public class YamlChangeLogFormatTest
+{
+	private static final Path PATH = Paths.get("changelog.yaml");
+
+	@Test
+	public void testChangeSetsAreLeftOut() throws IOException
+	{
+		final String changeLog = "# Comment\ndatabaseChangeLog:\n  - changeSet:\n      id: 1\n      changes:\n        - sql: \"select '\\U0001F600'\"\n\n  - property:\n      name: a # Comment\n      value: b\n  - changeSet:\n      id: 2\n  - preConditions: []\n  - changeSet:\n      id: 3\n# Comment at the end";
+		assertEquals("# Comment\ndatabaseChangeLog:\n  - property:\n      name: a # Comment\n      value: b\n  - preConditions: []\n", copyLatestFile(changeLog));
+	}
+
+	@Test
+	public void testOnlyChangeSets() throws IOException
+	{
+		assertEquals("databaseChangeLog:\n  []\n", copyLatestFile("databaseChangeLog:\n- changeSet:\n    id: \uD83D\uDE00\n- changeSet:\n    id: 2\n"));
+	}
+
+	@Test
+	public void testProbe() throws IOException
+	{
+		assertTrue(YamlChangeLogFormat.INSTANCE.copyLatestFile(PATH, input("databaseChangeLog:\n  - changeSet:\n      id: 1\n  - changeSet: ]\n"), null));
+		assertFalse(YamlChangeLogFormat.INSTANCE.copyLatestFile(PATH, input("databaseChangeLog: []\n"), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChangeSetsCanNotBeLeftOutOfAFlowSequence() throws IOException
+	{
+		copyLatestFile("databaseChangeLog: [{changeSet: {id: 1}}]\n");
+	}
+
+	@Test
+	public void testNewVersionIsAddedBeforeIncludesThatAreNotTagged() throws IOException
+	{
+		final String masterFile = "databaseChangeLog:\n  - include:\n      file: a_1.0.yaml\n  - changeSet:\n      id: Tag 1.0\n      changes:\n        - tagDatabase:\n            tag: \"1.0\"\n  - include:\n      file: a_latest.yaml\n      relativeToChangelogFile: true\n";
+		final RecordingHandler handler = new RecordingHandler();
+		assertEquals("databaseChangeLog:\n  - include:\n      file: a_1.0.yaml\n  - changeSet:\n      id: Tag 1.0\n      changes:\n        - tagDatabase:\n            tag: \"1.0\"\n"
+				+ "  # Version 2.0\n  - include:\n      file: a_2.0.yaml\n      relativeToChangelogFile: true\n  - changeSet:\n      id: Tag 2.0\n      author: me\n      changes:\n        - tagDatabase:\n            tag: \"2.0\"\n\n"
+				+ "  - include:\n      file: a_latest.yaml\n      relativeToChangelogFile: true\n", rewriteMasterFile(masterFile, handler));
+		assertEquals(Arrays.asList("a_1.0.yaml", "1.0", "a_latest.yaml|true"), handler.events);
+	}
+
+	@Test
+	public void testNewVersionIsAddedAtTheEnd() throws IOException
+	{
+		assertEquals("databaseChangeLog:\n- changeSet:\n    changes:\n    - tagDatabase: {tag: \"1.0\"}\n\n# Version 2.0\n- changeSet:\n    id: Tag 2.0\n    author: me\n    changes:\n      - tagDatabase:\n          tag: \"2.0\"\nother: value\n",
+				rewriteMasterFile("databaseChangeLog:\n- changeSet:\n    changes:\n    - tagDatabase: {tag: \"1.0\"}\nother: value", new RecordingHandler()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEntryInMasterFile() throws IOException
+	{
+		rewriteMasterFile("databaseChangeLog:\n  - includeAll:\n      path: a\n", new RecordingHandler());
+	}
+
+	@Test
+	public void testToScalar()
+	{
+		assertEquals("changelog/a_1.0.yaml", YamlChangeLogFormat.toScalar("changelog/a_1.0.yaml"));
+		assertEquals("Tag 1.0", YamlChangeLogFormat.toScalar("Tag 1.0"));
+		assertEquals("true", YamlChangeLogFormat.toScalar("true"));
+		assertEquals("\"1.0\"", YamlChangeLogFormat.toScalar("1.0"));
+		assertEquals("\"null\"", YamlChangeLogFormat.toScalar("null"));
+		assertEquals("\"\"", YamlChangeLogFormat.toScalar(""));
+		assertEquals("\"a: \\\"b\\\"\\n\"", YamlChangeLogFormat.toScalar("a: \"b\"\n"));
+	}
+
+	@Nonnull
+	private static String copyLatestFile(@Nonnull final String changeLog) throws IOException
+	{
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		YamlChangeLogFormat.INSTANCE.copyLatestFile(PATH, input(changeLog), output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Nonnull
+	private static String rewriteMasterFile(@Nonnull final String masterFile, @Nonnull final RecordingHandler handler) throws IOException
+	{
+		return JsonChangeLogFormatTest.rewriteMasterFile(YamlChangeLogFormat.INSTANCE, masterFile, handler);
+	}
+
+	@Nonnull
+	private static InputStream input(@Nonnull final String content)
+	{
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}